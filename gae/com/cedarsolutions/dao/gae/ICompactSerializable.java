@@ -0,0 +1,63 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Object that knows how to write itself in a compact binary format.
+ *
+ * <p>
+ * This is the contract used by the compact binary payload codec.  It's
+ * more work than relying on Java serialization or a JAXB binding, but the
+ * resulting payloads are much smaller and faster to read and write, since
+ * no class metadata or field names are stored.  Implementations must have a
+ * public no-argument constructor, and must read fields back in exactly the
+ * same order that they were written.
+ * </p>
+ *
+ * <p>
+ * The payload header records the version of CompactBinaryCodec that wrote
+ * the payload, and that version is passed to readFrom().  When the fields
+ * written by any compact value change, register a CompactBinaryCodec with
+ * the next version, and have readFrom() handle each older version, so
+ * payloads that are already stored can still be read.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public interface ICompactSerializable {
+
+    /** Write this object to a data output. */
+    void writeTo(DataOutput output) throws IOException;
+
+    /**
+     * Read this object's state from a data input.
+     * @param input    Data input to read from
+     * @param version  Version of CompactBinaryCodec that the payload was written with
+     */
+    void readFrom(DataInput input, int version) throws IOException;
+
+}
@@ -0,0 +1,47 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae;
+
+import com.cedarsolutions.dao.gae.domain.IContainer;
+
+/**
+ * Predicate which evaluates whether criteria apply to a container, before its value is deserialized.
+ *
+ * <p>
+ * Calling IContainer.toValue() deserializes the entire object graph held
+ * by the container, which is wasted effort for rows that end up being
+ * rejected.  A container predicate can look at the container's own
+ * fields (the indexable ones, normally) and reject a row cheaply.  It
+ * should be conservative: anything that can't be decided from the
+ * container alone should be accepted, and left to the regular predicate.
+ * </p>
+ *
+ * @param <C> Type of the container
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public interface IContainerFilterPredicate<C extends IContainer<?>> {
+
+    /** Evaluate the predicate for the passed-in container. */
+    boolean evaluate(C container);
+
+}
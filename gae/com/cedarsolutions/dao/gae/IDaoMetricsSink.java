@@ -0,0 +1,63 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae;
+
+/**
+ * Destination for per-DAO query and get metrics.
+ *
+ * <p>
+ * Callers check isEnabled() before doing any measurement, so a disabled
+ * sink costs a single method call per operation.  Implementations must be
+ * thread-safe.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public interface IDaoMetricsSink {
+
+    /** Whether metrics should be measured and recorded at all. */
+    boolean isEnabled();
+
+    /**
+     * Record the execution of a query.
+     * @param dao                   Name of the DAO that ran the query
+     * @param shape                 Name that identifies the shape of the query, like the DAO method
+     * @param elapsedNanos          Wall time spent running the query and iterating its results
+     * @param rowsScanned           Number of rows returned by the datastore
+     * @param rowsAccepted          Number of rows accepted by the filter predicate
+     * @param entitiesFetched       Number of entities fetched by the query itself, rather than via a get
+     * @param cursorSerializations  Number of cursors serialized while iterating
+     */
+    void recordQuery(String dao, String shape, long elapsedNanos, long rowsScanned, long rowsAccepted,
+                     long entitiesFetched, long cursorSerializations);
+
+    /**
+     * Record a get or find against the datastore.
+     * @param dao           Name of the DAO that ran the get
+     * @param kind          Kind of the requested entities
+     * @param elapsedNanos  Wall time spent in the datastore
+     * @param entities      Number of entities returned
+     */
+    void recordGet(String dao, String kind, long elapsedNanos, long entities);
+
+}
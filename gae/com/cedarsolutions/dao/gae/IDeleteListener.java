@@ -0,0 +1,47 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae;
+
+import com.cedarsolutions.dao.gae.impl.BulkDeleter;
+
+/**
+ * Listener that is notified as a bulk delete progresses.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public interface IDeleteListener {
+
+    /**
+     * Called each time the deleter reaches a checkpoint.
+     * Every key before the checkpoint has been deleted.
+     * @param cursor   Cursor to resume the delete from, positioned after the last key deleted
+     * @param deleter  Deleter that reached the checkpoint, which exposes its throughput counters
+     */
+    void checkpoint(String cursor, BulkDeleter deleter);
+
+    /**
+     * Called once the delete has removed every matching key.
+     * @param deleter  Deleter that finished, which exposes its throughput counters
+     */
+    void finished(BulkDeleter deleter);
+
+}
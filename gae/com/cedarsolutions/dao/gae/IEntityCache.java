@@ -0,0 +1,58 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae;
+
+import com.googlecode.objectify.Key;
+
+/**
+ * Process-wide second-level cache of entities, keyed by datastore key.
+ *
+ * <p>
+ * Implementations must be thread-safe, since a single cache is shared by
+ * every ObjectifyProxy in the process.  A cache is allowed to forget an
+ * entity at any time; it must never return an entity that has been removed.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public interface IEntityCache {
+
+    /** Get an entity from the cache, or null if it is not cached. */
+    <T> T get(Key<? extends T> key);
+
+    /** Put an entity into the cache. */
+    void put(Key<?> key, Object entity);
+
+    /** Remove an entity from the cache. */
+    void remove(Key<?> key);
+
+    /** Remove all entities from the cache. */
+    void clear();
+
+    /** Get the number of lookups served from the cache. */
+    long getHits();
+
+    /** Get the number of lookups that were not in the cache. */
+    long getMisses();
+
+}
@@ -0,0 +1,48 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae;
+
+import com.cedarsolutions.dao.gae.impl.BulkExporter;
+
+/**
+ * Listener that is notified as a bulk export progresses.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public interface IExportListener {
+
+    /**
+     * Called each time the exporter reaches a checkpoint.
+     * Everything written before the checkpoint has been flushed to the output, and the output's
+     * position at this point is available from BulkExporter.getCheckpointPosition().
+     * @param cursor    Cursor to resume the export from, positioned after the last row written
+     * @param exporter  Exporter that reached the checkpoint, which exposes its throughput counters
+     */
+    void checkpoint(String cursor, BulkExporter<?> exporter);
+
+    /**
+     * Called once the export has written every row.
+     * @param exporter  Exporter that finished, which exposes its throughput counters
+     */
+    void finished(BulkExporter<?> exporter);
+
+}
@@ -0,0 +1,46 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae;
+
+import com.googlecode.objectify.Key;
+
+/**
+ * Predicate which evaluates whether criteria apply to an entity, given only its key.
+ *
+ * <p>
+ * Key predicates are used by keys-only queries, where the datastore returns
+ * keys instead of entities.  A key predicate can reject a row before its
+ * entity is ever loaded, which is much cheaper than loading the entity and
+ * then rejecting it.  Criteria on indexed properties should be applied as
+ * query filters, since they are evaluated by the datastore itself.
+ * </p>
+ *
+ * @param <T> Type of the entity the key refers to
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public interface IKeyFilterPredicate<T> {
+
+    /** Evaluate the predicate for the passed-in key. */
+    boolean evaluate(Key<? extends T> key);
+
+}
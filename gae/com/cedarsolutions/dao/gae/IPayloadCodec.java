@@ -0,0 +1,59 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae;
+
+/**
+ * Codec that turns a container's value into a payload and back again.
+ *
+ * <p>
+ * Each codec is identified by a format, and each format may evolve over
+ * time, which is tracked by a version.  The format and version are written
+ * into a one-byte header in front of every payload (see PayloadCodecs), so
+ * a payload can always be decoded by the codec that wrote it, even after a
+ * container has switched to a different default codec.  A codec must be
+ * able to decode every version up to and including its current version.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public interface IPayloadCodec {
+
+    /** Get the format identifier for this codec, from 1 to 15. */
+    int getFormat();
+
+    /** Get the current version of the format, from 0 to 7. */
+    int getVersion();
+
+    /** Encode a value, returning the payload without any header. */
+    byte[] encode(Object value);
+
+    /**
+     * Decode a payload that was encoded by this codec.
+     * @param type     Type of the value to decode
+     * @param data     Payload, without any header
+     * @param version  Version of the format that the payload was written with
+     * @return The decoded value.
+     */
+    <T> T decode(Class<T> type, byte[] data, int version);
+
+}
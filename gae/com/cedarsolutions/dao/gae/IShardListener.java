@@ -0,0 +1,47 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae;
+
+import com.cedarsolutions.dao.gae.impl.ScanShard;
+
+/**
+ * Listener that is notified as the shards of a sharded scan progress.
+ * Shards run in parallel, so implementations must be thread-safe.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public interface IShardListener {
+
+    /**
+     * Called each time a shard reaches a checkpoint.
+     * Every entity before the shard's cursor has been passed to the callback.
+     * @param shard  Shard that reached the checkpoint, which can be persisted to restart the scan
+     */
+    void checkpoint(ScanShard<?> shard);
+
+    /**
+     * Called once a shard has scanned every entity in its range.
+     * @param shard  Shard that finished
+     */
+    void finished(ScanShard<?> shard);
+
+}
@@ -0,0 +1,40 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae;
+
+/**
+ * DAO for named counters that take a high rate of writes.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public interface IShardedCounterDao {
+
+    /** Add a delta, possibly negative, to a counter. */
+    void increment(String name, long delta);
+
+    /** Get the current value of a counter, which is zero if it has never been incremented. */
+    long getCount(String name);
+
+    /** Get the number of shards a counter is spread over. */
+    int getShardCount(String name);
+
+}
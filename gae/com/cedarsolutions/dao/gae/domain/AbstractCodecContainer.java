@@ -0,0 +1,85 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.domain;
+
+import com.cedarsolutions.dao.gae.IPayloadCodec;
+import com.cedarsolutions.dao.gae.impl.PayloadCodecs;
+import com.google.appengine.api.datastore.Blob;
+
+/**
+ * Container that stores its value as an encoded payload.
+ *
+ * <p>
+ * Subclasses pick a codec and the type of the value, and add whatever
+ * indexable fields they need, normally by overriding fromValue() and calling
+ * the superclass method.  The payload carries a header identifying the codec
+ * that wrote it, so a container can switch codecs without migrating existing
+ * rows: old payloads are still decoded by the codec that originally wrote
+ * them, and are rewritten in the new format the next time they're saved.
+ * </p>
+ *
+ * @param <T> Type of data the container holds.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public abstract class AbstractCodecContainer<T> implements IContainer<T> {
+
+    /** Serialization version number, which can be important to the GAE back-end. */
+    private static final long serialVersionUID = 1L;
+
+    /** Encoded payload, including the codec header. */
+    private Blob payload;
+
+    /** Get the type of the value held by this container. */
+    protected abstract Class<T> getValueType();
+
+    /** Get the codec used to encode new payloads. */
+    protected abstract IPayloadCodec getCodec();
+
+    /** Whether new payloads should be compressed; defaults to true. */
+    protected boolean isCompressed() {
+        return true;
+    }
+
+    /** Initialize the container based on a value of type T. */
+    @Override
+    public void fromValue(T value) {
+        this.payload = value == null ? null : new Blob(PayloadCodecs.encode(this.getCodec(), value, this.isCompressed()));
+    }
+
+    /** Turn the container into a value of type T. */
+    @Override
+    public T toValue() {
+        return this.payload == null ? null : PayloadCodecs.decode(this.getValueType(), this.payload.getBytes());
+    }
+
+    /** Get the encoded payload. */
+    public Blob getPayload() {
+        return this.payload;
+    }
+
+    /** Set the encoded payload. */
+    public void setPayload(Blob payload) {
+        this.payload = payload;
+    }
+
+}
@@ -0,0 +1,69 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.domain;
+
+import java.io.Serializable;
+
+import javax.persistence.Id;
+
+import com.googlecode.objectify.annotation.Unindexed;
+
+/**
+ * Configuration for a sharded counter, used by ShardedCounterDao.
+ * Applications that use sharded counters must register this class in their Objectify entities file.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class CounterConfig implements Serializable {
+
+    /** Serialization version number, which can be important to the GAE back-end. */
+    private static final long serialVersionUID = 1L;
+
+    /** Name of the counter. */
+    @Id private String name;
+
+    /** Number of shards the counter is spread over. */
+    @Unindexed private int shardCount;
+
+    /** Default constructor, for Objectify's benefit. */
+    public CounterConfig() {
+    }
+
+    /** Create a configuration for a counter. */
+    public CounterConfig(String name, int shardCount) {
+        this.name = name;
+        this.shardCount = shardCount;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public int getShardCount() {
+        return this.shardCount;
+    }
+
+    public void setShardCount(int shardCount) {
+        this.shardCount = shardCount;
+    }
+
+}
@@ -0,0 +1,115 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.domain;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.Id;
+
+import com.googlecode.objectify.annotation.Unindexed;
+
+/**
+ * One shard of a sharded counter, used by ShardedCounterDao.
+ * A shard remembers the ids of its most recent increments, so an increment whose commit failed can be retried safely.
+ * Applications that use sharded counters must register this class in their Objectify entities file.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class CounterShard implements Serializable {
+
+    /** Serialization version number, which can be important to the GAE back-end. */
+    private static final long serialVersionUID = 1L;
+
+    /** Number of recent increment ids remembered by a shard. */
+    public static final int MAX_INCREMENTS = 32;
+
+    /** Shard identifier, as from getId(). */
+    @Id private String id;
+
+    /** Count held by this shard. */
+    @Unindexed private long count;
+
+    /** Ids of the most recent increments applied to this shard, oldest first. */
+    @Unindexed private List<String> increments = new ArrayList<String>();
+
+    /** Default constructor, for Objectify's benefit. */
+    public CounterShard() {
+    }
+
+    /** Create an empty shard. */
+    public CounterShard(String id) {
+        this.id = id;
+    }
+
+    /** Get the identifier for one shard of a counter. */
+    public static String getId(String counter, int shard) {
+        return counter + "#" + shard;
+    }
+
+    public String getId() {
+        return this.id;
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    /**
+     * Apply an increment to this shard, unless it has already been applied.
+     * @param incrementId  Unique id of the increment
+     * @param delta        Delta to add, possibly negative
+     * @return True if the increment was applied, false if it had already been applied.
+     */
+    public boolean apply(String incrementId, long delta) {
+        if (this.isApplied(incrementId)) {
+            return false;
+        }
+
+        if (this.increments == null) {
+            this.increments = new ArrayList<String>();
+        }
+
+        this.count += delta;
+        this.increments.add(incrementId);
+        while (this.increments.size() > MAX_INCREMENTS) {
+            this.increments.remove(0);
+        }
+
+        return true;
+    }
+
+    /** Whether an increment is one of the recent increments applied to this shard. */
+    public boolean isApplied(String incrementId) {
+        return this.increments != null && this.increments.contains(incrementId);
+    }
+
+    public List<String> getIncrements() {
+        return this.increments;
+    }
+
+}
@@ -0,0 +1,220 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Cache of values that are computed per search by an Executor and expire after a time to live.
+ *
+ * <p>
+ * This holds the bookkeeping shared by RowCountEstimator and CheckpointBuilder.
+ * Values are cached by a search key, which is a string for the same reason
+ * as in PrefetchBuffer: a caller that changes its criteria object after a
+ * search can't corrupt the cache.  Only one computation runs for a given
+ * search at a time, the oldest entries are evicted once the cache is full,
+ * and a computation that fails is counted and simply leaves nothing cached,
+ * so the next request tries again.  That includes a computation the
+ * executor refuses to run, for instance with RejectedExecutionException.
+ * </p>
+ *
+ * @param <V> Type of the cached values
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public abstract class AbstractBackgroundCache<V> {
+
+    /** Executor that runs a computation in the calling thread. */
+    protected static final Executor CALLING_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /** Executor used to run computations. */
+    private Executor executor;
+
+    /** Time to live for a cached value, in milliseconds. */
+    private long timeToLive;
+
+    /** Maximum number of cached values. */
+    private int maxEntries;
+
+    /** Cached values by search key, in insertion order. */
+    private Map<String, Entry<V>> entries = new LinkedHashMap<String, Entry<V>>();
+
+    /** Search keys whose computations are currently running. */
+    private Set<String> running = new HashSet<String>();
+
+    /** Number of computations run. */
+    private long runs;
+
+    /** Number of computations that failed. */
+    private long failures;
+
+    /**
+     * Create a cache.
+     * @param executor    Executor used to run computations
+     * @param timeToLive  Time to live for a cached value, in milliseconds
+     * @param maxEntries  Maximum number of cached values, greater than zero
+     */
+    protected AbstractBackgroundCache(Executor executor, long timeToLive, int maxEntries) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor is required.");
+        }
+
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Max entries must be greater than zero.");
+        }
+
+        this.executor = executor;
+        this.timeToLive = timeToLive;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Get the cached value for a search.
+     * @param searchKey  Key that identifies the search, possibly null
+     * @return Cached value, or null if there is none.
+     */
+    protected synchronized V get(String searchKey) {
+        this.expire();
+        Entry<V> entry = this.entries.get(searchKey);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * Start computing the value for a search on the executor, unless it is already being computed.
+     * The computation may be finished by the time this returns, if the executor runs it in the calling thread.
+     * If the executor refuses the computation, it's recorded as a failure and nothing is cached.
+     * @param searchKey    Key that identifies the search, possibly null
+     * @param computation  Computation that returns the value to cache
+     */
+    protected void submit(final String searchKey, final Callable<V> computation) {
+        if (this.start(searchKey)) {
+            try {
+                this.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        AbstractBackgroundCache.this.compute(searchKey, computation);
+                    }
+                });
+            } catch (RuntimeException e) {
+                this.finish(searchKey, null);  // compute() never throws one, so the executor rejected it
+            }
+        }
+    }
+
+    /** Discard all cached values, for instance after a bulk change to the data. */
+    public synchronized void clear() {
+        this.entries.clear();
+    }
+
+    /** Run a computation and cache the result, recording a failure if it throws anything, even an Error. */
+    private void compute(String searchKey, Callable<V> computation) {
+        V value = null;
+        try {
+            value = computation.call();
+        } catch (Exception e) {
+            value = null;
+        } finally {
+            this.finish(searchKey, value);
+        }
+    }
+
+    /** Mark a computation as running, returning false if it is already running. */
+    private synchronized boolean start(String searchKey) {
+        return this.running.add(searchKey);
+    }
+
+    /** Record the result of a computation, or a failure if the value is null. */
+    private synchronized void finish(String searchKey, V value) {
+        this.running.remove(searchKey);
+        this.runs += 1;
+        if (value == null) {
+            this.failures += 1;
+        } else {
+            this.entries.remove(searchKey);
+            this.entries.put(searchKey, new Entry<V>(value, this.currentTimeMillis()));
+            while (this.entries.size() > this.maxEntries) {
+                Iterator<String> keys = this.entries.keySet().iterator();
+                keys.next();
+                keys.remove();
+            }
+        }
+    }
+
+    /** Discard expired values. */
+    private void expire() {
+        long now = this.currentTimeMillis();
+        Iterator<Entry<V>> iterator = this.entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().created > this.timeToLive) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /** Get the current time in milliseconds, overridable for testing. */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /** Get the number of computations run. */
+    protected synchronized long getRuns() {
+        return this.runs;
+    }
+
+    /** Get the time to live for a cached value, in milliseconds. */
+    public long getTimeToLive() {
+        return this.timeToLive;
+    }
+
+    /** Get the maximum number of cached values. */
+    public int getMaxEntries() {
+        return this.maxEntries;
+    }
+
+    /** Get the number of computations that failed. */
+    public synchronized long getFailures() {
+        return this.failures;
+    }
+
+    /** A cached value and the time it was cached. */
+    private static class Entry<V> {
+        private V value;
+        private long created;
+
+        Entry(V value, long created) {
+            this.value = value;
+            this.created = created;
+        }
+    }
+
+}
@@ -24,12 +24,20 @@ package com.cedarsolutions.dao.gae.impl;
 
 import static com.cedarsolutions.dao.domain.SortOrder.DESCENDING;
 
+import java.util.concurrent.ExecutorService;
+
 import org.springframework.beans.factory.InitializingBean;
 
 import com.cedarsolutions.dao.IDaoTransaction;
 import com.cedarsolutions.dao.ITransactionalDao;
+import com.cedarsolutions.dao.IUnitOfWork;
+import com.cedarsolutions.dao.TransactionRunner;
+import com.cedarsolutions.dao.domain.PaginatedResults;
+import com.cedarsolutions.dao.domain.Pagination;
 import com.cedarsolutions.dao.domain.SortOrder;
+import com.cedarsolutions.dao.gae.IDaoMetricsSink;
 import com.cedarsolutions.dao.gae.IDaoObjectifyService;
+import com.cedarsolutions.dao.gae.IDeleteListener;
 import com.cedarsolutions.exception.DaoException;
 import com.cedarsolutions.exception.NotConfiguredException;
 import com.googlecode.objectify.Query;
@@ -37,6 +45,22 @@ import com.googlecode.objectify.Query;
 /**
  * Abstract class that all GWT back-end DAOs inherit from when running on GAE.
  * These DAOs are implemented in terms of the Objectify persistence library.
+ *
+ * <p>
+ * If an enabled metrics sink is configured, the proxies returned by
+ * getObjectify() report their datastore gets to it, tagged with this DAO's
+ * name.  Queries are reported when they're run through startQuery() or
+ * createPaginatedResults(shape, pagination, iterator).  With the default
+ * sink, which is disabled, none of this costs more than a method call.
+ * </p>
+ *
+ * <p>
+ * A query result cache is optional.  DAOs opt in to it per query by calling
+ * createCachedResults(); if no cache is configured, that just runs the
+ * query.  The cache only stays correct if the DAO Objectify service bumps
+ * the same KindVersions instance that the cache checks.
+ * </p>
+ *
  * @author Kenneth J. Pronovici <pronovic@ieee.org>
  */
 public abstract class AbstractGaeDao implements InitializingBean, ITransactionalDao {
@@ -44,13 +68,22 @@ public abstract class AbstractGaeDao implements InitializingBean, ITransactional
     /** DAO Objectify service. */
     private IDaoObjectifyService daoObjectifyService;
 
+    /** Runner used by runInTransaction(). */
+    private TransactionRunner transactionRunner = new TransactionRunner();
+
+    /** Sink that query and get metrics are reported to. */
+    private IDaoMetricsSink metricsSink = NoOpMetricsSink.INSTANCE;
+
+    /** Cache of query results, possibly null. */
+    private QueryResultCache queryResultCache;
+
     /**
      * Invoked by a bean factory after it has set all bean properties.
      * @throws NotConfiguredException In the event of misconfiguration.
      */
     @Override
     public void afterPropertiesSet() throws NotConfiguredException {
-        if (this.daoObjectifyService == null) {
+        if (this.daoObjectifyService == null || this.transactionRunner == null || this.metricsSink == null) {
             throw new NotConfiguredException("DAO is not properly configured.");
         }
     }
@@ -61,6 +94,12 @@ public abstract class AbstractGaeDao implements InitializingBean, ITransactional
         return this.getGaeTransaction();
     }
 
+    /** Run a unit of work in a transaction, retrying with backoff if the transaction fails due to contention. */
+    @Override
+    public <T> T runInTransaction(IUnitOfWork<T> work) {
+        return this.transactionRunner.run(this, work);
+    }
+
     /** Check that a transaction is a valid GAE transaction this DAO can use. */
     protected static GaeDaoTransaction checkTransactionType(IDaoTransaction transaction) {
         if (transaction == null) {
@@ -74,7 +113,7 @@ public abstract class AbstractGaeDao implements InitializingBean, ITransactional
 
     /** Get an object datastore for use in a DAO. */
     protected ObjectifyProxy getObjectify() {
-        return this.daoObjectifyService.getObjectify();
+        return this.meter(this.daoObjectifyService.getObjectify());
     }
 
     /**
@@ -82,7 +121,97 @@ public abstract class AbstractGaeDao implements InitializingBean, ITransactional
      * Most child classes should use getGaeTransaction() instead.
      */
     protected ObjectifyProxy getObjectifyWithTransaction() {
-        return this.daoObjectifyService.getObjectifyWithTransaction();
+        return this.meter(this.daoObjectifyService.getObjectifyWithTransaction());
+    }
+
+    /** Tag a proxy with this DAO's name, so its gets are reported, if metrics are enabled. */
+    private ObjectifyProxy meter(ObjectifyProxy proxy) {
+        if (proxy != null && this.metricsSink.isEnabled()) {
+            proxy.setMetrics(this.metricsSink, this.getMetricsName());
+        }
+
+        return proxy;
+    }
+
+    /** Get the name this DAO's metrics are reported under, which defaults to the simple class name. */
+    protected String getMetricsName() {
+        return this.getClass().getSimpleName();
+    }
+
+    /**
+     * Start metering a query.
+     * Stop the returned meter with the query's iterator once the results have been consumed.
+     * @param shape  Name that identifies the shape of the query, like the DAO method
+     * @return Meter that is running, or QueryMeter.DISABLED if metrics are disabled.
+     */
+    protected QueryMeter startQuery(String shape) {
+        return QueryMeter.start(this.metricsSink, this.getMetricsName(), shape);
+    }
+
+    /**
+     * Create paginated results from an iterator, reporting the query to the metrics sink.
+     * @param <T>  Type of the paginated results
+     * @param shape       Name that identifies the shape of the query, like the DAO method
+     * @param pagination  Pagination that is in use, possibly null
+     * @param iterator    Iterator to use as source of data
+     * @return Paginated results, as from PaginationUtils.createPaginatedResults().
+     */
+    protected <T> PaginatedResults<T> createPaginatedResults(String shape, Pagination pagination, IIteratorWithCursor<T> iterator) {
+        QueryMeter meter = this.startQuery(shape);
+        try {
+            return PaginationUtils.createPaginatedResults(pagination, iterator);
+        } finally {
+            meter.stop(iterator);
+        }
+    }
+
+    /**
+     * Create paginated results, from the query result cache if one is configured.
+     * @param <T>  Type of the paginated results
+     * @param clazz       Entity class being queried
+     * @param criteria    Search criteria that identifies the search, which must implement equals() and hashCode()
+     * @param pagination  Pagination that is in use, possibly null
+     * @param source      Source used to open the page if it is not cached
+     * @return Paginated results, as from QueryResultCache.getResults().
+     */
+    protected <T> PaginatedResults<T> createCachedResults(Class<?> clazz, Object criteria, Pagination pagination, IPageSource<T> source) {
+        if (this.queryResultCache == null) {
+            return PaginationUtils.createPaginatedResults(pagination, source.open(pagination));
+        }
+
+        return this.queryResultCache.getResults(clazz, criteria, pagination, source);
+    }
+
+    /**
+     * Create a batch loader, so lookups by id made in a loop can be resolved with one batch get.
+     * The loader uses this DAO's Objectify proxy, and is only meant to be used by the current thread.
+     */
+    protected BatchLoader createBatchLoader() {
+        return new BatchLoader(this.getObjectify());
+    }
+
+    /**
+     * Create a bulk deleter, to purge the results of a query in parallel batches of keys.
+     * Run the purge with <code>createBulkDeleter(executor).delete(query, cursor)</code>.
+     * @param executor  Executor that deletes the batches
+     * @return Bulk deleter using the default batch size, concurrency and checkpoint interval.
+     */
+    protected BulkDeleter createBulkDeleter(ExecutorService executor) {
+        return new BulkDeleter(this.daoObjectifyService, executor);
+    }
+
+    /**
+     * Create a bulk deleter, to purge the results of a query in parallel batches of keys.
+     * @param executor            Executor that deletes the batches
+     * @param batchSize           Number of keys per batch
+     * @param concurrency         Maximum number of batches in flight at once
+     * @param checkpointInterval  Number of batches between checkpoints
+     * @param listener            Listener notified at each checkpoint, possibly null
+     * @return Bulk deleter using the passed-in configuration.
+     */
+    protected BulkDeleter createBulkDeleter(ExecutorService executor, int batchSize, int concurrency,
+                                            int checkpointInterval, IDeleteListener listener) {
+        return new BulkDeleter(this.daoObjectifyService, executor, batchSize, concurrency, checkpointInterval, listener);
     }
 
     /** Get a GAE-specific transaction for use internally, within the DAO. */
@@ -90,12 +219,73 @@ public abstract class AbstractGaeDao implements InitializingBean, ITransactional
         return new GaeDaoTransaction(this.getObjectifyWithTransaction());
     }
 
-    /** Set sort for a named field. */
+    /** Set sort for a named field; for a sort over several columns, see createSortedQuery(). */
     protected static <T> void setSort(Query<T> query, SortOrder sortOrder, String field) {
         field = sortOrder == DESCENDING ? "-" + field : field;
         query.order(field);
     }
 
+    /**
+     * Create a query for a multi-column sort, taking into account pagination.
+     *
+     * <p>
+     * If the datastore can do the whole sort, this is the same as
+     * query(Class, Pagination) plus the sort order.  Otherwise, the indexed
+     * leading columns are applied, and the query starts at the beginning,
+     * since the in-memory sort has to see every row.  Add filters to the
+     * returned query, and pass its iterator to createSortedResults().
+     * </p>
+     *
+     * <p>
+     * If the datastore can do the whole sort but the current page came from
+     * an earlier in-memory sort, its synthetic cursor is just a row offset.
+     * The query starts at the beginning in that case too, and
+     * createSortedResults() skips the rows before the page.  The rows are
+     * skipped through the iterator, so only rows accepted by any in-memory
+     * filtering are counted, just like in the sort that produced the offset.
+     * </p>
+     *
+     * @param <T>  Type of the entity
+     * @param clazz       Class of the entity to query
+     * @param pagination  Pagination that is in use, possibly null
+     * @param sort        Multi-column sort to apply
+     * @return Query with as much of the sort applied as the datastore supports.
+     */
+    protected <T> Query<T> createSortedQuery(Class<T> clazz, Pagination pagination, MultiColumnSort<T> sort) {
+        Query<T> query;
+        if (!sort.isFullyIndexed()) {
+            query = this.getObjectify().query(clazz);
+        } else if (pagination != null && TopKSorter.isCursor(pagination.getCurrent())) {
+            query = this.getObjectify().query(clazz);  // the sort order changed; createSortedResults() skips to the page
+        } else {
+            query = this.getObjectify().query(clazz, pagination);
+        }
+
+        sort.apply(query);
+        return query;
+    }
+
+    /**
+     * Create paginated results for a query from createSortedQuery().
+     * If the datastore did the whole sort, the pagination gets regular cursors; otherwise, the rows are sorted by TopKSorter.
+     * @param <T>  Type of the paginated results
+     * @param pagination  Pagination that is in use, possibly null
+     * @param iterator    Iterator over the query from createSortedQuery()
+     * @param sort        Multi-column sort that was applied to the query
+     * @return Paginated results in sort order.
+     */
+    protected <T> PaginatedResults<T> createSortedResults(Pagination pagination, IIteratorWithCursor<T> iterator, MultiColumnSort<T> sort) {
+        if (sort.isFullyIndexed()) {
+            if (pagination != null && TopKSorter.isCursor(pagination.getCurrent())) {
+                PaginationUtils.skipRows(iterator, TopKSorter.getOffset(pagination));
+            }
+
+            return PaginationUtils.createPaginatedResults(pagination, iterator);
+        }
+
+        return TopKSorter.create(sort).createPaginatedResults(pagination, iterator);
+    }
+
     public IDaoObjectifyService getDaoObjectifyService() {
         return this.daoObjectifyService;
     }
@@ -104,4 +294,28 @@ public abstract class AbstractGaeDao implements InitializingBean, ITransactional
         this.daoObjectifyService = daoObjectifyService;
     }
 
+    public IDaoMetricsSink getMetricsSink() {
+        return this.metricsSink;
+    }
+
+    public void setMetricsSink(IDaoMetricsSink metricsSink) {
+        this.metricsSink = metricsSink;
+    }
+
+    public QueryResultCache getQueryResultCache() {
+        return this.queryResultCache;
+    }
+
+    public void setQueryResultCache(QueryResultCache queryResultCache) {
+        this.queryResultCache = queryResultCache;
+    }
+
+    public TransactionRunner getTransactionRunner() {
+        return this.transactionRunner;
+    }
+
+    public void setTransactionRunner(TransactionRunner transactionRunner) {
+        this.transactionRunner = transactionRunner;
+    }
+
 }
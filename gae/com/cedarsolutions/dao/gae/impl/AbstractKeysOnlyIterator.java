@@ -0,0 +1,283 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import com.cedarsolutions.dao.domain.Pagination;
+import com.cedarsolutions.dao.gae.IFilterPredicate;
+import com.cedarsolutions.dao.gae.IKeyFilterPredicate;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Query;
+
+/**
+ * Result iterator that runs a query keys-only and then batch-loads the surviving entities.
+ *
+ * <p>
+ * FilteredResultIterator and FilteredContainerIterator fetch every entity
+ * that the query returns, and most of those bytes are thrown away if the
+ * predicate rejects most rows.  This iterator runs the query keys-only
+ * instead.  Each key is checked against a key predicate, and the keys that
+ * survive are loaded with a single parallel batch get.  Only then is the
+ * regular predicate applied to the loaded values.
+ * </p>
+ *
+ * <p>
+ * Results and cursors are the same as for the other filtered iterators, so
+ * a DAO can switch an individual query to keys-only mode without changing
+ * the way it paginates.  Like the other iterators in lazy cursor mode, raw
+ * cursors are kept for each buffered row, and are only serialized when
+ * getCursor() is called.  An entity that is deleted between the keys-only
+ * query and the batch get is silently skipped.
+ * </p>
+ *
+ * @param <E>  Type of the entity that is queried
+ * @param <T>  Type of the iterator
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public abstract class AbstractKeysOnlyIterator<E, T> implements IIteratorWithCursor<T>, IScanStatistics {
+
+    /** Default batch size, used when there is no pagination to go by. */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private ObjectifyProxy objectify;
+    private QueryResultIterator<? extends Key<? extends E>> iterator;
+    private IKeyFilterPredicate<E> keyPredicate;
+    private IFilterPredicate<T> predicate;
+    private int batchSize;
+    private LinkedList<Candidate<T>> buffer = new LinkedList<Candidate<T>>();
+    private boolean started;
+    private T next;
+    private String cursor;
+    private Cursor rawCursor;
+    private int batchesLoaded;
+    private long rowsScanned;
+    private long rowsLoaded;
+    private long rowsAccepted;
+
+    /**
+     * Create an iterator based on a query and a pair of predicates.
+     * @param objectify     Objectify proxy used to batch-load entities
+     * @param query         Query to iterate over, executed keys-only
+     * @param keyPredicate  Predicate to apply to each key, before the entity is loaded
+     * @param predicate     Predicate to apply to each loaded value
+     * @param batchSize     Maximum number of entities to load in each batch get
+     */
+    protected AbstractKeysOnlyIterator(ObjectifyProxy objectify, Query<? extends E> query,
+                                       IKeyFilterPredicate<E> keyPredicate, IFilterPredicate<T> predicate,
+                                       int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+
+        this.objectify = objectify;
+        this.keyPredicate = keyPredicate;
+        this.predicate = predicate;
+        this.batchSize = batchSize;
+        this.iterator = query.fetchKeys().iterator();
+    }
+
+    /**
+     * Get the batch size to use for a page of results.
+     * One extra row is loaded, so the iterator can tell whether there is a next page.
+     * @param pagination  Pagination in use, possibly null
+     * @return Batch size to use, always positive.
+     */
+    public static int getBatchSize(Pagination pagination) {
+        if (pagination == null || pagination.getPageSize() <= 0) {
+            return DEFAULT_BATCH_SIZE;
+        }
+
+        return pagination.getPageSize() + 1;
+    }
+
+    /** Returns true if the iteration has more elements. */
+    @Override
+    public boolean hasNext() {
+        this.start();
+        return this.next != null;
+    }
+
+    /** Get the next value from the iterator. */
+    @Override
+    public T next() {
+        this.start();
+        T result = this.next;
+        this.next = this.getNextItem();
+        return result;
+    }
+
+    /** Not supported in this implementation. */
+    @Override
+    public void remove() {
+        // The Iterator interface specifies that we should throw this exception
+        throw new UnsupportedOperationException("Remove operation is not supported");
+    }
+
+    /**
+     * Get a serialized cursor representing the current state of the iterator.
+     * @return Serialized cursor, as from Cursor.toWebSafeString().
+     */
+    @Override
+    public String getCursor() {
+        this.start();
+        if (this.cursor == null) {
+            this.cursor = CursorUtils.serialize(this.rawCursor);
+        }
+
+        return this.cursor;
+    }
+
+    /** Get the key predicate. */
+    public IKeyFilterPredicate<E> getKeyPredicate() {
+        return this.keyPredicate;
+    }
+
+    /** Get the underlying predicate. */
+    public IFilterPredicate<T> getPredicate() {
+        return this.predicate;
+    }
+
+    /** Get the maximum number of entities loaded in each batch get. */
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /** Get the number of batch gets issued so far. */
+    public int getBatchesLoaded() {
+        return this.batchesLoaded;
+    }
+
+    /** Get the number of keys scanned so far, whether or not they were accepted. */
+    @Override
+    public long getRowsScanned() {
+        return this.rowsScanned;
+    }
+
+    /** Get the number of entities actually loaded so far. */
+    public long getRowsLoaded() {
+        return this.rowsLoaded;
+    }
+
+    /** Get the number of loaded rows accepted by the filter predicate so far. */
+    @Override
+    public long getRowsAccepted() {
+        return this.rowsAccepted;
+    }
+
+    /** Convert a loaded entity into the value returned by the iterator. */
+    protected abstract T convert(E entity);
+
+    /** Load a batch of entities, as from ObjectifyProxy.get(Iterable). */
+    protected Map<Key<E>, E> load(List<Key<? extends E>> keys) {
+        return this.objectify.get(keys);
+    }
+
+    /** Start iterating, if we haven't already. */
+    private void start() {
+        if (!this.started) {
+            this.started = true;
+            this.next = this.getNextItem();
+        }
+    }
+
+    /**
+     * Get the next item from the iterator, loading another batch if necessary.
+     * @return Next item, possibly null.
+     */
+    private T getNextItem() {
+        while (this.buffer.isEmpty() && this.iterator.hasNext()) {
+            this.loadBatch();
+        }
+
+        // The cursor must reflect the position *before* the pre-fetched
+        // item, so that a caller who is paginating starts in the right place.
+
+        this.cursor = null;
+        if (this.buffer.isEmpty()) {
+            this.rawCursor = this.iterator.getCursor();
+            return null;
+        } else {
+            Candidate<T> candidate = this.buffer.removeFirst();
+            this.rawCursor = candidate.getCursor();
+            return candidate.getValue();
+        }
+    }
+
+    /** Scan keys until we have a full batch, and then load the entities for those keys. */
+    private void loadBatch() {
+        List<Cursor> cursors = new ArrayList<Cursor>(this.batchSize);
+        List<Key<? extends E>> keys = new ArrayList<Key<? extends E>>(this.batchSize);
+
+        while (keys.size() < this.batchSize && this.iterator.hasNext()) {
+            Cursor position = this.iterator.getCursor();
+            Key<? extends E> key = this.iterator.next();
+            this.rowsScanned += 1;
+            if (this.keyPredicate.evaluate(key)) {
+                cursors.add(position);
+                keys.add(key);
+            }
+        }
+
+        if (!keys.isEmpty()) {
+            this.batchesLoaded += 1;
+            Map<Key<E>, E> entities = this.load(keys);
+            for (int i = 0; i < keys.size(); i++) {
+                E entity = entities.get(keys.get(i));
+                if (entity != null) {
+                    this.rowsLoaded += 1;
+                    T value = this.convert(entity);
+                    if (this.predicate.evaluate(value)) {
+                        this.rowsAccepted += 1;
+                        this.buffer.add(new Candidate<T>(cursors.get(i), value));
+                    }
+                }
+            }
+        }
+    }
+
+    /** A loaded value along with the cursor positioned just before it. */
+    private static class Candidate<T> {
+        private Cursor cursor;
+        private T value;
+
+        public Candidate(Cursor cursor, T value) {
+            this.cursor = cursor;
+            this.value = value;
+        }
+
+        public Cursor getCursor() {
+            return this.cursor;
+        }
+
+        public T getValue() {
+            return this.value;
+        }
+    }
+
+}
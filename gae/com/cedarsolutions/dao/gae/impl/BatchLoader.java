@@ -0,0 +1,337 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.cedarsolutions.dao.gae.IBatchLoadCallback;
+import com.googlecode.objectify.Key;
+
+/**
+ * Collects lookups by id and resolves them together with batch gets.
+ *
+ * <p>
+ * Service code often loops over a list of parent objects and looks up a
+ * child by id for each one, which costs one datastore round trip per
+ * parent.  With a batch loader, the loop queues each lookup via load() and
+ * gets back a future (or registers a callback).  Nothing is fetched until
+ * the batch is dispatched, and then all of the queued keys are fetched
+ * with a single parallel batch get through ObjectifyProxy, so the loop
+ * costs one round trip no matter how many parents there are.
+ * </p>
+ *
+ * <p>
+ * The loader itself is the scope that lookups are collected in.  The batch
+ * is dispatched when dispatch() is called, when get() is called on any
+ * future that isn't resolved yet, or when maxBatchSize lookups are
+ * pending.  Lookups of the same key are deduplicated, and stay resolved for
+ * the life of the loader, so loading a key twice returns the same future
+ * and costs nothing extra.  Use clear() to forget resolved keys.
+ * </p>
+ *
+ * <p>
+ * Like ObjectifyProxy, a loader is meant to be used by a single request
+ * thread, and it is not thread-safe.  Because the proxy's request identity
+ * map and write-behind buffer are bound to that thread, batches are not
+ * dispatched on a timer from some other thread; the "window" is simply the
+ * time between the first load() and the first point where a result is
+ * actually needed.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class BatchLoader {
+
+    /** Default maximum number of pending lookups, which is the most keys GAE accepts in one batch get. */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+
+    /** Objectify proxy used to fetch entities. */
+    private final ObjectifyProxy objectify;
+
+    /** Maximum number of pending lookups before the batch is dispatched. */
+    private final int maxBatchSize;
+
+    /** Lookups that have not been dispatched yet, keyed by datastore key. */
+    private final Map<Key<?>, Lookup<?>> pending = new LinkedHashMap<Key<?>, Lookup<?>>();
+
+    /** Lookups that have been resolved, keyed by datastore key. */
+    private final Map<Key<?>, Lookup<?>> resolved = new LinkedHashMap<Key<?>, Lookup<?>>();
+
+    /** Number of calls to load(). */
+    private long lookups;
+
+    /** Number of calls to load() that were satisfied by an existing lookup. */
+    private long duplicates;
+
+    /** Number of batch gets issued. */
+    private long batches;
+
+    /** Create a loader with the default maximum batch size. */
+    public BatchLoader(ObjectifyProxy objectify) {
+        this(objectify, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Create a loader.
+     * @param objectify     Objectify proxy used to fetch entities
+     * @param maxBatchSize  Maximum number of pending lookups before the batch is dispatched, at least 1
+     */
+    public BatchLoader(ObjectifyProxy objectify, int maxBatchSize) {
+        if (objectify == null) {
+            throw new IllegalArgumentException("Objectify proxy is required.");
+        }
+
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Max batch size must be at least 1.");
+        }
+
+        this.objectify = objectify;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /** Queue a lookup by numeric id. */
+    public <T> Future<T> load(Class<? extends T> clazz, long id) {
+        return this.load(new Key<T>(clazz, id), null);
+    }
+
+    /** Queue a lookup by name. */
+    public <T> Future<T> load(Class<? extends T> clazz, String name) {
+        return this.load(new Key<T>(clazz, name), null);
+    }
+
+    /** Queue a lookup by key. */
+    public <T> Future<T> load(Key<? extends T> key) {
+        return this.load(key, null);
+    }
+
+    /**
+     * Queue a lookup by key.
+     * @param key       Key of the entity to load
+     * @param callback  Callback to invoke once the lookup is resolved (immediately, if it already is), or null
+     * @return Future for the entity, whose value is null if the entity is not found.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Future<T> load(Key<? extends T> key, IBatchLoadCallback<? super T> callback) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key is required.");
+        }
+
+        this.lookups++;
+
+        Lookup<T> lookup = (Lookup<T>) this.resolved.get(key);
+        if (lookup != null) {
+            this.duplicates++;
+            if (callback != null) {
+                callback.loaded(lookup.value);
+            }
+
+            return lookup;
+        }
+
+        lookup = (Lookup<T>) this.pending.get(key);
+        if (lookup != null) {
+            this.duplicates++;
+        } else {
+            lookup = new Lookup<T>(this);
+            this.pending.put(key, lookup);
+        }
+
+        if (callback != null) {
+            lookup.callbacks.add(callback);
+        }
+
+        if (this.pending.size() >= this.maxBatchSize) {
+            this.dispatch();
+        }
+
+        return lookup;
+    }
+
+    /**
+     * Resolve all pending lookups with a batch get, then invoke their callbacks.
+     *
+     * <p>
+     * If the batch get fails, the exception is thrown from here, and the
+     * futures for the failed lookups throw an ExecutionException that wraps
+     * it.  Callbacks may queue more lookups, which go into the next batch.
+     * </p>
+     */
+    @SuppressWarnings("unchecked")
+    public void dispatch() {
+        if (this.pending.isEmpty()) {
+            return;
+        }
+
+        Map<Key<?>, Lookup<?>> batch = new LinkedHashMap<Key<?>, Lookup<?>>(this.pending);
+        this.pending.clear();
+        this.batches++;
+
+        Map<Key<Object>, Object> entities;
+        try {
+            List<Key<?>> keys = new ArrayList<Key<?>>(batch.keySet());
+            entities = this.objectify.<Object>get(keys);
+        } catch (RuntimeException e) {
+            for (Lookup<?> lookup : batch.values()) {
+                lookup.fail(e);
+            }
+
+            throw e;
+        }
+
+        for (Map.Entry<Key<?>, Lookup<?>> entry : batch.entrySet()) {
+            ((Lookup<Object>) entry.getValue()).resolve(entities.get(entry.getKey()));
+            this.resolved.put(entry.getKey(), entry.getValue());
+        }
+
+        for (Lookup<?> lookup : batch.values()) {
+            lookup.notifyCallbacks();
+        }
+    }
+
+    /** Forget resolved lookups, so later loads of the same keys go back to the datastore; pending lookups are kept. */
+    public void clear() {
+        this.resolved.clear();
+    }
+
+    public ObjectifyProxy getObjectify() {
+        return this.objectify;
+    }
+
+    public int getMaxBatchSize() {
+        return this.maxBatchSize;
+    }
+
+    /** Number of lookups that have not been dispatched yet. */
+    public int getPendingCount() {
+        return this.pending.size();
+    }
+
+    /** Number of calls to load(). */
+    public long getLookups() {
+        return this.lookups;
+    }
+
+    /** Number of calls to load() that were satisfied by an existing lookup. */
+    public long getDuplicates() {
+        return this.duplicates;
+    }
+
+    /** Number of batch gets issued. */
+    public long getBatches() {
+        return this.batches;
+    }
+
+    /** A single deduplicated lookup, which is the future handed back to callers. */
+    private static class Lookup<T> implements Future<T> {
+
+        /** Loader that dispatches this lookup. */
+        private final BatchLoader loader;
+
+        /** Callbacks to invoke once the lookup is resolved. */
+        private List<IBatchLoadCallback<? super T>> callbacks = new ArrayList<IBatchLoadCallback<? super T>>();
+
+        /** Whether the lookup has been resolved or has failed. */
+        private boolean done;
+
+        /** Loaded entity, or null if it was not found. */
+        private T value;
+
+        /** Failure from the batch get, if any. */
+        private RuntimeException failure;
+
+        /** Create a lookup for a loader. */
+        public Lookup(BatchLoader loader) {
+            this.loader = loader;
+        }
+
+        /** Resolve the lookup with a loaded entity, possibly null. */
+        public void resolve(T value) {
+            this.value = value;
+            this.done = true;
+        }
+
+        /** Fail the lookup. */
+        public void fail(RuntimeException failure) {
+            this.failure = failure;
+            this.done = true;
+            this.callbacks = null;
+        }
+
+        /** Invoke and discard the callbacks. */
+        public void notifyCallbacks() {
+            List<IBatchLoadCallback<? super T>> callbacks = this.callbacks;
+            this.callbacks = null;
+            for (IBatchLoadCallback<? super T> callback : callbacks) {
+                callback.loaded(this.value);
+            }
+        }
+
+        /** Get the entity, dispatching the loader's batch first if necessary. */
+        @Override
+        public T get() throws ExecutionException {
+            if (!this.done) {
+                try {
+                    this.loader.dispatch();
+                } catch (RuntimeException e) {
+                    // the failure is recorded on the lookup itself
+                }
+            }
+
+            if (this.failure != null) {
+                throw new ExecutionException(this.failure);
+            }
+
+            return this.value;
+        }
+
+        /** Get the entity; there's no need to wait, since the batch is dispatched in this thread. */
+        @Override
+        public T get(long timeout, TimeUnit unit) throws ExecutionException {
+            return this.get();
+        }
+
+        /** Lookups can't be cancelled, since other callers may share them. */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return this.done;
+        }
+
+    }
+
+}
@@ -0,0 +1,379 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.cedarsolutions.dao.gae.IDaoObjectifyService;
+import com.cedarsolutions.dao.gae.IDeleteListener;
+import com.cedarsolutions.exception.DaoException;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Query;
+
+/**
+ * Deletes every entity matched by a query, in parallel batches of keys.
+ *
+ * <p>
+ * Purging old data by loading each entity and deleting it one at a time
+ * pays for a full entity fetch and a datastore round trip per row.  This
+ * class instead runs the query keys-only, collects the keys into batches
+ * of a fixed size, and submits each batch to an executor as a single batch
+ * delete.  At most a configured number of batches are in flight at once,
+ * so a large purge does not queue up every key in memory.  On GAE, the
+ * executor should be created with ThreadManager.currentRequestThreadFactory(),
+ * i.e. <code>Executors.newFixedThreadPool(4, ThreadManager.currentRequestThreadFactory())</code>.
+ * </p>
+ *
+ * <p>
+ * Each batch is deleted through its own proxy from the Objectify service,
+ * since a proxy is only meant to be used by one thread.  That way, entity
+ * caches and query result caches are invalidated exactly as for any other
+ * delete.  The calling thread's request identity map is cleared of each
+ * batch as the batch completes.
+ * </p>
+ *
+ * <p>
+ * Batches complete in the order they were submitted.  Once a batch and
+ * every batch before it have been deleted, the deleter reports the cursor
+ * after the batch's last key to an optional listener, every so many batches.
+ * If the purge is interrupted, the caller can resume from the last
+ * checkpoint by passing the cursor back to delete().  Because a checkpoint
+ * is only reported once all earlier batches are done, a resumed purge never
+ * skips keys, although keys deleted after the last checkpoint may be deleted
+ * a second time, which is harmless.
+ * </p>
+ *
+ * <p>
+ * Throughput counters are reset at the start of each delete and can be
+ * read from another thread while the delete runs.  A deleter runs one
+ * delete at a time.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class BulkDeleter {
+
+    /** Default number of keys per batch, which is the datastore's limit for a batch delete. */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /** Default number of batches in flight at once. */
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    /** Default number of batches between checkpoints. */
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 1;
+
+    /** Objectify service used to get a proxy for each batch. */
+    private final IDaoObjectifyService daoObjectifyService;
+
+    /** Executor that deletes the batches. */
+    private final ExecutorService executor;
+
+    /** Number of keys per batch. */
+    private final int batchSize;
+
+    /** Maximum number of batches in flight at once. */
+    private final int concurrency;
+
+    /** Number of batches between checkpoints. */
+    private final int checkpointInterval;
+
+    /** Listener notified at each checkpoint, possibly null. */
+    private final IDeleteListener listener;
+
+    /** Number of keys deleted by the current delete. */
+    private volatile long keysDeleted;
+
+    /** Number of batches deleted by the current delete. */
+    private volatile long batches;
+
+    /** Number of checkpoints reached by the current delete. */
+    private volatile long checkpoints;
+
+    /** Cursor for the most recent checkpoint of the current delete, possibly null. */
+    private volatile String checkpoint;
+
+    /** Time the current delete started, in milliseconds. */
+    private volatile long startTime;
+
+    /** Time the current delete ended, in milliseconds, or zero if it is still running. */
+    private volatile long endTime;
+
+    /**
+     * Create a deleter using the default batch size, concurrency and checkpoint interval, and no listener.
+     * @param daoObjectifyService  Objectify service used to get a proxy for each batch
+     * @param executor             Executor that deletes the batches
+     */
+    public BulkDeleter(IDaoObjectifyService daoObjectifyService, ExecutorService executor) {
+        this(daoObjectifyService, executor, DEFAULT_BATCH_SIZE, DEFAULT_CONCURRENCY, DEFAULT_CHECKPOINT_INTERVAL, null);
+    }
+
+    /**
+     * Create a deleter.
+     * @param daoObjectifyService  Objectify service used to get a proxy for each batch
+     * @param executor             Executor that deletes the batches
+     * @param batchSize            Number of keys per batch, which must be positive
+     * @param concurrency          Maximum number of batches in flight at once, which must be positive
+     * @param checkpointInterval   Number of batches between checkpoints, which must be positive
+     * @param listener             Listener notified at each checkpoint, possibly null
+     */
+    public BulkDeleter(IDaoObjectifyService daoObjectifyService, ExecutorService executor,
+                       int batchSize, int concurrency, int checkpointInterval, IDeleteListener listener) {
+        if (daoObjectifyService == null) {
+            throw new IllegalArgumentException("Objectify service is required");
+        }
+
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor is required");
+        }
+
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive");
+        }
+
+        if (checkpointInterval < 1) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive");
+        }
+
+        this.daoObjectifyService = daoObjectifyService;
+        this.executor = executor;
+        this.batchSize = batchSize;
+        this.concurrency = concurrency;
+        this.checkpointInterval = checkpointInterval;
+        this.listener = listener;
+    }
+
+    /**
+     * Delete every entity matched by a query.
+     * @param <T>  Type of the entity
+     * @param query  Query to delete the results of, which is cloned and run keys-only
+     * @return Number of keys deleted.
+     * @throws DaoException If any batch fails, once all other batches have stopped.
+     */
+    public <T> long delete(Query<T> query) {
+        return this.delete(query, null);
+    }
+
+    /**
+     * Delete every entity matched by a query, resuming from a checkpoint.
+     * @param <T>  Type of the entity
+     * @param query   Query to delete the results of, which is cloned and run keys-only
+     * @param cursor  Cursor from a checkpoint to resume from, or null to start at the beginning
+     * @return Number of keys deleted.
+     * @throws DaoException If any batch fails, once all other batches have stopped.
+     */
+    public <T> long delete(Query<T> query, String cursor) {
+        this.keysDeleted = 0;
+        this.batches = 0;
+        this.checkpoints = 0;
+        this.checkpoint = cursor;
+        this.endTime = 0;
+        this.startTime = this.currentTimeMillis();
+
+        LinkedList<Batch> inFlight = new LinkedList<Batch>();
+        try {
+            Query<T> keysQuery = query.clone();
+            keysQuery.chunkSize(this.batchSize);
+            keysQuery.prefetchSize(this.batchSize);
+            if (cursor != null) {
+                keysQuery.startCursor(CursorUtils.deserialize(cursor));
+            }
+
+            QueryResultIterator<Key<T>> iterator = keysQuery.fetchKeys().iterator();
+            while (iterator.hasNext()) {
+                List<Key<?>> keys = new ArrayList<Key<?>>(this.batchSize);
+                while (keys.size() < this.batchSize && iterator.hasNext()) {
+                    keys.add(iterator.next());
+                }
+
+                if (inFlight.size() >= this.concurrency) {
+                    this.complete(inFlight.removeFirst());
+                }
+
+                Future<?> future = this.executor.submit(new BatchTask(keys));
+                inFlight.addLast(new Batch(keys, future, iterator.hasNext() ? CursorUtils.serialize(iterator.getCursor()) : null));
+            }
+
+            while (!inFlight.isEmpty()) {
+                this.complete(inFlight.removeFirst());
+            }
+        } catch (RuntimeException e) {
+            awaitQuietly(inFlight);
+            throw e;
+        } finally {
+            this.endTime = this.currentTimeMillis();
+        }
+
+        if (this.listener != null) {
+            this.listener.finished(this);
+        }
+
+        return this.keysDeleted;
+    }
+
+    /** Wait for a batch to finish, then record it and report a checkpoint if one is due. */
+    private void complete(Batch batch) {
+        try {
+            batch.future.get();
+        } catch (ExecutionException e) {
+            throw new DaoException("Bulk delete failed after " + this.keysDeleted + " keys: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DaoException("Bulk delete was interrupted after " + this.keysDeleted + " keys", e);
+        }
+
+        RequestIdentityMap identityMap = RequestIdentityMap.getCurrent();
+        if (identityMap != null) {
+            for (Key<?> key : batch.keys) {
+                identityMap.remove(key);
+            }
+        }
+
+        this.keysDeleted += batch.keys.size();
+        this.batches++;
+
+        if (batch.cursor != null && this.batches % this.checkpointInterval == 0) {
+            this.checkpoint = batch.cursor;
+            this.checkpoints++;
+            if (this.listener != null) {
+                this.listener.checkpoint(batch.cursor, this);
+            }
+        }
+    }
+
+    /** Wait for batches that are still in flight after a failure, ignoring their results. */
+    private static void awaitQuietly(List<Batch> inFlight) {
+        for (Batch batch : inFlight) {
+            try {
+                batch.future.get();
+            } catch (ExecutionException e) {
+                // the first failure has already been reported
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /** Get the current time in milliseconds; overridden by unit tests. */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    public IDaoObjectifyService getDaoObjectifyService() {
+        return this.daoObjectifyService;
+    }
+
+    public ExecutorService getExecutor() {
+        return this.executor;
+    }
+
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    public int getConcurrency() {
+        return this.concurrency;
+    }
+
+    public int getCheckpointInterval() {
+        return this.checkpointInterval;
+    }
+
+    public IDeleteListener getListener() {
+        return this.listener;
+    }
+
+    /** Get the number of keys deleted by the current or most recent delete. */
+    public long getKeysDeleted() {
+        return this.keysDeleted;
+    }
+
+    /** Get the number of batches deleted by the current or most recent delete. */
+    public long getBatches() {
+        return this.batches;
+    }
+
+    /** Get the number of checkpoints reached by the current or most recent delete. */
+    public long getCheckpoints() {
+        return this.checkpoints;
+    }
+
+    /** Get the cursor to resume the current or most recent delete from, or null to start at the beginning. */
+    public String getCheckpoint() {
+        return this.checkpoint;
+    }
+
+    /** Get the elapsed time of the current or most recent delete, in milliseconds. */
+    public long getElapsedMillis() {
+        if (this.startTime == 0) {
+            return 0;
+        }
+
+        long end = this.endTime == 0 ? this.currentTimeMillis() : this.endTime;
+        return end - this.startTime;
+    }
+
+    /** Get the throughput of the current or most recent delete, in keys per second. */
+    public double getKeysPerSecond() {
+        long elapsed = this.getElapsedMillis();
+        return elapsed <= 0 ? 0.0 : (this.keysDeleted * 1000.0) / elapsed;
+    }
+
+    /** A batch of keys that has been submitted for deletion. */
+    private static class Batch {
+        private final List<Key<?>> keys;
+        private final Future<?> future;
+        private final String cursor;
+
+        public Batch(List<Key<?>> keys, Future<?> future, String cursor) {
+            this.keys = keys;
+            this.future = future;
+            this.cursor = cursor;
+        }
+    }
+
+    /** Task that deletes one batch of keys. */
+    private class BatchTask implements Runnable {
+        private final List<Key<?>> keys;
+
+        public BatchTask(List<Key<?>> keys) {
+            this.keys = keys;
+        }
+
+        @Override
+        public void run() {
+            BulkDeleter.this.daoObjectifyService.getObjectify().delete(this.keys);
+        }
+    }
+
+}
@@ -0,0 +1,500 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import com.cedarsolutions.dao.gae.IExportListener;
+import com.cedarsolutions.dao.gae.IExportRowMapper;
+import com.cedarsolutions.exception.DaoException;
+
+/**
+ * Streams the results of a query to a Writer or OutputStream.
+ *
+ * <p>
+ * PaginationUtils.createPaginatedResults() with a null pagination collects
+ * every row into a single list, which is fine for a screen of results but
+ * runs out of memory when exporting an entire kind.  This class instead
+ * drains an iterator straight into the output, one row at a time, so memory
+ * use does not depend on the number of rows.  Rows are written either as
+ * CSV (RFC 4180, with a header row) or as JSON Lines (one object per line).
+ * </p>
+ *
+ * <p>
+ * Every so many rows, the exporter flushes the output and reports the
+ * iterator's cursor to an optional listener.  At the same time, it records
+ * the position of the output, available from getCheckpointPosition().  The
+ * position is in bytes when exporting to an OutputStream, and in characters
+ * when exporting to a Writer, counted from where this export started.
+ * </p>
+ *
+ * <p>
+ * Output is buffered, and the buffer can be flushed at any time, not just
+ * at checkpoints.  So, if the export is interrupted, the output may end
+ * with rows written after the last checkpoint, the last of which may be
+ * incomplete.  To resume, the caller must first truncate the output to the
+ * last checkpoint position, then start a new query at the checkpoint cursor,
+ * i.e. <code>query.startCursor(CursorUtils.deserialize(cursor))</code>, and
+ * append to the same output.  When resuming a CSV export, disable the header
+ * so it isn't written a second time.  If no checkpoint was reached, truncate
+ * the output to where the export started and start over.  Because the cursor
+ * is captured after the output is flushed, a resumed export neither skips
+ * nor repeats rows.
+ * </p>
+ *
+ * <p>
+ * Throughput counters are reset at the start of each export and can be
+ * read from another thread while the export runs.  An exporter runs one
+ * export at a time.
+ * </p>
+ *
+ * @param <T> Type of the exported entity
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class BulkExporter<T> {
+
+    /** Supported export formats. */
+    public enum Format {
+        CSV,
+        JSON_LINES,
+    }
+
+    /** Default number of rows between checkpoints. */
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 1000;
+
+    /** Character set used when writing to an OutputStream. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Export format. */
+    private final Format format;
+
+    /** Mapper that converts each entity into a row. */
+    private final IExportRowMapper<T> mapper;
+
+    /** Number of rows between checkpoints. */
+    private final int checkpointInterval;
+
+    /** Listener notified at each checkpoint, possibly null. */
+    private final IExportListener listener;
+
+    /** Whether to write a header row for CSV exports. */
+    private boolean writeHeader;
+
+    /** Formatter for dates, which are written as ISO 8601 in UTC. */
+    private final SimpleDateFormat dateFormat;
+
+    /** Number of rows written by the current export. */
+    private volatile long rowsWritten;
+
+    /** Number of checkpoints reached by the current export. */
+    private volatile long checkpoints;
+
+    /** Position of the output at the last checkpoint, relative to the start of the current export. */
+    private volatile long checkpointPosition;
+
+    /** Time the current export started, in milliseconds. */
+    private volatile long startTime;
+
+    /** Time the current export ended, in milliseconds, or zero if it is still running. */
+    private volatile long endTime;
+
+    /** Iterator for the current export, used to get scan statistics. */
+    private volatile IIteratorWithCursor<T> iterator;
+
+    /**
+     * Create an exporter using the default checkpoint interval and no listener.
+     * @param format  Export format
+     * @param mapper  Mapper that converts each entity into a row
+     */
+    public BulkExporter(Format format, IExportRowMapper<T> mapper) {
+        this(format, mapper, DEFAULT_CHECKPOINT_INTERVAL, null);
+    }
+
+    /**
+     * Create an exporter.
+     * @param format              Export format
+     * @param mapper              Mapper that converts each entity into a row
+     * @param checkpointInterval  Number of rows between checkpoints, which must be positive
+     * @param listener            Listener notified at each checkpoint, possibly null
+     */
+    public BulkExporter(Format format, IExportRowMapper<T> mapper, int checkpointInterval, IExportListener listener) {
+        if (format == null) {
+            throw new IllegalArgumentException("Format is required");
+        }
+
+        if (mapper == null) {
+            throw new IllegalArgumentException("Row mapper is required");
+        }
+
+        if (checkpointInterval < 1) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive");
+        }
+
+        this.format = format;
+        this.mapper = mapper;
+        this.checkpointInterval = checkpointInterval;
+        this.listener = listener;
+        this.writeHeader = true;
+        this.dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        this.dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * Export every row from an iterator to an output stream, encoded as UTF-8.
+     * The stream is flushed but not closed.
+     * @param iterator  Iterator to drain
+     * @param output    Stream to write to
+     * @return Number of rows written.
+     * @throws DaoException If the output cannot be written.
+     */
+    public long export(IIteratorWithCursor<T> iterator, OutputStream output) {
+        CountingOutputStream counted = new CountingOutputStream(output);
+        return this.export(iterator, new BufferedWriter(new OutputStreamWriter(counted, UTF8)), counted);
+    }
+
+    /**
+     * Export every row from an iterator to a writer.
+     * The writer is flushed but not closed.
+     * @param iterator  Iterator to drain
+     * @param writer    Writer to write to
+     * @return Number of rows written.
+     * @throws DaoException If the output cannot be written.
+     */
+    public long export(IIteratorWithCursor<T> iterator, Writer writer) {
+        CountingWriter counted = new CountingWriter(writer);
+        return this.export(iterator, counted, counted);
+    }
+
+    /** Export every row from an iterator, using the position source to track checkpoint positions. */
+    private long export(IIteratorWithCursor<T> iterator, Writer writer, IPosition position) {
+        this.iterator = iterator;
+        this.rowsWritten = 0;
+        this.checkpoints = 0;
+        this.checkpointPosition = 0;
+        this.endTime = 0;
+        this.startTime = this.currentTimeMillis();
+
+        try {
+            if (this.format == Format.CSV && this.writeHeader) {
+                this.writeRow(writer, this.mapper.getColumns());
+            }
+
+            while (iterator.hasNext()) {
+                this.writeRow(writer, this.mapper.getValues(iterator.next()));
+                this.rowsWritten++;
+
+                if (this.rowsWritten % this.checkpointInterval == 0) {
+                    writer.flush();
+                    this.checkpoints++;
+                    this.checkpointPosition = position.getPosition();
+                    if (this.listener != null) {
+                        this.listener.checkpoint(iterator.getCursor(), this);
+                    }
+                }
+            }
+
+            writer.flush();
+        } catch (IOException e) {
+            throw new DaoException("Failed to write export after " + this.rowsWritten + " rows: " + e.getMessage(), e);
+        } finally {
+            this.endTime = this.currentTimeMillis();
+        }
+
+        if (this.listener != null) {
+            this.listener.finished(this);
+        }
+
+        return this.rowsWritten;
+    }
+
+    /** Write a single row in the configured format. */
+    private void writeRow(Writer writer, Object[] values) throws IOException {
+        if (this.format == Format.CSV) {
+            this.writeCsvRow(writer, values);
+        } else {
+            this.writeJsonRow(writer, this.mapper.getColumns(), values);
+        }
+    }
+
+    /** Write a row as CSV, terminated by CRLF as required by RFC 4180. */
+    private void writeCsvRow(Writer writer, Object[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+
+            if (values[i] != null) {
+                String value = this.formatValue(values[i]);
+                if (needsQuoting(value)) {
+                    writer.write('"');
+                    writer.write(value.replace("\"", "\"\""));
+                    writer.write('"');
+                } else {
+                    writer.write(value);
+                }
+            }
+        }
+
+        writer.write("\r\n");
+    }
+
+    /** Write a row as a single-line JSON object. */
+    private void writeJsonRow(Writer writer, String[] columns, Object[] values) throws IOException {
+        writer.write('{');
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+
+            writeJsonString(writer, columns[i]);
+            writer.write(':');
+
+            Object value = i < values.length ? values[i] : null;
+            if (value == null) {
+                writer.write("null");
+            } else if (value instanceof Boolean || isFiniteNumber(value)) {
+                writer.write(value.toString());
+            } else {
+                writeJsonString(writer, this.formatValue(value));
+            }
+        }
+
+        writer.write("}\n");
+    }
+
+    /** Format a non-null value as a string. */
+    private String formatValue(Object value) {
+        if (value instanceof Date) {
+            return this.dateFormat.format((Date) value);
+        } else {
+            return value.toString();
+        }
+    }
+
+    /** Whether a CSV value must be quoted. */
+    private static boolean needsQuoting(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\r' || c == '\n') {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /** Whether a value is a number that can be written as a JSON number. */
+    private static boolean isFiniteNumber(Object value) {
+        if (value instanceof Double) {
+            return !((Double) value).isNaN() && !((Double) value).isInfinite();
+        } else if (value instanceof Float) {
+            return !((Float) value).isNaN() && !((Float) value).isInfinite();
+        } else {
+            return value instanceof Number;
+        }
+    }
+
+    /** Write a quoted and escaped JSON string. */
+    private static void writeJsonString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                writer.write("\\\"");
+                break;
+            case '\\':
+                writer.write("\\\\");
+                break;
+            case '\n':
+                writer.write("\\n");
+                break;
+            case '\r':
+                writer.write("\\r");
+                break;
+            case '\t':
+                writer.write("\\t");
+                break;
+            default:
+                if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                    writer.write(String.format("\\u%04x", (int) c));
+                } else {
+                    writer.write(c);
+                }
+            }
+        }
+        writer.write('"');
+    }
+
+    /** Get the current time in milliseconds; overridden by unit tests. */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    public Format getFormat() {
+        return this.format;
+    }
+
+    public IExportRowMapper<T> getMapper() {
+        return this.mapper;
+    }
+
+    public int getCheckpointInterval() {
+        return this.checkpointInterval;
+    }
+
+    public IExportListener getListener() {
+        return this.listener;
+    }
+
+    public boolean getWriteHeader() {
+        return this.writeHeader;
+    }
+
+    /** Set whether to write a header row for CSV exports; disable this when resuming. */
+    public void setWriteHeader(boolean writeHeader) {
+        this.writeHeader = writeHeader;
+    }
+
+    /** Get the number of rows written by the current or most recent export. */
+    public long getRowsWritten() {
+        return this.rowsWritten;
+    }
+
+    /** Get the number of checkpoints reached by the current or most recent export. */
+    public long getCheckpoints() {
+        return this.checkpoints;
+    }
+
+    /**
+     * Get the position of the output at the last checkpoint, which is where the output must be truncated to before resuming.
+     * @return Bytes written to an OutputStream, or characters written to a Writer, since the export started; zero if no checkpoint was reached.
+     */
+    public long getCheckpointPosition() {
+        return this.checkpointPosition;
+    }
+
+    /**
+     * Get the number of rows scanned by the current or most recent export.
+     * This can exceed the number of rows written if the iterator filters rows.
+     * @return Number of rows scanned, or the number of rows written if the iterator does not track scans.
+     */
+    public long getRowsScanned() {
+        IIteratorWithCursor<T> current = this.iterator;
+        if (current instanceof IScanStatistics) {
+            return ((IScanStatistics) current).getRowsScanned();
+        } else {
+            return this.rowsWritten;
+        }
+    }
+
+    /** Get the elapsed time of the current or most recent export, in milliseconds. */
+    public long getElapsedMillis() {
+        if (this.startTime == 0) {
+            return 0;
+        }
+
+        long end = this.endTime == 0 ? this.currentTimeMillis() : this.endTime;
+        return end - this.startTime;
+    }
+
+    /** Get the throughput of the current or most recent export, in rows per second. */
+    public double getRowsPerSecond() {
+        long elapsed = this.getElapsedMillis();
+        return elapsed <= 0 ? 0.0 : (this.rowsWritten * 1000.0) / elapsed;
+    }
+
+    /** Source for the current position of the output. */
+    private interface IPosition {
+        long getPosition();
+    }
+
+    /** Output stream that counts the bytes written through it. */
+    private static class CountingOutputStream extends FilterOutputStream implements IPosition {
+        private long position;
+
+        public CountingOutputStream(OutputStream output) {
+            super(output);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.out.write(b);
+            this.position += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.write(b, off, len);
+            this.position += len;
+        }
+
+        @Override
+        public long getPosition() {
+            return this.position;
+        }
+    }
+
+    /** Writer that counts the characters written through it. */
+    private static class CountingWriter extends FilterWriter implements IPosition {
+        private long position;
+
+        public CountingWriter(Writer writer) {
+            super(writer);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            this.out.write(c);
+            this.position += 1;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            this.out.write(cbuf, off, len);
+            this.position += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            this.out.write(str, off, len);
+            this.position += len;
+        }
+
+        @Override
+        public long getPosition() {
+            return this.position;
+        }
+    }
+
+}
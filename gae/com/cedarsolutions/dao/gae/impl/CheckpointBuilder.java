@@ -0,0 +1,376 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+import com.cedarsolutions.dao.domain.Pagination;
+import com.cedarsolutions.dao.gae.IFilterPredicate;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Query;
+
+/**
+ * Builds cursor checkpoints for a search, so any page can be reached directly.
+ *
+ * <p>
+ * Pagination.page() can only jump to a page whose cursor has already been
+ * seen, so going straight to page 40 normally means walking through the 39
+ * pages before it.  This class scans the search's query once and records a
+ * cursor every N rows.  Once the checkpoints exist, page() returns
+ * pagination that starts at the nearest checkpoint at or before the
+ * requested page, and only the rows between the checkpoint and the page
+ * are skipped.
+ * </p>
+ *
+ * <p>
+ * The starting location is a synthetic seek cursor that holds the checkpoint
+ * cursor and the number of rows to skip.  ObjectifyProxy.query(Class,
+ * Pagination) starts the query at the checkpoint, and PaginationUtils skips
+ * the rows through the DAO's iterator, so a DAO that filters rows in memory
+ * skips only the rows its predicate accepts.  Once the page has been
+ * fetched, the pagination holds the real cursor for the page, as usual.
+ * The pagination also gets a seek cursor for the page before, so previous()
+ * works; pages further back go through page() again.
+ * </p>
+ *
+ * <p>
+ * The checkpoints have to count the same rows the DAO returns.  For a DAO
+ * that doesn't filter in memory, the scan is keys-only, which is billed as
+ * small operations and is much cheaper than walking the pages.  A DAO that
+ * does filter must pass its predicate to build(), and then the scan fetches
+ * full rows and counts only the ones the predicate accepts.  Checkpoints
+ * built keys-only for a filtering DAO would count rejected rows too, and
+ * every page reached through them would land too far into the results.
+ * </p>
+ *
+ * <p>
+ * Just like with RowCountEstimator, checkpoints are built by an Executor and
+ * cached by search key, as described in AbstractBackgroundCache.  If
+ * the executor runs tasks in the background (for instance, on a request
+ * thread pool), the first request for a search falls back to the normal
+ * paging behavior, and later requests find the checkpoints in the cache.
+ * The default constructor builds in the calling thread.  Checkpoints expire
+ * after a time to live, since the data they describe changes.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class CheckpointBuilder extends AbstractBackgroundCache<CheckpointBuilder.Checkpoints> {
+
+    /** Prefix that identifies a seek cursor; ':' is not in the web-safe base64 alphabet used for cursors. */
+    public static final String SEEK_PREFIX = "seek:";
+
+    /** Default number of rows between checkpoints. */
+    public static final int DEFAULT_INTERVAL = 200;
+
+    /** Default maximum number of rows to scan when building checkpoints. */
+    public static final int DEFAULT_MAX_ROWS = 20000;
+
+    /** Default time to live for cached checkpoints, in milliseconds. */
+    public static final long DEFAULT_TIME_TO_LIVE = 5 * 60 * 1000L;
+
+    /** Default maximum number of searches to cache checkpoints for. */
+    public static final int DEFAULT_MAX_ENTRIES = 100;
+
+    /** Number of rows between checkpoints. */
+    private int interval;
+
+    /** Maximum number of rows to scan when building checkpoints. */
+    private int maxRows;
+
+    /** Number of page requests served from checkpoints. */
+    private long seeks;
+
+    /** Create a builder that builds in the calling thread, with default settings. */
+    public CheckpointBuilder() {
+        this(CALLING_THREAD, DEFAULT_INTERVAL, DEFAULT_MAX_ROWS, DEFAULT_TIME_TO_LIVE, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Create a builder.
+     * @param executor    Executor used to build checkpoints
+     * @param interval    Number of rows between checkpoints, greater than zero
+     * @param maxRows     Maximum number of rows to scan, greater than zero
+     * @param timeToLive  Time to live for cached checkpoints, in milliseconds
+     * @param maxEntries  Maximum number of searches to cache checkpoints for, greater than zero
+     */
+    public CheckpointBuilder(Executor executor, int interval, int maxRows, long timeToLive, int maxEntries) {
+        super(executor, timeToLive, maxEntries);
+
+        if (interval <= 0 || maxRows <= 0) {
+            throw new IllegalArgumentException("Interval and max rows must be greater than zero.");
+        }
+
+        this.interval = interval;
+        this.maxRows = maxRows;
+    }
+
+    /** Whether a value from Pagination is a seek cursor. */
+    public static boolean isSeekCursor(String value) {
+        return value != null && value.startsWith(SEEK_PREFIX);
+    }
+
+    /**
+     * Create a seek cursor.
+     * @param cursor  Serialized cursor to start at, or null to start at the beginning
+     * @param offset  Number of rows to skip after the cursor
+     * @return Seek cursor, like "seek:15:cursor".
+     */
+    public static String createSeekCursor(String cursor, int offset) {
+        return SEEK_PREFIX + offset + ":" + (cursor == null ? "" : cursor);
+    }
+
+    /** Get the serialized cursor from a seek cursor, or null if it starts at the beginning. */
+    public static String getSeekStart(String seekCursor) {
+        String cursor = seekCursor.substring(seekCursor.indexOf(':', SEEK_PREFIX.length()) + 1);
+        return cursor.length() == 0 ? null : cursor;
+    }
+
+    /** Get the number of rows to skip from a seek cursor. */
+    public static int getSeekOffset(String seekCursor) {
+        try {
+            int end = seekCursor.indexOf(':', SEEK_PREFIX.length());
+            return Integer.parseInt(seekCursor.substring(SEEK_PREFIX.length(), end));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid seek cursor: " + seekCursor);
+        }
+    }
+
+    /**
+     * Start building checkpoints for a search that doesn't filter rows in memory, unless they are cached or already being built.
+     * @param searchKey  Key that identifies the search, possibly null
+     * @param query      Query for the search without any cursor or limit, as from ObjectifyProxy.query(Class)
+     * @return True if checkpoints are available now, false if they aren't available yet.
+     */
+    public boolean build(String searchKey, Query<?> query) {
+        return this.build(searchKey, query, null);
+    }
+
+    /**
+     * Start building checkpoints for a search whose rows are filtered in memory, unless they are cached or already being built.
+     * @param searchKey  Key that identifies the search, possibly null
+     * @param query      Query for the search without any cursor or limit, as from ObjectifyProxy.query(Class)
+     * @param predicate  Predicate the DAO filters rows with, or null (or a NoOpFilterPredicate) if none
+     * @return True if checkpoints are available now, false if they aren't available yet.
+     */
+    public <T> boolean build(String searchKey, final Query<T> query, final IFilterPredicate<T> predicate) {
+        if (this.getCheckpoints(searchKey) != null) {
+            return true;
+        }
+
+        this.submit(searchKey, new Callable<Checkpoints>() {
+            @Override
+            public Checkpoints call() {
+                return CheckpointBuilder.this.runBuild(query, predicate);
+            }
+        });
+
+        return this.getCheckpoints(searchKey) != null;  // the executor may have built them already
+    }
+
+    /**
+     * Return pagination for the requested page, using checkpoints to get near a page that hasn't been visited.
+     *
+     * <p>
+     * If the page's cursor is already known, or there are no checkpoints for
+     * the search, this is the same as pagination.page(pageNumber).  Otherwise,
+     * the returned pagination starts at the nearest checkpoint at or before
+     * the page, unless the nearest known page is even closer.  The page
+     * before the requested page also gets a seek cursor, if its cursor isn't
+     * known, so previous() can go back to it.
+     * </p>
+     *
+     * @param pagination  Current pagination for the search
+     * @param searchKey   Key that identifies the search, possibly null
+     * @param pageNumber  Page number to retrieve
+     * @return Pagination for the requested page, or for the nearest page that can be reached.
+     */
+    public Pagination page(Pagination pagination, String searchKey, int pageNumber) {
+        Pagination known = pagination.page(pageNumber);
+        if (known.getPageNumber() == pageNumber || pageNumber < 1) {
+            return known;
+        }
+
+        Checkpoints found = this.getCheckpoints(searchKey);
+        if (found == null) {
+            return known;
+        }
+
+        long row = (long) (pageNumber - 1) * pagination.getPageSize();
+        if (found.isComplete() && row >= found.getRows()) {
+            return known;  // past the end of the results
+        }
+
+        int index = this.getIndex(found, row);
+        long knownRow = (long) (known.getPageNumber() - 1) * pagination.getPageSize();
+        if (known.getCurrent() != null && knownRow >= (long) index * this.interval) {
+            return known;  // the known page is at least as close
+        }
+
+        Pagination result = pagination;
+        if (pageNumber > 1) {
+            long previousRow = row - pagination.getPageSize();
+            result = result.seek(pageNumber - 1, this.createSeekCursor(found, previousRow));
+        }
+
+        this.recordSeek();
+        return result.seek(pageNumber, this.createSeekCursor(found, row));
+    }
+
+    /**
+     * Get the cached checkpoints for a search.
+     * @param searchKey  Key that identifies the search, possibly null
+     * @return Cached checkpoints, or null if there are none.
+     */
+    public Checkpoints getCheckpoints(String searchKey) {
+        return this.get(searchKey);
+    }
+
+    /**
+     * Scan a query keys-only, recording a cursor every so many rows.
+     * @param query     Query to scan
+     * @param interval  Number of rows between checkpoints
+     * @param maxRows   Maximum number of rows to scan
+     * @return Checkpoints for the query.
+     */
+    protected static <T> Checkpoints scan(Query<T> query, int interval, int maxRows) {
+        List<String> cursors = new ArrayList<String>();
+        QueryResultIterator<Key<T>> iterator = query.fetchKeys().iterator();
+        int rows = 0;
+        while (rows < maxRows && iterator.hasNext()) {
+            iterator.next();
+            rows += 1;
+            if (rows % interval == 0) {
+                cursors.add(CursorUtils.serialize(iterator.getCursor()));
+            }
+        }
+
+        return new Checkpoints(cursors, rows, !iterator.hasNext());
+    }
+
+    /**
+     * Scan a query's rows through a predicate, recording a cursor every so many accepted rows.
+     * @param query      Query to scan
+     * @param predicate  Predicate to apply to each row
+     * @param interval   Number of accepted rows between checkpoints
+     * @param maxRows    Maximum number of rows to scan, whether or not they are accepted
+     * @return Checkpoints for the query, which count only accepted rows.
+     */
+    protected static <T> Checkpoints scan(Query<T> query, IFilterPredicate<T> predicate, int interval, int maxRows) {
+        List<String> cursors = new ArrayList<String>();
+        QueryResultIterator<T> iterator = query.iterator();
+        int scanned = 0;
+        int rows = 0;
+        while (scanned < maxRows && iterator.hasNext()) {
+            scanned += 1;
+            if (predicate.evaluate(iterator.next())) {
+                rows += 1;
+                if (rows % interval == 0) {
+                    cursors.add(CursorUtils.serialize(iterator.getCursor()));
+                }
+            }
+        }
+
+        return new Checkpoints(cursors, rows, !iterator.hasNext());
+    }
+
+    /** Build checkpoints, filtering through the predicate if there is one. */
+    private <T> Checkpoints runBuild(Query<T> query, IFilterPredicate<T> predicate) {
+        if (FetchPlanner.isFiltering(predicate)) {
+            return scan(query, predicate, this.interval, this.maxRows);
+        } else {
+            return scan(query, this.interval, this.maxRows);
+        }
+    }
+
+    /** Get the index of the nearest checkpoint at or before a row, where index zero is the start of the results. */
+    private int getIndex(Checkpoints found, long row) {
+        return (int) Math.min(row / this.interval, found.getCursors().size());
+    }
+
+    /** Create a seek cursor for a row, starting at the nearest checkpoint at or before it. */
+    private String createSeekCursor(Checkpoints found, long row) {
+        int index = this.getIndex(found, row);
+        String cursor = index == 0 ? null : found.getCursors().get(index - 1);
+        int offset = (int) (row - ((long) index * this.interval));
+        return createSeekCursor(cursor, offset);
+    }
+
+    /** Record a page request served from checkpoints. */
+    private synchronized void recordSeek() {
+        this.seeks += 1;
+    }
+
+    /** Get the number of rows between checkpoints. */
+    public int getInterval() {
+        return this.interval;
+    }
+
+    /** Get the maximum number of rows to scan when building checkpoints. */
+    public int getMaxRows() {
+        return this.maxRows;
+    }
+
+    /** Get the number of page requests served from checkpoints. */
+    public synchronized long getSeeks() {
+        return this.seeks;
+    }
+
+    /** Get the number of builds run. */
+    public long getBuilds() {
+        return this.getRuns();
+    }
+
+    /** Cursor checkpoints for a search. */
+    public static class Checkpoints {
+        private List<String> cursors;
+        private int rows;
+        private boolean complete;
+
+        Checkpoints(List<String> cursors, int rows, boolean complete) {
+            this.cursors = cursors;
+            this.rows = rows;
+            this.complete = complete;
+        }
+
+        /** Cursors after every interval rows, so the cursor at index i is positioned after row (i + 1) * interval. */
+        public List<String> getCursors() {
+            return this.cursors;
+        }
+
+        /** Number of rows counted, which are only the accepted rows if the checkpoints were built with a predicate. */
+        public int getRows() {
+            return this.rows;
+        }
+
+        /** Whether the scan reached the end of the query, rather than stopping at the maximum number of rows. */
+        public boolean isComplete() {
+            return this.complete;
+        }
+    }
+
+}
@@ -0,0 +1,342 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import com.cedarsolutions.dao.gae.IFilterPredicate;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.googlecode.objectify.Query;
+
+/**
+ * Filtered result iterator that fetches from the datastore in explicit chunks.
+ *
+ * <p>
+ * FilteredResultIterator pulls rows one by one from an unlimited query, so
+ * there's no control over how many datastore batches a highly selective
+ * predicate burns through.  This iterator instead executes the query in
+ * limited chunks.  Each chunk is sized based on the number of rows still
+ * needed to fill the page (plus the one-row look-ahead that PaginationUtils
+ * uses to detect a next page) and the accept ratio observed so far.  If the
+ * predicate rejects 90% of rows, the next chunk will be roughly ten times
+ * larger than the number of rows still needed.
+ * </p>
+ *
+ * <p>
+ * The iterator also enforces an optional scan budget.  Once that many rows
+ * have been scanned, iteration stops, even if the page is not full.  In this
+ * case, isIncomplete() returns true and getCursor() returns a valid cursor
+ * that resumes the scan where it left off.  PaginationUtils treats this as a
+ * partial page that still has a next page.
+ * </p>
+ *
+ * <p>
+ * Cursors are always captured lazily, and are only serialized when
+ * getCursor() is called.
+ * </p>
+ *
+ * @param <T>  Type of the iterator
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class ChunkedFilteredIterator<T> implements IResumableIterator<T>, IScanStatistics {
+
+    /** Default maximum chunk size, which matches the largest useful datastore batch. */
+    public static final int DEFAULT_MAX_CHUNK_SIZE = 1000;
+
+    /** Scan budget that indicates there is no limit. */
+    public static final int UNLIMITED = 0;
+
+    private Query<T> query;
+    private IFilterPredicate<T> predicate;
+    private int pageSize;
+    private int scanBudget;
+    private int maxChunkSize;
+    private QueryResultIterator<T> chunk;
+    private int chunkLimit;
+    private boolean chunkLookAhead;
+    private int chunkRows;
+    private int chunksFetched;
+    private long rowsScanned;
+    private long rowsAccepted;
+    private boolean exhausted;
+    private boolean incomplete;
+    private boolean started;
+    private T next;
+    private Cursor rawCursor;
+    private String cursor;
+
+    /**
+     * Create an iterator with no scan budget.
+     * @param query       Query to iterate over, which is not modified
+     * @param predicate   Predicate to apply to each result
+     * @param pageSize    Page size that chunks are planned around
+     */
+    public ChunkedFilteredIterator(Query<T> query, IFilterPredicate<T> predicate, int pageSize) {
+        this(query, predicate, pageSize, UNLIMITED);
+    }
+
+    /**
+     * Create an iterator with a scan budget.
+     * @param query       Query to iterate over, which is not modified
+     * @param predicate   Predicate to apply to each result
+     * @param pageSize    Page size that chunks are planned around
+     * @param scanBudget  Maximum number of rows to scan, or UNLIMITED
+     */
+    public ChunkedFilteredIterator(Query<T> query, IFilterPredicate<T> predicate, int pageSize, int scanBudget) {
+        this(query, predicate, pageSize, scanBudget, DEFAULT_MAX_CHUNK_SIZE);
+    }
+
+    /**
+     * Create an iterator with a scan budget.
+     * @param query         Query to iterate over, which is not modified
+     * @param predicate     Predicate to apply to each result
+     * @param pageSize      Page size that chunks are planned around
+     * @param scanBudget    Maximum number of rows to scan, or UNLIMITED
+     * @param maxChunkSize  Maximum number of rows to fetch in a single chunk
+     */
+    public ChunkedFilteredIterator(Query<T> query, IFilterPredicate<T> predicate, int pageSize, int scanBudget, int maxChunkSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+
+        if (maxChunkSize < 1) {
+            throw new IllegalArgumentException("Maximum chunk size must be positive");
+        }
+
+        this.query = query;
+        this.predicate = predicate;
+        this.pageSize = pageSize;
+        this.scanBudget = scanBudget < 0 ? UNLIMITED : scanBudget;
+        this.maxChunkSize = maxChunkSize;
+        this.openChunk();  // starts the datastore query, but doesn't wait for results
+    }
+
+    /** Returns true if the iteration has more elements. */
+    @Override
+    public boolean hasNext() {
+        this.start();
+        return this.next != null;
+    }
+
+    /** Get the next value from the iterator. */
+    @Override
+    public T next() {
+        this.start();
+        T result = this.next;
+        this.next = this.getNextItem();
+        return result;
+    }
+
+    /** Not supported in this implementation. */
+    @Override
+    public void remove() {
+        // The Iterator interface specifies that we should throw this exception
+        throw new UnsupportedOperationException("Remove operation is not supported");
+    }
+
+    /**
+     * Get a serialized cursor representing the current state of the iterator.
+     * @return Serialized cursor, as from Cursor.toWebSafeString().
+     */
+    @Override
+    public String getCursor() {
+        this.start();
+        if (this.cursor == null) {
+            this.cursor = this.serializeCursor(this.rawCursor);
+        }
+
+        return this.cursor;
+    }
+
+    /**
+     * Whether iteration stopped because the scan budget ran out, rather than because the query was exhausted.
+     * If the budget runs out on the last row of the query, the query counts as exhausted.
+     */
+    @Override
+    public boolean isIncomplete() {
+        this.start();
+        return this.incomplete;
+    }
+
+    /** Get the underlying predicate. */
+    public IFilterPredicate<T> getPredicate() {
+        return this.predicate;
+    }
+
+    /** Get the page size that chunks are planned around. */
+    public int getPageSize() {
+        return this.pageSize;
+    }
+
+    /** Get the scan budget, or UNLIMITED. */
+    public int getScanBudget() {
+        return this.scanBudget;
+    }
+
+    /** Get the maximum number of rows fetched in a single chunk. */
+    public int getMaxChunkSize() {
+        return this.maxChunkSize;
+    }
+
+    /** Get the number of chunks fetched from the datastore so far. */
+    public int getChunksFetched() {
+        return this.chunksFetched;
+    }
+
+    /** Get the number of rows scanned so far, whether or not they were accepted. */
+    @Override
+    public long getRowsScanned() {
+        return this.rowsScanned;
+    }
+
+    /** Get the number of scanned rows accepted by the filter predicate so far. */
+    @Override
+    public long getRowsAccepted() {
+        return this.rowsAccepted;
+    }
+
+    /** Get the fraction of scanned rows that have been accepted, 1.0 if nothing has been scanned. */
+    public double getAcceptRatio() {
+        return this.rowsScanned == 0 ? 1.0 : (double) this.rowsAccepted / (double) this.rowsScanned;
+    }
+
+    /** Start iterating, if we haven't already. */
+    private void start() {
+        if (!this.started) {
+            this.started = true;
+            this.next = this.getNextItem();
+        }
+    }
+
+    /**
+     * Get the next item from the iterator, applying criteria from the predicate.
+     * @return Next item, possibly null.
+     */
+    private T getNextItem() {
+
+        // Just like in FilteredResultIterator, the cursor must reflect the
+        // position *before* the pre-fetched item, so a paginating caller
+        // starts in the right place.
+
+        while (true) {
+            if (this.chunk == null || this.chunkRows >= this.chunkLimit || !this.chunk.hasNext()) {
+                if (this.chunk != null && this.chunkRows < this.chunkLimit) {
+                    this.exhausted = true;  // a short chunk means there's nothing left
+                }
+
+                if (this.exhausted) {
+                    this.captureCursor();
+                    return null;
+                }
+
+                if (this.isBudgetSpent()) {
+                    // The chunk that spends the budget fetches one extra row, so we can tell
+                    // whether the query really has more rows or just ended with the budget.
+                    this.incomplete = this.chunkLookAhead && this.chunk.hasNext();
+                    this.exhausted = !this.incomplete;
+                    this.captureCursor();
+                    return null;
+                }
+
+                this.openChunk();
+                continue;
+            }
+
+            this.captureCursor();
+            T element = this.chunk.next();
+            this.chunkRows += 1;
+            this.rowsScanned += 1;
+            if (this.predicate.evaluate(element)) {
+                this.rowsAccepted += 1;
+                return element;
+            }
+        }
+    }
+
+    /** Open the next chunk, starting where the last chunk ended. */
+    private void openChunk() {
+        Cursor start = this.chunk == null ? null : this.chunk.getCursor();
+        int size = this.calculateChunkSize();
+
+        Query<T> clone = this.query.clone();
+        if (start != null) {
+            clone.startCursor(start);
+        }
+
+        boolean lookAhead = this.scanBudget != UNLIMITED && size >= this.scanBudget - this.rowsScanned;
+        clone.limit(lookAhead ? size + 1 : size);
+        clone.chunkSize(lookAhead ? size + 1 : size);
+
+        this.chunk = clone.iterator();
+        this.chunkLimit = size;
+        this.chunkLookAhead = lookAhead;
+        this.chunkRows = 0;
+        this.chunksFetched += 1;
+    }
+
+    /**
+     * Calculate the size of the next chunk.
+     *
+     * <p>
+     * We need enough rows to fill the rest of the current page, plus one for
+     * the look-ahead.  Past the first page (i.e. when the caller is draining
+     * the whole iterator), we just plan for one page at a time.  The accept
+     * ratio is smoothed, so that a predicate that has rejected every row so
+     * far still leads to a finite (if large) chunk.  The result is bounded by
+     * the maximum chunk size and the remaining scan budget.
+     * </p>
+     *
+     * <p>
+     * This is private because it's called from the constructor, before a
+     * subclass would have been initialized.
+     * </p>
+     */
+    private int calculateChunkSize() {
+        long needed = this.rowsAccepted <= this.pageSize ? (this.pageSize + 1) - this.rowsAccepted : this.pageSize;
+        double ratio = (double) (this.rowsAccepted + 1) / (double) (this.rowsScanned + 1);
+        long size = (long) Math.ceil(needed / ratio);
+
+        size = Math.max(1, Math.min(size, this.maxChunkSize));
+        if (this.scanBudget != UNLIMITED) {
+            size = Math.min(size, this.scanBudget - this.rowsScanned);
+        }
+
+        return (int) size;
+    }
+
+    /** Whether the scan budget has been spent. */
+    private boolean isBudgetSpent() {
+        return this.scanBudget != UNLIMITED && this.rowsScanned >= this.scanBudget;
+    }
+
+    /** Capture the raw cursor for the current position, to be serialized later if needed. */
+    private void captureCursor() {
+        this.rawCursor = this.chunk == null ? null : this.chunk.getCursor();
+        this.cursor = null;
+    }
+
+    /** Serialize a raw cursor, as from Cursor.toWebSafeString(). */
+    protected String serializeCursor(Cursor cursor) {
+        return CursorUtils.serialize(cursor);
+    }
+
+}
@@ -0,0 +1,118 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import com.cedarsolutions.dao.gae.ICompactSerializable;
+import com.cedarsolutions.dao.gae.IPayloadCodec;
+import com.cedarsolutions.exception.DaoException;
+
+/**
+ * Payload codec for values that implement ICompactSerializable.
+ *
+ * <p>
+ * The compact format stores no field names, so its version is the schema
+ * version for every compact value.  The standard codec is version 0.  When
+ * an application changes the fields that a compact value writes, it should
+ * register a codec with the next version, i.e. <code>PayloadCodecs.register(new
+ * CompactBinaryCodec(1))</code>.  New payloads are then written with that
+ * version, and each payload's version is passed to readFrom() on decode.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class CompactBinaryCodec implements IPayloadCodec {
+
+    /** Version of the format written by this codec. */
+    private int version;
+
+    /** Create a codec for version 0 of the format. */
+    public CompactBinaryCodec() {
+        this(0);
+    }
+
+    /**
+     * Create a codec for a particular version of the format.
+     * @param version  Version of the format, from 0 to PayloadCodecs.MAX_VERSION
+     */
+    public CompactBinaryCodec(int version) {
+        if (version < 0 || version > PayloadCodecs.MAX_VERSION) {
+            throw new IllegalArgumentException("Invalid compact format version: " + version);
+        }
+
+        this.version = version;
+    }
+
+    /** Get the format identifier for this codec. */
+    @Override
+    public int getFormat() {
+        return PayloadCodecs.FORMAT_COMPACT;
+    }
+
+    /** Get the current version of the format. */
+    @Override
+    public int getVersion() {
+        return this.version;
+    }
+
+    /** Encode a value, returning the payload without any header. */
+    @Override
+    public byte[] encode(Object value) {
+        if (!(value instanceof ICompactSerializable)) {
+            throw new DaoException("Value does not implement ICompactSerializable: " + value);
+        }
+
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            DataOutputStream stream = new DataOutputStream(output);
+            ((ICompactSerializable) value).writeTo(stream);
+            stream.flush();
+            return output.toByteArray();
+        } catch (Exception e) {
+            throw new DaoException("Failed to encode payload: " + e.getMessage(), e);
+        }
+    }
+
+    /** Decode a payload that was encoded by this codec. */
+    @Override
+    public <T> T decode(Class<T> type, byte[] data, int version) {
+        if (!ICompactSerializable.class.isAssignableFrom(type)) {
+            throw new DaoException("Type does not implement ICompactSerializable: " + type.getName());
+        }
+
+        try {
+            T value = type.newInstance();
+            ((ICompactSerializable) value).readFrom(new DataInputStream(new ByteArrayInputStream(data)), version);
+            return value;
+        } catch (DaoException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new DaoException("Failed to decode payload: " + e.getMessage(), e);
+        }
+    }
+
+}
@@ -0,0 +1,236 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Server-side registry that hands out short, opaque handles for datastore cursors.
+ *
+ * <p>
+ * A serialized GAE cursor is often a hundred characters or more, and it
+ * exposes details about the datastore query.  Instead of sending cursors to
+ * the client, the server can register them here and put the returned handle
+ * into Pagination.  ObjectifyProxy.query(Class, Pagination) resolves handles
+ * back into cursors.  Handles start with a character that never appears in
+ * a web-safe cursor, so handles and raw cursors can be mixed freely.
+ * </p>
+ *
+ * <p>
+ * The registry is bounded, and handles expire if not used within the time
+ * to live.  It's also per-JVM, so a request that lands on a different GAE
+ * instance won't find its handles.  For a query whose rows aren't filtered
+ * in memory, ObjectifyProxy falls back to re-scanning from the nearest page
+ * whose handle is still known, so an expired handle costs some extra
+ * datastore reads.  If rows are filtered, the rows to skip aren't known, so
+ * an expired handle is an error and the client has to restart the search.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class CursorRegistry {
+
+    /** Prefix that identifies a handle; '~' is not in the web-safe base64 alphabet used for cursors. */
+    public static final String PREFIX = "~";
+
+    /** Default maximum number of registered cursors. */
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    /** Default time to live for an unused handle, in milliseconds. */
+    public static final long DEFAULT_TIME_TO_LIVE = 30 * 60 * 1000L;
+
+    /** Maximum number of registered cursors. */
+    private int maxEntries;
+
+    /** Time to live for an unused handle, in milliseconds. */
+    private long timeToLive;
+
+    /** Registered cursors by handle, in access order so the least-recently-used handle can be discarded. */
+    private Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /** Handles by cursor, so registering the same cursor twice returns the same handle. */
+    private Map<String, String> handles = new HashMap<String, String>();
+
+    /** Source of handles. */
+    private Random random = new SecureRandom();
+
+    /** Number of handles resolved successfully. */
+    private long hits;
+
+    /** Number of handles that could not be resolved. */
+    private long misses;
+
+    /** Create a registry with default settings. */
+    public CursorRegistry() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * Create a registry.
+     * @param maxEntries  Maximum number of registered cursors, greater than zero
+     * @param timeToLive  Time to live for an unused handle, in milliseconds
+     */
+    public CursorRegistry(int maxEntries, long timeToLive) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Max entries must be greater than zero.");
+        }
+
+        this.maxEntries = maxEntries;
+        this.timeToLive = timeToLive;
+    }
+
+    /** Whether a value from Pagination is a handle, rather than a raw cursor. */
+    public static boolean isHandle(String value) {
+        return value != null && value.startsWith(PREFIX);
+    }
+
+    /**
+     * Register a cursor.
+     * @param cursor  Serialized cursor, as from Cursor.toWebSafeString(), possibly null
+     * @return Handle for the cursor, or null if the cursor is null.
+     */
+    public synchronized String register(String cursor) {
+        if (cursor == null) {
+            return null;
+        }
+
+        if (isHandle(cursor)) {
+            return cursor;  // already registered, possibly by an earlier request
+        }
+
+        long now = this.currentTimeMillis();
+        this.expire(now);
+
+        String handle = this.handles.get(cursor);
+        if (handle != null) {
+            this.entries.get(handle).accessed = now;
+            return handle;
+        }
+
+        do {
+            handle = PREFIX + Long.toString(this.random.nextLong() & Long.MAX_VALUE, Character.MAX_RADIX);
+        } while (this.entries.containsKey(handle));
+
+        this.entries.put(handle, new Entry(cursor, now));
+        this.handles.put(cursor, handle);
+        while (this.entries.size() > this.maxEntries) {
+            Iterator<Entry> iterator = this.entries.values().iterator();
+            this.handles.remove(iterator.next().cursor);
+            iterator.remove();
+        }
+
+        return handle;
+    }
+
+    /**
+     * Resolve a handle back into a cursor.
+     * @param value  Handle, or a raw cursor which is returned as-is, possibly null
+     * @return Serialized cursor, or null if the value is null or the handle is unknown or expired.
+     */
+    public synchronized String resolve(String value) {
+        if (!isHandle(value)) {
+            return value;
+        }
+
+        long now = this.currentTimeMillis();
+        this.expire(now);
+
+        Entry entry = this.entries.get(value);
+        if (entry == null) {
+            this.misses += 1;
+            return null;
+        }
+
+        this.hits += 1;
+        entry.accessed = now;
+        return entry.cursor;
+    }
+
+    /** Discard all registered cursors. */
+    public synchronized void clear() {
+        this.entries.clear();
+        this.handles.clear();
+    }
+
+    /** Get the number of registered cursors. */
+    public synchronized int size() {
+        this.expire(this.currentTimeMillis());
+        return this.entries.size();
+    }
+
+    /** Get the number of handles resolved successfully. */
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    /** Get the number of handles that could not be resolved. */
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    /** Get the maximum number of registered cursors. */
+    public int getMaxEntries() {
+        return this.maxEntries;
+    }
+
+    /** Get the time to live for an unused handle, in milliseconds. */
+    public long getTimeToLive() {
+        return this.timeToLive;
+    }
+
+    /** Get the current time in milliseconds, overridable for testing. */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /** Discard expired entries, which are always at the start of the access-ordered map. */
+    private void expire(long now) {
+        Iterator<Entry> iterator = this.entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (now - entry.accessed <= this.timeToLive) {
+                break;
+            }
+
+            this.handles.remove(entry.cursor);
+            iterator.remove();
+        }
+    }
+
+    /** A registered cursor. */
+    private static class Entry {
+        private String cursor;
+        private long accessed;
+
+        Entry(String cursor, long accessed) {
+            this.cursor = cursor;
+            this.accessed = accessed;
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.appengine.api.datastore.Cursor;
+
+/**
+ * Utilities for working with GAE datastore cursors.
+ *
+ * <p>
+ * Serializing a cursor via Cursor.toWebSafeString() is surprisingly
+ * expensive, so all of the iterators in this package serialize cursors
+ * through this class.  That gives us one place to count serializations,
+ * which makes it possible to confirm in production that lazy cursor
+ * capture is actually saving work.  Serializations are also counted per
+ * thread, so QueryMeter can attribute them to an individual query.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class CursorUtils {
+
+    /** Number of cursor serializations performed by this JVM. */
+    private static final AtomicLong SERIALIZATIONS = new AtomicLong(0);
+
+    /** Number of cursor serializations performed by the current thread. */
+    private static final ThreadLocal<long[]> THREAD_SERIALIZATIONS = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    /**
+     * Serialize a cursor, counting the serialization.
+     * @param cursor  Cursor to serialize, possibly null
+     * @return Serialized cursor, as from Cursor.toWebSafeString(), or null if the cursor is null.
+     */
+    public static String serialize(Cursor cursor) {
+        if (cursor == null) {
+            return null;
+        }
+
+        SERIALIZATIONS.incrementAndGet();
+        THREAD_SERIALIZATIONS.get()[0]++;
+        return cursor.toWebSafeString();
+    }
+
+    /**
+     * Deserialize a cursor.
+     * @param cursor  Serialized cursor, as from Cursor.toWebSafeString(), possibly null
+     * @return Deserialized cursor, or null if the serialized cursor is null.
+     */
+    public static Cursor deserialize(String cursor) {
+        return cursor == null ? null : Cursor.fromWebSafeString(cursor);
+    }
+
+    /** Get the number of cursor serializations performed by this JVM since startup or the last reset. */
+    public static long getSerializationCount() {
+        return SERIALIZATIONS.get();
+    }
+
+    /** Get the number of cursor serializations performed by the current thread, which is never reset. */
+    public static long getThreadSerializationCount() {
+        return THREAD_SERIALIZATIONS.get()[0];
+    }
+
+    /** Reset the cursor serialization count to zero. */
+    public static void resetSerializationCount() {
+        SERIALIZATIONS.set(0);
+    }
+
+}
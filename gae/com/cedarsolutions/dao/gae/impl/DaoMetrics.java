@@ -0,0 +1,163 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+/**
+ * Accumulated metrics for one DAO operation, as tracked by InMemoryMetricsSink.
+ * Queries are identified by DAO and query shape; gets by DAO and kind.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class DaoMetrics {
+
+    /** Name of the DAO. */
+    private final String dao;
+
+    /** Query shape, or "get Kind" for gets. */
+    private final String operation;
+
+    /** Number of executions. */
+    private long executions;
+
+    /** Total wall time, in nanoseconds. */
+    private long elapsedNanos;
+
+    /** Longest single execution, in nanoseconds. */
+    private long maxElapsedNanos;
+
+    /** Number of rows scanned by queries. */
+    private long rowsScanned;
+
+    /** Number of rows accepted by filter predicates. */
+    private long rowsAccepted;
+
+    /** Number of entities fetched by queries. */
+    private long entitiesFetchedByQuery;
+
+    /** Number of entities fetched by gets. */
+    private long entitiesFetchedByGet;
+
+    /** Number of cursors serialized. */
+    private long cursorSerializations;
+
+    /** Create empty metrics for an operation. */
+    public DaoMetrics(String dao, String operation) {
+        this.dao = dao;
+        this.operation = operation;
+    }
+
+    /** Create a copy of another set of metrics. */
+    protected DaoMetrics(DaoMetrics other) {
+        synchronized (other) {
+            this.dao = other.dao;
+            this.operation = other.operation;
+            this.executions = other.executions;
+            this.elapsedNanos = other.elapsedNanos;
+            this.maxElapsedNanos = other.maxElapsedNanos;
+            this.rowsScanned = other.rowsScanned;
+            this.rowsAccepted = other.rowsAccepted;
+            this.entitiesFetchedByQuery = other.entitiesFetchedByQuery;
+            this.entitiesFetchedByGet = other.entitiesFetchedByGet;
+            this.cursorSerializations = other.cursorSerializations;
+        }
+    }
+
+    /** Add a query execution. */
+    protected synchronized void addQuery(long elapsedNanos, long rowsScanned, long rowsAccepted,
+                                         long entitiesFetched, long cursorSerializations) {
+        this.addExecution(elapsedNanos);
+        this.rowsScanned += rowsScanned;
+        this.rowsAccepted += rowsAccepted;
+        this.entitiesFetchedByQuery += entitiesFetched;
+        this.cursorSerializations += cursorSerializations;
+    }
+
+    /** Add a get. */
+    protected synchronized void addGet(long elapsedNanos, long entities) {
+        this.addExecution(elapsedNanos);
+        this.entitiesFetchedByGet += entities;
+    }
+
+    /** Add the timing for a single execution. */
+    private void addExecution(long elapsedNanos) {
+        this.executions += 1;
+        this.elapsedNanos += elapsedNanos;
+        this.maxElapsedNanos = Math.max(this.maxElapsedNanos, elapsedNanos);
+    }
+
+    /** Get the fraction of scanned rows that were accepted, or 1.0 if nothing was scanned. */
+    public synchronized double getAcceptRatio() {
+        return this.rowsScanned == 0 ? 1.0 : (double) this.rowsAccepted / this.rowsScanned;
+    }
+
+    /** Get the total wall time, in milliseconds. */
+    public synchronized double getElapsedMillis() {
+        return this.elapsedNanos / 1000000.0;
+    }
+
+    /** Get the average wall time per execution, in milliseconds. */
+    public synchronized double getAverageMillis() {
+        return this.executions == 0 ? 0.0 : this.elapsedNanos / 1000000.0 / this.executions;
+    }
+
+    /** Get the longest single execution, in milliseconds. */
+    public synchronized double getMaxElapsedMillis() {
+        return this.maxElapsedNanos / 1000000.0;
+    }
+
+    public String getDao() {
+        return this.dao;
+    }
+
+    public String getOperation() {
+        return this.operation;
+    }
+
+    public synchronized long getExecutions() {
+        return this.executions;
+    }
+
+    public synchronized long getElapsedNanos() {
+        return this.elapsedNanos;
+    }
+
+    public synchronized long getRowsScanned() {
+        return this.rowsScanned;
+    }
+
+    public synchronized long getRowsAccepted() {
+        return this.rowsAccepted;
+    }
+
+    public synchronized long getEntitiesFetchedByQuery() {
+        return this.entitiesFetchedByQuery;
+    }
+
+    public synchronized long getEntitiesFetchedByGet() {
+        return this.entitiesFetchedByGet;
+    }
+
+    public synchronized long getCursorSerializations() {
+        return this.cursorSerializations;
+    }
+
+}
@@ -36,6 +36,29 @@ import com.cedarsolutions.util.StringUtils;
 
 /**
  * Provides access to the Objectify infrastructure.
+ *
+ * <p>
+ * The entity cache manager is optional.  If it is configured, every
+ * ObjectifyProxy handed out by this service uses its second-level caches.
+ * </p>
+ *
+ * <p>
+ * The write batch size is also optional.  If it is greater than zero,
+ * transactional proxies buffer their puts and deletes and write them as
+ * batches of up to that size, with the final batch written at commit.
+ * </p>
+ *
+ * <p>
+ * The cursor registry is optional, too.  If it is configured, proxies can
+ * resolve the cursor handles that the registry hands out.
+ * </p>
+ *
+ * <p>
+ * Kind versions are optional as well.  If they are configured, proxies bump
+ * the version of every kind they write, so any QueryResultCache built over
+ * the same KindVersions instance stops serving results for that kind.
+ * </p>
+ *
  * @author Kenneth J. Pronovici <pronovic@ieee.org>
  */
 public class DaoObjectifyService extends AbstractService implements IDaoObjectifyService {
@@ -46,6 +69,18 @@ public class DaoObjectifyService extends AbstractService implements IDaoObjectif
     /** Class path resource to use. */
     private Resource entities;
 
+    /** Second-level entity caches to use, possibly null. */
+    private EntityCacheManager entityCacheManager;
+
+    /** Batch size for write-behind in transactions, or zero to write immediately. */
+    private int writeBatchSize;
+
+    /** Registry used to resolve cursor handles, possibly null. */
+    private CursorRegistry cursorRegistry;
+
+    /** Kind versions to bump on writes, possibly null. */
+    private KindVersions kindVersions;
+
     /**
      * Invoked by a bean factory after it has set all bean properties.
      * @throws NotConfiguredException In the event of misconfiguration.
@@ -53,7 +88,7 @@ public class DaoObjectifyService extends AbstractService implements IDaoObjectif
     @Override
     public void afterPropertiesSet() throws NotConfiguredException {
         super.afterPropertiesSet();
-        if (this.objectifyServiceProxy == null || this.entities == null) {
+        if (this.objectifyServiceProxy == null || this.entities == null || this.writeBatchSize < 0) {
             throw new NotConfiguredException("DaoObjectifyService is not properly configured.");
         }
 
@@ -63,13 +98,18 @@ public class DaoObjectifyService extends AbstractService implements IDaoObjectif
     /** Get an Objectify object for a DAO to operate on. */
     @Override
     public ObjectifyProxy getObjectify() {
-        return new ObjectifyProxy(this.objectifyServiceProxy.begin(), false);
+        ObjectifyProxy proxy = new ObjectifyProxy(this.objectifyServiceProxy.begin(), false, this.entityCacheManager, 0, this.cursorRegistry);
+        proxy.setKindVersions(this.kindVersions);
+        return proxy;
     }
 
     /** Get an Objectify object with an active transaction. */
     @Override
     public ObjectifyProxy getObjectifyWithTransaction() {
-        return new ObjectifyProxy(this.objectifyServiceProxy.beginTransaction(), true);
+        ObjectifyProxy proxy = new ObjectifyProxy(this.objectifyServiceProxy.beginTransaction(), true, this.entityCacheManager,
+                                                  this.writeBatchSize, this.cursorRegistry);
+        proxy.setKindVersions(this.kindVersions);
+        return proxy;
     }
 
     /** Register entities with Objectify. */
@@ -126,4 +166,36 @@ public class DaoObjectifyService extends AbstractService implements IDaoObjectif
         this.entities = entities;
     }
 
+    public EntityCacheManager getEntityCacheManager() {
+        return this.entityCacheManager;
+    }
+
+    public void setEntityCacheManager(EntityCacheManager entityCacheManager) {
+        this.entityCacheManager = entityCacheManager;
+    }
+
+    public int getWriteBatchSize() {
+        return this.writeBatchSize;
+    }
+
+    public void setWriteBatchSize(int writeBatchSize) {
+        this.writeBatchSize = writeBatchSize;
+    }
+
+    public CursorRegistry getCursorRegistry() {
+        return this.cursorRegistry;
+    }
+
+    public void setCursorRegistry(CursorRegistry cursorRegistry) {
+        this.cursorRegistry = cursorRegistry;
+    }
+
+    public KindVersions getKindVersions() {
+        return this.kindVersions;
+    }
+
+    public void setKindVersions(KindVersions kindVersions) {
+        this.kindVersions = kindVersions;
+    }
+
 }
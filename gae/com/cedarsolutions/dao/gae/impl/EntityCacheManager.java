@@ -0,0 +1,115 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.cedarsolutions.dao.gae.IEntityCache;
+import com.googlecode.objectify.Key;
+
+/**
+ * Per-kind registry of second-level entity caches.
+ *
+ * <p>
+ * Caching is opt-in: only kinds that have a cache registered are cached.
+ * Each kind can have its own cache, or several kinds can share one.  The
+ * manager is normally configured as a Spring bean and injected into
+ * DaoObjectifyService, which passes it along to every ObjectifyProxy.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class EntityCacheManager {
+
+    /** Caches keyed by datastore kind. */
+    private Map<String, IEntityCache> caches = new ConcurrentHashMap<String, IEntityCache>();
+
+    /** Register a cache for a kind, replacing any existing cache. */
+    public void register(String kind, IEntityCache cache) {
+        this.caches.put(kind, cache);
+    }
+
+    /** Get the cache for a kind, or null if the kind is not cached. */
+    public IEntityCache getCache(String kind) {
+        return kind == null ? null : this.caches.get(kind);
+    }
+
+    /** Get the cache for the kind of a key, or null if the kind is not cached. */
+    public IEntityCache getCache(Key<?> key) {
+        return key == null ? null : this.getCache(key.getKind());
+    }
+
+    /** Whether any kinds are cached. */
+    public boolean isEmpty() {
+        return this.caches.isEmpty();
+    }
+
+    /** Get the number of lookups served from all of the caches. */
+    public long getHits() {
+        long hits = 0;
+        for (IEntityCache cache : this.getDistinctCaches()) {
+            hits += cache.getHits();
+        }
+
+        return hits;
+    }
+
+    /** Get the number of lookups that were not in any of the caches. */
+    public long getMisses() {
+        long misses = 0;
+        for (IEntityCache cache : this.getDistinctCaches()) {
+            misses += cache.getMisses();
+        }
+
+        return misses;
+    }
+
+    /** Remove all entities from all of the caches. */
+    public void clear() {
+        for (IEntityCache cache : this.getDistinctCaches()) {
+            cache.clear();
+        }
+    }
+
+    /** Get the distinct caches, since several kinds may share one. */
+    private Set<IEntityCache> getDistinctCaches() {
+        Set<IEntityCache> distinct = Collections.newSetFromMap(new IdentityHashMap<IEntityCache, Boolean>());
+        distinct.addAll(this.caches.values());
+        return distinct;
+    }
+
+    /** Get the caches, keyed by datastore kind. */
+    public Map<String, IEntityCache> getCaches() {
+        return this.caches;
+    }
+
+    /** Set the caches, keyed by datastore kind. */
+    public void setCaches(Map<String, IEntityCache> caches) {
+        this.caches = new ConcurrentHashMap<String, IEntityCache>(caches);
+    }
+
+}
@@ -0,0 +1,161 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.cedarsolutions.dao.gae.IFilterPredicate;
+import com.googlecode.objectify.Query;
+
+/**
+ * Plans datastore fetch sizes for a page of results.
+ *
+ * <p>
+ * Left alone, the datastore fetches query results in default-sized batches
+ * that have nothing to do with the page being built, so it over-fetches for
+ * small pages and makes extra round trips for large ones.  A page needs the
+ * page size plus one rows (the extra row is the look-ahead PaginationUtils
+ * uses to detect a next page), so that's what the planned chunk and prefetch
+ * sizes are based on.  If the rows will be filtered in memory, the sizes are
+ * scaled up by the predicate's observed selectivity: if a predicate has been
+ * accepting 10% of rows, the datastore is asked for about ten times as many
+ * rows as the page needs.
+ * </p>
+ *
+ * <p>
+ * A limit is only set when no rows will be filtered out.  With a filtering
+ * predicate, a limit would cut the scan short, and PaginationUtils would
+ * mistake a short page for the last page.  ChunkedFilteredIterator is the
+ * option for a predicate that has to be bounded.
+ * </p>
+ *
+ * <p>
+ * Selectivity is observed per predicate class, across all queries in this
+ * JVM, and is recorded by PaginationUtils each time a page is built from a
+ * filtered iterator.  Observations are blended into a moving average, so a
+ * single unusual page doesn't swing the plan.  The average is approximate,
+ * since concurrent observations for the same predicate can overwrite each
+ * other, which is fine for sizing purposes.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class FetchPlanner {
+
+    /** Maximum chunk or prefetch size, which matches the largest useful datastore batch. */
+    public static final int MAX_FETCH_SIZE = 1000;
+
+    /** Selectivity assumed for a predicate that has not been observed yet. */
+    public static final double DEFAULT_SELECTIVITY = 1.0;
+
+    /** Weight given to a new observation in the moving average. */
+    private static final double WEIGHT = 0.25;
+
+    /** Observed selectivity by predicate class name. */
+    private static final ConcurrentMap<String, Double> SELECTIVITY = new ConcurrentHashMap<String, Double>();
+
+    /**
+     * Plan a query for a page whose rows will be filtered by a particular predicate.
+     * @param query      Query to plan
+     * @param pageSize   Page size in use, where a page size less than 1 (unpaged) leaves the query alone
+     * @param predicate  Predicate that will filter the rows, or null (or a NoOpFilterPredicate) if none
+     */
+    public static <T> void plan(Query<T> query, int pageSize, IFilterPredicate<?> predicate) {
+        if (pageSize < 1) {
+            return;
+        }
+
+        if (!isFiltering(predicate)) {
+            int size = getFetchSize(pageSize, DEFAULT_SELECTIVITY);
+            query.limit(size);
+            query.chunkSize(size);
+            query.prefetchSize(size);
+        } else {
+            int size = getFetchSize(pageSize, getSelectivity(predicate));
+            query.chunkSize(size);
+            query.prefetchSize(size);
+        }
+    }
+
+    /**
+     * Get the number of rows to fetch for a page.
+     * @param pageSize     Page size in use
+     * @param selectivity  Expected fraction of scanned rows that will be accepted
+     * @return Page size plus one for the look-ahead, scaled by selectivity, and bounded by MAX_FETCH_SIZE.
+     */
+    public static int getFetchSize(int pageSize, double selectivity) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+
+        long needed = pageSize + 1L;
+        long size = selectivity <= 0.0 ? MAX_FETCH_SIZE : (long) Math.ceil(needed / Math.min(selectivity, 1.0));
+        return (int) Math.max(needed, Math.min(size, MAX_FETCH_SIZE));
+    }
+
+    /** Get the observed selectivity of a predicate, or DEFAULT_SELECTIVITY if it has not been observed. */
+    public static double getSelectivity(IFilterPredicate<?> predicate) {
+        Double selectivity = isFiltering(predicate) ? SELECTIVITY.get(getName(predicate)) : null;
+        return selectivity == null ? DEFAULT_SELECTIVITY : selectivity;
+    }
+
+    /**
+     * Record the selectivity observed for a predicate.
+     * @param predicate  Predicate that filtered the rows
+     * @param scanned    Number of rows scanned
+     * @param accepted   Number of scanned rows the predicate accepted
+     */
+    public static void record(IFilterPredicate<?> predicate, long scanned, long accepted) {
+        if (isFiltering(predicate) && scanned > 0) {
+            String name = getName(predicate);
+            double observed = (double) accepted / (double) scanned;
+            Double previous = SELECTIVITY.get(name);
+            SELECTIVITY.put(name, previous == null ? observed : (WEIGHT * observed) + ((1.0 - WEIGHT) * previous));
+        }
+    }
+
+    /** Record the selectivity observed by an iterator that keeps scan statistics, ignoring any other iterator. */
+    public static void record(IIteratorWithCursor<?> iterator) {
+        if (iterator instanceof IScanStatistics) {
+            IScanStatistics statistics = (IScanStatistics) iterator;
+            record(statistics.getPredicate(), statistics.getRowsScanned(), statistics.getRowsAccepted());
+        }
+    }
+
+    /** Forget all observed selectivity. */
+    public static void reset() {
+        SELECTIVITY.clear();
+    }
+
+    /** Whether a predicate actually filters anything, rather than being null or a NoOpFilterPredicate. */
+    public static boolean isFiltering(IFilterPredicate<?> predicate) {
+        return predicate != null && !(predicate instanceof NoOpFilterPredicate);
+    }
+
+    /** Get the name that selectivity is tracked under for a predicate. */
+    private static String getName(IFilterPredicate<?> predicate) {
+        return predicate.getClass().getName();
+    }
+
+}
@@ -23,37 +23,69 @@
 package com.cedarsolutions.dao.gae.impl;
 
 import com.cedarsolutions.dao.gae.IFilterPredicate;
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.QueryResultIterator;
 import com.googlecode.objectify.Query;
 
 /**
  * Result iterator that applies search criteria to returned results.
+ *
+ * <p>
+ * By default, the iterator serializes the cursor for every row that it
+ * scans, which can get expensive when the predicate rejects most rows.  In
+ * lazy cursor mode, the iterator instead keeps the raw cursor for the last
+ * position, and only serializes it when getCursor() is actually called.
+ * Normally, that happens once per page, in PaginationUtils.
+ * </p>
+ *
+ * <p>
+ * The iterator counts the rows it scans and the rows the predicate accepts,
+ * so callers can see how selective the in-memory filtering is.
+ * </p>
+ *
  * @param <T>  Type of the iterator
  * @author Kenneth J. Pronovici <pronovic@ieee.org>
  */
-public class FilteredResultIterator<T> implements IIteratorWithCursor<T> {
+public class FilteredResultIterator<T> implements IIteratorWithCursor<T>, IScanStatistics {
 
     private QueryResultIterator<T> iterator;
     private IFilterPredicate<T> predicate;
+    private boolean lazyCursor;
+    private boolean started;
     private T next;
     private String cursor;
+    private Cursor rawCursor;
+    private long rowsScanned;
+    private long rowsAccepted;
 
     /** Create an iterator based on a query and a predicate. */
     public FilteredResultIterator(Query<T> query, IFilterPredicate<T> predicate) {
+        this(query, predicate, false);
+    }
+
+    /**
+     * Create an iterator based on a query and a predicate.
+     * @param query       Query to iterate over
+     * @param predicate   Predicate to apply to each result
+     * @param lazyCursor  Whether to defer cursor serialization until getCursor() is called
+     */
+    public FilteredResultIterator(Query<T> query, IFilterPredicate<T> predicate, boolean lazyCursor) {
         this.iterator = query.iterator();
         this.predicate = predicate;
-        this.next = this.getNextItem();
+        this.lazyCursor = lazyCursor;
     }
 
     /** Returns true if the iteration has more elements. */
     @Override
     public boolean hasNext() {
+        this.start();
         return this.next != null;
     }
 
     /** Get the next value from the iterator. */
     @Override
     public T next() {
+        this.start();
         T result = this.next;
         this.next = this.getNextItem();
         return result;
@@ -76,15 +108,45 @@ public class FilteredResultIterator<T> implements IIteratorWithCursor<T> {
         return this.predicate;
     }
 
+    /** Whether this iterator defers cursor serialization until getCursor() is called. */
+    public boolean isLazyCursor() {
+        return this.lazyCursor;
+    }
+
+    /** Get the number of rows scanned so far, whether or not they were accepted. */
+    @Override
+    public long getRowsScanned() {
+        return this.rowsScanned;
+    }
+
+    /** Get the number of scanned rows accepted by the filter predicate so far. */
+    @Override
+    public long getRowsAccepted() {
+        return this.rowsAccepted;
+    }
+
     /**
      * Get a serialized cursor representing the current state of the iterator.
      * @return Serialized cursor, as from Cursor.toWebSafeString().
      */
     @Override
     public String getCursor() {
+        this.start();
+        if (this.lazyCursor && this.cursor == null) {
+            this.cursor = this.serializeCursor(this.rawCursor);
+        }
+
         return this.cursor;
     }
 
+    /** Start iterating, if we haven't already; the first item isn't pre-fetched until the iterator is actually used. */
+    private void start() {
+        if (!this.started) {
+            this.started = true;
+            this.next = this.getNextItem();
+        }
+    }
+
     /**
      * Get the next item from the iterator, applying criteria from the predicate.
      * @return Next item, possibly null.
@@ -96,14 +158,16 @@ public class FilteredResultIterator<T> implements IIteratorWithCursor<T> {
         // cursor reflects the position *before* calling next().  That way,
         // if the caller is paginating, they start in the right place.
 
-        if (this.cursor == null) {
-            this.cursor = this.deriveCursorValue();
+        if (!this.isCursorCaptured()) {
+            this.captureCursor();
         }
 
         while (iterator.hasNext()) {
-            this.cursor = this.deriveCursorValue();
+            this.captureCursor();
             T element = iterator.next();
+            this.rowsScanned += 1;
             if (predicate.evaluate(element)) {
+                this.rowsAccepted += 1;
                 return element;
             }
         }
@@ -111,9 +175,34 @@ public class FilteredResultIterator<T> implements IIteratorWithCursor<T> {
         return null;
     }
 
+    /** Whether a cursor has been captured for the current position. */
+    private boolean isCursorCaptured() {
+        return this.lazyCursor ? this.rawCursor != null : this.cursor != null;
+    }
+
+    /** Capture the cursor for the current position, serializing it only if we are not lazy. */
+    private void captureCursor() {
+        if (this.lazyCursor) {
+            this.rawCursor = this.deriveRawCursor();
+            this.cursor = null;
+        } else {
+            this.cursor = this.deriveCursorValue();
+        }
+    }
+
     /** Derive the cursor value that should be saved off. */
     protected String deriveCursorValue() {
-        return this.iterator.getCursor().toWebSafeString();
+        return this.serializeCursor(this.deriveRawCursor());
+    }
+
+    /** Derive the raw cursor for the current position of the underlying iterator. */
+    protected Cursor deriveRawCursor() {
+        return this.iterator.getCursor();
+    }
+
+    /** Serialize a raw cursor, as from Cursor.toWebSafeString(). */
+    protected String serializeCursor(Cursor cursor) {
+        return CursorUtils.serialize(cursor);
     }
 
 }
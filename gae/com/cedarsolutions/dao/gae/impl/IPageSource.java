@@ -0,0 +1,52 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import com.cedarsolutions.dao.domain.Pagination;
+
+/**
+ * Source of paginated data, used when a page may be served from a cache or buffer instead.
+ * @param <T>  Type of the paginated data
+ * @see PaginationUtils#createPaginatedResultsWithPrefetch(Pagination, String, IPageSource, PrefetchBuffer, java.util.concurrent.Executor)
+ * @see QueryResultCache#getResults(Class, Object, Pagination, IPageSource)
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public interface IPageSource<T> {
+
+    /**
+     * Open an iterator over the page described by the pagination.
+     *
+     * <p>
+     * The implementation should build and execute its query (typically
+     * via ObjectifyProxy.query(Class, Pagination)) and wrap it in one of the
+     * filtered iterators.  The caller consumes the iterator right away.  When
+     * prefetching, this may be called from another thread, so don't share an
+     * ObjectifyProxy with the calling thread.
+     * </p>
+     *
+     * @param pagination  Pagination for the page to open
+     * @return Iterator over the page.
+     */
+    IIteratorWithCursor<T> open(Pagination pagination);
+
+}
@@ -0,0 +1,44 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+/**
+ * An iterator with a cursor that might stop before its query is exhausted.
+ *
+ * <p>
+ * When an iterator like this stops early (for instance, because it ran out
+ * of scan budget), hasNext() returns false, but the cursor returned by
+ * getCursor() can be used to resume the query where it left off.
+ * PaginationUtils uses this to return a partial page that still has a next
+ * page.
+ * </p>
+ *
+ * @param <T>  Type of the iterator
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public interface IResumableIterator<T> extends IIteratorWithCursor<T> {
+
+    /** Whether iteration stopped before the underlying query was exhausted. */
+    boolean isIncomplete();
+
+}
@@ -0,0 +1,42 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import com.cedarsolutions.dao.gae.IFilterPredicate;
+
+/**
+ * Statistics about the rows an iterator has scanned in the datastore.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public interface IScanStatistics {
+
+    /** Get the number of rows scanned so far, whether or not they were accepted. */
+    long getRowsScanned();
+
+    /** Get the number of scanned rows accepted by the filter predicate so far. */
+    long getRowsAccepted();
+
+    /** Get the predicate that decides which scanned rows are accepted, or null if there is none. */
+    IFilterPredicate<?> getPredicate();
+
+}
@@ -0,0 +1,167 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.cedarsolutions.dao.gae.IDaoMetricsSink;
+
+/**
+ * Metrics sink that accumulates metrics in memory, for finding hot queries.
+ *
+ * <p>
+ * Metrics are kept per DAO and query shape, and per DAO and kind for gets,
+ * for the life of the sink or until reset() is called.  The summary lists
+ * operations by total wall time, so the most expensive queries come first.
+ * It's meant to be dumped on demand, from an admin page or a log statement.
+ * Metrics are kept per JVM, so on App Engine each instance has its own.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class InMemoryMetricsSink implements IDaoMetricsSink {
+
+    /** Orders metrics by total wall time, most expensive first. */
+    private static final Comparator<DaoMetrics> BY_ELAPSED = new Comparator<DaoMetrics>() {
+        @Override
+        public int compare(DaoMetrics o1, DaoMetrics o2) {
+            long e1 = o1.getElapsedNanos();
+            long e2 = o2.getElapsedNanos();
+            return e1 < e2 ? 1 : (e1 > e2 ? -1 : 0);
+        }
+    };
+
+    /** Prefix for the operation name used for gets. */
+    private static final String GET_PREFIX = "get ";
+
+    /** Accumulated metrics, keyed by DAO and operation. */
+    private final ConcurrentMap<String, DaoMetrics> metrics = new ConcurrentHashMap<String, DaoMetrics>();
+
+    /** Whether the sink is enabled. */
+    private volatile boolean enabled = true;
+
+    /** Whether metrics should be measured and recorded at all. */
+    @Override
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /** Enable or disable the sink, without discarding what has been recorded. */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /** Record the execution of a query. */
+    @Override
+    public void recordQuery(String dao, String shape, long elapsedNanos, long rowsScanned, long rowsAccepted,
+                            long entitiesFetched, long cursorSerializations) {
+        this.getOrCreate(dao, shape).addQuery(elapsedNanos, rowsScanned, rowsAccepted, entitiesFetched, cursorSerializations);
+    }
+
+    /** Record a get or find against the datastore. */
+    @Override
+    public void recordGet(String dao, String kind, long elapsedNanos, long entities) {
+        this.getOrCreate(dao, GET_PREFIX + kind).addGet(elapsedNanos, entities);
+    }
+
+    /**
+     * Get a snapshot of the metrics for one operation.
+     * @param dao        Name of the DAO
+     * @param operation  Query shape, or "get Kind" for gets
+     * @return Snapshot of the metrics, or null if nothing has been recorded.
+     */
+    public DaoMetrics getMetrics(String dao, String operation) {
+        DaoMetrics current = this.metrics.get(createKey(dao, operation));
+        return current == null ? null : new DaoMetrics(current);
+    }
+
+    /** Get a snapshot of all metrics, ordered by total wall time, most expensive first. */
+    public List<DaoMetrics> getMetrics() {
+        List<DaoMetrics> result = new ArrayList<DaoMetrics>();
+        for (DaoMetrics current : this.metrics.values()) {
+            result.add(new DaoMetrics(current));
+        }
+
+        Collections.sort(result, BY_ELAPSED);
+        return result;
+    }
+
+    /**
+     * Get a printable summary of the most expensive operations.
+     * @param limit  Maximum number of operations to include
+     * @return Summary table, one operation per line, ordered by total wall time.
+     */
+    public String getSummary(int limit) {
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format("%-24s %-32s %8s %10s %8s %8s %10s %8s %10s %10s %8s%n",
+                                     "DAO", "Operation", "Calls", "Total ms", "Avg ms", "Max ms",
+                                     "Scanned", "Accept%", "By query", "By get", "Cursors"));
+
+        int count = 0;
+        for (DaoMetrics current : this.getMetrics()) {
+            if (count++ >= limit) {
+                break;
+            }
+
+            summary.append(String.format("%-24s %-32s %8d %10.1f %8.2f %8.2f %10d %8.1f %10d %10d %8d%n",
+                                         current.getDao(), current.getOperation(), current.getExecutions(),
+                                         current.getElapsedMillis(), current.getAverageMillis(), current.getMaxElapsedMillis(),
+                                         current.getRowsScanned(), current.getAcceptRatio() * 100.0,
+                                         current.getEntitiesFetchedByQuery(), current.getEntitiesFetchedByGet(),
+                                         current.getCursorSerializations()));
+        }
+
+        return summary.toString();
+    }
+
+    /** Discard all recorded metrics. */
+    public void reset() {
+        this.metrics.clear();
+    }
+
+    /** Get the metrics for an operation, creating them if necessary. */
+    private DaoMetrics getOrCreate(String dao, String operation) {
+        String key = createKey(dao, operation);
+        DaoMetrics current = this.metrics.get(key);
+        if (current == null) {
+            DaoMetrics created = new DaoMetrics(dao, operation);
+            current = this.metrics.putIfAbsent(key, created);
+            if (current == null) {
+                current = created;
+            }
+        }
+
+        return current;
+    }
+
+    /** Create the map key for an operation. */
+    private static String createKey(String dao, String operation) {
+        return dao + "\u0000" + operation;
+    }
+
+}
@@ -0,0 +1,85 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import com.cedarsolutions.dao.gae.IPayloadCodec;
+import com.cedarsolutions.exception.DaoException;
+
+/**
+ * Payload codec that uses standard Java serialization.
+ * This works for any Serializable value, but the payloads are large and slow to decode.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class JavaSerializationCodec implements IPayloadCodec {
+
+    /** Get the format identifier for this codec. */
+    @Override
+    public int getFormat() {
+        return PayloadCodecs.FORMAT_JAVA;
+    }
+
+    /** Get the current version of the format. */
+    @Override
+    public int getVersion() {
+        return 0;
+    }
+
+    /** Encode a value, returning the payload without any header. */
+    @Override
+    public byte[] encode(Object value) {
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            ObjectOutputStream stream = new ObjectOutputStream(output);
+            try {
+                stream.writeObject(value);
+            } finally {
+                stream.close();
+            }
+
+            return output.toByteArray();
+        } catch (Exception e) {
+            throw new DaoException("Failed to serialize payload: " + e.getMessage(), e);
+        }
+    }
+
+    /** Decode a payload that was encoded by this codec. */
+    @Override
+    public <T> T decode(Class<T> type, byte[] data, int version) {
+        try {
+            ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(data));
+            try {
+                return type.cast(stream.readObject());
+            } finally {
+                stream.close();
+            }
+        } catch (Exception e) {
+            throw new DaoException("Failed to deserialize payload: " + e.getMessage(), e);
+        }
+    }
+
+}
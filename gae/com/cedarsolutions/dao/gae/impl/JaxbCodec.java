@@ -0,0 +1,69 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.io.UnsupportedEncodingException;
+
+import com.cedarsolutions.dao.gae.IPayloadCodec;
+import com.cedarsolutions.exception.DaoException;
+import com.cedarsolutions.util.JaxbUtils;
+
+/**
+ * Payload codec that uses a JAXB XML binding, via JaxbUtils.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class JaxbCodec implements IPayloadCodec {
+
+    /** Get the format identifier for this codec. */
+    @Override
+    public int getFormat() {
+        return PayloadCodecs.FORMAT_JAXB;
+    }
+
+    /** Get the current version of the format. */
+    @Override
+    public int getVersion() {
+        return 0;
+    }
+
+    /** Encode a value, returning the payload without any header. */
+    @Override
+    public byte[] encode(Object value) {
+        try {
+            return JaxbUtils.getInstance().marshalDocument(value).getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new DaoException("Failed to encode payload: " + e.getMessage(), e);
+        }
+    }
+
+    /** Decode a payload that was encoded by this codec. */
+    @Override
+    public <T> T decode(Class<T> type, byte[] data, int version) {
+        try {
+            return JaxbUtils.getInstance().unmarshalDocument(type, new String(data, "UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new DaoException("Failed to decode payload: " + e.getMessage(), e);
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import com.cedarsolutions.dao.domain.Pagination;
+import com.cedarsolutions.dao.gae.IFilterPredicate;
+import com.cedarsolutions.dao.gae.IKeyFilterPredicate;
+import com.cedarsolutions.dao.gae.domain.IContainer;
+import com.googlecode.objectify.Query;
+
+/**
+ * Keys-only equivalent of FilteredContainerIterator.
+ *
+ * <p>
+ * This is where keys-only mode pays off the most, since containers often
+ * hold large serialized payloads that would otherwise be fetched and then
+ * thrown away whenever the predicate rejects a row.
+ * </p>
+ *
+ * @param <T>  Type of the iterator
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class KeysOnlyContainerIterator<T> extends AbstractKeysOnlyIterator<IContainer<T>, T> {
+
+    /** Create an iterator based on a query and a predicate, sizing batches for the current page. */
+    public KeysOnlyContainerIterator(ObjectifyProxy objectify, Query<? extends IContainer<T>> query, IFilterPredicate<T> predicate, Pagination pagination) {
+        this(objectify, query, new NoOpKeyFilterPredicate<IContainer<T>>(), predicate, getBatchSize(pagination));
+    }
+
+    /**
+     * Create an iterator based on a query and a pair of predicates.
+     * @param objectify     Objectify proxy used to batch-load entities
+     * @param query         Query to iterate over, executed keys-only
+     * @param keyPredicate  Predicate to apply to each key, before the container is loaded
+     * @param predicate     Predicate to apply to each loaded value
+     * @param batchSize     Maximum number of containers to load in each batch get
+     */
+    public KeysOnlyContainerIterator(ObjectifyProxy objectify, Query<? extends IContainer<T>> query,
+                                     IKeyFilterPredicate<IContainer<T>> keyPredicate, IFilterPredicate<T> predicate,
+                                     int batchSize) {
+        super(objectify, query, keyPredicate, predicate, batchSize);
+    }
+
+    /** Convert a loaded container into the value returned by the iterator. */
+    @Override
+    protected T convert(IContainer<T> entity) {
+        return entity.toValue();
+    }
+
+}
@@ -0,0 +1,156 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.googlecode.objectify.Key;
+
+/**
+ * Version counters per entity kind, used to invalidate cached query results.
+ *
+ * <p>
+ * Every put or delete made through an ObjectifyProxy that has been given a
+ * KindVersions bumps the version of the affected kinds (for a transaction,
+ * once the transaction is over).  QueryResultCache records the version of
+ * a kind before it runs a query, and only serves the cached page while the
+ * version is unchanged, so a page can never be served after a write to its
+ * kind has completed.
+ * </p>
+ *
+ * <p>
+ * By default, versions are kept in memory, which is exact but only covers
+ * writes made by this instance.  If a memcache service is configured,
+ * versions are shared by every instance of the application instead.  A
+ * version that memcache evicts is recreated from the current time, which
+ * is far larger than any version it could have reached by being bumped,
+ * so an eviction can't make an old page look current.  If memcache can't
+ * be reached at all, every call to getVersion() returns a new version, so
+ * nothing can be served from a cache until memcache is back.  Writes made
+ * without going through ObjectifyProxy (the async interface, or the raw
+ * datastore) are not seen at all.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class KindVersions {
+
+    /** Default memcache namespace, for use with the memcache constructor. */
+    public static final String DEFAULT_NAMESPACE = "cedar-kind-versions";
+
+    /** Versions kept in memory, when there is no memcache service. */
+    private final ConcurrentMap<String, AtomicLong> versions = new ConcurrentHashMap<String, AtomicLong>();
+
+    /** Memcache service that versions are kept in, or null to keep them in memory. */
+    private final MemcacheService memcache;
+
+    /** Last version handed out because memcache could not be reached. */
+    private final AtomicLong unavailable = new AtomicLong(0);
+
+    /** Keep versions in memory, for this instance only. */
+    public KindVersions() {
+        this(null);
+    }
+
+    /** Keep versions in memcache, so they're shared by every instance; null keeps them in memory. */
+    public KindVersions(MemcacheService memcache) {
+        this.memcache = memcache;
+    }
+
+    /** Create versions that are kept in memcache, in the default namespace. */
+    public static KindVersions createShared() {
+        return new KindVersions(MemcacheServiceFactory.getMemcacheService(DEFAULT_NAMESPACE));
+    }
+
+    /** Get the kind for an entity class, the same way Objectify derives it for keys. */
+    public static String getKind(Class<?> clazz) {
+        return new Key<Object>(clazz, 1L).getKind();
+    }
+
+    /** Get the current version of a kind. */
+    public long getVersion(String kind) {
+        if (this.memcache != null) {
+            Long version = this.memcache.increment(kind, 0L, this.getInitialVersion());  // creates the version if it's missing
+            return version == null ? this.getUnavailableVersion() : version;
+        }
+
+        return this.getLocal(kind).get();
+    }
+
+    /** Bump the versions of some kinds, invalidating any results cached for them. */
+    public void bump(Collection<String> kinds) {
+        if (kinds.isEmpty()) {
+            return;
+        }
+
+        if (this.memcache != null) {
+            this.memcache.incrementAll(kinds, 1L, this.getInitialVersion());
+        } else {
+            for (String kind : kinds) {
+                this.getLocal(kind).incrementAndGet();
+            }
+        }
+    }
+
+    /** Get the in-memory version counter for a kind, creating it if necessary. */
+    private AtomicLong getLocal(String kind) {
+        AtomicLong version = this.versions.get(kind);
+        if (version == null) {
+            AtomicLong created = new AtomicLong(0);
+            version = this.versions.putIfAbsent(kind, created);
+            if (version == null) {
+                version = created;
+            }
+        }
+
+        return version;
+    }
+
+    /** Get a version for when memcache can't be reached, which is never the same as the last one. */
+    private long getUnavailableVersion() {
+        long initial = this.getInitialVersion();
+        while (true) {
+            long last = this.unavailable.get();
+            long version = Math.max(initial, last + 1);
+            if (this.unavailable.compareAndSet(last, version)) {
+                return version;
+            }
+        }
+    }
+
+    /** Get the version that a kind missing from memcache starts at. */
+    protected long getInitialVersion() {
+        return System.currentTimeMillis() * 1000;
+    }
+
+    /** Get the memcache service that versions are kept in, or null if they are kept in memory. */
+    public MemcacheService getMemcache() {
+        return this.memcache;
+    }
+
+}
@@ -0,0 +1,288 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.cedarsolutions.dao.gae.IEntityCache;
+import com.googlecode.objectify.Key;
+
+/**
+ * In-JVM entity cache with LRU eviction, a time to live, and a size bound.
+ *
+ * <p>
+ * Entities are stored in Java-serialized form, and every lookup returns a
+ * fresh copy, just like MemcacheEntityCache.  So, a caller that modifies an
+ * entity and never saves it can't affect anyone else, and no caller can see
+ * an entity while another thread is halfway through changing it.  The cost
+ * is a serialization on every put and a deserialization on every hit, which
+ * is still far cheaper than a datastore round trip.  Entities that aren't
+ * Serializable are not cached at all.
+ * </p>
+ *
+ * <p>
+ * The cache can be bounded by number of entries, by size in bytes of the
+ * serialized entities, or both.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class LocalEntityCache implements IEntityCache {
+
+    /** Default maximum number of entries. */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    /** Default time to live for an entry, in milliseconds. */
+    public static final long DEFAULT_TIME_TO_LIVE = 300000L;
+
+    /** Value for maxEntries or maxBytes meaning that there is no bound. */
+    public static final int UNLIMITED = 0;
+
+    /** Maximum number of entries, or UNLIMITED. */
+    private int maxEntries;
+
+    /** Maximum size of all serialized entries in bytes, or UNLIMITED. */
+    private long maxBytes;
+
+    /** Time to live for an entry, in milliseconds. */
+    private long timeToLive;
+
+    /** Cached entries, in access order so the least-recently-used entry comes first. */
+    private Map<Key<?>, Entry> entries = new LinkedHashMap<Key<?>, Entry>(16, 0.75f, true);
+
+    /** Size of all serialized entries in bytes. */
+    private long bytes;
+
+    /** Number of lookups served from the cache. */
+    private long hits;
+
+    /** Number of lookups that were not in the cache. */
+    private long misses;
+
+    /** Create a cache with default settings. */
+    public LocalEntityCache() {
+        this(DEFAULT_MAX_ENTRIES, UNLIMITED, DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * Create a cache.
+     * @param maxEntries  Maximum number of entries, or UNLIMITED
+     * @param maxBytes    Maximum size of all serialized entries in bytes, or UNLIMITED
+     * @param timeToLive  Time to live for an entry, in milliseconds
+     */
+    public LocalEntityCache(int maxEntries, long maxBytes, long timeToLive) {
+        if (maxEntries < 0 || maxBytes < 0 || timeToLive <= 0) {
+            throw new IllegalArgumentException("Cache bounds must not be negative, and time to live must be positive");
+        }
+
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.timeToLive = timeToLive;
+    }
+
+    /** Get a fresh copy of an entity from the cache, or null if it is not cached. */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Key<? extends T> key) {
+        Entry entry;
+        synchronized (this) {
+            entry = this.entries.get(key);
+            if (entry != null && this.currentTimeMillis() - entry.created > this.timeToLive) {
+                this.removeEntry(key);
+                entry = null;
+            }
+        }
+
+        Object entity = entry == null ? null : deserialize(entry.data);  // outside the lock, since this is the slow part
+
+        synchronized (this) {
+            if (entity == null) {
+                this.misses += 1;
+                return null;
+            } else {
+                this.hits += 1;
+                return (T) entity;
+            }
+        }
+    }
+
+    /** Put a copy of an entity into the cache, or remove the key if the entity can't be cached. */
+    @Override
+    public void put(Key<?> key, Object entity) {
+        if (key == null || entity == null) {
+            return;
+        }
+
+        byte[] data = serialize(entity);  // outside the lock, since this is the slow part
+
+        synchronized (this) {
+            this.removeEntry(key);
+            if (data != null && (this.maxBytes == UNLIMITED || data.length <= this.maxBytes)) {
+                this.entries.put(key, new Entry(data, this.currentTimeMillis()));
+                this.bytes += data.length;
+                this.evict();
+            }
+        }
+    }
+
+    /** Remove an entity from the cache. */
+    @Override
+    public synchronized void remove(Key<?> key) {
+        this.removeEntry(key);
+    }
+
+    /** Remove all entities from the cache. */
+    @Override
+    public synchronized void clear() {
+        this.entries.clear();
+        this.bytes = 0;
+    }
+
+    /** Get the number of entries in the cache, including any that have expired but not yet been discarded. */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /** Get the size of all serialized entries in bytes. */
+    public synchronized long getBytes() {
+        return this.bytes;
+    }
+
+    /** Get the number of lookups served from the cache. */
+    @Override
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    /** Get the number of lookups that were not in the cache. */
+    @Override
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    /** Get the maximum number of entries. */
+    public int getMaxEntries() {
+        return this.maxEntries;
+    }
+
+    /** Get the maximum size of all serialized entries in bytes. */
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    /** Get the time to live for an entry, in milliseconds. */
+    public long getTimeToLive() {
+        return this.timeToLive;
+    }
+
+    /** Get the current time in milliseconds, overridable for testing. */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Serialize an entity with Java serialization.
+     * @return Serialized entity, or null if the entity can't be serialized.
+     */
+    protected static byte[] serialize(Object entity) {
+        if (!(entity instanceof Serializable)) {
+            return null;
+        }
+
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            ObjectOutputStream stream = new ObjectOutputStream(output);
+            try {
+                stream.writeObject(entity);
+            } finally {
+                stream.close();
+            }
+
+            return output.toByteArray();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Deserialize an entity that was serialized by serialize().
+     * @return Fresh copy of the entity, or null if it can't be deserialized.
+     */
+    protected static Object deserialize(byte[] data) {
+        try {
+            ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(data));
+            try {
+                return stream.readObject();
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            return null;
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    /** Remove an entry, keeping the byte count up to date. */
+    private void removeEntry(Key<?> key) {
+        Entry entry = this.entries.remove(key);
+        if (entry != null) {
+            this.bytes -= entry.data.length;
+        }
+    }
+
+    /** Evict least-recently-used entries until the cache is within its bounds. */
+    private void evict() {
+        Iterator<Entry> iterator = this.entries.values().iterator();
+        while (iterator.hasNext() && this.isOverBounds()) {
+            this.bytes -= iterator.next().data.length;
+            iterator.remove();
+        }
+    }
+
+    /** Whether the cache is currently over either of its bounds. */
+    private boolean isOverBounds() {
+        return (this.maxEntries != UNLIMITED && this.entries.size() > this.maxEntries)
+               || (this.maxBytes != UNLIMITED && this.bytes > this.maxBytes);
+    }
+
+    /** A cached entity, in serialized form. */
+    private static class Entry {
+        private byte[] data;
+        private long created;
+
+        public Entry(byte[] data, long created) {
+            this.data = data;
+            this.created = created;
+        }
+    }
+
+}
@@ -0,0 +1,213 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cedarsolutions.dao.gae.IEntityCache;
+import com.google.appengine.api.NamespaceManager;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.apphosting.api.ApiProxy;
+import com.googlecode.objectify.Key;
+
+/**
+ * Entity cache backed by GAE memcache.
+ *
+ * <p>
+ * Unlike LocalEntityCache, this cache is shared by every instance of the
+ * application, and every lookup returns a fresh copy of the entity.  The
+ * tradeoff is a memcache round trip on every lookup.  Only Serializable
+ * entities can be cached; anything else is silently skipped.  Memcache
+ * handles eviction on its own, so the only bound here is the time to live.
+ * </p>
+ *
+ * <p>
+ * Every entry is stamped with the cache's current generation, which is
+ * itself kept in memcache.  Calling clear() just bumps the generation, so
+ * every existing entry stops matching and ages out on its own.  That way,
+ * clear() only affects this cache's entries, rather than flushing memcache
+ * for the whole application.  A generation that memcache evicts is
+ * recreated from the current time, the same way KindVersions does it, so
+ * an eviction can't bring old entries back to life.
+ * </p>
+ *
+ * <p>
+ * Objectify keys don't carry a namespace; the datastore applies the current
+ * namespace from NamespaceManager when the key is used.  So, the memcache
+ * key for an entity includes the current namespace, and in a multi-tenant
+ * application, one tenant's entity is never served to another tenant.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class MemcacheEntityCache implements IEntityCache {
+
+    /** Default memcache namespace. */
+    public static final String DEFAULT_NAMESPACE = "cedar-entity-cache";
+
+    /** Memcache key that the generation is kept under; no datastore key string looks like this. */
+    protected static final String GENERATION_KEY = "#generation";
+
+    /** Memcache service to use. */
+    private MemcacheService memcache;
+
+    /** Time to live for an entry, in milliseconds. */
+    private int timeToLive;
+
+    /** Number of lookups served from the cache. */
+    private AtomicLong hits = new AtomicLong(0);
+
+    /** Number of lookups that were not in the cache. */
+    private AtomicLong misses = new AtomicLong(0);
+
+    /** Create a cache in the default namespace with the default time to live. */
+    public MemcacheEntityCache() {
+        this(MemcacheServiceFactory.getMemcacheService(DEFAULT_NAMESPACE), (int) LocalEntityCache.DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * Create a cache.
+     * @param memcache    Memcache service to use
+     * @param timeToLive  Time to live for an entry, in milliseconds
+     */
+    public MemcacheEntityCache(MemcacheService memcache, int timeToLive) {
+        if (timeToLive <= 0) {
+            throw new IllegalArgumentException("Time to live must be positive");
+        }
+
+        this.memcache = memcache;
+        this.timeToLive = timeToLive;
+    }
+
+    /** Get an entity from the cache, or null if it is not cached. */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Key<? extends T> key) {
+        String cacheKey = getCacheKey(key);
+        Map<String, Object> values = this.memcache.getAll(Arrays.asList(GENERATION_KEY, cacheKey));
+        Object generation = values == null ? null : values.get(GENERATION_KEY);
+        Object value = values == null ? null : values.get(cacheKey);
+
+        if (generation != null && value instanceof CachedEntity && ((CachedEntity) value).isGeneration(generation)) {
+            this.hits.incrementAndGet();
+            return (T) ((CachedEntity) value).getEntity();
+        }
+
+        this.misses.incrementAndGet();
+        return null;
+    }
+
+    /** Put an entity into the cache. */
+    @Override
+    public void put(Key<?> key, Object entity) {
+        if (key != null && entity instanceof Serializable) {
+            Long generation = this.memcache.increment(GENERATION_KEY, 0L, this.getInitialGeneration());  // creates it if missing
+            if (generation != null) {
+                CachedEntity value = new CachedEntity(generation, (Serializable) entity);
+                this.memcache.put(getCacheKey(key), value, Expiration.byDeltaMillis(this.timeToLive));
+            }
+        }
+    }
+
+    /** Remove an entity from the cache. */
+    @Override
+    public void remove(Key<?> key) {
+        if (key != null) {
+            this.memcache.delete(getCacheKey(key));
+        }
+    }
+
+    /** Remove all entities from the cache, by moving on to a new generation. */
+    @Override
+    public void clear() {
+        this.memcache.increment(GENERATION_KEY, 1L, this.getInitialGeneration());
+    }
+
+    /** Get the number of lookups served from the cache. */
+    @Override
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /** Get the number of lookups that were not in the cache. */
+    @Override
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /** Get the memcache service in use. */
+    public MemcacheService getMemcache() {
+        return this.memcache;
+    }
+
+    /** Get the time to live for an entry, in milliseconds. */
+    public int getTimeToLive() {
+        return this.timeToLive;
+    }
+
+    /** Get the memcache key for a datastore key in the current datastore namespace. */
+    protected static String getCacheKey(Key<?> key) {
+        return getCacheKey(getNamespace(), key);
+    }
+
+    /** Get the memcache key for a datastore key in a namespace; ':' isn't legal in a namespace, so namespaces can't collide. */
+    protected static String getCacheKey(String namespace, Key<?> key) {
+        return (namespace == null ? "" : namespace) + ":" + key.toString();
+    }
+
+    /** Get the current datastore namespace, which is always the default namespace outside of a GAE request. */
+    protected static String getNamespace() {
+        return ApiProxy.getCurrentEnvironment() == null ? "" : NamespaceManager.get();
+    }
+
+    /** Get the generation that the cache starts at when memcache has none. */
+    protected long getInitialGeneration() {
+        return System.currentTimeMillis() * 1000;
+    }
+
+    /** An entity stored in memcache, stamped with the generation it was cached in. */
+    protected static class CachedEntity implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private long generation;
+        private Serializable entity;
+
+        public CachedEntity(long generation, Serializable entity) {
+            this.generation = generation;
+            this.entity = entity;
+        }
+
+        public boolean isGeneration(Object generation) {
+            return generation instanceof Number && ((Number) generation).longValue() == this.generation;
+        }
+
+        public Object getEntity() {
+            return this.entity;
+        }
+    }
+
+}
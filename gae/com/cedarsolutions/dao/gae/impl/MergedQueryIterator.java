@@ -0,0 +1,380 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.cedarsolutions.dao.domain.Pagination;
+import com.cedarsolutions.dao.gae.IFilterPredicate;
+import com.cedarsolutions.exception.DaoException;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.googlecode.objectify.ObjectifyFactory;
+import com.googlecode.objectify.Query;
+
+/**
+ * Result iterator that merges several sorted queries into one sorted stream.
+ *
+ * <p>
+ * Some searches (OR or IN criteria, for instance) need several datastore
+ * queries that share the same sort order, like one query per status value.
+ * Rather than concatenating all of the results and sorting them in memory,
+ * this iterator executes all of the queries and merges their results with a
+ * heap, so only the head of each query is held in memory at any time.
+ * </p>
+ *
+ * <p>
+ * The comparator must reproduce the datastore sort order shared by the
+ * queries.  Ties are broken by entity key, which is also how the datastore
+ * orders entities with equal sort values.  This means that an entity
+ * returned by more than one query always shows up in adjacent positions of
+ * the merged stream, so duplicates can be dropped by comparing against the
+ * previously-returned key.
+ * </p>
+ *
+ * <p>
+ * The cursor returned by getCursor() is a composite that encodes the
+ * position of every query.  It is an opaque string, so it can be stored in
+ * Pagination like any other cursor.  To resume, build the same list of
+ * queries (in the same order) and pass the composite cursor or the
+ * pagination into the constructor.  Don't use ObjectifyProxy.query(Class,
+ * Pagination) to build the individual queries, because it only understands
+ * single-query cursors.
+ * </p>
+ *
+ * @param <T>  Type of the iterator
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class MergedQueryIterator<T> implements IIteratorWithCursor<T>, IScanStatistics {
+
+    /** Separator between query positions in a composite cursor; not part of the web-safe cursor alphabet. */
+    private static final String SEPARATOR = ".";
+
+    /** Position marker for a query that is exhausted. */
+    private static final String EXHAUSTED = "*";
+
+    private ObjectifyFactory factory;
+    private Comparator<? super T> comparator;
+    private IFilterPredicate<T> predicate;
+    private List<Source> sources;
+    private PriorityQueue<Source> heap;
+    private Cursor[] rawCursors;
+    private boolean[] exhausted;
+    private Object last;
+    private long rowsScanned;
+    private long rowsAccepted;
+    private boolean started;
+    private T next;
+    private String cursor;
+
+    /**
+     * Create an iterator that starts at the beginning of each query.
+     * @param factory     Objectify factory, used to derive entity keys
+     * @param queries     Queries to merge, all sorted in the same order
+     * @param comparator  Comparator that reproduces the datastore sort order
+     * @param predicate   Predicate to apply to each result
+     */
+    public MergedQueryIterator(ObjectifyFactory factory, List<Query<T>> queries, Comparator<? super T> comparator, IFilterPredicate<T> predicate) {
+        this(factory, queries, comparator, predicate, (String) null);
+    }
+
+    /**
+     * Create an iterator that starts at the current page of some pagination.
+     * @param factory     Objectify factory, used to derive entity keys
+     * @param queries     Queries to merge, all sorted in the same order
+     * @param comparator  Comparator that reproduces the datastore sort order
+     * @param predicate   Predicate to apply to each result
+     * @param pagination  Pagination whose current cursor is a composite cursor, possibly null
+     */
+    public MergedQueryIterator(ObjectifyFactory factory, List<Query<T>> queries, Comparator<? super T> comparator,
+                               IFilterPredicate<T> predicate, Pagination pagination) {
+        this(factory, queries, comparator, predicate, pagination == null ? null : pagination.getCurrent());
+    }
+
+    /**
+     * Create an iterator that starts at a composite cursor.
+     * @param factory     Objectify factory, used to derive entity keys
+     * @param queries     Queries to merge, all sorted in the same order; start cursors are set on these queries
+     * @param comparator  Comparator that reproduces the datastore sort order
+     * @param predicate   Predicate to apply to each result
+     * @param cursor      Composite cursor, as from getCursor(), or null to start at the beginning
+     */
+    public MergedQueryIterator(ObjectifyFactory factory, List<Query<T>> queries, Comparator<? super T> comparator,
+                               IFilterPredicate<T> predicate, String cursor) {
+        this.factory = factory;
+        this.comparator = comparator;
+        this.predicate = predicate;
+        this.rawCursors = new Cursor[queries.size()];
+        this.exhausted = new boolean[queries.size()];
+        this.heap = new PriorityQueue<Source>(Math.max(1, queries.size()), new SourceComparator());
+        this.sources = new ArrayList<Source>();
+
+        List<String> positions = decodeCursor(cursor, queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            Query<T> query = queries.get(i);
+            String position = positions.get(i);
+            if (EXHAUSTED.equals(position)) {
+                this.exhausted[i] = true;
+            } else {
+                if (position.length() > 0) {
+                    query.startCursor(CursorUtils.deserialize(position));
+                }
+
+                this.sources.add(new Source(i, query.iterator()));  // starts every query, so they all run in parallel
+            }
+        }
+    }
+
+    /** Returns true if the iteration has more elements. */
+    @Override
+    public boolean hasNext() {
+        this.start();
+        return this.next != null;
+    }
+
+    /** Get the next value from the iterator. */
+    @Override
+    public T next() {
+        this.start();
+        T result = this.next;
+        this.next = this.getNextItem();
+        return result;
+    }
+
+    /** Not supported in this implementation. */
+    @Override
+    public void remove() {
+        // The Iterator interface specifies that we should throw this exception
+        throw new UnsupportedOperationException("Remove operation is not supported");
+    }
+
+    /**
+     * Get a composite cursor representing the current state of the iterator.
+     * @return Composite cursor encoding the position of every query.
+     */
+    @Override
+    public String getCursor() {
+        this.start();
+        if (this.cursor == null) {
+            List<String> positions = new ArrayList<String>();
+            for (int i = 0; i < this.rawCursors.length; i++) {
+                if (this.exhausted[i]) {
+                    positions.add(EXHAUSTED);
+                } else {
+                    String position = this.serializeCursor(this.rawCursors[i]);
+                    positions.add(position == null ? "" : position);
+                }
+            }
+
+            this.cursor = encodeCursor(positions);
+        }
+
+        return this.cursor;
+    }
+
+    /** Get the underlying predicate. */
+    public IFilterPredicate<T> getPredicate() {
+        return this.predicate;
+    }
+
+    /** Get the comparator used to merge results. */
+    public Comparator<? super T> getComparator() {
+        return this.comparator;
+    }
+
+    /** Get the number of rows scanned so far, including duplicates. */
+    @Override
+    public long getRowsScanned() {
+        return this.rowsScanned;
+    }
+
+    /** Get the number of scanned rows accepted by the filter predicate so far. */
+    @Override
+    public long getRowsAccepted() {
+        return this.rowsAccepted;
+    }
+
+    /**
+     * Encode a list of query positions into a composite cursor.
+     * @param positions  Serialized cursor for each query, "" for the start or "*" for exhausted
+     * @return Composite cursor.
+     */
+    protected static String encodeCursor(List<String> positions) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < positions.size(); i++) {
+            if (i > 0) {
+                builder.append(SEPARATOR);
+            }
+
+            builder.append(positions.get(i));
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Decode a composite cursor into a list of query positions.
+     * @param cursor  Composite cursor, or null for the start of every query
+     * @param count   Number of queries that are expected
+     * @return Position for each query, "" for the start or "*" for exhausted.
+     * @throws DaoException If the cursor does not match the number of queries.
+     */
+    protected static List<String> decodeCursor(String cursor, int count) {
+        List<String> positions = new ArrayList<String>();
+
+        if (cursor == null) {
+            for (int i = 0; i < count; i++) {
+                positions.add("");
+            }
+        } else {
+            String[] parts = cursor.split("\\" + SEPARATOR, -1);
+            if (parts.length != count) {
+                throw new DaoException("Composite cursor has " + parts.length + " positions, but there are " + count + " queries.");
+            }
+
+            for (String part : parts) {
+                positions.add(part);
+            }
+        }
+
+        return positions;
+    }
+
+    /** Get the identity of an element, used for ordering ties and dropping duplicates. */
+    protected Object getIdentity(T element) {
+        return this.factory.getKey(element);
+    }
+
+    /** Serialize a raw cursor, as from Cursor.toWebSafeString(). */
+    protected String serializeCursor(Cursor cursor) {
+        return CursorUtils.serialize(cursor);
+    }
+
+    /** Start iterating, if we haven't already. */
+    private void start() {
+        if (!this.started) {
+            this.started = true;
+            for (Source source : this.sources) {
+                source.advance();
+                if (source.head != null) {
+                    this.heap.add(source);
+                }
+            }
+
+            this.next = this.getNextItem();
+        }
+    }
+
+    /**
+     * Get the next item from the merged stream, dropping duplicates and applying criteria from the predicate.
+     * @return Next item, possibly null.
+     */
+    private T getNextItem() {
+
+        // Just like in FilteredResultIterator, the cursor must reflect the
+        // position *before* the pre-fetched item.  Here, that means the
+        // position of every query before its current head, captured just
+        // before we take the smallest head off of the heap.
+
+        while (true) {
+            this.captureCursor();
+
+            Source source = this.heap.poll();
+            if (source == null) {
+                return null;
+            }
+
+            T element = source.head;
+            Object identity = source.identity;
+            source.advance();
+            if (source.head != null) {
+                this.heap.add(source);
+            }
+
+            this.rowsScanned += 1;
+            if (this.last != null && this.last.equals(identity)) {
+                continue;  // duplicate of an entity returned by another query
+            }
+
+            this.last = identity;
+            if (this.predicate.evaluate(element)) {
+                this.rowsAccepted += 1;
+                return element;
+            }
+        }
+    }
+
+    /** Capture the raw cursor for every query, to be serialized later if needed. */
+    private void captureCursor() {
+        for (Source source : this.sources) {
+            this.rawCursors[source.index] = source.cursor;
+            this.exhausted[source.index] = source.head == null;
+        }
+
+        this.cursor = null;
+    }
+
+    /** One of the merged queries. */
+    private class Source {
+        private int index;
+        private QueryResultIterator<T> iterator;
+        private T head;
+        private Object identity;
+        private Cursor cursor;
+
+        Source(int index, QueryResultIterator<T> iterator) {
+            this.index = index;
+            this.iterator = iterator;
+        }
+
+        /** Advance to the next row, remembering the cursor before it. */
+        void advance() {
+            this.cursor = this.iterator.getCursor();
+            if (this.iterator.hasNext()) {
+                this.head = this.iterator.next();
+                this.identity = getIdentity(this.head);
+            } else {
+                this.head = null;
+                this.identity = null;
+            }
+        }
+    }
+
+    /** Orders sources by their head, breaking ties by identity. */
+    private class SourceComparator implements Comparator<Source> {
+        @Override
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        public int compare(Source source1, Source source2) {
+            int result = comparator.compare(source1.head, source2.head);
+            if (result == 0 && source1.identity instanceof Comparable) {
+                result = ((Comparable) source1.identity).compareTo(source2.identity);
+            }
+
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,208 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.cedarsolutions.dao.domain.ISearchCriteriaWithSort;
+import com.cedarsolutions.dao.domain.SortOrder;
+import com.googlecode.objectify.Query;
+
+/**
+ * A sort over several columns, which the datastore may only partly support.
+ *
+ * <p>
+ * Every datastore sort order over more than one property needs a composite
+ * index, and it's rarely practical to define one for every combination of
+ * columns a client can sort by.  A multi-column sort is told which sort
+ * orders are actually indexed, as signatures like "lastName,-firstName"
+ * (the conditions passed to Query.order(), separated by commas).  The
+ * longest leading part of the sort that is indexed is pushed down to the
+ * datastore, and the rest is done in memory by TopKSorter.  If the whole
+ * sort is indexed, no in-memory sorting is needed at all.  A single-column
+ * sort is only pushed down if it's listed as indexed, since a sort combined
+ * with filters needs a composite index too.
+ * </p>
+ *
+ * <p>
+ * Each column has a comparator that must order entities the same way the
+ * datastore orders the property.  The last column should be unique (the
+ * entity id, for instance), so that the order is total and pages don't
+ * overlap.
+ * </p>
+ *
+ * @param <T> Type of the sorted entity
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class MultiColumnSort<T> {
+
+    /** Columns to sort on, in priority order. */
+    private final List<SortColumn<T>> columns = new ArrayList<SortColumn<T>>();
+
+    /** Signatures of the sort orders that are indexed. */
+    private final Set<String> indexes;
+
+    /**
+     * Create an empty sort.
+     * @param indexes  Signatures of the sort orders that are indexed, like "lastName,-firstName"
+     */
+    public MultiColumnSort(Set<String> indexes) {
+        this.indexes = indexes == null ? new HashSet<String>() : new HashSet<String>(indexes);
+    }
+
+    /**
+     * Create a sort based on search criteria.
+     *
+     * <p>
+     * The criteria's current sort column and order (or the defaults, if none
+     * is set) become the first column.  The tie-breaker columns follow in
+     * ascending order, except that a tie-breaker is skipped if it's already
+     * the first column.
+     * </p>
+     *
+     * @param <T> Type of the sorted entity
+     * @param <S> Enumeration that defines the sort columns
+     * @param criteria     Search criteria with sort
+     * @param comparators  Ascending comparator for each sort column
+     * @param indexes      Signatures of the sort orders that are indexed
+     * @param tieBreakers  Columns to sort on after the criteria's sort column, ending with a unique one
+     * @return Sort built from the criteria.
+     */
+    public static <T, S> MultiColumnSort<T> create(ISearchCriteriaWithSort<?, S> criteria, Map<S, ? extends Comparator<? super T>> comparators,
+                                                   Set<String> indexes, List<S> tieBreakers) {
+        S sortColumn = criteria.getSortColumn() != null ? criteria.getSortColumn() : criteria.getDefaultSortColumn();
+        SortOrder sortOrder = criteria.getSortOrder() != null ? criteria.getSortOrder() : criteria.getDefaultSortOrder();
+
+        MultiColumnSort<T> sort = new MultiColumnSort<T>(indexes);
+        sort.add(criteria.getColumnName(sortColumn), sortOrder, getComparator(comparators, sortColumn));
+
+        if (tieBreakers != null) {
+            for (S tieBreaker : tieBreakers) {
+                if (!tieBreaker.equals(sortColumn)) {
+                    sort.add(criteria.getColumnName(tieBreaker), SortOrder.ASCENDING, getComparator(comparators, tieBreaker));
+                }
+            }
+        }
+
+        return sort;
+    }
+
+    /** Get the comparator for a column, which must exist. */
+    private static <T, S> Comparator<? super T> getComparator(Map<S, ? extends Comparator<? super T>> comparators, S column) {
+        Comparator<? super T> comparator = comparators.get(column);
+        if (comparator == null) {
+            throw new IllegalArgumentException("No comparator for sort column " + column);
+        }
+
+        return comparator;
+    }
+
+    /**
+     * Add a column to the end of the sort.
+     * @param property    Datastore property to sort on
+     * @param sortOrder   Sort order
+     * @param comparator  Comparator that orders entities by the property, ascending
+     * @return This sort, for chaining.
+     */
+    public MultiColumnSort<T> add(String property, SortOrder sortOrder, Comparator<? super T> comparator) {
+        this.columns.add(new SortColumn<T>(property, sortOrder, comparator));
+        return this;
+    }
+
+    /** Get the columns to sort on, in priority order. */
+    public List<SortColumn<T>> getColumns() {
+        return Collections.unmodifiableList(this.columns);
+    }
+
+    /** Get the signatures of the sort orders that are indexed. */
+    public Set<String> getIndexes() {
+        return Collections.unmodifiableSet(this.indexes);
+    }
+
+    /** Get the signature of the first few columns, like "lastName,-firstName". */
+    public String getSignature(int count) {
+        StringBuilder signature = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                signature.append(',');
+            }
+
+            signature.append(this.columns.get(i).getCondition());
+        }
+
+        return signature.toString();
+    }
+
+    /** Get the number of leading columns that can be pushed down to the datastore. */
+    public int getIndexedCount() {
+        for (int count = this.columns.size(); count > 0; count--) {
+            if (this.indexes.contains(this.getSignature(count))) {
+                return count;
+            }
+        }
+
+        return 0;
+    }
+
+    /** Whether the entire sort can be done by the datastore. */
+    public boolean isFullyIndexed() {
+        return this.getIndexedCount() == this.columns.size();
+    }
+
+    /** Apply the indexed leading columns to a query. */
+    public void apply(Query<T> query) {
+        int count = this.getIndexedCount();
+        for (int i = 0; i < count; i++) {
+            query.order(this.columns.get(i).getCondition());
+        }
+    }
+
+    /** Get a comparator over every column. */
+    public Comparator<T> getComparator() {
+        return this.getComparator(this.columns.size());
+    }
+
+    /** Get a comparator over the first few columns. */
+    public Comparator<T> getComparator(final int count) {
+        return new Comparator<T>() {
+            @Override
+            public int compare(T o1, T o2) {
+                for (int i = 0; i < count; i++) {
+                    int result = MultiColumnSort.this.columns.get(i).compare(o1, o2);
+                    if (result != 0) {
+                        return result;
+                    }
+                }
+
+                return 0;
+            }
+        };
+    }
+
+}
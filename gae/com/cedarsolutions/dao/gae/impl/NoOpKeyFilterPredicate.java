@@ -0,0 +1,41 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import com.cedarsolutions.dao.gae.IKeyFilterPredicate;
+import com.googlecode.objectify.Key;
+
+/**
+ * A key predicate that doesn't apply any filtering rules.
+ * @param <T> Type of the entity the key refers to
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class NoOpKeyFilterPredicate<T> implements IKeyFilterPredicate<T> {
+
+    /** Evaluate the predicate for the passed-in key. */
+    @Override
+    public boolean evaluate(Key<? extends T> key) {
+        return true;
+    }
+
+}
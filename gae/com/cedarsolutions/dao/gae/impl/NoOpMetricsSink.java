@@ -0,0 +1,53 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import com.cedarsolutions.dao.gae.IDaoMetricsSink;
+
+/**
+ * A metrics sink that is disabled and discards everything.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class NoOpMetricsSink implements IDaoMetricsSink {
+
+    /** Shared instance, since the sink has no state. */
+    public static final NoOpMetricsSink INSTANCE = new NoOpMetricsSink();
+
+    /** The sink is never enabled. */
+    @Override
+    public boolean isEnabled() {
+        return false;
+    }
+
+    /** Discard a query execution. */
+    @Override
+    public void recordQuery(String dao, String shape, long elapsedNanos, long rowsScanned, long rowsAccepted,
+                            long entitiesFetched, long cursorSerializations) {
+    }
+
+    /** Discard a get. */
+    @Override
+    public void recordGet(String dao, String kind, long elapsedNanos, long entities) {
+    }
+
+}
@@ -22,9 +22,21 @@
  * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
 package com.cedarsolutions.dao.gae.impl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.cedarsolutions.dao.domain.Pagination;
+import com.cedarsolutions.dao.gae.IDaoMetricsSink;
+import com.cedarsolutions.dao.gae.IEntityCache;
+import com.cedarsolutions.dao.gae.IFilterPredicate;
+import com.cedarsolutions.dao.gae.IKeyFilterPredicate;
+import com.cedarsolutions.dao.gae.domain.IContainer;
 import com.cedarsolutions.exception.DaoException;
 import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.DatastoreService;
@@ -46,16 +58,112 @@ import com.googlecode.objectify.Query;
  * a little easier to read.
  * </p>
  *
+ * <p>
+ * If a RequestIdentityMap is bound to the current thread, non-transactional
+ * gets and finds are served from it when possible, and all puts and deletes
+ * invalidate the keys they touch.
+ * </p>
+ *
+ * <p>
+ * Likewise, if an EntityCacheManager is configured, non-transactional gets
+ * and finds for cached kinds are served from the second-level cache when
+ * the identity map doesn't have the entity.  Writes invalidate the cache
+ * immediately.  Transactional writes invalidate it again once the
+ * transaction commits, so a reader can't re-cache the old value while the
+ * transaction is still open.
+ * </p>
+ *
+ * <p>
+ * A transactional proxy can also be created with write-behind enabled.  In
+ * that case, puts and deletes are collected in a WriteBehindBuffer and sent
+ * to the datastore as parallel batch operations, either when the buffer
+ * reaches the configured batch size or when the transaction commits.  Gets
+ * and finds for buffered keys are served from the buffer, so reads within the
+ * transaction see the pending writes.  A put for an entity without an id is
+ * never buffered, because the datastore has to allocate the key.
+ * </p>
+ *
+ * <p>
+ * If a CursorRegistry is configured, query(Class, Pagination) accepts
+ * registry handles as well as raw cursors.  If a handle has expired (for
+ * instance, because the request landed on a different instance), the query
+ * gets back to the page by starting from the nearest earlier page whose
+ * cursor is still known and skipping the rows counted on the pages in
+ * between.  Those counts are rows the DAO accepted.  If the query was
+ * created with query(Class, Pagination, IFilterPredicate) and a predicate
+ * that doesn't filter, accepted rows are raw rows, and the datastore offset
+ * skips them.  Otherwise, the DAO may filter rows in memory, so the
+ * pagination's current location is replaced with a seek cursor, exactly
+ * like one from CheckpointBuilder, and PaginationUtils skips the accepted
+ * rows through the DAO's iterator.
+ * </p>
+ *
+ * <p>
+ * Seek cursors from CheckpointBuilder are different.  The query just starts
+ * at the checkpoint cursor, and PaginationUtils skips the rows up to the
+ * page through the DAO's iterator, so only rows the DAO accepts are skipped.
+ * </p>
+ *
+ * <p>
+ * Paginated queries created with query(Class, Pagination, IFilterPredicate)
+ * also get fetch sizes planned around the page size and the predicate's
+ * observed selectivity by FetchPlanner, so the datastore fetches about one
+ * page per round trip.  query(Class, Pagination) leaves fetch sizes to the
+ * datastore, since it can't know how selective the DAO's filtering is.
+ * </p>
+ *
+ * <p>
+ * If a metrics sink is set, every get or find that goes to the datastore is
+ * reported to it, tagged with the name of the DAO that owns this proxy.
+ * Gets served from the identity map, the entity caches or the write-behind
+ * buffer are not reported, since they never reach the datastore.
+ * </p>
+ *
+ * <p>
+ * If KindVersions are set, every put or delete bumps the version of the
+ * kinds it touched once the write is done, which invalidates any results
+ * that a QueryResultCache holds for those kinds.  For a transaction, the
+ * versions are bumped when the transaction commits, and not at all if it
+ * is rolled back.
+ * </p>
+ *
  * @author Kenneth J. Pronovici <pronovic@ieee.org>
  */
 public class ObjectifyProxy {
 
+    /** Start time used when a get is not being timed. */
+    private static final long NOT_TIMED = Long.MIN_VALUE;
+
     /** The underlying Objectify instance that is proxied. */
     private Objectify objectify;
 
     /** Whether this objectify instance is transactional. */
     private boolean transactional;
 
+    /** Second-level entity caches, possibly null. */
+    private EntityCacheManager entityCacheManager;
+
+    /** Keys written in this transaction, to be invalidated in the entity caches on commit. */
+    private List<Key<?>> pendingInvalidations = new ArrayList<Key<?>>();
+
+    /** Buffer of pending writes for a transaction, or null if write-behind is disabled. */
+    private WriteBehindBuffer writeBehindBuffer;
+
+    /** Registry used to resolve cursor handles, possibly null. */
+    private CursorRegistry cursorRegistry;
+
+    /** Sink that gets are reported to, possibly null. */
+    private IDaoMetricsSink metricsSink;
+
+    /** Name of the DAO that gets are reported for. */
+    private String metricsName;
+
+    /** Kind versions to bump on writes, possibly null. */
+    private KindVersions kindVersions;
+
+    /** Kinds written since versions were last bumped. */
+    private Set<String> writtenKinds = new LinkedHashSet<String>();
+
     /** Create a proxy instance. */
     public ObjectifyProxy(Objectify objectify) {
         this(objectify, false);
@@ -63,8 +171,42 @@ public class ObjectifyProxy {
 
     /** Create a proxy instance. */
     public ObjectifyProxy(Objectify objectify, boolean transactional) {
+        this(objectify, transactional, null);
+    }
+
+    /** Create a proxy instance that uses second-level entity caches. */
+    public ObjectifyProxy(Objectify objectify, boolean transactional, EntityCacheManager entityCacheManager) {
+        this(objectify, transactional, entityCacheManager, 0);
+    }
+
+    /**
+     * Create a proxy instance that uses second-level entity caches and, for a transaction, write-behind.
+     * @param objectify           Objectify instance to proxy
+     * @param transactional       Whether the Objectify instance is transactional
+     * @param entityCacheManager  Second-level entity caches, possibly null
+     * @param writeBatchSize      Batch size for write-behind, or zero to write immediately; ignored unless transactional
+     */
+    public ObjectifyProxy(Objectify objectify, boolean transactional, EntityCacheManager entityCacheManager, int writeBatchSize) {
+        this(objectify, transactional, entityCacheManager, writeBatchSize, null);
+    }
+
+    /**
+     * Create a proxy instance with all of the optional features.
+     * @param objectify           Objectify instance to proxy
+     * @param transactional       Whether the Objectify instance is transactional
+     * @param entityCacheManager  Second-level entity caches, possibly null
+     * @param writeBatchSize      Batch size for write-behind, or zero to write immediately; ignored unless transactional
+     * @param cursorRegistry      Registry used to resolve cursor handles, possibly null
+     */
+    public ObjectifyProxy(Objectify objectify, boolean transactional, EntityCacheManager entityCacheManager,
+                          int writeBatchSize, CursorRegistry cursorRegistry) {
         this.objectify = objectify;
+        this.cursorRegistry = cursorRegistry;
         this.transactional = transactional;
+        this.entityCacheManager = entityCacheManager;
+        if (transactional && writeBatchSize > 0) {
+            this.writeBehindBuffer = new WriteBehindBuffer(writeBatchSize);
+        }
     }
 
     /** Whether this instance is transactional. */
@@ -77,14 +219,76 @@ public class ObjectifyProxy {
         return this.objectify;
     }
 
+    /** Get the second-level entity caches, possibly null. */
+    public EntityCacheManager getEntityCacheManager() {
+        return this.entityCacheManager;
+    }
+
+    /** Get the registry used to resolve cursor handles, possibly null. */
+    public CursorRegistry getCursorRegistry() {
+        return this.cursorRegistry;
+    }
+
+    /** Get the sink that gets are reported to, possibly null. */
+    public IDaoMetricsSink getMetricsSink() {
+        return this.metricsSink;
+    }
+
+    /** Get the name of the DAO that gets are reported for. */
+    public String getMetricsName() {
+        return this.metricsName;
+    }
+
+    /**
+     * Report gets to a metrics sink, tagged with the name of a DAO.
+     * @param metricsSink  Sink to report to, possibly null
+     * @param metricsName  Name of the DAO that owns this proxy
+     */
+    public void setMetrics(IDaoMetricsSink metricsSink, String metricsName) {
+        this.metricsSink = metricsSink;
+        this.metricsName = metricsName;
+    }
+
+    /** Get the kind versions to bump on writes, possibly null. */
+    public KindVersions getKindVersions() {
+        return this.kindVersions;
+    }
+
+    /** Bump kind versions on writes, invalidating cached query results; null disables this. */
+    public void setKindVersions(KindVersions kindVersions) {
+        this.kindVersions = kindVersions;
+    }
+
+    /** Get the buffer of pending writes, or null if write-behind is disabled. */
+    public WriteBehindBuffer getWriteBehindBuffer() {
+        return this.writeBehindBuffer;
+    }
+
+    /** Send any buffered puts and deletes to the datastore now, rather than waiting for commit. */
+    public void flush() {
+        if (this.writeBehindBuffer != null) {
+            this.writeBehindBuffer.flush(this.objectify);
+        }
+    }
+
     /** Commit a transaction. */
     public void commit() {
         if (!this.transactional) {
            throw new DaoException("This Objectify instance is not transactional.");
         }
 
-        if (this.getTxn().isActive()) {
-            this.getTxn().commit();
+        try {
+            if (this.getTxn().isActive()) {
+                this.flush();
+                this.getTxn().commit();
+            }
+        } finally {
+            if (this.writeBehindBuffer != null) {
+                this.writeBehindBuffer.clear();
+            }
+
+            this.invalidatePending();
+            this.bumpVersions();
         }
     }
 
@@ -94,6 +298,12 @@ public class ObjectifyProxy {
            throw new DaoException("This Objectify instance is not transactional.");
         }
 
+        this.pendingInvalidations.clear();
+        this.writtenKinds.clear();
+        if (this.writeBehindBuffer != null) {
+            this.writeBehindBuffer.clear();
+        }
+
         if (this.getTxn().isActive()) {
             this.getTxn().rollback();
         }
@@ -106,67 +316,269 @@ public class ObjectifyProxy {
 
     /** A convenience method, shorthand for creating a key and deleting it. */
     public <T> void delete(Class<T> clazz, long id) {
+        if (this.writeBehindBuffer != null) {
+            this.deleteLater(new Key<T>(clazz, id));
+            return;
+        }
+
+        this.invalidate(new Key<T>(clazz, id));
         this.objectify.delete(clazz, id);
+        this.bumpWrittenKinds();
     }
 
     /** A convenience method, shorthand for creating a key and deleting it. */
     public <T> void delete(Class<T> clazz, String name) {
+        if (this.writeBehindBuffer != null) {
+            this.deleteLater(new Key<T>(clazz, name));
+            return;
+        }
+
+        this.invalidate(new Key<T>(clazz, name));
         this.objectify.delete(clazz, name);
+        this.bumpWrittenKinds();
     }
 
     /** Deletes the specified entities in a parallel batch operation. */
     public void delete(Iterable<?> keysOrEntities) {
+        if (this.writeBehindBuffer != null) {
+            for (Object keyOrEntity : keysOrEntities) {
+                this.deleteLater(this.toKey(keyOrEntity));
+            }
+
+            return;
+        }
+
+        this.invalidateAll(keysOrEntities);
         this.objectify.delete(keysOrEntities);
+        this.bumpWrittenKinds();
     }
 
     /** Deletes the specified entity. */
     public void delete(Object... keysOrEntities) {
+        if (this.writeBehindBuffer != null) {
+            this.delete(Arrays.asList(keysOrEntities));
+            return;
+        }
+
+        this.invalidateAll(Arrays.asList(keysOrEntities));
         this.objectify.delete(keysOrEntities);
+        this.bumpWrittenKinds();
     }
 
     /** Same as get(Class, long) but returns null instead of throwing NotFoundException. */
     public <T> T find(Class<? extends T> clazz, long id) {
-        return this.objectify.find(clazz, id);
+        if (this.hasPendingWrites()) {
+            return this.find(new Key<T>(clazz, id));
+        }
+
+        if (!this.isCaching()) {
+            long started = this.startGet();
+            return this.recordGet(clazz, started, this.objectify.find(clazz, id));
+        }
+
+        Key<T> key = new Key<T>(clazz, id);
+        T entity = this.lookup(key);
+        if (entity == null) {
+            long started = this.startGet();
+            entity = this.recordGet(clazz, started, this.objectify.find(clazz, id));
+            this.remember(key, entity);
+        }
+
+        return entity;
     }
 
     /** Same as get(Class, name) but returns null instead of throwing NotFoundException. */
     public <T> T find(Class<? extends T> clazz, String name) {
-        return this.objectify.find(clazz, name);
+        if (this.hasPendingWrites()) {
+            return this.find(new Key<T>(clazz, name));
+        }
+
+        if (!this.isCaching()) {
+            long started = this.startGet();
+            return this.recordGet(clazz, started, this.objectify.find(clazz, name));
+        }
+
+        Key<T> key = new Key<T>(clazz, name);
+        T entity = this.lookup(key);
+        if (entity == null) {
+            long started = this.startGet();
+            entity = this.recordGet(clazz, started, this.objectify.find(clazz, name));
+            this.remember(key, entity);
+        }
+
+        return entity;
     }
 
     /** Same as get(Key) but returns null instead of throwing NotFoundException. */
     public <T> T find(Key<? extends T> key) {
-        return this.objectify.find(key);
+        if (this.isPending(key)) {
+            return this.writeBehindBuffer.get(key);
+        }
+
+        if (!this.isCaching()) {
+            long started = this.startGet();
+            return this.recordGet(key, started, this.objectify.find(key));
+        }
+
+        T entity = this.lookup(key);
+        if (entity == null) {
+            long started = this.startGet();
+            entity = this.recordGet(key, started, this.objectify.find(key));
+            this.remember(key, entity);
+        }
+
+        return entity;
     }
 
     /** A convenience method that prevents you from having to assemble all the Keys yourself and calling get(Iterable<Key>). */
     public <S, T> Map<S, T> get(Class<? extends T> clazz, Iterable<S> idsOrNames) {
-        return this.objectify.get(clazz, idsOrNames);
+        if (!this.isCaching() && !this.hasPendingWrites()) {
+            long started = this.startGet();
+            return this.recordGet(clazz, started, this.objectify.get(clazz, idsOrNames));
+        }
+
+        Map<Key<T>, S> keys = new LinkedHashMap<Key<T>, S>();
+        for (S idOrName : idsOrNames) {
+            keys.put(createKey(clazz, idOrName), idOrName);
+        }
+
+        Map<S, T> result = new LinkedHashMap<S, T>();
+        for (Map.Entry<Key<T>, T> entry : this.get(keys.keySet()).entrySet()) {
+            result.put(keys.get(entry.getKey()), entry.getValue());
+        }
+
+        return result;
     }
 
     /**  A convenience method, shorthand for creating a key and calling get(). */
     public <T> T get(Class<? extends T> clazz, long id) throws NotFoundException {
-        return this.objectify.get(clazz, id);
+        if (this.hasPendingWrites()) {
+            return this.get(new Key<T>(clazz, id));
+        }
+
+        if (!this.isCaching()) {
+            long started = this.startGet();
+            return this.recordGet(clazz, started, this.objectify.get(clazz, id));
+        }
+
+        Key<T> key = new Key<T>(clazz, id);
+        T entity = this.lookup(key);
+        if (entity == null) {
+            long started = this.startGet();
+            entity = this.recordGet(clazz, started, this.objectify.get(clazz, id));
+            this.remember(key, entity);
+        }
+
+        return entity;
     }
 
     /** Convenient varargs alias for get(Class, Iterable). */
     public <S, T> Map<S, T> get(Class<? extends T> clazz, S... idsOrNames) {
-        return this.objectify.get(clazz, idsOrNames);
+        if (!this.isCaching() && !this.hasPendingWrites()) {
+            long started = this.startGet();
+            return this.recordGet(clazz, started, this.objectify.get(clazz, idsOrNames));
+        }
+
+        return this.get(clazz, Arrays.asList(idsOrNames));
     }
 
     /**  A convenience method, shorthand for creating a key and calling get(). */
     public <T> T get(Class<? extends T> clazz, String name) throws NotFoundException {
-        return this.objectify.get(clazz, name);
+        if (this.hasPendingWrites()) {
+            return this.get(new Key<T>(clazz, name));
+        }
+
+        if (!this.isCaching()) {
+            long started = this.startGet();
+            return this.recordGet(clazz, started, this.objectify.get(clazz, name));
+        }
+
+        Key<T> key = new Key<T>(clazz, name);
+        T entity = this.lookup(key);
+        if (entity == null) {
+            long started = this.startGet();
+            entity = this.recordGet(clazz, started, this.objectify.get(clazz, name));
+            this.remember(key, entity);
+        }
+
+        return entity;
     }
 
     /** Performs a parallel batch get, returning your entities. */
+    @SuppressWarnings("unchecked")
     public <T> Map<Key<T>, T> get(Iterable<? extends Key<? extends T>> keys) {
-        return this.objectify.get(keys);
+        if (!this.isCaching() && !this.hasPendingWrites()) {
+            long started = this.startGet();
+            return this.recordGet(keys, started, this.objectify.get(keys));
+        }
+
+        List<Key<? extends T>> requested = new ArrayList<Key<? extends T>>();
+        List<Key<? extends T>> missing = new ArrayList<Key<? extends T>>();
+        Map<Key<T>, T> found = new LinkedHashMap<Key<T>, T>();
+        for (Key<? extends T> key : keys) {
+            requested.add(key);
+            if (this.isPending(key)) {
+                T entity = this.writeBehindBuffer.get(key);
+                if (entity != null) {
+                    found.put((Key<T>) key, entity);  // pending deletes are simply not found
+                }
+            } else {
+                T entity = this.isCaching() ? this.<T>lookup(key) : null;
+                if (entity == null) {
+                    missing.add(key);
+                } else {
+                    found.put((Key<T>) key, entity);
+                }
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            long started = this.startGet();
+            Map<Key<T>, T> loaded = this.recordGet(missing, started, this.objectify.get(missing));
+            for (Map.Entry<Key<T>, T> entry : loaded.entrySet()) {
+                if (this.isCaching()) {
+                    this.remember(entry.getKey(), entry.getValue());
+                }
+
+                found.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        // Return results in the requested order, just like Objectify does
+        Map<Key<T>, T> result = new LinkedHashMap<Key<T>, T>();
+        for (Key<? extends T> key : requested) {
+            T entity = found.get(key);
+            if (entity != null) {
+                result.put((Key<T>) key, entity);
+            }
+        }
+
+        return result;
     }
 
     /** Gets one instance of your entity. */
     public <T> T get(Key<? extends T> key) throws NotFoundException {
-        return this.objectify.get(key);
+        if (this.isPending(key)) {
+            if (this.writeBehindBuffer.isDeleted(key)) {
+                throw new NotFoundException(this.getFactory().typedKeyToRawKey(key));
+            }
+
+            return this.writeBehindBuffer.get(key);
+        }
+
+        if (!this.isCaching()) {
+            long started = this.startGet();
+            return this.recordGet(key, started, this.objectify.get(key));
+        }
+
+        T entity = this.lookup(key);
+        if (entity == null) {
+            long started = this.startGet();
+            entity = this.recordGet(key, started, this.objectify.get(key));
+            this.remember(key, entity);
+        }
+
+        return entity;
     }
 
     /** Obtain a DatastoreService with parameters roughly equivalent to this Objectify instance. */
@@ -186,17 +598,51 @@ public class ObjectifyProxy {
 
     /** Saves multiple entities to the datastore in a single parallel batch operation. */
     public <T> Map<Key<T>, T> put(Iterable<? extends T> objs) {
-        return this.objectify.put(objs);
+        if (this.writeBehindBuffer != null) {
+            Map<Key<T>, T> result = new LinkedHashMap<Key<T>, T>();
+            for (T obj : objs) {
+                result.put(this.put(obj), obj);
+            }
+
+            return result;
+        }
+
+        Map<Key<T>, T> result = this.objectify.put(objs);
+        this.invalidateKeys(result);
+        this.bumpWrittenKinds();
+        return result;
     }
 
     /** Convenient varargs alias for put(Iterable). */
     public <T> Map<Key<T>, T> put(T... objs) {
-        return this.objectify.put(objs);
+        if (this.writeBehindBuffer != null) {
+            return this.put(Arrays.asList(objs));
+        }
+
+        Map<Key<T>, T> result = this.objectify.put(objs);
+        this.invalidateKeys(result);
+        this.bumpWrittenKinds();
+        return result;
     }
 
     /** Puts an entity in the datastore. */
     public <T> Key<T> put(T obj) {
-        return this.objectify.put(obj);
+        if (this.writeBehindBuffer != null) {
+            Key<T> key = this.getCompleteKey(obj);
+            if (key != null) {
+                this.invalidate(key);
+                this.writeBehindBuffer.put(key, obj);
+                this.flushIfFull();
+                return key;
+            }
+
+            this.flush();  // keep writes in order ahead of a put that needs a key allocated
+        }
+
+        Key<T> key = this.objectify.put(obj);
+        this.invalidate(key);
+        this.bumpWrittenKinds();
+        return key;
     }
 
     /** Create a typesafe query across all kinds of entities. */
@@ -209,12 +655,62 @@ public class ObjectifyProxy {
         return this.objectify.query(clazz);
     }
 
-    /** Create a query, taking into account pagination. */
+    /**
+     * Create a query, taking into account pagination.
+     * Fetch sizes are left to the datastore, since the rows may be filtered in memory by a predicate this method can't see.
+     */
     public <T> Query<T> query(Class<T> clazz, Pagination pagination) {
+        return this.startQuery(clazz, pagination, true);
+    }
+
+    /**
+     * Create a query, taking into account pagination and the predicate that will filter its rows.
+     * With no predicate, the query is limited to one page plus the look-ahead row; otherwise, sizes are scaled by selectivity.
+     * @see FetchPlanner#plan(Query, int, IFilterPredicate)
+     */
+    public <T> Query<T> query(Class<T> clazz, Pagination pagination, IFilterPredicate<? super T> predicate) {
+        return this.planQuery(clazz, pagination, predicate);
+    }
+
+    /**
+     * Create a container query, taking into account pagination and the predicate that will filter the contained values.
+     * This is the container equivalent of query(Class, Pagination, IFilterPredicate), for use with FilteredContainerIterator.
+     * @see FetchPlanner#plan(Query, int, IFilterPredicate)
+     */
+    public <C extends IContainer<T>, T> Query<C> queryContainer(Class<C> clazz, Pagination pagination, IFilterPredicate<? super T> predicate) {
+        return this.planQuery(clazz, pagination, predicate);
+    }
+
+    /** Create a query that starts at the current page, planned for a predicate over either the entities or their contents. */
+    private <T> Query<T> planQuery(Class<T> clazz, Pagination pagination, IFilterPredicate<?> predicate) {
+        Query<T> query = this.startQuery(clazz, pagination, FetchPlanner.isFiltering(predicate));
+        if (pagination != null) {
+            FetchPlanner.plan(query, getPageRows(pagination), predicate);
+        }
+
+        return query;
+    }
+
+    /** Get the number of rows needed for the current page, including any rows skipped to reach it from a checkpoint. */
+    private static int getPageRows(Pagination pagination) {
+        int rows = pagination.getPageSize();
+        if (rows > 0 && CheckpointBuilder.isSeekCursor(pagination.getCurrent())) {
+            rows += CheckpointBuilder.getSeekOffset(pagination.getCurrent());
+        }
+
+        return rows;
+    }
+
+    /** Create a query that starts at the current page, where filtered indicates whether rows may be filtered in memory. */
+    private <T> Query<T> startQuery(Class<T> clazz, Pagination pagination, boolean filtered) {
         Query<T> query = this.query(clazz);
 
         if (pagination != null) {
-            if (pagination.getCurrent() != null) {
+            if (CursorRegistry.isHandle(pagination.getCurrent())) {
+                this.startAtHandle(query, pagination, filtered);
+            } else if (CheckpointBuilder.isSeekCursor(pagination.getCurrent())) {
+                this.startAtCheckpoint(query, pagination.getCurrent());
+            } else if (pagination.getCurrent() != null) {
                 Cursor cursor = Cursor.fromWebSafeString(pagination.getCurrent());
                 query.startCursor(cursor);
             }
@@ -223,4 +719,314 @@ public class ObjectifyProxy {
         return query;
     }
 
+    /**
+     * Start a query at the page identified by a cursor handle, re-scanning from an earlier page if the handle has expired.
+     * If rows may be filtered in memory, the pagination is relocated to a seek cursor, so PaginationUtils skips accepted rows.
+     */
+    private <T> void startAtHandle(Query<T> query, Pagination pagination, boolean filtered) {
+        String cursor = this.resolveHandle(pagination.getCurrent());
+        if (cursor != null) {
+            query.startCursor(Cursor.fromWebSafeString(cursor));
+            return;
+        }
+
+        String start = null;
+        int offset = 0;
+        for (int page = pagination.getPageNumber() - 1; page >= 1; page--) {
+            int count = pagination.getCount(page);
+            offset += count > 0 ? count : pagination.getPageSize();  // a page skipped over by a seek is full
+            String checkpoint = this.resolveHandle(pagination.getCursor(page));
+            if (CheckpointBuilder.isSeekCursor(checkpoint)) {
+                start = CheckpointBuilder.getSeekStart(checkpoint);
+                offset += CheckpointBuilder.getSeekOffset(checkpoint);
+                break;
+            } else if (checkpoint != null) {
+                start = checkpoint;
+                break;
+            }
+        }
+
+        if (start != null) {
+            query.startCursor(Cursor.fromWebSafeString(start));
+        }
+
+        if (offset > 0) {
+            if (filtered) {
+                pagination.relocate(CheckpointBuilder.createSeekCursor(start, offset));
+            } else {
+                query.offset(offset);
+            }
+        }
+    }
+
+    /**
+     * Start a query at the checkpoint from a seek cursor from CheckpointBuilder.
+     * The rows after the checkpoint are skipped by PaginationUtils, not here, since the datastore would count rows the DAO rejects.
+     */
+    private <T> void startAtCheckpoint(Query<T> query, String seekCursor) {
+        String cursor = CheckpointBuilder.getSeekStart(seekCursor);
+        if (cursor != null) {
+            query.startCursor(Cursor.fromWebSafeString(cursor));
+        }
+    }
+
+    /** Resolve a handle or raw cursor into a raw cursor, returning null if it can't be resolved. */
+    private String resolveHandle(String value) {
+        if (!CursorRegistry.isHandle(value)) {
+            return value;
+        }
+
+        return this.cursorRegistry == null ? null : this.cursorRegistry.resolve(value);
+    }
+
+    /** Start timing a datastore get, returning NOT_TIMED if metrics are disabled. */
+    private long startGet() {
+        return this.metricsSink != null && this.metricsSink.isEnabled() ? System.nanoTime() : NOT_TIMED;
+    }
+
+    /**
+     * Report a datastore get to the metrics sink.
+     * @param kindSource  Class, key or keys that identify the kind
+     * @param started     Start time, as from startGet()
+     * @param result      Entity or map of entities returned by the datastore
+     * @return The result, unchanged.
+     */
+    private <R> R recordGet(Object kindSource, long started, R result) {
+        if (started != NOT_TIMED) {
+            long elapsed = System.nanoTime() - started;
+            long entities = result == null ? 0 : (result instanceof Map ? ((Map<?, ?>) result).size() : 1);
+            this.metricsSink.recordGet(this.metricsName, getKind(kindSource), elapsed, entities);
+        }
+
+        return result;
+    }
+
+    /** Get the kind for metrics purposes, from a class, a key, or the first of several keys. */
+    private static String getKind(Object kindSource) {
+        if (kindSource instanceof Class) {
+            return ((Class<?>) kindSource).getSimpleName();
+        } else if (kindSource instanceof Key) {
+            return ((Key<?>) kindSource).getKind();
+        } else if (kindSource instanceof Iterable) {
+            Iterator<?> iterator = ((Iterable<?>) kindSource).iterator();
+            return iterator.hasNext() ? getKind(iterator.next()) : "unknown";
+        } else {
+            return "unknown";
+        }
+    }
+
+    /** Whether reads should check the identity map and entity caches before going to the datastore. */
+    private boolean isCaching() {
+        return !this.transactional && this.isInvalidating();
+    }
+
+    /** Whether writes have anything to invalidate. */
+    private boolean isInvalidating() {
+        return RequestIdentityMap.getCurrent() != null || this.entityCacheManager != null;
+    }
+
+    /** Get the entity cache for the kind of a key, or null if the kind is not cached. */
+    private IEntityCache getEntityCache(Key<?> key) {
+        return this.entityCacheManager == null ? null : this.entityCacheManager.getCache(key);
+    }
+
+    /** Look up an entity in the identity map and then the entity cache, returning null if neither has it. */
+    private <T> T lookup(Key<? extends T> key) {
+        RequestIdentityMap map = RequestIdentityMap.getCurrent();
+        if (map != null) {
+            T entity = map.get(key);
+            if (entity != null) {
+                return entity;
+            }
+        }
+
+        IEntityCache cache = this.getEntityCache(key);
+        if (cache != null) {
+            T entity = cache.get(key);
+            if (entity != null) {
+                if (map != null) {
+                    map.put(key, entity);
+                }
+
+                return entity;
+            }
+        }
+
+        return null;
+    }
+
+    /** Remember an entity loaded from the datastore in the identity map and the entity cache. */
+    private void remember(Key<?> key, Object entity) {
+        if (entity != null) {
+            RequestIdentityMap map = RequestIdentityMap.getCurrent();
+            if (map != null) {
+                map.put(key, entity);
+            }
+
+            IEntityCache cache = this.getEntityCache(key);
+            if (cache != null) {
+                cache.put(key, entity);
+            }
+        }
+    }
+
+    /** Invalidate a key in the identity map and the entity cache, and remember its kind so its version can be bumped. */
+    private void invalidate(Key<?> key) {
+        if (key != null) {
+            if (this.kindVersions != null) {
+                this.writtenKinds.add(key.getKind());
+            }
+
+            RequestIdentityMap map = RequestIdentityMap.getCurrent();
+            if (map != null) {
+                map.remove(key);
+            }
+
+            IEntityCache cache = this.getEntityCache(key);
+            if (cache != null) {
+                cache.remove(key);
+            }
+
+            if (this.transactional) {
+                this.pendingInvalidations.add(key);
+            }
+        }
+    }
+
+    /** Invalidate a set of keys or entities. */
+    private void invalidateAll(Iterable<?> keysOrEntities) {
+        if (this.isInvalidating() || this.kindVersions != null) {
+            for (Object keyOrEntity : keysOrEntities) {
+                this.invalidate(this.toKey(keyOrEntity));
+            }
+        }
+    }
+
+    /** Invalidate the keys of a map of entities, as returned by a batch put. */
+    private void invalidateKeys(Map<? extends Key<?>, ?> entities) {
+        if (this.isInvalidating() || this.kindVersions != null) {
+            for (Key<?> key : entities.keySet()) {
+                this.invalidate(key);
+            }
+        }
+    }
+
+    /**
+     * Invalidate keys written in this transaction, now that the transaction is over.
+     * Until the commit, a non-transactional read could have loaded the old entity into
+     * the identity map or an entity cache, so both are invalidated again.
+     */
+    private void invalidatePending() {
+        RequestIdentityMap map = RequestIdentityMap.getCurrent();
+        for (Key<?> key : this.pendingInvalidations) {
+            if (map != null) {
+                map.remove(key);
+            }
+
+            IEntityCache cache = this.getEntityCache(key);
+            if (cache != null) {
+                cache.remove(key);
+            }
+        }
+
+        this.pendingInvalidations.clear();
+    }
+
+    /** Bump the versions of kinds written outside a transaction, now that the write is done. */
+    private void bumpWrittenKinds() {
+        if (!this.transactional) {
+            this.bumpVersions();
+        }
+    }
+
+    /** Bump the versions of all kinds written since versions were last bumped. */
+    private void bumpVersions() {
+        if (this.kindVersions != null && !this.writtenKinds.isEmpty()) {
+            List<String> kinds = new ArrayList<String>(this.writtenKinds);
+            this.writtenKinds.clear();
+            this.kindVersions.bump(kinds);
+        }
+    }
+
+    /** Whether there are buffered writes that reads must take into account. */
+    private boolean hasPendingWrites() {
+        return this.writeBehindBuffer != null && !this.writeBehindBuffer.isEmpty();
+    }
+
+    /** Whether there is a buffered write for a key. */
+    private boolean isPending(Key<?> key) {
+        return this.writeBehindBuffer != null && this.writeBehindBuffer.contains(key);
+    }
+
+    /** Buffer a delete, flushing if the buffer is full. */
+    private void deleteLater(Key<?> key) {
+        this.invalidate(key);
+        this.writeBehindBuffer.delete(key);
+        this.flushIfFull();
+    }
+
+    /** Flush the write-behind buffer if it has reached its batch size. */
+    private void flushIfFull() {
+        if (this.writeBehindBuffer.isFull()) {
+            this.flush();
+        }
+    }
+
+    /** Get the key for an entity, or null if the entity has no id yet and the datastore must allocate one. */
+    private <T> Key<T> getCompleteKey(T obj) {
+        try {
+            return this.getFactory().getKey(obj);
+        } catch (IllegalArgumentException e) {
+            return null;  // Objectify refuses to create a key for an entity with a null id
+        }
+    }
+
+    /** Convert a key or an entity into an Objectify key. */
+    private Key<?> toKey(Object keyOrEntity) {
+        if (keyOrEntity instanceof Key) {
+            return (Key<?>) keyOrEntity;
+        } else if (keyOrEntity instanceof com.google.appengine.api.datastore.Key) {
+            return this.getFactory().rawKeyToTypedKey((com.google.appengine.api.datastore.Key) keyOrEntity);
+        } else {
+            return this.getFactory().getKey(keyOrEntity);
+        }
+    }
+
+    /** Create a key from an id or a name, the same way Objectify does. */
+    private static <T> Key<T> createKey(Class<? extends T> clazz, Object idOrName) {
+        if (idOrName instanceof String) {
+            return new Key<T>(clazz, (String) idOrName);
+        } else {
+            return new Key<T>(clazz, ((Number) idOrName).longValue());
+        }
+    }
+
+    /**
+     * Create an iterator that runs a query keys-only and batch-loads the surviving entities.
+     * @param query         Query to iterate over, as from query(Class, Pagination)
+     * @param pagination    Pagination in use, which controls the batch size
+     * @param keyPredicate  Predicate to apply to each key, before the entity is loaded
+     * @param predicate     Predicate to apply to each loaded entity
+     * @return Iterator whose results and cursors match FilteredResultIterator.
+     */
+    public <T> KeysOnlyResultIterator<T> queryKeysOnly(Query<T> query, Pagination pagination,
+                                                       IKeyFilterPredicate<T> keyPredicate, IFilterPredicate<T> predicate) {
+        int batchSize = AbstractKeysOnlyIterator.getBatchSize(pagination);
+        return new KeysOnlyResultIterator<T>(this, query, keyPredicate, predicate, batchSize);
+    }
+
+    /**
+     * Create an iterator that runs a container query keys-only and batch-loads the surviving containers.
+     * @param query         Query to iterate over, as from query(Class, Pagination)
+     * @param pagination    Pagination in use, which controls the batch size
+     * @param keyPredicate  Predicate to apply to each key, before the container is loaded
+     * @param predicate     Predicate to apply to each loaded value
+     * @return Iterator whose results and cursors match FilteredContainerIterator.
+     */
+    public <T> KeysOnlyContainerIterator<T> queryContainerKeysOnly(Query<? extends IContainer<T>> query, Pagination pagination,
+                                                                   IKeyFilterPredicate<IContainer<T>> keyPredicate, IFilterPredicate<T> predicate) {
+        int batchSize = AbstractKeysOnlyIterator.getBatchSize(pagination);
+        return new KeysOnlyContainerIterator<T>(this, query, keyPredicate, predicate, batchSize);
+    }
+
 }
@@ -22,6 +22,9 @@
  * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
 package com.cedarsolutions.dao.gae.impl;
 
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+
 import com.cedarsolutions.dao.domain.PaginatedResults;
 import com.cedarsolutions.dao.domain.Pagination;
 
@@ -46,6 +49,17 @@ import com.cedarsolutions.dao.domain.Pagination;
  * directly.
  * </p>
  *
+ * <p>
+ * If a client really needs a total, RowCountEstimator can fill in a bounded
+ * estimate, based on a capped count that is cached per search.
+ * </p>
+ *
+ * <p>
+ * For relational databases, AbstractJdbcDao in the dao.jdbc.impl package
+ * uses keyset pagination, storing the key of the last row on the previous
+ * page where this class would store a GAE cursor.
+ * </p>
+ *
  * @see <a href="http://groups.google.com/group/objectify-appengine/browse_thread/thread/b640b5d377b620b4">Google Groups</a>
  * @see <a href="https://bitbucket.org/cedarsolutions/cedar-common/wiki/Pagination">The wiki for notes on pagination for non-GAE platforms</a>
  * @author Kenneth J. Pronovici <pronovic@ieee.org>
@@ -54,6 +68,7 @@ public class PaginationUtils {
 
     /**
      * Create paginated results based on data from GAE, using null pagination.
+     * All results are held in memory, so use BulkExporter to export an entire kind.
      * @param <T>  Type of the paginated results
      * @param iterator    Iterator to use as source of data
      */
@@ -80,11 +95,50 @@ public class PaginationUtils {
      * sometimes useful to maintain the interface.
      * </p>
      *
+     * <p>
+     * If the iterator is an IResumableIterator that stopped early (for
+     * instance, because it ran out of scan budget), the returned page may be
+     * partial, but it will still have a next page that resumes the scan.
+     * </p>
+     *
+     * <p>
+     * If the pagination's current location is a seek cursor from
+     * CheckpointBuilder, the iterator starts at the checkpoint, and the rows
+     * between the checkpoint and the page are skipped before the page is
+     * built.  They're skipped through the iterator, so an iterator that
+     * filters in memory skips only the rows it accepts.
+     * </p>
+     *
+     * <p>
+     * The selectivity of a filtered iterator's predicate is recorded with
+     * FetchPlanner, so later queries for pages can be sized accordingly.
+     * </p>
+     *
      * @param <T>  Type of the paginated results
      * @param pagination  Pagination that is in use
      * @param iterator    Iterator to use as source of data
      */
     public static <T> PaginatedResults<T> createPaginatedResults(Pagination pagination, IIteratorWithCursor<T> iterator) {
+        return createPaginatedResults(pagination, iterator, null);
+    }
+
+    /**
+     * Create paginated results based on data from GAE, giving the client cursor handles rather than raw cursors.
+     *
+     * <p>
+     * This works just like createPaginatedResults(Pagination, IIteratorWithCursor),
+     * except that the cursors stored in the returned pagination are handles from the
+     * registry.  The query for the next request must be built with an ObjectifyProxy
+     * that uses the same registry, so it can resolve the handles.
+     * </p>
+     *
+     * @param <T>  Type of the paginated results
+     * @param pagination  Pagination that is in use
+     * @param iterator    Iterator to use as source of data
+     * @param registry    Registry to store cursors in, or null to give the client raw cursors
+     */
+    public static <T> PaginatedResults<T> createPaginatedResults(Pagination pagination, IIteratorWithCursor<T> iterator,
+                                                                 CursorRegistry registry) {
         PaginatedResults<T> results = new PaginatedResults<T>();
 
         if (pagination == null) {
@@ -93,18 +147,135 @@ public class PaginationUtils {
                 results.add(element);
             }
         } else {
+            if (CheckpointBuilder.isSeekCursor(pagination.getCurrent())) {
+                skipRows(iterator, CheckpointBuilder.getSeekOffset(pagination.getCurrent()));
+            }
+
             String current = iterator.getCursor();
             for (int i = 0; i < pagination.getPageSize() && iterator.hasNext(); i++) {
                 T element = iterator.next();
                 results.add(element);
             }
 
-            String next = iterator.hasNext() ? iterator.getCursor() : null;
+            String next = iterator.hasNext() || isIncomplete(iterator) ? iterator.getCursor() : null;
+            if (registry != null) {
+                current = registry.register(current);
+                next = registry.register(next);
+            }
+
             results.setPagination(pagination.copy());
             results.getPagination().update(current, next, results.size());
+            FetchPlanner.record(iterator);
         }
 
         return results;
     }
 
+    /**
+     * Create paginated results, prefetching the next page.
+     *
+     * <p>
+     * If the requested page was already prefetched into the buffer, it is
+     * served from there, without touching the datastore.  Otherwise, the page
+     * is opened via the page source.  Either way, once the current page has
+     * been built, if there is a next page, it is fetched and materialized into
+     * the buffer, keyed by its cursor.  The fetch runs on the executor, so on
+     * GAE, pass one built from ThreadManager.currentRequestThreadFactory().
+     * Request threads can't outlive the request, so the next page is fetched
+     * while the current request is finishing up, and nothing that touches the
+     * datastore is left behind afterwards.  With a null executor, nothing is
+     * prefetched, since fetching the next page in the calling thread would
+     * just make the current request wait for two pages instead of one.
+     * </p>
+     *
+     * <p>
+     * Since the source is called from the executor's thread, it must not share
+     * an ObjectifyProxy with the calling thread.  AbstractGaeDao.getObjectify()
+     * returns a new proxy each time, so a source that calls it is safe.  If the
+     * prefetch fails, it is counted by the buffer, and the page will simply be
+     * fetched normally when it's requested.
+     * </p>
+     *
+     * <p>
+     * The search key identifies the search within the buffer.  Two searches
+     * that share a datastore query but differ in their filter predicate must
+     * pass different keys.
+     * </p>
+     *
+     * @param <T>  Type of the paginated results
+     * @param pagination  Pagination that is in use, which must not be null
+     * @param searchKey   Key that identifies the search, possibly null
+     * @param source      Source used to open pages
+     * @param buffer      Prefetch buffer to use, possibly null to disable prefetching
+     * @param executor    Executor used to fetch the next page, possibly null to disable prefetching
+     */
+    public static <T> PaginatedResults<T> createPaginatedResultsWithPrefetch(Pagination pagination, String searchKey,
+                                                                             IPageSource<T> source, PrefetchBuffer buffer,
+                                                                             Executor executor) {
+        if (pagination == null) {
+            throw new IllegalArgumentException("Pagination is required when prefetching");
+        }
+
+        PaginatedResults<T> results = null;
+        if (buffer != null && pagination.getCurrent() != null) {
+            results = buffer.take(searchKey, pagination.getPageSize(), pagination.getCurrent());
+        }
+
+        if (results == null) {
+            results = createPaginatedResults(pagination, source.open(pagination));
+        }
+
+        if (buffer != null && executor != null && results.getPagination().hasNext()) {
+            executor.execute(new PrefetchTask<T>(searchKey, results.getPagination().next(), source, buffer));
+        }
+
+        return results;
+    }
+
+    /**
+     * Skip rows from an iterator, for a page that has to be reached by position rather than by cursor.
+     * The rows skipped are rows the iterator returns, so an iterator that filters in memory skips only accepted rows.
+     * @param iterator  Iterator to skip rows from
+     * @param rows      Number of rows to skip
+     * @return Number of rows actually skipped, which is less than requested if the iterator ran out.
+     */
+    public static int skipRows(Iterator<?> iterator, int rows) {
+        int skipped = 0;
+        while (skipped < rows && iterator.hasNext()) {
+            iterator.next();
+            skipped += 1;
+        }
+
+        return skipped;
+    }
+
+    /** Whether an iterator stopped before its query was exhausted, meaning that there is still a next page. */
+    private static <T> boolean isIncomplete(IIteratorWithCursor<T> iterator) {
+        return iterator instanceof IResumableIterator && ((IResumableIterator<T>) iterator).isIncomplete();
+    }
+
+    /** Task that fetches a page and puts it into a prefetch buffer. */
+    private static class PrefetchTask<T> implements Runnable {
+        private String searchKey;
+        private Pagination pagination;
+        private IPageSource<T> source;
+        private PrefetchBuffer buffer;
+
+        PrefetchTask(String searchKey, Pagination pagination, IPageSource<T> source, PrefetchBuffer buffer) {
+            this.searchKey = searchKey;
+            this.pagination = pagination;
+            this.source = source;
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void run() {
+            try {
+                this.buffer.put(this.searchKey, createPaginatedResults(this.pagination, this.source.open(this.pagination)));
+            } catch (RuntimeException e) {
+                this.buffer.recordFailure();  // the page will be fetched normally when it's requested
+            }
+        }
+    }
+
 }
@@ -0,0 +1,241 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.cedarsolutions.dao.gae.IPayloadCodec;
+import com.cedarsolutions.exception.DaoException;
+
+/**
+ * Registry of payload codecs, which also handles payload headers and compression.
+ *
+ * <p>
+ * Every payload starts with a one-byte header.  The high nibble holds the
+ * codec format (1-15), the next three bits hold the format version (0-7),
+ * and the lowest bit is set if the rest of the payload is compressed with
+ * DEFLATE.  Compression is only kept if it actually makes the payload
+ * smaller, so small values don't pay for it.
+ * </p>
+ *
+ * <p>
+ * The standard codecs are registered automatically.  Applications may
+ * register their own codecs, as long as they use a format that isn't
+ * already taken.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class PayloadCodecs {
+
+    /** Format for JavaSerializationCodec. */
+    public static final int FORMAT_JAVA = 1;
+
+    /** Format for JaxbCodec. */
+    public static final int FORMAT_JAXB = 2;
+
+    /** Format for GsonCodec. */
+    public static final int FORMAT_GSON = 3;
+
+    /** Format for CompactBinaryCodec. */
+    public static final int FORMAT_COMPACT = 4;
+
+    /** Largest legal format. */
+    public static final int MAX_FORMAT = 0x0F;
+
+    /** Largest legal version. */
+    public static final int MAX_VERSION = 0x07;
+
+    /** Header flag indicating that the payload is compressed. */
+    private static final int DEFLATE_FLAG = 0x01;
+
+    /** Registered codecs, keyed by format. */
+    private static final Map<Integer, IPayloadCodec> CODECS = new ConcurrentHashMap<Integer, IPayloadCodec>();
+
+    static {
+        register(new JavaSerializationCodec());
+        register(new JaxbCodec());
+        register(new GsonCodec());
+        register(new CompactBinaryCodec());
+    }
+
+    /**
+     * Register a codec.
+     * @param codec  Codec to register
+     * @throws DaoException If the codec's format or version is invalid, or its format is already registered.
+     */
+    public static synchronized void register(IPayloadCodec codec) {
+        if (codec.getFormat() < 1 || codec.getFormat() > MAX_FORMAT) {
+            throw new DaoException("Invalid payload codec format: " + codec.getFormat());
+        }
+
+        if (codec.getVersion() < 0 || codec.getVersion() > MAX_VERSION) {
+            throw new DaoException("Invalid payload codec version: " + codec.getVersion());
+        }
+
+        IPayloadCodec existing = CODECS.get(codec.getFormat());
+        if (existing != null && existing.getClass() != codec.getClass()) {
+            throw new DaoException("Payload codec format " + codec.getFormat() + " is already registered");
+        }
+
+        CODECS.put(codec.getFormat(), codec);
+    }
+
+    /**
+     * Get the codec registered for a format.
+     * @param format  Format to look up
+     * @return Codec for the format.
+     * @throws DaoException If no codec is registered for the format.
+     */
+    public static IPayloadCodec getCodec(int format) {
+        IPayloadCodec codec = CODECS.get(format);
+        if (codec == null) {
+            throw new DaoException("Unknown payload codec format: " + format);
+        }
+
+        return codec;
+    }
+
+    /**
+     * Encode a value with a codec, prepending the header.
+     * @param codec     Codec to encode with
+     * @param value     Value to encode
+     * @param compress  Whether to try compressing the payload
+     * @return Payload, including the header.
+     */
+    public static byte[] encode(IPayloadCodec codec, Object value, boolean compress) {
+        byte[] data = codec.encode(value);
+        boolean compressed = false;
+
+        if (compress) {
+            byte[] deflated = deflate(data);
+            if (deflated.length < data.length) {
+                data = deflated;
+                compressed = true;
+            }
+        }
+
+        byte[] payload = new byte[data.length + 1];
+        payload[0] = createHeader(codec.getFormat(), codec.getVersion(), compressed);
+        System.arraycopy(data, 0, payload, 1, data.length);
+        return payload;
+    }
+
+    /**
+     * Decode a payload with whichever codec wrote it.
+     * @param type     Type of the value to decode
+     * @param payload  Payload, including the header
+     * @return The decoded value.
+     * @throws DaoException If the payload can't be decoded.
+     */
+    public static <T> T decode(Class<T> type, byte[] payload) {
+        if (payload == null || payload.length == 0) {
+            throw new DaoException("Payload is empty");
+        }
+
+        IPayloadCodec codec = getCodec(getFormat(payload));
+        int version = getVersion(payload);
+        if (version > codec.getVersion()) {
+            throw new DaoException("Payload version " + version + " is newer than codec version " + codec.getVersion());
+        }
+
+        byte[] data = new byte[payload.length - 1];
+        System.arraycopy(payload, 1, data, 0, data.length);
+        if (isCompressed(payload)) {
+            data = inflate(data);
+        }
+
+        return codec.decode(type, data, version);
+    }
+
+    /** Get the format from a payload's header. */
+    public static int getFormat(byte[] payload) {
+        return (payload[0] >> 4) & MAX_FORMAT;
+    }
+
+    /** Get the version from a payload's header. */
+    public static int getVersion(byte[] payload) {
+        return (payload[0] >> 1) & MAX_VERSION;
+    }
+
+    /** Whether a payload is compressed, according to its header. */
+    public static boolean isCompressed(byte[] payload) {
+        return (payload[0] & DEFLATE_FLAG) != 0;
+    }
+
+    /** Create a header byte. */
+    protected static byte createHeader(int format, int version, boolean compressed) {
+        return (byte) ((format << 4) | (version << 1) | (compressed ? DEFLATE_FLAG : 0));
+    }
+
+    /** Compress data with DEFLATE. */
+    protected static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream(data.length);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                output.write(buffer, 0, count);
+            }
+
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Decompress data that was compressed with DEFLATE. */
+    protected static byte[] inflate(byte[] data) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DaoException("Compressed payload is truncated");
+                }
+
+                output.write(buffer, 0, count);
+            }
+
+            return output.toByteArray();
+        } catch (DataFormatException e) {
+            throw new DaoException("Compressed payload is corrupt: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+}
@@ -0,0 +1,273 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.cedarsolutions.dao.domain.PaginatedResults;
+
+/**
+ * Short-lived, bounded buffer of prefetched pages.
+ *
+ * <p>
+ * Each entry holds a page of results that was fetched ahead of time, keyed by
+ * a search key, page size, and the cursor for the start of the page.  Pages
+ * are fully materialized before they are put into the buffer, so serving a
+ * page from the buffer never touches the datastore, and no datastore
+ * iterator outlives the request that opened it.  Entries expire after a
+ * short time to live, and the oldest entry is discarded once the buffer is
+ * full.  An entry can only be taken once.
+ * </p>
+ *
+ * <p>
+ * The search key is a string rather than the search criteria object itself,
+ * so a caller that changes its criteria after a search can't corrupt the
+ * key of a buffered page.  Build it from every field of the criteria that
+ * affects the results, including anything used by an in-memory filter.
+ * </p>
+ *
+ * <p>
+ * Buffers are meant to be per-session.  getSessionBuffer() keeps a bounded
+ * registry of buffers in memory, keyed by session id.  This is best-effort:
+ * if the next request for a session lands on a different instance, it just
+ * won't find a prefetched page.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class PrefetchBuffer {
+
+    /** Default maximum number of prefetched pages to hold. */
+    public static final int DEFAULT_MAX_PAGES = 5;
+
+    /** Default time to live for a prefetched page, in milliseconds. */
+    public static final long DEFAULT_TIME_TO_LIVE = 30000L;
+
+    /** Maximum number of session buffers to keep in the registry. */
+    public static final int MAX_SESSIONS = 1000;
+
+    /** Registry of buffers by session id, in access order so the least-recently-used session can be discarded. */
+    private static final Map<String, PrefetchBuffer> SESSIONS = new LinkedHashMap<String, PrefetchBuffer>(16, 0.75f, true);
+
+    /** Maximum number of prefetched pages to hold. */
+    private int maxPages;
+
+    /** Time to live for a prefetched page, in milliseconds. */
+    private long timeToLive;
+
+    /** Prefetched pages, in insertion order. */
+    private Map<PrefetchKey, Entry> entries = new LinkedHashMap<PrefetchKey, Entry>();
+
+    /** Number of successful lookups. */
+    private long hits;
+
+    /** Number of unsuccessful lookups. */
+    private long misses;
+
+    /** Number of prefetches that failed. */
+    private long failures;
+
+    /** Create a buffer with default settings. */
+    public PrefetchBuffer() {
+        this(DEFAULT_MAX_PAGES, DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * Create a buffer.
+     * @param maxPages    Maximum number of prefetched pages to hold
+     * @param timeToLive  Time to live for a prefetched page, in milliseconds
+     */
+    public PrefetchBuffer(int maxPages, long timeToLive) {
+        this.maxPages = maxPages;
+        this.timeToLive = timeToLive;
+    }
+
+    /** Get the buffer for a session, creating it if necessary. */
+    public static PrefetchBuffer getSessionBuffer(String sessionId) {
+        synchronized (SESSIONS) {
+            PrefetchBuffer buffer = SESSIONS.get(sessionId);
+            if (buffer == null) {
+                buffer = new PrefetchBuffer();
+                SESSIONS.put(sessionId, buffer);
+                if (SESSIONS.size() > MAX_SESSIONS) {
+                    Iterator<String> iterator = SESSIONS.keySet().iterator();
+                    iterator.next();
+                    iterator.remove();
+                }
+            }
+
+            return buffer;
+        }
+    }
+
+    /** Discard the buffer for a session, if there is one. */
+    public static void removeSessionBuffer(String sessionId) {
+        synchronized (SESSIONS) {
+            SESSIONS.remove(sessionId);
+        }
+    }
+
+    /**
+     * Put a prefetched page into the buffer, keyed by the page size and cursor from its pagination.
+     * @param searchKey  Key that identifies the search the page belongs to, possibly null
+     * @param page       Materialized page, which must have pagination
+     */
+    public synchronized void put(String searchKey, PaginatedResults<?> page) {
+        if (page == null || page.getPagination() == null) {
+            throw new IllegalArgumentException("A page with pagination is required");
+        }
+
+        this.expire();
+        PrefetchKey key = new PrefetchKey(searchKey, page.getPagination().getPageSize(), page.getPagination().getCurrent());
+        this.entries.put(key, new Entry(page, this.currentTimeMillis()));
+        while (this.entries.size() > this.maxPages) {
+            Iterator<PrefetchKey> keys = this.entries.keySet().iterator();
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    /**
+     * Take a prefetched page out of the buffer.
+     * @param searchKey  Key that identifies the search the page belongs to, possibly null
+     * @param pageSize   Page size of the page
+     * @param cursor     Cursor for the start of the page
+     * @return Prefetched page, or null if no unexpired page is available.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> PaginatedResults<T> take(String searchKey, int pageSize, String cursor) {
+        this.expire();
+        Entry entry = this.entries.remove(new PrefetchKey(searchKey, pageSize, cursor));
+        if (entry == null) {
+            this.misses += 1;
+            return null;
+        } else {
+            this.hits += 1;
+            return (PaginatedResults<T>) entry.page;
+        }
+    }
+
+    /** Discard all prefetched pages. */
+    public synchronized void clear() {
+        this.entries.clear();
+    }
+
+    /** Get the number of prefetched pages currently in the buffer. */
+    public synchronized int size() {
+        this.expire();
+        return this.entries.size();
+    }
+
+    /** Record a prefetch that failed. */
+    synchronized void recordFailure() {
+        this.failures += 1;
+    }
+
+    /** Get the number of successful lookups. */
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    /** Get the number of unsuccessful lookups. */
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    /** Get the number of prefetches that failed. */
+    public synchronized long getFailures() {
+        return this.failures;
+    }
+
+    /** Get the maximum number of prefetched pages to hold. */
+    public int getMaxPages() {
+        return this.maxPages;
+    }
+
+    /** Get the time to live for a prefetched page, in milliseconds. */
+    public long getTimeToLive() {
+        return this.timeToLive;
+    }
+
+    /** Get the current time in milliseconds, overridable for testing. */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /** Discard expired entries. */
+    private void expire() {
+        long now = this.currentTimeMillis();
+        Iterator<Entry> iterator = this.entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().created > this.timeToLive) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /** A prefetched page. */
+    private static class Entry {
+        private PaginatedResults<?> page;
+        private long created;
+
+        Entry(PaginatedResults<?> page, long created) {
+            this.page = page;
+            this.created = created;
+        }
+    }
+
+    /** Key for a prefetched page, made only of immutable values. */
+    private static class PrefetchKey {
+        private final String searchKey;
+        private final int pageSize;
+        private final String cursor;
+
+        PrefetchKey(String searchKey, int pageSize, String cursor) {
+            this.searchKey = searchKey;
+            this.pageSize = pageSize;
+            this.cursor = cursor;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PrefetchKey)) {
+                return false;
+            }
+
+            PrefetchKey other = (PrefetchKey) obj;
+            return this.pageSize == other.pageSize
+                   && (this.searchKey == null ? other.searchKey == null : this.searchKey.equals(other.searchKey))
+                   && (this.cursor == null ? other.cursor == null : this.cursor.equals(other.cursor));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = this.pageSize;
+            result = 31 * result + (this.searchKey == null ? 0 : this.searchKey.hashCode());
+            result = 31 * result + (this.cursor == null ? 0 : this.cursor.hashCode());
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import com.cedarsolutions.dao.gae.IDaoMetricsSink;
+
+/**
+ * Measures a single query execution and reports it to a metrics sink.
+ *
+ * <p>
+ * Start the meter before iterating, and stop it once the caller is done
+ * with the iterator.  Rows scanned and accepted are taken from the iterator
+ * if it implements IScanStatistics, and cursor serializations are counted
+ * on the current thread, so a meter must be started and stopped on the
+ * thread that iterates.  If the sink is disabled, start() returns a shared
+ * meter that does nothing, so metering costs almost nothing.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class QueryMeter {
+
+    /** Meter that does nothing, used when metrics are disabled. */
+    public static final QueryMeter DISABLED = new QueryMeter(null, null, null);
+
+    /** Sink to report to, or null if disabled. */
+    private final IDaoMetricsSink sink;
+
+    /** Name of the DAO that runs the query. */
+    private final String dao;
+
+    /** Name that identifies the shape of the query. */
+    private final String shape;
+
+    /** Time the meter was started, in nanoseconds. */
+    private final long started;
+
+    /** Number of cursor serializations on this thread when the meter was started. */
+    private final long serializations;
+
+    /** Create a meter, starting it now. */
+    protected QueryMeter(IDaoMetricsSink sink, String dao, String shape) {
+        this.sink = sink;
+        this.dao = dao;
+        this.shape = shape;
+        this.started = sink == null ? 0L : this.nanoTime();
+        this.serializations = sink == null ? 0L : CursorUtils.getThreadSerializationCount();
+    }
+
+    /**
+     * Start metering a query.
+     * @param sink   Sink to report to, possibly null
+     * @param dao    Name of the DAO that runs the query
+     * @param shape  Name that identifies the shape of the query, like the DAO method
+     * @return Meter that is running, or DISABLED if the sink is null or disabled.
+     */
+    public static QueryMeter start(IDaoMetricsSink sink, String dao, String shape) {
+        if (sink == null || !sink.isEnabled()) {
+            return DISABLED;
+        }
+
+        return new QueryMeter(sink, dao, shape);
+    }
+
+    /**
+     * Stop metering, and report the query to the sink.
+     * @param iterator  Iterator that returned the query results
+     */
+    public void stop(IIteratorWithCursor<?> iterator) {
+        if (this.sink == null) {
+            return;
+        }
+
+        long elapsed = this.nanoTime() - this.started;
+        long serialized = CursorUtils.getThreadSerializationCount() - this.serializations;
+
+        long scanned = 0;
+        long accepted = 0;
+        if (iterator instanceof IScanStatistics) {
+            scanned = ((IScanStatistics) iterator).getRowsScanned();
+            accepted = ((IScanStatistics) iterator).getRowsAccepted();
+        }
+
+        // Keys-only iterators load their entities with a get, which the proxy reports separately
+        long fetched = iterator instanceof AbstractKeysOnlyIterator ? 0 : scanned;
+        this.sink.recordQuery(this.dao, this.shape, elapsed, scanned, accepted, fetched, serialized);
+    }
+
+    /** Whether this meter is actually measuring anything. */
+    public boolean isEnabled() {
+        return this.sink != null;
+    }
+
+    /** Get the current time in nanoseconds; overridden by unit tests. */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    public IDaoMetricsSink getSink() {
+        return this.sink;
+    }
+
+    public String getDao() {
+        return this.dao;
+    }
+
+    public String getShape() {
+        return this.shape;
+    }
+
+}
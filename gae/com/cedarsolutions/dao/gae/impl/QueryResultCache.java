@@ -0,0 +1,323 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.cedarsolutions.dao.domain.PaginatedResults;
+import com.cedarsolutions.dao.domain.Pagination;
+
+/**
+ * Bounded cache of paginated query results, invalidated by kind version.
+ *
+ * <p>
+ * Each entry holds one page of results, keyed by entity kind, search
+ * criteria, page size, and the cursor for the start of the page.  The entry
+ * remembers the version of the kind (from KindVersions) as it was before the
+ * query ran.  The page is only served while the version is unchanged, so any
+ * put or delete of the kind made through ObjectifyProxy invalidates every
+ * cached page for that kind at once, without having to find them.  For this
+ * to work, the ObjectifyProxy used for writes must share the same
+ * KindVersions instance as the cache (see DaoObjectifyService).
+ * </p>
+ *
+ * <p>
+ * Caching is opt-in and only makes sense for read-heavy kinds.  The cache is
+ * bounded both by number of entries (least-recently-used entries are
+ * discarded first) and by the size of an individual page, so an unpaginated
+ * query that returns a huge result set is never held in memory.  Criteria
+ * are compared using equals() and hashCode(), so criteria classes must
+ * implement both, and a criteria object must not be modified once it has
+ * been used to look up results.
+ * </p>
+ *
+ * <p>
+ * Pages are stored in Java-serialized form, and every hit returns fresh
+ * copies of the rows, just like LocalEntityCache.  So, a caller that
+ * modifies an entity from a cached page can't affect the cache or any other
+ * caller.  Pages with rows that aren't Serializable are not cached at all.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class QueryResultCache {
+
+    /** Default maximum number of pages to hold. */
+    public static final int DEFAULT_MAX_ENTRIES = 500;
+
+    /** Default maximum number of rows in a page that can be cached. */
+    public static final int DEFAULT_MAX_ROWS = 1000;
+
+    /** Kind versions used to invalidate cached pages. */
+    private KindVersions kindVersions;
+
+    /** Maximum number of pages to hold. */
+    private int maxEntries;
+
+    /** Maximum number of rows in a page that can be cached. */
+    private int maxRows;
+
+    /** Cached pages, in access order so the least-recently-used page can be discarded. */
+    private Map<ResultKey, Entry> entries = new LinkedHashMap<ResultKey, Entry>(16, 0.75f, true);
+
+    /** Number of lookups served from the cache. */
+    private long hits;
+
+    /** Number of lookups that had to run the query. */
+    private long misses;
+
+    /** Number of lookups that found a page that had been invalidated. */
+    private long stale;
+
+    /** Number of pages discarded because the cache was full. */
+    private long evictions;
+
+    /** Create a cache with default settings. */
+    public QueryResultCache(KindVersions kindVersions) {
+        this(kindVersions, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_ROWS);
+    }
+
+    /**
+     * Create a cache.
+     * @param kindVersions  Kind versions used to invalidate cached pages
+     * @param maxEntries    Maximum number of pages to hold
+     * @param maxRows       Maximum number of rows in a page that can be cached
+     */
+    public QueryResultCache(KindVersions kindVersions, int maxEntries, int maxRows) {
+        if (kindVersions == null) {
+            throw new IllegalArgumentException("Kind versions are required");
+        }
+
+        if (maxEntries < 1 || maxRows < 1) {
+            throw new IllegalArgumentException("Maximum entries and rows must be positive");
+        }
+
+        this.kindVersions = kindVersions;
+        this.maxEntries = maxEntries;
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * Get paginated results, from the cache if possible.
+     *
+     * <p>
+     * If a current page is cached for the criteria, page size, and cursor, a
+     * fresh copy of it is returned, with pagination built from the pagination
+     * passed in.  Otherwise, the page is opened via the page source and built
+     * with PaginationUtils.createPaginatedResults(), and the results are
+     * cached if they are small enough.
+     * </p>
+     *
+     * @param <T>  Type of the paginated results
+     * @param clazz       Entity class being queried, which identifies the kind and need not match the result type
+     * @param criteria    Search criteria that identifies the search, possibly null
+     * @param pagination  Pagination that is in use, possibly null
+     * @param source      Source used to open the page
+     * @return Paginated results, which are always a new object owned by the caller.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> PaginatedResults<T> getResults(Class<?> clazz, Object criteria, Pagination pagination, IPageSource<T> source) {
+        String kind = KindVersions.getKind(clazz);
+        long version = this.kindVersions.getVersion(kind);
+        ResultKey key = new ResultKey(kind, criteria, pagination);
+
+        Entry entry = this.lookup(key, version);
+        if (entry != null) {
+            PaginatedResults<T> cached = (PaginatedResults<T>) entry.toResults(pagination);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        PaginatedResults<T> results = PaginationUtils.createPaginatedResults(pagination, source.open(pagination));
+        if (results.size() <= this.maxRows) {
+            byte[] data = LocalEntityCache.serialize(new ArrayList<Object>(results));
+            if (data != null) {
+                this.store(key, new Entry(results, data, version));
+            }
+        }
+
+        return results;
+    }
+
+    /** Discard all cached pages. */
+    public synchronized void clear() {
+        this.entries.clear();
+    }
+
+    /** Get the number of pages currently in the cache, including pages that have been invalidated but not yet discarded. */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /** Get the number of lookups served from the cache. */
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    /** Get the number of lookups that had to run the query, including stale lookups. */
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    /** Get the number of lookups that found a page that had been invalidated. */
+    public synchronized long getStale() {
+        return this.stale;
+    }
+
+    /** Get the number of pages discarded because the cache was full. */
+    public synchronized long getEvictions() {
+        return this.evictions;
+    }
+
+    /** Get the fraction of lookups served from the cache, or zero if there have been no lookups. */
+    public synchronized double getHitRate() {
+        long lookups = this.hits + this.misses;
+        return lookups == 0 ? 0.0 : (double) this.hits / lookups;
+    }
+
+    /** Get the kind versions used to invalidate cached pages. */
+    public KindVersions getKindVersions() {
+        return this.kindVersions;
+    }
+
+    /** Get the maximum number of pages to hold. */
+    public int getMaxEntries() {
+        return this.maxEntries;
+    }
+
+    /** Get the maximum number of rows in a page that can be cached. */
+    public int getMaxRows() {
+        return this.maxRows;
+    }
+
+    /** Look up a current cached page, discarding it if it has been invalidated. */
+    private synchronized Entry lookup(ResultKey key, long version) {
+        Entry entry = this.entries.get(key);
+        if (entry != null && entry.version != version) {
+            this.entries.remove(key);
+            this.stale += 1;
+            entry = null;
+        }
+
+        if (entry == null) {
+            this.misses += 1;
+        } else {
+            this.hits += 1;
+        }
+
+        return entry;
+    }
+
+    /** Store a page, discarding the least-recently-used pages if the cache is full. */
+    private synchronized void store(ResultKey key, Entry entry) {
+        this.entries.put(key, entry);
+        while (this.entries.size() > this.maxEntries) {
+            Iterator<ResultKey> keys = this.entries.keySet().iterator();
+            keys.next();
+            keys.remove();
+            this.evictions += 1;
+        }
+    }
+
+    /** A cached page, whose rows are held as a serialized list. */
+    private static class Entry {
+        private byte[] data;
+        private boolean paginated;
+        private String current;
+        private String next;
+        private long version;
+
+        Entry(PaginatedResults<?> results, byte[] data, long version) {
+            this.data = data;
+            this.paginated = results.getPagination() != null;
+            if (this.paginated) {
+                Pagination pagination = results.getPagination();
+                this.current = pagination.getCurrent();
+                this.next = pagination.hasNext() ? pagination.getCursor(pagination.getNextPageNumber()) : null;
+            }
+
+            this.version = version;
+        }
+
+        /** Build results with fresh copies of the rows, or return null if they can't be deserialized. */
+        @SuppressWarnings("unchecked")
+        PaginatedResults<Object> toResults(Pagination pagination) {
+            List<Object> rows = (List<Object>) LocalEntityCache.deserialize(this.data);
+            if (rows == null) {
+                return null;
+            }
+
+            PaginatedResults<Object> results = new PaginatedResults<Object>();
+            results.addAll(rows);
+            if (this.paginated && pagination != null) {
+                results.setPagination(pagination.copy());
+                results.getPagination().update(this.current, this.next, results.size());
+            }
+
+            return results;
+        }
+    }
+
+    /** Key for a cached page. */
+    private static class ResultKey {
+        private String kind;
+        private Object criteria;
+        private int pageSize;
+        private String cursor;
+
+        ResultKey(String kind, Object criteria, Pagination pagination) {
+            this.kind = kind;
+            this.criteria = criteria;
+            this.pageSize = pagination == null ? 0 : pagination.getPageSize();
+            this.cursor = pagination == null ? null : pagination.getCurrent();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResultKey)) {
+                return false;
+            }
+
+            ResultKey other = (ResultKey) obj;
+            return this.pageSize == other.pageSize
+                   && this.kind.equals(other.kind)
+                   && (this.criteria == null ? other.criteria == null : this.criteria.equals(other.criteria))
+                   && (this.cursor == null ? other.cursor == null : this.cursor.equals(other.cursor));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = this.kind.hashCode();
+            result = 31 * result + this.pageSize;
+            result = 31 * result + (this.criteria == null ? 0 : this.criteria.hashCode());
+            result = 31 * result + (this.cursor == null ? 0 : this.cursor.hashCode());
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,140 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.googlecode.objectify.Key;
+
+/**
+ * Request-scoped first-level cache of entities, keyed by datastore key.
+ *
+ * <p>
+ * DaoObjectifyService hands out a fresh ObjectifyProxy every time a DAO
+ * asks for one, so two DAOs that load the same entity during one request
+ * would each pay for a datastore get.  When an identity map is bound to the
+ * current thread, ObjectifyProxy serves repeated gets and finds from it
+ * instead.  Writes made through any proxy invalidate the affected keys, and
+ * the whole map is thrown away when the request ends.
+ * </p>
+ *
+ * <p>
+ * Nothing is cached unless a map has been bound with begin().  Normally,
+ * that's done by RequestIdentityMapFilter, which binds a map for the
+ * duration of each servlet request.  Code that runs outside of a servlet
+ * request (like a task or a cron job) can call begin() and end() itself.
+ * </p>
+ *
+ * <p>
+ * Callers should keep in mind that a cached entity is shared: every DAO
+ * that loads it during the request gets the same instance.  Transactional
+ * proxies never read from the map, so reads within a transaction always
+ * see the datastore's view of the world.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class RequestIdentityMap {
+
+    /** Identity map bound to the current thread, if any. */
+    private static final ThreadLocal<RequestIdentityMap> CURRENT = new ThreadLocal<RequestIdentityMap>();
+
+    /** Cached entities, keyed by datastore key. */
+    private Map<Key<?>, Object> entities = new HashMap<Key<?>, Object>();
+
+    /** Number of lookups served from the map. */
+    private long hits;
+
+    /** Number of lookups that were not in the map. */
+    private long misses;
+
+    /** Create a new identity map, and bind it to the current thread. */
+    public static RequestIdentityMap begin() {
+        RequestIdentityMap map = new RequestIdentityMap();
+        CURRENT.set(map);
+        return map;
+    }
+
+    /** Discard the identity map bound to the current thread, if any. */
+    public static void end() {
+        CURRENT.remove();
+    }
+
+    /** Get the identity map bound to the current thread, or null if there is none. */
+    public static RequestIdentityMap getCurrent() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Get an entity from the map.
+     * @param key  Key of the entity
+     * @return The cached entity, or null if it is not in the map.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Key<? extends T> key) {
+        T entity = (T) this.entities.get(key);
+        if (entity == null) {
+            this.misses += 1;
+        } else {
+            this.hits += 1;
+        }
+
+        return entity;
+    }
+
+    /** Put an entity into the map, ignoring null keys or entities. */
+    public void put(Key<?> key, Object entity) {
+        if (key != null && entity != null) {
+            this.entities.put(key, entity);
+        }
+    }
+
+    /** Remove an entity from the map. */
+    public void remove(Key<?> key) {
+        if (key != null) {
+            this.entities.remove(key);
+        }
+    }
+
+    /** Remove all entities from the map. */
+    public void clear() {
+        this.entities.clear();
+    }
+
+    /** Get the number of entities in the map. */
+    public int size() {
+        return this.entities.size();
+    }
+
+    /** Get the number of lookups served from the map. */
+    public long getHits() {
+        return this.hits;
+    }
+
+    /** Get the number of lookups that were not in the map. */
+    public long getMisses() {
+        return this.misses;
+    }
+
+}
@@ -0,0 +1,256 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+import com.cedarsolutions.dao.domain.Pagination;
+import com.cedarsolutions.dao.gae.IFilterPredicate;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Query;
+
+/**
+ * Bounded estimates of the total number of rows a search returns.
+ *
+ * <p>
+ * There's no efficient way to count query results in GAE, so this class
+ * doesn't try to produce an exact count for a large result set.  Instead,
+ * it runs the query keys-only and stops after a configurable maximum number
+ * of rows.  If the query ran out before reaching the maximum, the estimate
+ * is exact; otherwise, it's a lower bound, and the client can display
+ * something like "more than 1000 rows".  Keys-only scans are billed as
+ * small operations, so even a capped scan is much cheaper than fetching
+ * the rows.
+ * </p>
+ *
+ * <p>
+ * Estimates are cached by search key for a configurable time to live, so
+ * paging through a search or repeating it does not rescan.  The search key
+ * is a string built from every field of the search criteria that affects
+ * the results, just like the key for PrefetchBuffer.
+ * </p>
+ *
+ * <p>
+ * A keys-only count only sees the datastore query, so it is only right for
+ * a search that doesn't filter rows in memory.  If the DAO does filter, pass
+ * its predicate along.  The count then fetches the rows and applies the
+ * predicate, scanning at most the maximum number of rows.  That's more
+ * expensive, but the estimate is still a true lower bound, and it's only
+ * marked exact if the query ran out within the scan.
+ * </p>
+ *
+ * <p>
+ * Counts are run by an Executor, and the results are cached as described
+ * in AbstractBackgroundCache.  If the executor runs tasks in the background,
+ * the first request for a search gets no estimate, and later requests find
+ * it in the cache.  <b>The default constructor counts in the calling
+ * thread</b>, so the first request for each search blocks while up to the
+ * maximum number of rows are scanned.  That's convenient for tests and for
+ * small data sets; otherwise, pass an executor that runs in the background,
+ * such as one backed by a request thread pool.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class RowCountEstimator extends AbstractBackgroundCache<RowCountEstimator.Estimate> {
+
+    /** Default maximum number of rows to count. */
+    public static final int DEFAULT_MAX_ROWS = 1000;
+
+    /** Default time to live for a cached estimate, in milliseconds. */
+    public static final long DEFAULT_TIME_TO_LIVE = 60000L;
+
+    /** Default maximum number of cached estimates. */
+    public static final int DEFAULT_MAX_ENTRIES = 500;
+
+    /** Maximum number of rows to count. */
+    private int maxRows;
+
+    /** Number of lookups satisfied by the cache. */
+    private long hits;
+
+    /** Create an estimator with default settings that counts in the calling thread, blocking the caller while it scans. */
+    public RowCountEstimator() {
+        this(CALLING_THREAD, DEFAULT_MAX_ROWS, DEFAULT_TIME_TO_LIVE, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Create an estimator.
+     * @param executor    Executor used to run counts
+     * @param maxRows     Maximum number of rows to count, greater than zero
+     * @param timeToLive  Time to live for a cached estimate, in milliseconds
+     * @param maxEntries  Maximum number of cached estimates, greater than zero
+     */
+    public RowCountEstimator(Executor executor, int maxRows, long timeToLive, int maxEntries) {
+        super(executor, timeToLive, maxEntries);
+
+        if (maxRows <= 0) {
+            throw new IllegalArgumentException("Max rows must be greater than zero.");
+        }
+
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * Fill in the estimated total number of rows for a search, starting a count if necessary.
+     * @param pagination  Pagination to update, typically from the PaginatedResults for the search
+     * @param searchKey   Key that identifies the search, possibly null
+     * @param query       Query for the search without any cursor or limit, as from ObjectifyProxy.query(Class)
+     * @return True if the pagination was updated, false if no estimate is available yet.
+     */
+    public boolean estimate(Pagination pagination, String searchKey, Query<?> query) {
+        return this.estimate(pagination, searchKey, query, null);
+    }
+
+    /**
+     * Fill in the estimated total number of rows for a search whose rows are filtered in memory, starting a count if necessary.
+     * @param pagination  Pagination to update, typically from the PaginatedResults for the search
+     * @param searchKey   Key that identifies the search, possibly null
+     * @param query       Query for the search without any cursor or limit, as from ObjectifyProxy.query(Class)
+     * @param predicate   Predicate the DAO filters rows with, or null (or a NoOpFilterPredicate) if none
+     * @return True if the pagination was updated, false if no estimate is available yet.
+     */
+    public <T> boolean estimate(Pagination pagination, String searchKey, final Query<T> query, final IFilterPredicate<T> predicate) {
+        Estimate estimate = this.getEstimate(searchKey);
+        if (estimate != null) {
+            this.recordHit();
+        } else {
+            this.submit(searchKey, new Callable<Estimate>() {
+                @Override
+                public Estimate call() {
+                    return RowCountEstimator.this.runCount(query, predicate);
+                }
+            });
+
+            estimate = this.getEstimate(searchKey);  // the executor may have counted already
+        }
+
+        if (estimate == null) {
+            return false;
+        }
+
+        pagination.setEstimate(estimate.rows, estimate.exact);
+        return true;
+    }
+
+    /**
+     * Get the cached estimate for a search.
+     * @param searchKey  Key that identifies the search, possibly null
+     * @return Cached estimate, or null if there is none.
+     */
+    public Estimate getEstimate(String searchKey) {
+        return this.get(searchKey);
+    }
+
+    /**
+     * Count the rows for a query keys-only, stopping one past the maximum.
+     * @param query    Query to count
+     * @param maxRows  Maximum number of rows to count
+     * @return Number of rows counted, which is maxRows + 1 if the maximum was exceeded.
+     */
+    protected static int count(Query<?> query, int maxRows) {
+        int count = 0;
+        Iterator<? extends Key<?>> iterator = query.fetchKeys().iterator();
+        while (count <= maxRows && iterator.hasNext()) {
+            iterator.next();
+            count += 1;
+        }
+
+        return count;
+    }
+
+    /**
+     * Count the rows for a query that the predicate accepts, scanning at most the maximum number of rows.
+     * @param query      Query to count
+     * @param predicate  Predicate to apply to each row
+     * @param maxRows    Maximum number of rows to scan
+     * @return Estimate, which is exact only if the query ran out within the scan.
+     */
+    protected static <T> Estimate count(Query<T> query, IFilterPredicate<T> predicate, int maxRows) {
+        int scanned = 0;
+        int accepted = 0;
+        Iterator<T> iterator = query.iterator();
+        while (scanned < maxRows && iterator.hasNext()) {
+            scanned += 1;
+            if (predicate.evaluate(iterator.next())) {
+                accepted += 1;
+            }
+        }
+
+        return new Estimate(accepted, !iterator.hasNext());
+    }
+
+    /** Run a count, filtering through the predicate if there is one. */
+    private <T> Estimate runCount(Query<T> query, IFilterPredicate<T> predicate) {
+        if (FetchPlanner.isFiltering(predicate)) {
+            return count(query, predicate, this.maxRows);
+        } else {
+            int count = count(query, this.maxRows);
+            return count > this.maxRows ? new Estimate(this.maxRows, false) : new Estimate(count, true);
+        }
+    }
+
+    /** Record a lookup satisfied by the cache. */
+    private synchronized void recordHit() {
+        this.hits += 1;
+    }
+
+    /** Get the maximum number of rows to count. */
+    public int getMaxRows() {
+        return this.maxRows;
+    }
+
+    /** Get the number of lookups satisfied by the cache. */
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    /** Get the number of counts run. */
+    public long getCounts() {
+        return this.getRuns();
+    }
+
+    /** An estimated total number of rows. */
+    public static class Estimate {
+        private int rows;
+        private boolean exact;
+
+        Estimate(int rows, boolean exact) {
+            this.rows = rows;
+            this.exact = exact;
+        }
+
+        /** Estimated total number of rows, a lower bound unless the estimate is exact. */
+        public int getRows() {
+            return this.rows;
+        }
+
+        /** Whether the estimate is exact. */
+        public boolean isExact() {
+            return this.exact;
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.io.Serializable;
+
+import com.googlecode.objectify.Key;
+
+/**
+ * One range of a kind's key space, as scanned by ShardedScanner.
+ *
+ * <p>
+ * A shard covers the keys from its start key (inclusive) to its end key
+ * (exclusive), where a null key means the range is unbounded on that side.
+ * As the shard is scanned, its cursor and row count are updated at each
+ * checkpoint.  A shard is serializable, so a batch job can persist its
+ * shards at each checkpoint and pass them back into ShardedScanner to
+ * restart where it left off.
+ * </p>
+ *
+ * @param <T> Type of the scanned entity
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class ScanShard<T> implements Serializable {
+
+    /** Serialization version number, which can be important to the GAE back-end. */
+    private static final long serialVersionUID = 1L;
+
+    /** Index of this shard within the scan. */
+    private int index;
+
+    /** First key in the range, inclusive, or null if unbounded. */
+    private Key<T> start;
+
+    /** Last key in the range, exclusive, or null if unbounded. */
+    private Key<T> end;
+
+    /** Cursor as of the last checkpoint, or null if the shard has not reached one. */
+    private volatile String cursor;
+
+    /** Number of entities scanned as of the last checkpoint. */
+    private volatile long rows;
+
+    /** Whether every entity in the range has been scanned. */
+    private volatile boolean complete;
+
+    /**
+     * Create a shard.
+     * @param index  Index of this shard within the scan
+     * @param start  First key in the range, inclusive, or null if unbounded
+     * @param end    Last key in the range, exclusive, or null if unbounded
+     */
+    public ScanShard(int index, Key<T> start, Key<T> end) {
+        this.index = index;
+        this.start = start;
+        this.end = end;
+        this.cursor = null;
+        this.rows = 0;
+        this.complete = false;
+    }
+
+    /** Record a checkpoint. */
+    protected void checkpoint(String cursor, long rows) {
+        this.cursor = cursor;
+        this.rows = rows;
+    }
+
+    /** Mark the shard complete. */
+    protected void finish(long rows) {
+        this.rows = rows;
+        this.complete = true;
+    }
+
+    /** String representation, for logging. */
+    @Override
+    public String toString() {
+        return "ScanShard[" + this.index + ": " + this.start + " to " + this.end
+               + ", rows=" + this.rows + (this.complete ? ", complete" : "") + "]";
+    }
+
+    public int getIndex() {
+        return this.index;
+    }
+
+    public Key<T> getStart() {
+        return this.start;
+    }
+
+    public Key<T> getEnd() {
+        return this.end;
+    }
+
+    public String getCursor() {
+        return this.cursor;
+    }
+
+    public long getRows() {
+        return this.rows;
+    }
+
+    public boolean isComplete() {
+        return this.complete;
+    }
+
+}
@@ -0,0 +1,323 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cedarsolutions.dao.IDaoTransaction;
+import com.cedarsolutions.dao.IUnitOfWork;
+import com.cedarsolutions.dao.TransactionRunner;
+import com.cedarsolutions.dao.gae.IShardedCounterDao;
+import com.cedarsolutions.dao.gae.domain.CounterConfig;
+import com.cedarsolutions.dao.gae.domain.CounterShard;
+import com.cedarsolutions.exception.NotConfiguredException;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.googlecode.objectify.Key;
+
+/**
+ * Sharded counters, for aggregate values that take more writes than one entity group can handle.
+ *
+ * <p>
+ * A single entity that's updated in a transaction can only sustain a few
+ * writes per second before transactions start failing on contention.  A
+ * sharded counter spreads its value over several CounterShard entities,
+ * each in its own entity group.  An increment updates one shard chosen at
+ * random, so concurrent increments rarely touch the same entity, and a
+ * read sums all of the shards with a single batch get.
+ * </p>
+ *
+ * <p>
+ * Increments are idempotent, so this DAO's transaction runner retries
+ * failed commits.  A datastore commit that fails with contention may have
+ * been applied anyway, so each increment gets a unique id that's recorded
+ * on its shard in the same transaction.  A retry goes to the same shard,
+ * and leaves it alone if the id is already there.  If a different
+ * transaction runner is configured, it should retry failed commits too.
+ * </p>
+ *
+ * <p>
+ * Every counter starts with initialShardCount shards.  If an increment ran
+ * into contention, whether it was retried successfully or failed outright,
+ * the counter's shard count is doubled, up to maxShardCount, and recorded
+ * in its CounterConfig.  Shard counts only ever grow, so a read always
+ * covers every shard that has ever been written.
+ * </p>
+ *
+ * <p>
+ * If a memcache service is configured, the total is cached for timeToLive
+ * milliseconds.  Every increment deletes the cached total, and blocks it
+ * from being re-added for HOLD_OFF_MILLIS.  A read caches the total it
+ * summed only if nothing is cached, so a read that summed the shards just
+ * before an increment can't cache a total that misses the increment,
+ * unless the read took longer than the hold-off.  This means the cache
+ * only helps counters that are read more often than they are written; a
+ * counter under a steady stream of increments is read from the shards.
+ * Without memcache, every read costs one batch get.
+ * </p>
+ *
+ * <p>
+ * Applications must register CounterShard and CounterConfig in their
+ * Objectify entities file to use this DAO.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class ShardedCounterDao extends AbstractGaeDao implements IShardedCounterDao {
+
+    /** Default number of shards for a new counter. */
+    public static final int DEFAULT_INITIAL_SHARD_COUNT = 4;
+
+    /** Default upper bound on the number of shards for a counter. */
+    public static final int DEFAULT_MAX_SHARD_COUNT = 64;
+
+    /** Default time to live for a cached total, in milliseconds. */
+    public static final int DEFAULT_TIME_TO_LIVE = 60000;
+
+    /** How long a cached total is blocked from being re-added after an increment, in milliseconds. */
+    public static final long HOLD_OFF_MILLIS = 1000L;
+
+    /** Number of shards for a new counter. */
+    private int initialShardCount = DEFAULT_INITIAL_SHARD_COUNT;
+
+    /** Upper bound on the number of shards for a counter. */
+    private int maxShardCount = DEFAULT_MAX_SHARD_COUNT;
+
+    /** Memcache service used to cache totals, or null to disable caching. */
+    private MemcacheService memcache;
+
+    /** Time to live for a cached total, in milliseconds. */
+    private int timeToLive = DEFAULT_TIME_TO_LIVE;
+
+    /** Source of random shard numbers. */
+    private Random random = new Random();
+
+    /** Number of increments that had to be retried because of contention. */
+    private AtomicLong contentions = new AtomicLong(0);
+
+    /** Number of times a counter's shard count was increased. */
+    private AtomicLong growths = new AtomicLong(0);
+
+    /** Create a DAO whose transaction runner retries failed commits, which is safe because increments are idempotent. */
+    public ShardedCounterDao() {
+        this.setTransactionRunner(new TransactionRunner(TransactionRunner.DEFAULT_MAX_ATTEMPTS, TransactionRunner.DEFAULT_INITIAL_DELAY,
+                                                        TransactionRunner.DEFAULT_MAX_DELAY, true));
+    }
+
+    /**
+     * Invoked by a bean factory after it has set all bean properties.
+     * @throws NotConfiguredException In the event of misconfiguration.
+     */
+    @Override
+    public void afterPropertiesSet() throws NotConfiguredException {
+        super.afterPropertiesSet();
+        if (this.initialShardCount < 1 || this.maxShardCount < this.initialShardCount || this.timeToLive <= 0) {
+            throw new NotConfiguredException("ShardedCounterDao is not properly configured.");
+        }
+    }
+
+    /** Add a delta, possibly negative, to a counter. */
+    @Override
+    public void increment(final String name, final long delta) {
+        final int shardCount = this.getShardCount(name);
+        final String id = CounterShard.getId(name, this.chooseShard(shardCount));
+        final String incrementId = UUID.randomUUID().toString();
+        final int[] attempts = new int[1];
+
+        RuntimeException failure = null;
+        try {
+            this.runInTransaction(new IUnitOfWork<Void>() {
+                @Override
+                public Void execute(IDaoTransaction transaction) {
+                    attempts[0]++;
+                    ObjectifyProxy objectify = checkTransactionType(transaction).getObjectify();
+                    CounterShard shard = objectify.find(CounterShard.class, id);
+                    if (shard == null) {
+                        shard = new CounterShard(id);
+                    }
+
+                    if (shard.apply(incrementId, delta)) {  // false if an earlier commit that "failed" actually went through
+                        objectify.put(shard);
+                    }
+
+                    return null;
+                }
+            });
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+
+        if (attempts[0] > 1 || isContention(failure)) {
+            this.contentions.incrementAndGet();
+            this.grow(name, shardCount);
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+
+        if (this.memcache != null) {
+            this.memcache.delete(getCacheKey(name), HOLD_OFF_MILLIS);  // keeps a read from before the increment from caching its total
+        }
+    }
+
+    /** Get the current value of a counter, which is zero if it has never been incremented. */
+    @Override
+    public long getCount(String name) {
+        if (this.memcache != null) {
+            Object cached = this.memcache.get(getCacheKey(name));
+            if (cached instanceof Long) {
+                return (Long) cached;
+            }
+        }
+
+        List<Key<CounterShard>> keys = new ArrayList<Key<CounterShard>>();
+        for (int i = 0; i < this.getShardCount(name); i++) {
+            keys.add(new Key<CounterShard>(CounterShard.class, CounterShard.getId(name, i)));
+        }
+
+        long total = 0;
+        for (CounterShard shard : this.getObjectify().get(keys).values()) {
+            total += shard.getCount();
+        }
+
+        if (this.memcache != null) {
+            // fails if another read cached a total first, or if an increment just deleted it
+            this.memcache.put(getCacheKey(name), total, Expiration.byDeltaMillis(this.timeToLive), SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+        }
+
+        return total;
+    }
+
+    /** Get the number of shards a counter is spread over. */
+    @Override
+    public int getShardCount(String name) {
+        CounterConfig config = this.getObjectify().find(CounterConfig.class, name);
+        return config == null ? this.initialShardCount : config.getShardCount();
+    }
+
+    /**
+     * Double the number of shards for a counter, unless another request already did.
+     * This is best-effort: if the configuration itself is under contention, the counter is left alone for now.
+     * @param name      Name of the counter
+     * @param observed  Shard count that was in effect when contention was detected
+     */
+    protected void grow(final String name, final int observed) {
+        if (observed >= this.maxShardCount) {
+            return;
+        }
+
+        try {
+            boolean grown = this.runInTransaction(new IUnitOfWork<Boolean>() {
+                @Override
+                public Boolean execute(IDaoTransaction transaction) {
+                    ObjectifyProxy objectify = checkTransactionType(transaction).getObjectify();
+                    CounterConfig config = objectify.find(CounterConfig.class, name);
+                    int current = config == null ? ShardedCounterDao.this.initialShardCount : config.getShardCount();
+                    if (current != observed) {
+                        return false;
+                    }
+
+                    objectify.put(new CounterConfig(name, Math.min(observed * 2, ShardedCounterDao.this.maxShardCount)));
+                    return true;
+                }
+            });
+
+            if (grown) {
+                this.growths.incrementAndGet();
+            }
+        } catch (ConcurrentModificationException e) {
+            // ignored; the next contended increment will try again
+        }
+    }
+
+    /** Whether a failure, possibly null, was caused by contention. */
+    private static boolean isContention(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConcurrentModificationException) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /** Choose a shard at random. */
+    protected int chooseShard(int shardCount) {
+        return this.random.nextInt(shardCount);
+    }
+
+    /** Get the memcache key for a counter's total. */
+    private static String getCacheKey(String name) {
+        return "counter:" + name;
+    }
+
+    public int getInitialShardCount() {
+        return this.initialShardCount;
+    }
+
+    public void setInitialShardCount(int initialShardCount) {
+        this.initialShardCount = initialShardCount;
+    }
+
+    public int getMaxShardCount() {
+        return this.maxShardCount;
+    }
+
+    public void setMaxShardCount(int maxShardCount) {
+        this.maxShardCount = maxShardCount;
+    }
+
+    public MemcacheService getMemcache() {
+        return this.memcache;
+    }
+
+    public void setMemcache(MemcacheService memcache) {
+        this.memcache = memcache;
+    }
+
+    public int getTimeToLive() {
+        return this.timeToLive;
+    }
+
+    public void setTimeToLive(int timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    /** Number of increments that had to be retried because of contention. */
+    public long getContentions() {
+        return this.contentions.get();
+    }
+
+    /** Number of times a counter's shard count was increased. */
+    public long getGrowths() {
+        return this.growths.get();
+    }
+
+}
@@ -0,0 +1,571 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.cedarsolutions.dao.gae.IShardCallback;
+import com.cedarsolutions.dao.gae.IShardListener;
+import com.cedarsolutions.exception.DaoException;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Query;
+
+/**
+ * Scans an entire kind in parallel by splitting its key space into shards.
+ *
+ * <p>
+ * A full-kind scan on a single thread is limited by datastore latency, and
+ * a large kind can't be scanned within a single request deadline.  This
+ * class splits the key space into ranges using the datastore's
+ * <code>__scatter__</code> property, which is set on a random sample of
+ * entities.  Sorting a sample of scatter keys gives split points that
+ * divide the kind into shards of roughly equal size.  Each shard is then
+ * scanned with its own <code>__key__</code> range query and cursor.
+ * </p>
+ *
+ * <p>
+ * Shards are run in parallel on a caller-supplied executor, which bounds
+ * the concurrency.  On App Engine, the executor's threads must come from
+ * ThreadManager.currentRequestThreadFactory(), for instance via
+ * Executors.newFixedThreadPool(4, ThreadManager.currentRequestThreadFactory()).
+ * Results can either be passed to a thread-safe callback, or consumed from
+ * a single iterator that merges the output of every shard, in no
+ * particular order.
+ * </p>
+ *
+ * <p>
+ * With the callback form, each shard records its cursor every so many rows
+ * and notifies an optional listener.  If a time limit is set, each shard
+ * stops at the first checkpoint after the limit passes.  A batch job can
+ * persist its shards at each checkpoint, and later call scan() again with
+ * the same shards to pick up where it left off; complete shards are
+ * skipped.  Shards can also be fanned out to separate requests (one task
+ * queue task per shard, for instance), since a shard can be scanned on its
+ * own.
+ * </p>
+ *
+ * <p>
+ * The query passed in must be a plain kind query, with no filters or sort
+ * orders, since the datastore only supports <code>__scatter__</code>
+ * ordering and <code>__key__</code> ranges in that case.
+ * </p>
+ *
+ * @param <T> Type of the scanned entity
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class ShardedScanner<T> {
+
+    /** Default number of rows between checkpoints. */
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 500;
+
+    /** Default number of scatter keys sampled per shard. */
+    public static final int DEFAULT_OVERSAMPLING = 32;
+
+    /** Default capacity of the queue behind a merged iterator. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    /** Time limit indicating that shards run until complete. */
+    public static final long UNLIMITED = 0L;
+
+    /** Special property that is set on a random sample of entities. */
+    private static final String SCATTER_PROPERTY = "__scatter__";
+
+    /** Special property for an entity's key. */
+    private static final String KEY_PROPERTY = "__key__";
+
+    /** Interval at which blocked iterator workers check whether the iterator was closed, in milliseconds. */
+    private static final long POLL_INTERVAL = 100L;
+
+    /** Executor that runs the shards. */
+    private final ExecutorService executor;
+
+    /** Number of rows between checkpoints. */
+    private final int checkpointInterval;
+
+    /** Listener notified at each checkpoint, possibly null. */
+    private final IShardListener listener;
+
+    /** Number of scatter keys sampled per shard. */
+    private int oversampling;
+
+    /** Capacity of the queue behind a merged iterator. */
+    private int queueCapacity;
+
+    /** Time limit for each scan, in milliseconds. */
+    private long timeLimit;
+
+    /**
+     * Create a scanner using the default checkpoint interval and no listener.
+     * @param executor  Executor that runs the shards, which should be bounded
+     */
+    public ShardedScanner(ExecutorService executor) {
+        this(executor, DEFAULT_CHECKPOINT_INTERVAL, null);
+    }
+
+    /**
+     * Create a scanner.
+     * @param executor            Executor that runs the shards, which should be bounded
+     * @param checkpointInterval  Number of rows between checkpoints, which must be positive
+     * @param listener            Listener notified at each checkpoint, possibly null
+     */
+    public ShardedScanner(ExecutorService executor, int checkpointInterval, IShardListener listener) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor is required");
+        }
+
+        if (checkpointInterval < 1) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive");
+        }
+
+        this.executor = executor;
+        this.checkpointInterval = checkpointInterval;
+        this.listener = listener;
+        this.oversampling = DEFAULT_OVERSAMPLING;
+        this.queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        this.timeLimit = UNLIMITED;
+    }
+
+    /**
+     * Split a kind's key space into shards.
+     * A small kind may get fewer shards than requested.
+     * @param query       Plain kind query, with no filters or sort orders
+     * @param shardCount  Requested number of shards, which must be positive
+     * @return Shards that cover the entire key space, in key order.
+     */
+    public List<ScanShard<T>> split(Query<T> query, int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be positive");
+        }
+
+        List<Key<T>> splits = new ArrayList<Key<T>>();
+        if (shardCount > 1) {
+            int sampleSize = (int) Math.min((long) shardCount * this.oversampling, Integer.MAX_VALUE);
+            List<Key<T>> sample = new ArrayList<Key<T>>();
+            for (Key<T> key : query.clone().order(SCATTER_PROPERTY).limit(sampleSize).fetchKeys()) {
+                sample.add(key);
+            }
+
+            Collections.sort(sample);
+            for (int i = 1; i < shardCount && !sample.isEmpty(); i++) {
+                Key<T> split = sample.get((int) ((long) i * sample.size() / shardCount));
+                if (splits.isEmpty() || !splits.get(splits.size() - 1).equals(split)) {
+                    splits.add(split);
+                }
+            }
+        }
+
+        List<ScanShard<T>> shards = new ArrayList<ScanShard<T>>();
+        Key<T> start = null;
+        for (Key<T> split : splits) {
+            shards.add(new ScanShard<T>(shards.size(), start, split));
+            start = split;
+        }
+
+        shards.add(new ScanShard<T>(shards.size(), start, null));
+        return shards;
+    }
+
+    /**
+     * Scan shards in parallel, passing every entity to a callback.
+     * Shards that are already complete are skipped, and other shards resume from their last checkpoint.
+     * @param query     Plain kind query, with no filters or sort orders
+     * @param shards    Shards to scan, as from split()
+     * @param callback  Thread-safe callback to pass each entity to
+     * @return True if every shard is complete, false if the time limit stopped any shard.
+     * @throws DaoException If any shard fails, once all other shards have stopped.
+     */
+    public boolean scan(Query<T> query, List<ScanShard<T>> shards, IShardCallback<T> callback) {
+        long deadline = this.getDeadline();
+
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (ScanShard<T> shard : shards) {
+            if (!shard.isComplete()) {
+                futures.add(this.executor.submit(new ShardTask(this.createShardQuery(query, shard), shard, callback, deadline, true)));
+            }
+        }
+
+        DaoException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = new DaoException("Sharded scan failed: " + e.getCause().getMessage(), e.getCause());
+                }
+            } catch (InterruptedException e) {
+                for (Future<?> other : futures) {
+                    other.cancel(true);
+                }
+
+                Thread.currentThread().interrupt();
+                throw new DaoException("Sharded scan was interrupted", e);
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+
+        for (ScanShard<T> shard : shards) {
+            if (!shard.isComplete()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Scan shards in parallel, merging the results into a single iterator.
+     *
+     * <p>
+     * Entities are returned in no particular order.  Shards don't checkpoint
+     * when scanned this way, because the scan runs ahead of the consumer, and
+     * the time limit does not apply; use the callback form of scan() for
+     * restartable jobs.  The iterator must be closed if it is abandoned
+     * before it is exhausted.
+     * </p>
+     *
+     * @param query   Plain kind query, with no filters or sort orders
+     * @param shards  Shards to scan, as from split()
+     * @return Iterator over every entity in the incomplete shards.
+     */
+    public ShardIterator<T> iterator(Query<T> query, List<ScanShard<T>> shards) {
+        List<ShardTask> tasks = new ArrayList<ShardTask>();
+        ShardIterator<T> iterator = new ShardIterator<T>(this.queueCapacity);
+
+        for (ScanShard<T> shard : shards) {
+            if (!shard.isComplete()) {
+                tasks.add(new ShardTask(this.createShardQuery(query, shard), shard, iterator, Long.MAX_VALUE, false));
+            }
+        }
+
+        iterator.start(tasks.size());
+        for (final ShardTask task : tasks) {
+            final ShardIterator<T> target = iterator;
+            this.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Throwable failure = null;
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    } catch (Error e) {
+                        failure = e;
+                        throw e;
+                    } finally {
+                        target.shardFinished(failure);  // always, or the consumer would wait for this shard forever
+                    }
+                }
+            });
+        }
+
+        return iterator;
+    }
+
+    /**
+     * Create the query for a single shard, on the caller's thread.
+     * @param query  Plain kind query, which is cloned
+     * @param shard  Shard to create the query for
+     * @return Query restricted to the shard's key range, starting from its last checkpoint.
+     */
+    protected Query<T> createShardQuery(Query<T> query, ScanShard<T> shard) {
+        Query<T> result = query.clone();
+
+        if (shard.getStart() != null) {
+            result.filter(KEY_PROPERTY + " >=", shard.getStart());
+        }
+
+        if (shard.getEnd() != null) {
+            result.filter(KEY_PROPERTY + " <", shard.getEnd());
+        }
+
+        if (shard.getCursor() != null) {
+            result.startCursor(CursorUtils.deserialize(shard.getCursor()));
+        }
+
+        return result;
+    }
+
+    /** Get the deadline for a scan starting now. */
+    private long getDeadline() {
+        return this.timeLimit == UNLIMITED ? Long.MAX_VALUE : this.currentTimeMillis() + this.timeLimit;
+    }
+
+    /** Get the current time in milliseconds; overridden by unit tests. */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    public ExecutorService getExecutor() {
+        return this.executor;
+    }
+
+    public int getCheckpointInterval() {
+        return this.checkpointInterval;
+    }
+
+    public IShardListener getListener() {
+        return this.listener;
+    }
+
+    public int getOversampling() {
+        return this.oversampling;
+    }
+
+    /** Set the number of scatter keys sampled per shard; more samples give more even shards. */
+    public void setOversampling(int oversampling) {
+        if (oversampling < 1) {
+            throw new IllegalArgumentException("Oversampling must be positive");
+        }
+
+        this.oversampling = oversampling;
+    }
+
+    public int getQueueCapacity() {
+        return this.queueCapacity;
+    }
+
+    /** Set the capacity of the queue behind a merged iterator, which bounds how far the shards run ahead. */
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+
+        this.queueCapacity = queueCapacity;
+    }
+
+    public long getTimeLimit() {
+        return this.timeLimit;
+    }
+
+    /** Set the time limit for each scan in milliseconds, or UNLIMITED; shards stop at their first checkpoint after the limit. */
+    public void setTimeLimit(long timeLimit) {
+        if (timeLimit < 0) {
+            throw new IllegalArgumentException("Time limit must not be negative");
+        }
+
+        this.timeLimit = timeLimit;
+    }
+
+    /** Task that scans a single shard. */
+    private class ShardTask implements Runnable {
+
+        /** Query restricted to the shard. */
+        private final Query<T> query;
+
+        /** Shard being scanned. */
+        private final ScanShard<T> shard;
+
+        /** Callback to pass each entity to. */
+        private final IShardCallback<T> callback;
+
+        /** Time at which the shard should stop at its next checkpoint. */
+        private final long deadline;
+
+        /** Whether to record checkpoints. */
+        private final boolean checkpoints;
+
+        /** Create a task. */
+        public ShardTask(Query<T> query, ScanShard<T> shard, IShardCallback<T> callback, long deadline, boolean checkpoints) {
+            this.query = query;
+            this.shard = shard;
+            this.callback = callback;
+            this.deadline = deadline;
+            this.checkpoints = checkpoints;
+        }
+
+        /** Scan the shard. */
+        @Override
+        public void run() {
+            long rows = this.shard.getRows();
+            long sinceCheckpoint = 0;
+
+            QueryResultIterator<T> iterator = this.query.iterator();
+            while (iterator.hasNext()) {
+                this.callback.process(iterator.next());
+                rows++;
+                sinceCheckpoint++;
+
+                if (sinceCheckpoint == ShardedScanner.this.checkpointInterval) {
+                    sinceCheckpoint = 0;
+
+                    if (this.checkpoints) {
+                        this.shard.checkpoint(CursorUtils.serialize(iterator.getCursor()), rows);
+                        if (ShardedScanner.this.listener != null) {
+                            ShardedScanner.this.listener.checkpoint(this.shard);
+                        }
+                    }
+
+                    if (Thread.currentThread().isInterrupted() || ShardedScanner.this.currentTimeMillis() >= this.deadline) {
+                        return;
+                    }
+                }
+            }
+
+            if (this.checkpoints) {
+                this.shard.finish(rows);
+                if (ShardedScanner.this.listener != null) {
+                    ShardedScanner.this.listener.finished(this.shard);
+                }
+            }
+        }
+    }
+
+    /**
+     * Iterator that merges the output of several shards, via a bounded queue.
+     * @param <T> Type of the scanned entity
+     */
+    public static class ShardIterator<T> implements Iterator<T>, IShardCallback<T> {
+
+        /** Marker placed on the queue when a shard finishes. */
+        private static final Object DONE = new Object();
+
+        /** Queue of entities produced by the shards. */
+        private final BlockingQueue<Object> queue;
+
+        /** Number of shards that have not yet finished. */
+        private int remaining;
+
+        /** First failure reported by any shard, if any. */
+        private volatile Throwable failure;
+
+        /** Whether the consumer has closed the iterator. */
+        private volatile boolean closed;
+
+        /** Next entity to return, if it has already been taken from the queue. */
+        private Object next;
+
+        /** Create an iterator backed by a queue with the passed-in capacity. */
+        protected ShardIterator(int capacity) {
+            this.queue = new ArrayBlockingQueue<Object>(capacity);
+        }
+
+        /** Start the iterator, indicating the number of shards that will report. */
+        protected void start(int shards) {
+            this.remaining = shards;
+        }
+
+        /** Accept an entity from a shard, blocking while the queue is full. */
+        @Override
+        public void process(T entity) {
+            this.enqueue(entity);
+        }
+
+        /** Record that a shard has finished, possibly with a failure. */
+        protected void shardFinished(Throwable failure) {
+            if (this.closed) {
+                return;
+            }
+
+            if (failure != null && this.failure == null) {
+                this.failure = failure;
+            }
+
+            this.enqueue(DONE);
+        }
+
+        /** Add an item to the queue, giving up if the iterator is closed. */
+        private void enqueue(Object item) {
+            try {
+                while (this.closed || !this.queue.offer(item, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+                    if (this.closed) {
+                        throw new DaoException("Iterator was closed");
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DaoException("Sharded scan was interrupted", e);
+            }
+        }
+
+        /**
+         * Whether there are more entities.
+         * @throws DaoException If any shard failed.
+         */
+        @Override
+        public boolean hasNext() {
+            try {
+                while (this.next == null && this.remaining > 0) {
+                    Object item = this.queue.take();
+                    if (item == DONE) {
+                        this.remaining--;
+                        if (this.failure != null) {
+                            this.close();
+                            throw new DaoException("Sharded scan failed: " + this.failure.getMessage(), this.failure);
+                        }
+                    } else {
+                        this.next = item;
+                    }
+                }
+
+                return this.next != null;
+            } catch (InterruptedException e) {
+                this.close();
+                Thread.currentThread().interrupt();
+                throw new DaoException("Sharded scan was interrupted", e);
+            }
+        }
+
+        /** Get the next entity. */
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException("No more entities");
+            }
+
+            T result = (T) this.next;
+            this.next = null;
+            return result;
+        }
+
+        /** Removal is not supported. */
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Remove is not supported");
+        }
+
+        /** Close the iterator, so shards that are still running stop. */
+        public void close() {
+            this.closed = true;
+            this.remaining = 0;
+            this.next = null;
+            this.queue.clear();
+        }
+
+    }
+
+}
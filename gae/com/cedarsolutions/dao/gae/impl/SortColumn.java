@@ -0,0 +1,84 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.util.Comparator;
+
+import com.cedarsolutions.dao.domain.SortOrder;
+
+/**
+ * One column of a MultiColumnSort.
+ * @param <T> Type of the sorted entity
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class SortColumn<T> {
+
+    /** Datastore property to sort on. */
+    private final String property;
+
+    /** Sort order. */
+    private final SortOrder sortOrder;
+
+    /** Comparator that orders entities by this property, ascending. */
+    private final Comparator<? super T> comparator;
+
+    /**
+     * Create a sort column.
+     * @param property    Datastore property to sort on
+     * @param sortOrder   Sort order
+     * @param comparator  Comparator that orders entities by this property, ascending, the same way the datastore does
+     */
+    public SortColumn(String property, SortOrder sortOrder, Comparator<? super T> comparator) {
+        if (property == null || sortOrder == null || comparator == null) {
+            throw new IllegalArgumentException("Property, sort order and comparator are all required");
+        }
+
+        this.property = property;
+        this.sortOrder = sortOrder;
+        this.comparator = comparator;
+    }
+
+    /** Get the sort condition for this column, in the form Query.order() expects. */
+    public String getCondition() {
+        return this.sortOrder == SortOrder.DESCENDING ? "-" + this.property : this.property;
+    }
+
+    /** Compare two entities by this column, taking into account the sort order. */
+    public int compare(T o1, T o2) {
+        int result = this.comparator.compare(o1, o2);
+        return this.sortOrder == SortOrder.DESCENDING ? -result : result;
+    }
+
+    public String getProperty() {
+        return this.property;
+    }
+
+    public SortOrder getSortOrder() {
+        return this.sortOrder;
+    }
+
+    public Comparator<? super T> getComparator() {
+        return this.comparator;
+    }
+
+}
@@ -0,0 +1,226 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.cedarsolutions.dao.domain.PaginatedResults;
+import com.cedarsolutions.dao.domain.Pagination;
+
+/**
+ * Sorts query results in memory, keeping only as many rows as a page needs.
+ *
+ * <p>
+ * When the datastore can't sort a query the way the client asked, the rows
+ * have to be sorted in memory.  Page N of a sorted result needs only the
+ * first N pages' worth of rows, so rather than collecting everything, this
+ * class keeps a bounded heap of the best pageSize &times; pageNumber rows
+ * (plus one, to know whether there is a next page) while it scans.  Memory
+ * use therefore depends on how deep the client pages, not on the size of
+ * the result.  The scan itself still reads every matching row.
+ * </p>
+ *
+ * <p>
+ * If the query is already sorted by a leading part of the sort, as set up by
+ * MultiColumnSort, pass a comparator for that part as the scan order.  Once
+ * the heap is full, the scan stops at the first row that sorts after every
+ * row in the heap on the leading columns, since no later row can make the
+ * cut.  That often turns a full scan into a short one.
+ * </p>
+ *
+ * <p>
+ * There's no datastore cursor for a position in an in-memory sort, so the
+ * pagination is given synthetic cursors that record the row offset, like
+ * "sort:40".  These work like any other cursor from the client's point of
+ * view.  They must never be passed to ObjectifyProxy.query(Class, Pagination);
+ * AbstractGaeDao.createSortedQuery() takes care of that.  A sorter keeps
+ * statistics for its last scan, so use a new one for each query.
+ * </p>
+ *
+ * @param <T> Type of the sorted entity
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class TopKSorter<T> {
+
+    /** Prefix for synthetic cursors, which can't appear in a web-safe datastore cursor. */
+    public static final String CURSOR_PREFIX = "sort:";
+
+    /** Comparator for the full sort order. */
+    private final Comparator<? super T> comparator;
+
+    /** Comparator for the order the rows are scanned in, or null if they are unordered. */
+    private final Comparator<? super T> scanOrder;
+
+    /** Number of rows read by the last scan. */
+    private long rowsScanned;
+
+    /** Whether the last scan stopped before the end of the results. */
+    private boolean stoppedEarly;
+
+    /**
+     * Create a sorter for unordered rows.
+     * @param comparator  Comparator for the full sort order
+     */
+    public TopKSorter(Comparator<? super T> comparator) {
+        this(comparator, null);
+    }
+
+    /**
+     * Create a sorter.
+     * @param comparator  Comparator for the full sort order
+     * @param scanOrder   Comparator for the leading columns the rows are already sorted by, or null if they are unordered
+     */
+    public TopKSorter(Comparator<? super T> comparator, Comparator<? super T> scanOrder) {
+        if (comparator == null) {
+            throw new IllegalArgumentException("Comparator is required");
+        }
+
+        this.comparator = comparator;
+        this.scanOrder = scanOrder;
+    }
+
+    /**
+     * Create a sorter for a multi-column sort, using the indexed leading columns as the scan order.
+     * @param <T>  Type of the sorted entity
+     * @param sort  Multi-column sort, applied to the query via MultiColumnSort.apply()
+     * @return Sorter for the sort.
+     */
+    public static <T> TopKSorter<T> create(MultiColumnSort<T> sort) {
+        int indexed = sort.getIndexedCount();
+        return new TopKSorter<T>(sort.getComparator(), indexed > 0 ? sort.getComparator(indexed) : null);
+    }
+
+    /**
+     * Get the first rows in sort order.
+     * @param iterator  Rows to sort
+     * @param limit     Maximum number of rows to return
+     * @return Up to limit rows, in sort order.
+     */
+    public List<T> top(Iterator<T> iterator, int limit) {
+        this.rowsScanned = 0;
+        this.stoppedEarly = false;
+
+        // The head of the heap is the worst row kept so far
+        PriorityQueue<T> heap = new PriorityQueue<T>(Math.max(1, Math.min(limit, 1024)), Collections.reverseOrder(this.comparator));
+        while (limit > 0 && iterator.hasNext()) {
+            T row = iterator.next();
+            this.rowsScanned++;
+
+            if (heap.size() < limit) {
+                heap.add(row);
+            } else if (this.comparator.compare(row, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(row);
+            } else if (this.scanOrder != null && this.scanOrder.compare(row, heap.peek()) > 0) {
+                this.stoppedEarly = true;
+                break;
+            }
+        }
+
+        List<T> result = new ArrayList<T>(heap);
+        Collections.sort(result, this.comparator);
+        return result;
+    }
+
+    /**
+     * Create sorted paginated results.
+     * If the pagination is null, every row is returned, in sort order.
+     * @param pagination  Pagination that is in use, possibly null
+     * @param iterator    Rows to sort
+     * @return Paginated results, with synthetic cursors in the pagination.
+     */
+    public PaginatedResults<T> createPaginatedResults(Pagination pagination, Iterator<T> iterator) {
+        PaginatedResults<T> results = new PaginatedResults<T>();
+
+        if (pagination == null) {
+            results.addAll(this.top(iterator, Integer.MAX_VALUE));
+        } else {
+            int offset = getOffset(pagination);
+            int end = offset + pagination.getPageSize();
+            List<T> top = this.top(iterator, end + 1);  // one extra row, to tell whether there is a next page
+
+            for (int i = offset; i < end && i < top.size(); i++) {
+                results.add(top.get(i));
+            }
+
+            String next = top.size() > end ? createCursor(end) : null;
+            results.setPagination(pagination.copy());
+            results.getPagination().update(createCursor(offset), next, results.size());
+        }
+
+        return results;
+    }
+
+    /** Whether a cursor is a synthetic cursor for an in-memory sort. */
+    public static boolean isCursor(String cursor) {
+        return cursor != null && cursor.startsWith(CURSOR_PREFIX);
+    }
+
+    /** Create a synthetic cursor for a row offset. */
+    public static String createCursor(int offset) {
+        return CURSOR_PREFIX + offset;
+    }
+
+    /**
+     * Get the row offset of the current page.
+     * This comes from the synthetic cursor if there is one, or from the page number otherwise.
+     * @param pagination  Pagination that is in use
+     * @return Offset of the first row of the current page.
+     */
+    public static int getOffset(Pagination pagination) {
+        String current = pagination.getCurrent();
+        if (isCursor(current)) {
+            try {
+                return Integer.parseInt(current.substring(CURSOR_PREFIX.length()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid sort cursor: " + current);
+            }
+        }
+
+        return Math.max(0, pagination.getPageNumber() - 1) * pagination.getPageSize();
+    }
+
+    public Comparator<? super T> getComparator() {
+        return this.comparator;
+    }
+
+    public Comparator<? super T> getScanOrder() {
+        return this.scanOrder;
+    }
+
+    /** Get the number of rows read by the last scan. */
+    public long getRowsScanned() {
+        return this.rowsScanned;
+    }
+
+    /** Whether the last scan stopped before the end of the results, because of the scan order. */
+    public boolean isStoppedEarly() {
+        return this.stoppedEarly;
+    }
+
+}
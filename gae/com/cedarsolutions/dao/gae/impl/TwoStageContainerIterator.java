@@ -0,0 +1,92 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import com.cedarsolutions.dao.gae.IContainerFilterPredicate;
+import com.cedarsolutions.dao.gae.IFilterPredicate;
+import com.cedarsolutions.dao.gae.domain.IContainer;
+import com.googlecode.objectify.Query;
+
+/**
+ * Container iterator that filters in two stages.
+ *
+ * <p>
+ * FilteredContainerIterator deserializes every container before applying
+ * the predicate, even for rows that are going to be rejected.  This
+ * iterator first applies a cheap container predicate, which only looks at
+ * the container itself.  Only containers that pass are deserialized and
+ * handed to the regular predicate.  On selective searches, most rows never
+ * get deserialized at all.  Results and cursors are otherwise identical to
+ * FilteredContainerIterator.
+ * </p>
+ *
+ * @param <C>  Type of the container
+ * @param <T>  Type of the iterator
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class TwoStageContainerIterator<C extends IContainer<T>, T> extends FilteredContainerIterator<T> {
+
+    private IContainerFilterPredicate<? super C> containerPredicate;
+    private long rowsDeserialized;
+
+    /** Create an iterator based on a query, a container predicate and a predicate. */
+    public TwoStageContainerIterator(Query<C> query, IContainerFilterPredicate<? super C> containerPredicate, IFilterPredicate<T> predicate) {
+        this(query, containerPredicate, predicate, false);
+    }
+
+    /**
+     * Create an iterator based on a query, a container predicate and a predicate.
+     * @param query               Query to iterate over
+     * @param containerPredicate  Predicate to apply to each container, before it is deserialized
+     * @param predicate           Predicate to apply to each deserialized value
+     * @param lazyCursor          Whether to defer cursor serialization until getCursor() is called
+     */
+    public TwoStageContainerIterator(Query<C> query, IContainerFilterPredicate<? super C> containerPredicate,
+                                     IFilterPredicate<T> predicate, boolean lazyCursor) {
+        super(query, predicate, lazyCursor);
+        this.containerPredicate = containerPredicate;
+    }
+
+    /** Get the container predicate. */
+    public IContainerFilterPredicate<? super C> getContainerPredicate() {
+        return this.containerPredicate;
+    }
+
+    /** Get the number of containers that passed the container predicate and were deserialized. */
+    public long getRowsDeserialized() {
+        return this.rowsDeserialized;
+    }
+
+    /** Apply the container predicate, before the container is deserialized. */
+    @Override
+    @SuppressWarnings("unchecked")
+    protected boolean preEvaluate(IContainer<T> element) {
+        if (this.containerPredicate.evaluate((C) element)) {  // safe, since the query returns C
+            this.rowsDeserialized += 1;
+            return true;
+        }
+
+        return false;
+    }
+
+}
@@ -0,0 +1,185 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Objectify;
+
+/**
+ * Buffer of puts and deletes made within a transaction, written as batches.
+ *
+ * <p>
+ * A transactional ObjectifyProxy with write-behind enabled records each
+ * put and delete here rather than sending it to the datastore right away.
+ * The buffer is flushed as one batch put plus one batch delete, either when
+ * it reaches its batch size or when the transaction commits.  Only the last
+ * operation for each key is kept, so saving the same entity several times
+ * within a transaction costs a single write.
+ * </p>
+ *
+ * <p>
+ * Note that an entity is not serialized until the buffer is flushed, so
+ * changes made to a buffered entity after calling put() are also saved.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class WriteBehindBuffer {
+
+    /** Marker stored in place of an entity for a pending delete. */
+    private static final Object DELETED = new Object();
+
+    /** Number of pending operations that triggers a flush. */
+    private int batchSize;
+
+    /** Pending operations, in order, mapping key to entity or the DELETED marker. */
+    private Map<Key<?>, Object> pending = new LinkedHashMap<Key<?>, Object>();
+
+    /** Number of times the buffer has been flushed. */
+    private int flushes;
+
+    /** Number of entities written by all flushes. */
+    private long entitiesPut;
+
+    /** Number of keys deleted by all flushes. */
+    private long keysDeleted;
+
+    /**
+     * Create a write-behind buffer.
+     * @param batchSize  Number of pending operations that triggers a flush, greater than zero
+     */
+    public WriteBehindBuffer(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be greater than zero.");
+        }
+
+        this.batchSize = batchSize;
+    }
+
+    /** Record a pending put for an entity with a known key. */
+    public void put(Key<?> key, Object entity) {
+        this.pending.remove(key);  // so the key moves to the end, in operation order
+        this.pending.put(key, entity);
+    }
+
+    /** Record a pending delete for a key. */
+    public void delete(Key<?> key) {
+        this.pending.remove(key);
+        this.pending.put(key, DELETED);
+    }
+
+    /** Whether there is a pending put or delete for a key. */
+    public boolean contains(Key<?> key) {
+        return this.pending.containsKey(key);
+    }
+
+    /** Whether the pending operation for a key is a delete. */
+    public boolean isDeleted(Key<?> key) {
+        return this.pending.get(key) == DELETED;
+    }
+
+    /** Get the entity pending for a key, or null if there is none or the key is pending delete. */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Key<? extends T> key) {
+        Object entity = this.pending.get(key);
+        return entity == DELETED ? null : (T) entity;
+    }
+
+    /** Whether the buffer has reached its batch size and should be flushed. */
+    public boolean isFull() {
+        return this.pending.size() >= this.batchSize;
+    }
+
+    /** Whether the buffer is empty. */
+    public boolean isEmpty() {
+        return this.pending.isEmpty();
+    }
+
+    /** Number of pending operations. */
+    public int size() {
+        return this.pending.size();
+    }
+
+    /** Discard all pending operations without writing them. */
+    public void clear() {
+        this.pending.clear();
+    }
+
+    /**
+     * Write all pending operations as a parallel batch put and a parallel batch delete.
+     * @param objectify  Objectify instance to write with, normally transactional
+     */
+    public void flush(Objectify objectify) {
+        if (!this.pending.isEmpty()) {
+            List<Object> entities = new ArrayList<Object>();
+            List<Key<?>> keys = new ArrayList<Key<?>>();
+            for (Map.Entry<Key<?>, Object> entry : this.pending.entrySet()) {
+                if (entry.getValue() == DELETED) {
+                    keys.add(entry.getKey());
+                } else {
+                    entities.add(entry.getValue());
+                }
+            }
+
+            this.pending.clear();
+
+            if (!entities.isEmpty()) {
+                objectify.put(entities);
+                this.entitiesPut += entities.size();
+            }
+
+            if (!keys.isEmpty()) {
+                objectify.delete(keys);
+                this.keysDeleted += keys.size();
+            }
+
+            this.flushes++;
+        }
+    }
+
+    /** Number of pending operations that triggers a flush. */
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /** Number of times the buffer has been flushed. */
+    public int getFlushes() {
+        return this.flushes;
+    }
+
+    /** Number of entities written by all flushes. */
+    public long getEntitiesPut() {
+        return this.entitiesPut;
+    }
+
+    /** Number of keys deleted by all flushes. */
+    public long getKeysDeleted() {
+        return this.keysDeleted;
+    }
+
+}
@@ -0,0 +1,244 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.cedarsolutions.exception.DaoException;
+
+/**
+ * Unit tests for TransactionRunner.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class TransactionRunnerTest {
+
+    /** Test the constructors. */
+    @Test public void testConstructor() {
+        TransactionRunner runner = new TransactionRunner();
+        assertEquals(TransactionRunner.DEFAULT_MAX_ATTEMPTS, runner.getMaxAttempts());
+        assertEquals(TransactionRunner.DEFAULT_INITIAL_DELAY, runner.getInitialDelay());
+        assertEquals(TransactionRunner.DEFAULT_MAX_DELAY, runner.getMaxDelay());
+        assertFalse(runner.isRetryCommitFailures());
+        assertTrue(new TransactionRunner(1, 0, 0, true).isRetryCommitFailures());
+        assertEquals(0, runner.getRuns());
+        assertEquals(0, runner.getRetries());
+        assertEquals(0, runner.getFailures());
+
+        try {
+            new TransactionRunner(0, 10, 100);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            new TransactionRunner(1, -1, 100);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            new TransactionRunner(1, 100, 10);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Test a unit of work that succeeds the first time. */
+    @Test public void testRunSuccess() {
+        IDaoTransaction transaction = mock(IDaoTransaction.class);
+        ITransactionalDao dao = mock(ITransactionalDao.class);
+        when(dao.getDaoTransaction()).thenReturn(transaction);
+
+        StubbedRunner runner = new StubbedRunner(3);
+        assertEquals("result", runner.run(dao, new StubWork(0, new ConcurrentModificationException())));
+        verify(transaction).commit();
+        verify(transaction, never()).rollback();
+        assertEquals(1, runner.getRuns());
+        assertEquals(0, runner.getRetries());
+        assertEquals(0, runner.getFailures());
+        assertTrue(runner.sleeps.isEmpty());
+    }
+
+    /** Test a unit of work that fails with contention and then succeeds. */
+    @Test public void testRunRetry() {
+        IDaoTransaction transaction = mock(IDaoTransaction.class);
+        ITransactionalDao dao = mock(ITransactionalDao.class);
+        when(dao.getDaoTransaction()).thenReturn(transaction);
+
+        StubbedRunner runner = new StubbedRunner(3);
+        RuntimeException wrapped = new DaoException("wrapped", new ConcurrentModificationException());
+        assertEquals("result", runner.run(dao, new StubWork(2, wrapped)));
+        verify(dao, times(3)).getDaoTransaction();
+        verify(transaction, times(2)).rollback();
+        verify(transaction).commit();
+        assertEquals(1, runner.getRuns());
+        assertEquals(2, runner.getRetries());
+        assertEquals(0, runner.getFailures());
+        assertEquals(2, runner.sleeps.size());
+    }
+
+    /** Test a commit that fails with contention, which is not retried by default. */
+    @Test public void testRunCommitFailure() {
+        ConcurrentModificationException failure = new ConcurrentModificationException();
+        IDaoTransaction transaction = mock(IDaoTransaction.class);
+        doThrow(failure).when(transaction).commit();
+        ITransactionalDao dao = mock(ITransactionalDao.class);
+        when(dao.getDaoTransaction()).thenReturn(transaction);
+
+        StubbedRunner runner = new StubbedRunner(3);
+        try {
+            runner.run(dao, new StubWork(0, null));
+            fail("Expected ConcurrentModificationException");
+        } catch (ConcurrentModificationException e) {
+            assertSame(failure, e);
+        }
+
+        verify(transaction).commit();
+        verify(transaction).rollback();
+        assertEquals(0, runner.getRetries());
+        assertEquals(1, runner.getFailures());
+        assertTrue(runner.sleeps.isEmpty());
+    }
+
+    /** Test a commit that fails with contention every time, when commit failures are retried. */
+    @Test public void testRunExhausted() {
+        ConcurrentModificationException failure = new ConcurrentModificationException();
+        IDaoTransaction transaction = mock(IDaoTransaction.class);
+        doThrow(failure).when(transaction).commit();
+        doThrow(new DaoException("rollback failed")).when(transaction).rollback();
+        ITransactionalDao dao = mock(ITransactionalDao.class);
+        when(dao.getDaoTransaction()).thenReturn(transaction);
+
+        StubbedRunner runner = new StubbedRunner(3, true);
+        try {
+            runner.run(dao, new StubWork(0, null));
+            fail("Expected ConcurrentModificationException");
+        } catch (ConcurrentModificationException e) {
+            assertSame(failure, e);
+        }
+
+        verify(transaction, times(3)).commit();
+        assertEquals(2, runner.getRetries());
+        assertEquals(1, runner.getFailures());
+    }
+
+    /** Test a unit of work that fails with an exception that is not retryable. */
+    @Test public void testRunNotRetryable() {
+        IDaoTransaction transaction = mock(IDaoTransaction.class);
+        ITransactionalDao dao = mock(ITransactionalDao.class);
+        when(dao.getDaoTransaction()).thenReturn(transaction);
+
+        StubbedRunner runner = new StubbedRunner(3);
+        try {
+            runner.run(dao, new StubWork(5, new DaoException("hello")));
+            fail("Expected DaoException");
+        } catch (DaoException e) { }
+
+        verify(transaction).rollback();
+        verify(transaction, never()).commit();
+        assertEquals(0, runner.getRetries());
+        assertEquals(1, runner.getFailures());
+    }
+
+    /** Test isRetryable(). */
+    @Test public void testIsRetryable() {
+        TransactionRunner runner = new TransactionRunner();
+        assertTrue(runner.isRetryable(new ConcurrentModificationException()));
+        assertTrue(runner.isRetryable(new DaoException("x", new ConcurrentModificationException())));
+        assertFalse(runner.isRetryable(new DaoException("x")));
+        assertFalse(runner.isRetryable(new IllegalStateException()));
+    }
+
+    /** Test getDelay(). */
+    @Test public void testGetDelay() {
+        TransactionRunner runner = new TransactionRunner(10, 100, 1000);
+        for (int i = 0; i < 50; i++) {
+            assertBetween(50, 100, runner.getDelay(1));
+            assertBetween(100, 200, runner.getDelay(2));
+            assertBetween(200, 400, runner.getDelay(3));
+            assertBetween(400, 800, runner.getDelay(4));
+            assertBetween(500, 1000, runner.getDelay(5));
+            assertBetween(500, 1000, runner.getDelay(100));
+        }
+
+        runner = new TransactionRunner(10, 0, 0);
+        assertEquals(0, runner.getDelay(3));
+    }
+
+    /** Assert that a value falls within a range, inclusive. */
+    private static void assertBetween(long min, long max, long value) {
+        assertTrue("Expected " + value + " in [" + min + ", " + max + "]", value >= min && value <= max);
+    }
+
+    /** Runner that records its sleeps rather than sleeping. */
+    private static class StubbedRunner extends TransactionRunner {
+        private List<Long> sleeps = new ArrayList<Long>();
+
+        public StubbedRunner(int maxAttempts) {
+            this(maxAttempts, false);
+        }
+
+        public StubbedRunner(int maxAttempts, boolean retryCommitFailures) {
+            super(maxAttempts, 10, 100, retryCommitFailures);
+        }
+
+        @Override
+        protected void sleep(long millis) {
+            this.sleeps.add(millis);
+        }
+    }
+
+    /** Unit of work that fails a given number of times before succeeding. */
+    private static class StubWork implements IUnitOfWork<String> {
+        private int failures;
+        private RuntimeException exception;
+
+        public StubWork(int failures, RuntimeException exception) {
+            this.failures = failures;
+            this.exception = exception;
+        }
+
+        @Override
+        public String execute(IDaoTransaction transaction) {
+            if (this.failures-- > 0) {
+                throw this.exception;
+            }
+
+            return "result";
+        }
+    }
+
+}
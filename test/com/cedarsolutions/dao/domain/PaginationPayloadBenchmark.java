@@ -0,0 +1,145 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.domain;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Benchmark comparing the serialized size of Pagination as more pages are visited.
+ *
+ * <p>
+ * This is not a unit test, and isn't picked up by the test suites.  Run it
+ * by hand with the test classpath, i.e. via the main() method.  Java
+ * serialization is used as a stand-in for GWT RPC, which isn't available
+ * outside a servlet container.  The absolute numbers differ, but both are
+ * dominated by the cursor strings, so the reduction is comparable.  Three
+ * layouts are measured: the old layout with boxed maps (reproduced here),
+ * the array layout keeping every cursor, and the array layout with a
+ * cursor window.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class PaginationPayloadBenchmark {
+
+    /** Number of pages visited in each measurement. */
+    private static final int[] PAGES = new int[] { 5, 25, 100, 500, };
+
+    /** Page size used for each measurement. */
+    private static final int PAGE_SIZE = 25;
+
+    /** Cursor window used for the compact layout. */
+    private static final int WINDOW = 2;
+
+    /** Checkpoint interval used for the compact layout. */
+    private static final int INTERVAL = 10;
+
+    /** Length of a typical web-safe GAE cursor for a simple query. */
+    private static final int CURSOR_LENGTH = 120;
+
+    /** Run the benchmark. */
+    public static void main(String[] args) throws IOException {
+        System.out.println(String.format("%6s %12s %12s %12s %10s", "pages", "maps", "arrays", "window", "reduction"));
+        for (int pages : PAGES) {
+            Pagination full = visit(new Pagination(PAGE_SIZE), pages);
+            Pagination compact = visit(new Pagination(PAGE_SIZE, WINDOW, INTERVAL), pages);
+            LegacyPagination legacy = new LegacyPagination(full, pages);
+
+            int legacySize = size(legacy);
+            int fullSize = size(full);
+            int compactSize = size(compact);
+            double reduction = 100.0 * (legacySize - compactSize) / legacySize;
+            System.out.println(String.format("%6d %12d %12d %12d %9.1f%%", pages, legacySize, fullSize, compactSize, reduction));
+        }
+    }
+
+    /** Visit a number of pages in order, as a client paging forward would. */
+    private static Pagination visit(Pagination pagination, int pages) {
+        for (int page = 1; page <= pages; page++) {
+            pagination = pagination.page(page);
+            pagination.update(createCursor(page), createCursor(page + 1), PAGE_SIZE);
+        }
+
+        return pagination;
+    }
+
+    /** Create a fake cursor of realistic length for a page. */
+    private static String createCursor(int page) {
+        StringBuilder cursor = new StringBuilder("E-ABAIICK2oRc35jZWRhci1jb21tb24tdGVzdHIaCxIPSW50ZWdlcklkRW50aXR5");
+        cursor.append(page);
+        while (cursor.length() < CURSOR_LENGTH) {
+            cursor.append('A');
+        }
+
+        return cursor.toString();
+    }
+
+    /** Get the serialized size of an object. */
+    private static int size(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream stream = new ObjectOutputStream(bytes);
+        stream.writeObject(object);
+        stream.close();
+        return bytes.size();
+    }
+
+    /** The old Pagination layout, with boxed maps of cursors and counts. */
+    @SuppressWarnings("serial")
+    private static class LegacyPagination implements Serializable {
+        private int pageSize;
+        private int pageNumber;
+        private boolean hasData;
+        private boolean hasPrevious;
+        private boolean hasNext;
+        private boolean isTotalFinalized;
+        private int totalPages;
+        private int totalRows;
+        private String current;
+        private Map<Integer, String> cursors = new HashMap<Integer, String>();
+        private Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+
+        LegacyPagination(Pagination source, int pages) {
+            this.pageSize = source.getPageSize();
+            this.pageNumber = source.getPageNumber();
+            this.hasData = source.hasData();
+            this.hasPrevious = source.hasPrevious();
+            this.hasNext = source.hasNext();
+            this.isTotalFinalized = source.isTotalFinalized();
+            this.totalPages = source.getTotalPages();
+            this.totalRows = source.getTotalRows();
+            this.current = source.getCurrent();
+            for (int page = 1; page <= pages + 1; page++) {
+                this.cursors.put(page, createCursor(page));
+                if (page <= pages) {
+                    this.counts.put(page, PAGE_SIZE);
+                }
+            }
+        }
+    }
+
+}
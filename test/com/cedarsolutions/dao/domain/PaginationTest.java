@@ -72,6 +72,215 @@ public class PaginationTest {
         assertFalse(pagination.isTotalFinalized());
         assertEquals(0, pagination.getTotalPages());
         assertEquals(0, pagination.getTotalRows());
+        assertFalse(pagination.hasEstimate());
+        assertEquals(Pagination.UNKNOWN, pagination.getEstimatedTotalRows());
+        assertEquals(Pagination.UNKNOWN, pagination.getEstimatedTotalPages());
+        assertFalse(pagination.isEstimateExact());
+    }
+
+    /** Test setEstimate() and the methods that depend on it. */
+    @Test public void testEstimate() {
+        Pagination pagination = new Pagination(3);
+
+        pagination.setEstimate(7, false);
+        assertTrue(pagination.hasEstimate());
+        assertEquals(7, pagination.getEstimatedTotalRows());
+        assertEquals(3, pagination.getEstimatedTotalPages());
+        assertFalse(pagination.isEstimateExact());
+
+        pagination.setEstimate(6, true);
+        assertEquals(2, pagination.getEstimatedTotalPages());
+        assertTrue(pagination.isEstimateExact());
+
+        Pagination copy = pagination.copy();
+        assertEquals(6, copy.getEstimatedTotalRows());
+        assertTrue(copy.isEstimateExact());
+        assertEquals(6, pagination.next().getEstimatedTotalRows());
+
+        pagination.setEstimate(0, true);
+        assertEquals(0, pagination.getEstimatedTotalPages());
+
+        pagination.setEstimate(Pagination.UNKNOWN, true);
+        assertFalse(pagination.hasEstimate());
+        assertFalse(pagination.isEstimateExact());
+    }
+
+    /** Test the constructor that configures a cursor window. */
+    @Test public void testConstructorWindow() {
+        Pagination pagination = new Pagination(3);
+        assertEquals(Pagination.UNLIMITED_WINDOW, pagination.getCursorWindow());
+        assertEquals(Pagination.DEFAULT_CHECKPOINT_INTERVAL, pagination.getCheckpointInterval());
+        assertEquals(0, pagination.getCursorCount());
+
+        pagination = new Pagination(3, 2, 5);
+        assertEquals(3, pagination.getPageSize());
+        assertEquals(2, pagination.getCursorWindow());
+        assertEquals(5, pagination.getCheckpointInterval());
+
+        try {
+            new Pagination(3, -1, 5);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            new Pagination(3, 2, 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Test paging forward and backward through a result set. */
+    @Test public void testPaging() {
+        Pagination pagination = fetch(new Pagination(5), 23);
+        assertPage(pagination, 1, false, true, 2, 5, "0");
+
+        pagination = fetch(pagination.next(), 23);
+        assertPage(pagination, 2, true, true, 3, 10, "5");
+
+        pagination = fetch(pagination.next().next().next(), 23);
+        assertPage(pagination, 3, true, true, 4, 15, "10");
+
+        pagination = fetch(pagination.page(4), 23);
+        pagination = fetch(pagination.next(), 23);
+        assertPage(pagination, 5, true, false, 5, 23, "20");
+        assertTrue(pagination.isTotalFinalized());
+        assertEquals(5, pagination.getNextPageNumber());
+
+        pagination = fetch(pagination.page(2), 23);
+        assertPage(pagination, 2, true, true, 5, 23, "5");
+
+        pagination = fetch(pagination.page(99), 23);
+        assertPage(pagination, 5, true, false, 5, 23, "20");
+
+        pagination = fetch(pagination.page(-1), 23);
+        assertPage(pagination, 1, false, true, 5, 23, "0");
+    }
+
+    /** Test that a cursor window changes nothing about paging forward, or backward within the window. */
+    @Test public void testPagingWindow() {
+        Pagination full = new Pagination(5);
+        Pagination compact = new Pagination(5, 2, 4);
+        int[] pages = new int[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 19, 18, 19, 20, 99, -1, 2, 3, };
+
+        for (int page : pages) {
+            full = fetch(full.page(page), 100);
+            compact = fetch(compact.page(page), 100);
+            assertEquals(full.getPageNumber(), compact.getPageNumber());
+            assertEquals(full.getCurrent(), compact.getCurrent());
+            assertEquals(full.hasPrevious(), compact.hasPrevious());
+            assertEquals(full.hasNext(), compact.hasNext());
+            assertEquals(full.getTotalPages(), compact.getTotalPages());
+            assertEquals(full.getTotalRows(), compact.getTotalRows());
+            assertEquals(full.isTotalFinalized(), compact.isTotalFinalized());
+            assertEquals(full.next().getCurrent(), compact.next().getCurrent());
+        }
+
+        assertEquals(20, full.getCursorCount());
+        assertEquals(9, compact.getCursorCount());  // pages 1 through 5, plus 9, 13, 17 and 20
+        assertEquals("40", full.getCursor(9));
+        assertEquals("40", compact.getCursor(9));
+        assertEquals("50", full.getCursor(11));
+        assertNull(compact.getCursor(11));
+        assertNull(full.getCursor(21));
+        assertEquals(5, compact.getCount(11));
+        assertEquals(0, compact.getCount(0));
+        assertEquals(0, compact.getCount(21));
+    }
+
+    /** Test paging backward beyond the cursor window. */
+    @Test public void testPagingWindowBackward() {
+        Pagination pagination = new Pagination(5, 2, 4);
+        for (int page = 1; page <= 12; page++) {
+            pagination = fetch(pagination.page(page), 100);
+        }
+
+        assertEquals(7, pagination.getCursorCount());  // pages 1, 5, 9, and 10 through 13
+
+        pagination = fetch(pagination.previous(), 100);
+        pagination = fetch(pagination.previous(), 100);
+        assertPage(pagination, 10, true, true, 13, 60, "45");
+
+        pagination = fetch(pagination.previous(), 100);  // page 9 is a checkpoint
+        assertPage(pagination, 9, true, true, 13, 60, "40");
+
+        pagination = fetch(pagination.previous(), 100);  // page 8 was discarded, so this goes to page 5
+        assertPage(pagination, 5, true, true, 13, 60, "20");
+
+        pagination = fetch(pagination.page(7), 100);  // page 7 was discarded too, but page 6 is now known again
+        assertPage(pagination, 6, true, true, 13, 60, "25");
+
+        pagination = fetch(pagination.next(), 100);
+        assertPage(pagination, 7, true, true, 13, 60, "30");
+        assertEquals(6, pagination.previous().getPageNumber());
+    }
+
+    /** Test seeking to a page that hasn't been visited, as from a checkpoint. */
+    @Test public void testSeek() {
+        Pagination pagination = fetch(new Pagination(5), 100);
+        pagination = fetch(pagination.next(), 100);
+
+        Pagination seek = pagination.seek(8, "35");
+        assertEquals(8, seek.getPageNumber());
+        assertEquals("35", seek.getCurrent());
+        assertEquals(2, pagination.getPageNumber());  // the original is not changed
+
+        assertEquals("35", seek.getCursor(8));  // kept, so the page can be returned to before it's fetched
+        assertEquals(2, seek.page(2).getPageNumber());
+        assertEquals("35", seek.page(2).page(8).getCurrent());
+
+        pagination = fetch(seek, 100);
+        assertPage(pagination, 8, true, true, 9, 40, "35");  // pages 3 through 7 are counted as full
+        assertEquals("40", pagination.next().getCurrent());
+        assertEquals(3, pagination.previous().getPageNumber());  // pages 4 through 7 are still unknown
+        assertEquals(0, pagination.getCount(5));
+        assertEquals(5, pagination.getCount(8));
+
+        pagination = fetch(pagination.previous(), 100);
+        assertPage(pagination, 3, true, true, 9, 40, "10");  // visiting a skipped page doesn't change the total
+
+        assertEquals("5", pagination.seek(2, "99").getCurrent());  // a known cursor is exact, so it wins
+
+        try {
+            pagination.seek(0, "0");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Test relocating the current page in place. */
+    @Test public void testRelocate() {
+        Pagination pagination = fetch(new Pagination(5), 100);
+        pagination = fetch(pagination.next(), 100);
+        pagination = pagination.next();
+
+        pagination.relocate("seek:5:5");
+        assertEquals(3, pagination.getPageNumber());
+        assertEquals("seek:5:5", pagination.getCurrent());
+        assertEquals("seek:5:5", pagination.getCursor(3));
+        assertEquals("5", pagination.getCursor(2));
+
+        pagination.relocate(null);
+        assertNull(pagination.getCurrent());
+        assertEquals("seek:5:5", pagination.getCursor(3));
+    }
+
+    /** Simulate fetching the page described by the pagination, over a result set with a certain number of rows. */
+    private static Pagination fetch(Pagination pagination, int rows) {
+        int offset = pagination.getCurrent() == null ? 0 : Integer.parseInt(pagination.getCurrent());
+        int count = Math.min(pagination.getPageSize(), rows - offset);
+        String next = offset + count < rows ? String.valueOf(offset + count) : null;
+        Pagination result = pagination.copy();
+        result.update(String.valueOf(offset), next, count);
+        return result;
+    }
+
+    /** Check the state of pagination after a fetch. */
+    private static void assertPage(Pagination pagination, int pageNumber, boolean hasPrevious, boolean hasNext,
+                                   int totalPages, int totalRows, String current) {
+        assertEquals(pageNumber, pagination.getPageNumber());
+        assertEquals(hasPrevious, pagination.hasPrevious());
+        assertEquals(hasNext, pagination.hasNext());
+        assertEquals(totalPages, pagination.getTotalPages());
+        assertEquals(totalRows, pagination.getTotalRows());
+        assertEquals(current, pagination.getCurrent());
     }
 
     /** Test equals(). */
@@ -0,0 +1,105 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.cedarsolutions.dao.gae.IPayloadCodec;
+import com.cedarsolutions.dao.gae.domain.AbstractCodecContainer;
+
+/**
+ * Unit tests for AbstractCodecContainer.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class AbstractCodecContainerTest {
+
+    /** Test a round trip through the container. */
+    @Test public void testRoundTrip() {
+        StubPayload value = StubPayload.create(1, 3, 10);
+
+        StubContainer container = new StubContainer(PayloadCodecs.getCodec(PayloadCodecs.FORMAT_COMPACT), true);
+        container.fromValue(value);
+        assertEquals(PayloadCodecs.FORMAT_COMPACT, PayloadCodecs.getFormat(container.getPayload().getBytes()));
+        assertTrue(PayloadCodecs.isCompressed(container.getPayload().getBytes()));
+        assertEquals(value, container.toValue());
+
+        container = new StubContainer(PayloadCodecs.getCodec(PayloadCodecs.FORMAT_GSON), false);
+        container.fromValue(value);
+        assertEquals(PayloadCodecs.FORMAT_GSON, PayloadCodecs.getFormat(container.getPayload().getBytes()));
+        assertFalse(PayloadCodecs.isCompressed(container.getPayload().getBytes()));
+        assertEquals(value, container.toValue());
+    }
+
+    /** Test that a payload written by one codec can still be read after the container switches codecs. */
+    @Test public void testSwitchCodec() {
+        StubPayload value = StubPayload.create(2, 3, 10);
+
+        StubContainer original = new StubContainer(PayloadCodecs.getCodec(PayloadCodecs.FORMAT_JAVA), true);
+        original.fromValue(value);
+
+        StubContainer container = new StubContainer(PayloadCodecs.getCodec(PayloadCodecs.FORMAT_COMPACT), true);
+        container.setPayload(original.getPayload());
+        assertEquals(value, container.toValue());
+    }
+
+    /** Test null values. */
+    @Test public void testNull() {
+        StubContainer container = new StubContainer(PayloadCodecs.getCodec(PayloadCodecs.FORMAT_COMPACT), true);
+        container.fromValue(null);
+        assertNull(container.getPayload());
+        assertNull(container.toValue());
+    }
+
+    /** Container used for testing. */
+    private static class StubContainer extends AbstractCodecContainer<StubPayload> {
+        private static final long serialVersionUID = 1L;
+        private transient IPayloadCodec codec;
+        private transient boolean compressed;
+
+        public StubContainer(IPayloadCodec codec, boolean compressed) {
+            this.codec = codec;
+            this.compressed = compressed;
+        }
+
+        @Override
+        protected Class<StubPayload> getValueType() {
+            return StubPayload.class;
+        }
+
+        @Override
+        protected IPayloadCodec getCodec() {
+            return this.codec;
+        }
+
+        @Override
+        protected boolean isCompressed() {
+            return this.compressed;
+        }
+    }
+
+}
@@ -29,21 +29,36 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import org.junit.Test;
 
 import com.cedarsolutions.dao.IDaoTransaction;
+import com.cedarsolutions.dao.IUnitOfWork;
+import com.cedarsolutions.dao.TransactionRunner;
 import com.cedarsolutions.dao.domain.PaginatedResults;
 import com.cedarsolutions.dao.domain.Pagination;
 import com.cedarsolutions.dao.domain.SortOrder;
+import com.cedarsolutions.dao.gae.IDaoMetricsSink;
 import com.cedarsolutions.dao.gae.IDaoObjectifyService;
+import com.cedarsolutions.dao.gae.IDeleteListener;
+import com.cedarsolutions.dao.gae.IFilterPredicate;
 import com.cedarsolutions.exception.NotConfiguredException;
 import com.cedarsolutions.util.DateUtils;
 import com.googlecode.objectify.Query;
@@ -63,6 +78,22 @@ public class AbstractGaeDaoTest extends DaoTestCase {
         DaoObjectifyService daoObjectifyService = mock(DaoObjectifyService.class);
         dao.setDaoObjectifyService(daoObjectifyService);
         assertSame(daoObjectifyService, dao.getDaoObjectifyService());
+
+        assertNotNull(dao.getTransactionRunner());
+        TransactionRunner transactionRunner = new TransactionRunner();
+        dao.setTransactionRunner(transactionRunner);
+        assertSame(transactionRunner, dao.getTransactionRunner());
+
+        assertSame(NoOpMetricsSink.INSTANCE, dao.getMetricsSink());
+        InMemoryMetricsSink metricsSink = new InMemoryMetricsSink();
+        dao.setMetricsSink(metricsSink);
+        assertSame(metricsSink, dao.getMetricsSink());
+        assertEquals("StringIdEntityDao", dao.getMetricsName());
+
+        assertNull(dao.getQueryResultCache());
+        QueryResultCache queryResultCache = new QueryResultCache(new KindVersions());
+        dao.setQueryResultCache(queryResultCache);
+        assertSame(queryResultCache, dao.getQueryResultCache());
     }
 
     /** Test the afterPropertiesSet() method. */
@@ -78,6 +109,20 @@ public class AbstractGaeDaoTest extends DaoTestCase {
             dao.afterPropertiesSet();
             fail("Expected NotConfiguredException");
         } catch (NotConfiguredException e) { }
+
+        try {
+            dao.setDaoObjectifyService(daoObjectifyService);
+            dao.setTransactionRunner(null);
+            dao.afterPropertiesSet();
+            fail("Expected NotConfiguredException");
+        } catch (NotConfiguredException e) { }
+
+        try {
+            dao.setTransactionRunner(new TransactionRunner());
+            dao.setMetricsSink(null);
+            dao.afterPropertiesSet();
+            fail("Expected NotConfiguredException");
+        } catch (NotConfiguredException e) { }
     }
 
     /** Test getObjectify(). */
@@ -91,6 +136,107 @@ public class AbstractGaeDaoTest extends DaoTestCase {
         dao.afterPropertiesSet();
 
         assertSame(objectify, dao.getObjectify());
+        verify(objectify, never()).setMetrics(any(IDaoMetricsSink.class), anyString());
+    }
+
+    /** Test that getObjectify() tags the proxy for metrics when a sink is enabled. */
+    @Test public void testGetObjectifyMetrics() throws Exception {
+        ObjectifyProxy objectify = mock(ObjectifyProxy.class);
+        ObjectifyProxy transactional = mock(ObjectifyProxy.class);
+        DaoObjectifyService daoObjectifyService = mock(DaoObjectifyService.class);
+        when(daoObjectifyService.getObjectify()).thenReturn(objectify);
+        when(daoObjectifyService.getObjectifyWithTransaction()).thenReturn(transactional);
+
+        InMemoryMetricsSink metricsSink = new InMemoryMetricsSink();
+        StringIdEntityDao dao = new StringIdEntityDao();
+        dao.setDaoObjectifyService(daoObjectifyService);
+        dao.setMetricsSink(metricsSink);
+        dao.afterPropertiesSet();
+
+        assertSame(objectify, dao.getObjectify());
+        verify(objectify).setMetrics(metricsSink, "StringIdEntityDao");
+
+        assertSame(transactional, dao.getObjectifyWithTransaction());
+        verify(transactional).setMetrics(metricsSink, "StringIdEntityDao");
+    }
+
+    /** Test that createPaginatedResults() reports the query when a sink is enabled. */
+    @Test public void testCreatePaginatedResultsMetrics() throws Exception {
+        List<Integer> list = new ArrayList<Integer>();
+        for (int i = 0; i < 10; i++) {
+            list.add(i);
+        }
+
+        InMemoryMetricsSink metricsSink = new InMemoryMetricsSink();
+        StringIdEntityDao dao = new StringIdEntityDao();
+        dao.setMetricsSink(metricsSink);
+
+        Pagination pagination = new Pagination(3);
+        FilteredResultIterator<Integer> iterator = new FilteredResultIterator<Integer>(StubQuery.create(list), new NoOpFilterPredicate<Integer>());
+        PaginatedResults<Integer> results = dao.createPaginatedResults("retrieveNumbers", pagination, iterator);
+        assertEquals(3, results.size());
+
+        DaoMetrics metrics = metricsSink.getMetrics("StringIdEntityDao", "retrieveNumbers");
+        assertEquals(1, metrics.getExecutions());
+        assertEquals(4, metrics.getRowsScanned());  // one row of lookahead
+        assertEquals(4, metrics.getRowsAccepted());
+        assertEquals(4, metrics.getEntitiesFetchedByQuery());
+        assertTrue(metrics.getCursorSerializations() > 0);
+
+        metricsSink.setEnabled(false);
+        iterator = new FilteredResultIterator<Integer>(StubQuery.create(list), new NoOpFilterPredicate<Integer>());
+        dao.createPaginatedResults("retrieveNumbers", pagination, iterator);
+        assertEquals(1, metricsSink.getMetrics("StringIdEntityDao", "retrieveNumbers").getExecutions());
+    }
+
+    /** Test createCachedResults(), with and without a query result cache. */
+    @Test public void testCreateCachedResults() throws Exception {
+        final List<Integer> list = Arrays.asList(1, 2, 3, 4, 5);
+        final int[] opened = new int[1];
+        IPageSource<Integer> source = new IPageSource<Integer>() {
+            @Override
+            public IIteratorWithCursor<Integer> open(Pagination pagination) {
+                opened[0] += 1;
+                return new FilteredResultIterator<Integer>(StubQuery.create(list), new NoOpFilterPredicate<Integer>());
+            }
+        };
+
+        StringIdEntityDao dao = new StringIdEntityDao();
+        Pagination pagination = new Pagination(3);
+        assertEquals(Arrays.asList(1, 2, 3), dao.createCachedResults(StringIdEntity.class, "criteria", pagination, source));
+        assertEquals(Arrays.asList(1, 2, 3), dao.createCachedResults(StringIdEntity.class, "criteria", pagination, source));
+        assertEquals(2, opened[0]);
+
+        dao.setQueryResultCache(new QueryResultCache(new KindVersions()));
+        assertEquals(Arrays.asList(1, 2, 3), dao.createCachedResults(StringIdEntity.class, "criteria", pagination, source));
+        assertEquals(Arrays.asList(1, 2, 3), dao.createCachedResults(StringIdEntity.class, "criteria", pagination, source));
+        assertEquals(3, opened[0]);
+        assertEquals(1, dao.getQueryResultCache().getHits());
+    }
+
+    /** Test createBulkDeleter(). */
+    @Test public void testCreateBulkDeleter() throws Exception {
+        DaoObjectifyService daoObjectifyService = mock(DaoObjectifyService.class);
+        ExecutorService executor = mock(ExecutorService.class);
+        IDeleteListener listener = mock(IDeleteListener.class);
+
+        StringIdEntityDao dao = new StringIdEntityDao();
+        dao.setDaoObjectifyService(daoObjectifyService);
+        dao.afterPropertiesSet();
+
+        BulkDeleter deleter = dao.createBulkDeleter(executor);
+        assertSame(daoObjectifyService, deleter.getDaoObjectifyService());
+        assertSame(executor, deleter.getExecutor());
+        assertEquals(BulkDeleter.DEFAULT_BATCH_SIZE, deleter.getBatchSize());
+        assertEquals(BulkDeleter.DEFAULT_CONCURRENCY, deleter.getConcurrency());
+        assertNull(deleter.getListener());
+
+        deleter = dao.createBulkDeleter(executor, 100, 8, 10, listener);
+        assertSame(daoObjectifyService, deleter.getDaoObjectifyService());
+        assertEquals(100, deleter.getBatchSize());
+        assertEquals(8, deleter.getConcurrency());
+        assertEquals(10, deleter.getCheckpointInterval());
+        assertSame(listener, deleter.getListener());
     }
 
     /** Test getDaoTransaction(). */
@@ -111,6 +257,30 @@ public class AbstractGaeDaoTest extends DaoTestCase {
         assertSame(objectify, gaeTransaction.getObjectify());
     }
 
+    /** Test runInTransaction(). */
+    @Test public void testRunInTransaction() throws Exception {
+        ObjectifyProxy objectify = mock(ObjectifyProxy.class);
+        when(objectify.isTransactional()).thenReturn(true);
+        DaoObjectifyService daoObjectifyService = mock(DaoObjectifyService.class);
+        when(daoObjectifyService.getObjectifyWithTransaction()).thenReturn(objectify);
+
+        StringIdEntityDao dao = new StringIdEntityDao();
+        dao.setDaoObjectifyService(daoObjectifyService);
+        dao.afterPropertiesSet();
+
+        String result = dao.runInTransaction(new IUnitOfWork<String>() {
+            @Override
+            public String execute(IDaoTransaction transaction) {
+                assertTrue(transaction instanceof GaeDaoTransaction);
+                return "result";
+            }
+        });
+
+        assertEquals("result", result);
+        verify(objectify).commit();
+        assertEquals(1, dao.getTransactionRunner().getRuns());
+    }
+
     /** Test getGaeTransaction(). */
     @Test public void testGetGaeTransaction() throws Exception {
         ObjectifyProxy objectify = mock(ObjectifyProxy.class);
@@ -143,6 +313,75 @@ public class AbstractGaeDaoTest extends DaoTestCase {
         verify(query).order("-field");
     }
 
+    /** Test createSortedQuery() for each kind of sort. */
+    @SuppressWarnings("unchecked")
+    @Test public void testCreateSortedQuery() throws Exception {
+        Query<StringIdEntity> query = mock(Query.class);
+        ObjectifyProxy objectify = mock(ObjectifyProxy.class);
+        when(objectify.query(StringIdEntity.class)).thenReturn(query);
+        when(objectify.query(any(Class.class), any(Pagination.class))).thenReturn(query);
+        DaoObjectifyService daoObjectifyService = mock(DaoObjectifyService.class);
+        when(daoObjectifyService.getObjectify()).thenReturn(objectify);
+
+        StringIdEntityDao dao = new StringIdEntityDao();
+        dao.setDaoObjectifyService(daoObjectifyService);
+        dao.afterPropertiesSet();
+
+        Pagination pagination = new Pagination(10);
+        MultiColumnSort<StringIdEntity> sort = createSort(new HashSet<String>(Arrays.asList("timestamp")));
+        assertSame(query, dao.createSortedQuery(StringIdEntity.class, pagination, sort));
+        verify(objectify).query(StringIdEntity.class);  // the in-memory sort must see every row
+        verify(objectify, never()).query(StringIdEntity.class, pagination);
+        verify(query).order("timestamp");
+        verify(query, never()).order("-id");
+
+        sort = createSort(new HashSet<String>(Arrays.asList("timestamp,-id")));
+        assertSame(query, dao.createSortedQuery(StringIdEntity.class, pagination, sort));
+        verify(objectify).query(StringIdEntity.class, pagination);
+        verify(query).order("-id");
+
+        pagination.update("sort:0", "sort:10", 10);
+        pagination = pagination.next();
+        dao.createSortedQuery(StringIdEntity.class, pagination, sort);
+        verify(objectify, times(2)).query(StringIdEntity.class);  // a synthetic cursor from an earlier in-memory sort
+        verify(query, never()).offset(anyInt());  // the rows are skipped by createSortedResults()
+    }
+
+    /** Test that createSortedResults() skips to the page for a synthetic cursor, counting only accepted rows. */
+    @Test public void testCreateSortedResultsOffset() {
+        List<StringIdEntity> rows = new ArrayList<StringIdEntity>();
+        for (int i = 0; i < 10; i++) {
+            rows.add(new StringIdEntity(i % 2 == 0 ? "even" + i : "odd" + i, null));
+        }
+
+        Pagination pagination = new Pagination(2);
+        pagination.update("sort:0", "sort:2", 2);
+        pagination = pagination.next();
+
+        MultiColumnSort<StringIdEntity> sort = createSort(new HashSet<String>(Arrays.asList("timestamp,-id")));
+        FilteredResultIterator<StringIdEntity> iterator = new FilteredResultIterator<StringIdEntity>(StubQuery.create(rows), new EvenPredicate());
+        PaginatedResults<StringIdEntity> results = new StringIdEntityDao().createSortedResults(pagination, iterator, sort);
+        assertEquals(2, results.size());
+        assertEquals("even4", results.get(0).getId());
+        assertEquals("even6", results.get(1).getId());
+        assertEquals(4, StubQuery.offset(results.getPagination().getCurrent()));  // a real cursor from now on
+        assertEquals(8, StubQuery.offset(results.getPagination().getCursor(3)));
+    }
+
+    /** Create a sort on timestamp, then id descending. */
+    private static MultiColumnSort<StringIdEntity> createSort(Set<String> indexes) {
+        Comparator<StringIdEntity> comparator = new Comparator<StringIdEntity>() {
+            @Override
+            public int compare(StringIdEntity o1, StringIdEntity o2) {
+                return 0;
+            }
+        };
+
+        return new MultiColumnSort<StringIdEntity>(indexes)
+                    .add("timestamp", SortOrder.ASCENDING, comparator)
+                    .add("id", SortOrder.DESCENDING, comparator);
+    }
+
     /** Verify the behavior of StringIdEntityDao. */
     @Test public void testStringIdEntityDao() {
         StringIdEntity result = null;
@@ -770,4 +1009,12 @@ public class AbstractGaeDaoTest extends DaoTestCase {
         return dao;
     }
 
+    /** Predicate that accepts entities whose id starts with "even". */
+    private static class EvenPredicate implements IFilterPredicate<StringIdEntity> {
+        @Override
+        public boolean evaluate(StringIdEntity value) {
+            return value.getId().startsWith("even");
+        }
+    }
+
 }
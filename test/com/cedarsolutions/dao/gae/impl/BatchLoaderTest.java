@@ -0,0 +1,252 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.cedarsolutions.dao.gae.IBatchLoadCallback;
+import com.googlecode.objectify.Key;
+
+/**
+ * Unit tests for BatchLoader.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class BatchLoaderTest {
+
+    /** Test the constructors. */
+    @Test public void testConstructor() {
+        ObjectifyProxy objectify = mock(ObjectifyProxy.class);
+        BatchLoader loader = new BatchLoader(objectify);
+        assertSame(objectify, loader.getObjectify());
+        assertEquals(BatchLoader.DEFAULT_MAX_BATCH_SIZE, loader.getMaxBatchSize());
+        assertEquals(0, loader.getPendingCount());
+        assertEquals(0, loader.getLookups());
+        assertEquals(0, loader.getDuplicates());
+        assertEquals(0, loader.getBatches());
+
+        try {
+            new BatchLoader(null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            new BatchLoader(objectify, 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Test that lookups are deduplicated and resolved with a single batch get. */
+    @Test public void testLoad() throws Exception {
+        Map<Key<?>, Object> datastore = createDatastore(5);
+        ObjectifyProxy objectify = createObjectify(datastore);
+        BatchLoader loader = new BatchLoader(objectify);
+
+        List<Future<IntegerIdEntity>> futures = new ArrayList<Future<IntegerIdEntity>>();
+        for (long id : new long[] { 1, 2, 1, 3, 99, 2, }) {
+            futures.add(loader.<IntegerIdEntity>load(IntegerIdEntity.class, id));
+        }
+
+        Future<StringIdEntity> named = loader.load(StringIdEntity.class, "one");
+
+        assertEquals(5, loader.getPendingCount());
+        assertEquals(7, loader.getLookups());
+        assertEquals(2, loader.getDuplicates());
+        assertSame(futures.get(0), futures.get(2));
+        assertFalse(futures.get(0).isDone());
+        verify(objectify, never()).get(any(Iterable.class));
+
+        assertSame(datastore.get(new Key<IntegerIdEntity>(IntegerIdEntity.class, 1)), futures.get(0).get());  // dispatches
+        assertTrue(futures.get(5).isDone());
+        assertSame(datastore.get(new Key<IntegerIdEntity>(IntegerIdEntity.class, 2)), futures.get(5).get());
+        assertSame(datastore.get(new Key<IntegerIdEntity>(IntegerIdEntity.class, 3)), futures.get(3).get(1, TimeUnit.SECONDS));
+        assertNull(futures.get(4).get());  // not found
+        assertSame(datastore.get(new Key<StringIdEntity>(StringIdEntity.class, "one")), named.get());
+        assertEquals(0, loader.getPendingCount());
+        assertEquals(1, loader.getBatches());
+        verify(objectify, times(1)).get(any(Iterable.class));
+
+        // Resolved keys are remembered, until the loader is cleared
+        assertSame(futures.get(0), loader.load(new Key<IntegerIdEntity>(IntegerIdEntity.class, 1)));
+        loader.dispatch();
+        assertEquals(1, loader.getBatches());
+
+        loader.clear();
+        Future<IntegerIdEntity> future = loader.load(new Key<IntegerIdEntity>(IntegerIdEntity.class, 1));
+        assertFalse(future.isDone());
+        future.get();
+        assertEquals(2, loader.getBatches());
+    }
+
+    /** Test callbacks, including callbacks that queue more lookups. */
+    @Test public void testCallbacks() throws Exception {
+        Map<Key<?>, Object> datastore = createDatastore(5);
+        ObjectifyProxy objectify = createObjectify(datastore);
+        final BatchLoader loader = new BatchLoader(objectify);
+
+        final List<Object> loaded = new ArrayList<Object>();
+        final IBatchLoadCallback<Object> callback = new IBatchLoadCallback<Object>() {
+            @Override
+            public void loaded(Object entity) {
+                loaded.add(entity);
+            }
+        };
+
+        loader.load(new Key<IntegerIdEntity>(IntegerIdEntity.class, 1), callback);
+        loader.load(new Key<IntegerIdEntity>(IntegerIdEntity.class, 1), callback);
+        loader.load(new Key<IntegerIdEntity>(IntegerIdEntity.class, 2), new IBatchLoadCallback<IntegerIdEntity>() {
+            @Override
+            public void loaded(IntegerIdEntity entity) {
+                loader.load(new Key<IntegerIdEntity>(IntegerIdEntity.class, 4), callback);
+            }
+        });
+
+        assertTrue(loaded.isEmpty());
+        loader.dispatch();
+        assertEquals(2, loaded.size());
+        assertSame(datastore.get(new Key<IntegerIdEntity>(IntegerIdEntity.class, 1)), loaded.get(1));
+        assertEquals(1, loader.getPendingCount());  // queued by the callback
+
+        loader.dispatch();
+        assertEquals(3, loaded.size());
+        assertSame(datastore.get(new Key<IntegerIdEntity>(IntegerIdEntity.class, 4)), loaded.get(2));
+        assertEquals(2, loader.getBatches());
+
+        loader.load(new Key<IntegerIdEntity>(IntegerIdEntity.class, 4), callback);  // already resolved
+        assertEquals(4, loaded.size());
+    }
+
+    /** Test that the batch is dispatched once it reaches the maximum size. */
+    @Test public void testMaxBatchSize() throws Exception {
+        ObjectifyProxy objectify = createObjectify(createDatastore(10));
+        BatchLoader loader = new BatchLoader(objectify, 3);
+        for (long id = 0; id < 7; id++) {
+            loader.load(IntegerIdEntity.class, id);
+        }
+
+        assertEquals(2, loader.getBatches());
+        assertEquals(1, loader.getPendingCount());
+    }
+
+    /** Test a failed batch get. */
+    @SuppressWarnings("unchecked")
+    @Test public void testFailure() throws Exception {
+        ObjectifyProxy objectify = mock(ObjectifyProxy.class);
+        RuntimeException failure = new RuntimeException("Hello");
+        when(objectify.get(any(Iterable.class))).thenThrow(failure);
+
+        BatchLoader loader = new BatchLoader(objectify);
+        Future<IntegerIdEntity> future = loader.load(IntegerIdEntity.class, 1);
+        try {
+            future.get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+
+        assertTrue(future.isDone());
+        assertFalse(future.cancel(true));
+        assertFalse(future.isCancelled());
+
+        try {
+            loader.load(IntegerIdEntity.class, 2);
+            loader.dispatch();
+            fail("Expected RuntimeException");
+        } catch (RuntimeException e) {
+            assertSame(failure, e);
+        }
+
+        assertNotSame(future, loader.load(IntegerIdEntity.class, 1));  // failed lookups are not remembered
+    }
+
+    /** Test AbstractGaeDao.createBatchLoader(). */
+    @Test public void testCreateBatchLoader() throws Exception {
+        ObjectifyProxy objectify = mock(ObjectifyProxy.class);
+        DaoObjectifyService daoObjectifyService = mock(DaoObjectifyService.class);
+        when(daoObjectifyService.getObjectify()).thenReturn(objectify);
+
+        StringIdEntityDao dao = new StringIdEntityDao();
+        dao.setDaoObjectifyService(daoObjectifyService);
+        dao.afterPropertiesSet();
+
+        assertSame(objectify, dao.createBatchLoader().getObjectify());
+    }
+
+    /** Create a fake datastore with integer ids 0 to count - 1 and one named entity. */
+    private static Map<Key<?>, Object> createDatastore(int count) {
+        Map<Key<?>, Object> datastore = new HashMap<Key<?>, Object>();
+        for (int id = 0; id < count; id++) {
+            datastore.put(new Key<IntegerIdEntity>(IntegerIdEntity.class, id), new IntegerIdEntity());
+        }
+
+        datastore.put(new Key<StringIdEntity>(StringIdEntity.class, "one"), new StringIdEntity("one", new Date()));
+        return datastore;
+    }
+
+    /** Create a mocked Objectify proxy whose batch get returns entities from a fake datastore. */
+    @SuppressWarnings("unchecked")
+    private static ObjectifyProxy createObjectify(final Map<Key<?>, Object> datastore) {
+        ObjectifyProxy objectify = mock(ObjectifyProxy.class);
+        when(objectify.get(any(Iterable.class))).thenAnswer(new Answer<Map<Key<?>, Object>>() {
+            @Override
+            public Map<Key<?>, Object> answer(InvocationOnMock invocation) {
+                Map<Key<?>, Object> result = new LinkedHashMap<Key<?>, Object>();
+                for (Key<?> key : (Iterable<Key<?>>) invocation.getArguments()[0]) {
+                    if (datastore.containsKey(key)) {
+                        result.put(key, datastore.get(key));
+                    }
+                }
+
+                return result;
+            }
+        });
+
+        return objectify;
+    }
+
+}
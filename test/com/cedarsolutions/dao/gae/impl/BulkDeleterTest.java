@@ -0,0 +1,334 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.cedarsolutions.dao.gae.IDaoObjectifyService;
+import com.cedarsolutions.dao.gae.IDeleteListener;
+import com.cedarsolutions.exception.DaoException;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Query;
+
+/**
+ * Unit tests for BulkDeleter.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class BulkDeleterTest {
+
+    /** Executor used by the tests. */
+    private ExecutorService executor;
+
+    /** Create the executor. */
+    @Before public void setUp() {
+        this.executor = Executors.newFixedThreadPool(2);
+    }
+
+    /** Shut down the executor. */
+    @After public void tearDown() throws Exception {
+        this.executor.shutdownNow();
+        assertTrue(this.executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /** Test the constructors. */
+    @Test public void testConstructor() {
+        IDaoObjectifyService service = mock(IDaoObjectifyService.class);
+        StubListener listener = new StubListener();
+
+        BulkDeleter deleter = new BulkDeleter(service, this.executor);
+        assertSame(service, deleter.getDaoObjectifyService());
+        assertSame(this.executor, deleter.getExecutor());
+        assertEquals(BulkDeleter.DEFAULT_BATCH_SIZE, deleter.getBatchSize());
+        assertEquals(BulkDeleter.DEFAULT_CONCURRENCY, deleter.getConcurrency());
+        assertEquals(BulkDeleter.DEFAULT_CHECKPOINT_INTERVAL, deleter.getCheckpointInterval());
+        assertNull(deleter.getListener());
+        assertEquals(0, deleter.getKeysDeleted());
+        assertEquals(0, deleter.getBatches());
+        assertEquals(0, deleter.getCheckpoints());
+        assertNull(deleter.getCheckpoint());
+        assertEquals(0, deleter.getElapsedMillis());
+        assertEquals(0.0, deleter.getKeysPerSecond(), 0.0);
+
+        deleter = new BulkDeleter(service, this.executor, 3, 2, 5, listener);
+        assertEquals(3, deleter.getBatchSize());
+        assertEquals(2, deleter.getConcurrency());
+        assertEquals(5, deleter.getCheckpointInterval());
+        assertSame(listener, deleter.getListener());
+
+        try {
+            new BulkDeleter(null, this.executor);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            new BulkDeleter(service, null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            new BulkDeleter(service, this.executor, 0, 2, 5, listener);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            new BulkDeleter(service, this.executor, 3, 0, 5, listener);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            new BulkDeleter(service, this.executor, 3, 2, 0, listener);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Test deleting every key, in batches, with a checkpoint after each batch. */
+    @Test public void testDelete() {
+        StubService service = new StubService(-1);
+        StubListener listener = new StubListener();
+        StubQuery.Statistics statistics = new StubQuery.Statistics();
+        Query<IntegerIdEntity> query = createQuery(10, statistics);
+
+        BulkDeleter deleter = new BulkDeleter(service.mock, this.executor, 3, 2, 1, listener);
+        assertEquals(10, deleter.delete(query));
+        assertEquals(10, deleter.getKeysDeleted());
+        assertEquals(4, deleter.getBatches());
+        assertEquals(1, statistics.getExecutions());
+        assertEquals(Collections.singletonList(3), statistics.getChunkSizes());
+
+        assertEquals(4, service.batches.size());
+        assertEquals(10, service.getDeleted().size());
+        assertTrue(service.getDeleted().containsAll(createKeys(10)));
+
+        // the last batch is not a checkpoint, since there is nothing left to resume
+        assertEquals(3, deleter.getCheckpoints());
+        assertEquals(3, listener.cursors.size());
+        assertEquals(3, StubQuery.offset(listener.cursors.get(0)));
+        assertEquals(6, StubQuery.offset(listener.cursors.get(1)));
+        assertEquals(9, StubQuery.offset(listener.cursors.get(2)));
+        assertEquals(listener.cursors.get(2), deleter.getCheckpoint());
+        assertEquals(1, listener.finished);
+    }
+
+    /** Test the checkpoint interval. */
+    @Test public void testCheckpointInterval() {
+        StubListener listener = new StubListener();
+        BulkDeleter deleter = new BulkDeleter(new StubService(-1).mock, this.executor, 2, 3, 2, listener);
+        assertEquals(9, deleter.delete(createQuery(9, new StubQuery.Statistics())));
+        assertEquals(5, deleter.getBatches());
+        assertEquals(2, deleter.getCheckpoints());
+        assertEquals(4, StubQuery.offset(listener.cursors.get(0)));
+        assertEquals(8, StubQuery.offset(listener.cursors.get(1)));
+    }
+
+    /** Test resuming a delete from a checkpoint. */
+    @Test public void testResume() {
+        StubService service = new StubService(-1);
+        BulkDeleter deleter = new BulkDeleter(service.mock, this.executor, 3, 2, 1, null);
+        assertEquals(4, deleter.delete(createQuery(10, new StubQuery.Statistics()), StubQuery.cursor(6).toWebSafeString()));
+        assertEquals(new HashSet<Key<?>>(createKeys(10).subList(6, 10)), new HashSet<Key<?>>(service.getDeleted()));
+    }
+
+    /** Test that an empty query deletes nothing. */
+    @Test public void testDeleteEmpty() {
+        StubService service = new StubService(-1);
+        StubListener listener = new StubListener();
+        BulkDeleter deleter = new BulkDeleter(service.mock, this.executor, 3, 2, 1, listener);
+        assertEquals(0, deleter.delete(createQuery(0, new StubQuery.Statistics())));
+        assertEquals(0, deleter.getBatches());
+        assertTrue(service.batches.isEmpty());
+        assertTrue(listener.cursors.isEmpty());
+        assertEquals(1, listener.finished);
+    }
+
+    /** Test that a failed batch is reported, and that the last checkpoint can be used to resume. */
+    @Test public void testDeleteFailure() {
+        StubService service = new StubService(2);
+        StubListener listener = new StubListener();
+        ExecutorService single = Executors.newSingleThreadExecutor();  // run the batches in a predictable order
+        try {
+            BulkDeleter deleter = new BulkDeleter(service.mock, single, 3, 1, 1, listener);
+            try {
+                deleter.delete(createQuery(10, new StubQuery.Statistics()));
+                fail("Expected DaoException");
+            } catch (DaoException e) {
+                assertEquals(3, deleter.getKeysDeleted());
+                assertEquals(1, deleter.getCheckpoints());
+                assertEquals(3, StubQuery.offset(deleter.getCheckpoint()));
+                assertEquals(0, listener.finished);
+            }
+
+            service = new StubService(-1);
+            deleter = new BulkDeleter(service.mock, single, 3, 1, 1, null);
+            assertEquals(7, deleter.delete(createQuery(10, new StubQuery.Statistics()), listener.cursors.get(0)));
+            assertEquals(new HashSet<Key<?>>(createKeys(10).subList(3, 10)), new HashSet<Key<?>>(service.getDeleted()));
+        } finally {
+            single.shutdownNow();
+        }
+    }
+
+    /** Test that deleted keys are removed from the calling thread's identity map. */
+    @Test public void testIdentityMap() {
+        RequestIdentityMap identityMap = RequestIdentityMap.begin();
+        try {
+            Key<IntegerIdEntity> key = new Key<IntegerIdEntity>(IntegerIdEntity.class, 2);
+            identityMap.put(key, new IntegerIdEntity(2, null));
+            assertEquals(1, identityMap.size());
+
+            BulkDeleter deleter = new BulkDeleter(new StubService(-1).mock, this.executor, 3, 2, 1, null);
+            deleter.delete(createQuery(5, new StubQuery.Statistics()));
+            assertEquals(0, identityMap.size());
+        } finally {
+            RequestIdentityMap.end();
+        }
+    }
+
+    /** Test the throughput counters. */
+    @Test public void testStatistics() {
+        final long[] now = new long[] { 1000L, };
+        StubListener listener = new StubListener() {
+            @Override
+            public void checkpoint(String cursor, BulkDeleter deleter) {
+                now[0] += 500L;
+                assertEquals(500L * deleter.getCheckpoints(), deleter.getElapsedMillis());
+                super.checkpoint(cursor, deleter);
+            }
+        };
+
+        BulkDeleter deleter = new BulkDeleter(new StubService(-1).mock, this.executor, 2, 2, 1, listener) {
+            @Override
+            protected long currentTimeMillis() {
+                return now[0];
+            }
+        };
+
+        deleter.delete(createQuery(10, new StubQuery.Statistics()));
+        assertEquals(10, deleter.getKeysDeleted());
+        assertEquals(4, deleter.getCheckpoints());
+        assertEquals(2000L, deleter.getElapsedMillis());
+        assertEquals(5.0, deleter.getKeysPerSecond(), 0.0);
+
+        now[0] += 10000L;  // elapsed time stops at the end of the delete
+        assertEquals(2000L, deleter.getElapsedMillis());
+    }
+
+    /** Create a query with a certain number of keys. */
+    private static Query<IntegerIdEntity> createQuery(int rows, StubQuery.Statistics statistics) {
+        List<IntegerIdEntity> list = new ArrayList<IntegerIdEntity>();
+        for (int i = 1; i <= rows; i++) {
+            list.add(new IntegerIdEntity(i, null));
+        }
+
+        return StubQuery.create(list, createKeys(rows), statistics);
+    }
+
+    /** Create a list of keys. */
+    private static List<Key<IntegerIdEntity>> createKeys(int rows) {
+        List<Key<IntegerIdEntity>> keys = new ArrayList<Key<IntegerIdEntity>>();
+        for (int i = 1; i <= rows; i++) {
+            keys.add(new Key<IntegerIdEntity>(IntegerIdEntity.class, i));
+        }
+
+        return keys;
+    }
+
+    /** Objectify service whose proxies record deleted batches, optionally failing one batch. */
+    private static class StubService {
+        private final IDaoObjectifyService mock = mock(IDaoObjectifyService.class);
+        private final List<List<Key<?>>> batches = Collections.synchronizedList(new ArrayList<List<Key<?>>>());
+
+        @SuppressWarnings("unchecked")
+        public StubService(final int failingBatch) {
+            ObjectifyProxy proxy = mock(ObjectifyProxy.class);
+            when(this.mock.getObjectify()).thenReturn(proxy);
+            doAnswer(new Answer<Void>() {
+                @Override
+                public Void answer(InvocationOnMock invocation) throws Throwable {
+                    List<Key<?>> batch = new ArrayList<Key<?>>();
+                    for (Object key : (Iterable<Object>) invocation.getArguments()[0]) {
+                        batch.add((Key<?>) key);
+                    }
+
+                    synchronized (StubService.this.batches) {
+                        if (StubService.this.batches.size() == failingBatch - 1) {
+                            throw new RuntimeException("Hello");
+                        }
+
+                        StubService.this.batches.add(batch);
+                    }
+
+                    return null;
+                }
+            }).when(proxy).delete(any(Iterable.class));
+        }
+
+        public List<Key<?>> getDeleted() {
+            List<Key<?>> deleted = new ArrayList<Key<?>>();
+            synchronized (this.batches) {
+                for (List<Key<?>> batch : this.batches) {
+                    deleted.addAll(batch);
+                }
+            }
+
+            return deleted;
+        }
+    }
+
+    /** Listener that records checkpoints. */
+    private static class StubListener implements IDeleteListener {
+        private List<String> cursors = new ArrayList<String>();
+        private int finished;
+
+        @Override
+        public void checkpoint(String cursor, BulkDeleter deleter) {
+            this.cursors.add(cursor);
+        }
+
+        @Override
+        public void finished(BulkDeleter deleter) {
+            this.finished++;
+        }
+    }
+
+}
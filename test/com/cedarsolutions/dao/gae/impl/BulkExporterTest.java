@@ -0,0 +1,334 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.cedarsolutions.dao.gae.IExportListener;
+import com.cedarsolutions.dao.gae.IExportRowMapper;
+import com.cedarsolutions.dao.gae.IFilterPredicate;
+import com.cedarsolutions.dao.gae.impl.BulkExporter.Format;
+import com.cedarsolutions.exception.DaoException;
+import com.googlecode.objectify.Query;
+
+/**
+ * Unit tests for BulkExporter.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class BulkExporterTest {
+
+    /** Test the constructors. */
+    @Test public void testConstructor() {
+        StubMapper mapper = new StubMapper();
+        StubListener listener = new StubListener();
+
+        BulkExporter<Object[]> exporter = new BulkExporter<Object[]>(Format.CSV, mapper);
+        assertSame(Format.CSV, exporter.getFormat());
+        assertSame(mapper, exporter.getMapper());
+        assertEquals(BulkExporter.DEFAULT_CHECKPOINT_INTERVAL, exporter.getCheckpointInterval());
+        assertNull(exporter.getListener());
+        assertTrue(exporter.getWriteHeader());
+        assertEquals(0, exporter.getRowsWritten());
+        assertEquals(0, exporter.getElapsedMillis());
+        assertEquals(0.0, exporter.getRowsPerSecond(), 0.0);
+
+        exporter = new BulkExporter<Object[]>(Format.JSON_LINES, mapper, 5, listener);
+        assertSame(Format.JSON_LINES, exporter.getFormat());
+        assertEquals(5, exporter.getCheckpointInterval());
+        assertSame(listener, exporter.getListener());
+
+        try {
+            new BulkExporter<Object[]>(null, mapper);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            new BulkExporter<Object[]>(Format.CSV, null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            new BulkExporter<Object[]>(Format.CSV, mapper, 0, listener);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Test a CSV export, including quoting. */
+    @Test public void testCsv() {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        rows.add(new Object[] { "plain", 1, true, });
+        rows.add(new Object[] { "a,b", 2.5, null, });
+        rows.add(new Object[] { "say \"hi\"", -3L, false, });
+        rows.add(new Object[] { "two\nlines", new Date(0), "x", });
+
+        StringWriter writer = new StringWriter();
+        BulkExporter<Object[]> exporter = new BulkExporter<Object[]>(Format.CSV, new StubMapper());
+        assertEquals(4, exporter.export(createIterator(rows), writer));
+        assertEquals("name,value,flag\r\n"
+                     + "plain,1,true\r\n"
+                     + "\"a,b\",2.5,\r\n"
+                     + "\"say \"\"hi\"\"\",-3,false\r\n"
+                     + "\"two\nlines\",1970-01-01T00:00:00.000Z,x\r\n", writer.toString());
+
+        writer = new StringWriter();
+        exporter.setWriteHeader(false);
+        assertEquals(1, exporter.export(createIterator(rows.subList(0, 1)), writer));
+        assertEquals("plain,1,true\r\n", writer.toString());
+    }
+
+    /** Test a JSON Lines export, including escaping. */
+    @Test public void testJsonLines() {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        rows.add(new Object[] { "plain", 1, true, });
+        rows.add(new Object[] { "q\"b\\t\tc\u0001", Double.NaN, null, });
+        rows.add(new Object[] { null, new Date(1000), 4.5f, });
+
+        StringWriter writer = new StringWriter();
+        BulkExporter<Object[]> exporter = new BulkExporter<Object[]>(Format.JSON_LINES, new StubMapper());
+        assertEquals(3, exporter.export(createIterator(rows), writer));
+        assertEquals("{\"name\":\"plain\",\"value\":1,\"flag\":true}\n"
+                     + "{\"name\":\"q\\\"b\\\\t\\tc\\u0001\",\"value\":\"NaN\",\"flag\":null}\n"
+                     + "{\"name\":null,\"value\":\"1970-01-01T00:00:01.000Z\",\"flag\":4.5}\n", writer.toString());
+    }
+
+    /** Test an export to an output stream, which is encoded as UTF-8. */
+    @Test public void testOutputStream() throws Exception {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        rows.add(new Object[] { "caf\u00e9", 1, true, });
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BulkExporter<Object[]> exporter = new BulkExporter<Object[]>(Format.CSV, new StubMapper());
+        exporter.setWriteHeader(false);
+        assertEquals(1, exporter.export(createIterator(rows), output));
+        assertEquals("caf\u00e9,1,true\r\n", output.toString("UTF-8"));
+        assertEquals(14, output.size());  // two bytes for the accented character
+    }
+
+    /** Test checkpoints, and resuming an export from a checkpoint. */
+    @Test public void testCheckpointAndResume() {
+        List<Object[]> rows = createRows(7);
+        StringWriter writer = new StringWriter();
+        StubListener listener = new StubListener(writer);
+
+        BulkExporter<Object[]> exporter = new BulkExporter<Object[]>(Format.CSV, new StubMapper(), 3, listener);
+        assertEquals(7, exporter.export(createIterator(rows), new BufferedWriter(writer)));
+        assertEquals(2, exporter.getCheckpoints());
+        assertEquals(2, listener.cursors.size());
+        assertEquals(3, StubQuery.offset(listener.cursors.get(0)));
+        assertEquals(6, StubQuery.offset(listener.cursors.get(1)));
+        assertEquals(Arrays.asList(4, 7), listener.lines);  // output is flushed before each checkpoint
+        assertEquals(listener.lengths, listener.positions);  // position is the length of the flushed output
+        assertEquals(listener.positions.get(1).longValue(), exporter.getCheckpointPosition());
+        assertEquals(1, listener.finished);
+
+        // Pretend the export died after the first checkpoint with a partial row written, and pick up from there
+        String complete = writer.toString();
+        StringWriter resumed = new StringWriter();
+        resumed.write(complete.substring(0, (int) listener.positions.get(0).longValue()) + "row3,3,fa");
+        resumed.getBuffer().setLength((int) listener.positions.get(0).longValue());
+
+        Query<Object[]> query = StubQuery.create(rows);
+        query.startCursor(CursorUtils.deserialize(listener.cursors.get(0)));
+        exporter = new BulkExporter<Object[]>(Format.CSV, new StubMapper(), 3, new StubListener());
+        exporter.setWriteHeader(false);
+        assertEquals(4, exporter.export(new FilteredResultIterator<Object[]>(query, new NoOpFilterPredicate<Object[]>()), resumed));
+        assertEquals(complete, resumed.toString());
+    }
+
+    /** Test that checkpoint positions are in bytes when exporting to an output stream. */
+    @Test public void testCheckpointPositionBytes() {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        rows.add(new Object[] { "caf\u00e9", 1, true, });
+        rows.add(new Object[] { "plain", 2, false, });
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BulkExporter<Object[]> exporter = new BulkExporter<Object[]>(Format.CSV, new StubMapper(), 1, null);
+        exporter.setWriteHeader(false);
+        assertEquals(0, exporter.getCheckpointPosition());
+        assertEquals(2, exporter.export(createIterator(rows), output));
+        assertEquals(2, exporter.getCheckpoints());
+        assertEquals(output.size(), exporter.getCheckpointPosition());
+        assertEquals(29, exporter.getCheckpointPosition());  // two bytes for the accented character
+    }
+
+    /** Test the throughput counters. */
+    @Test public void testStatistics() {
+        final long[] now = new long[] { 1000L, };
+        StubListener listener = new StubListener() {
+            @Override
+            public void checkpoint(String cursor, BulkExporter<?> exporter) {
+                now[0] += 500L;
+                assertEquals(500L * exporter.getCheckpoints(), exporter.getElapsedMillis());
+                super.checkpoint(cursor, exporter);
+            }
+        };
+
+        BulkExporter<Object[]> exporter = new BulkExporter<Object[]>(Format.CSV, new StubMapper(), 2, listener) {
+            @Override
+            protected long currentTimeMillis() {
+                return now[0];
+            }
+        };
+
+        exporter.export(createIterator(createRows(10)), new StringWriter());
+        assertEquals(10, exporter.getRowsWritten());
+        assertEquals(10, exporter.getRowsScanned());
+        assertEquals(5, exporter.getCheckpoints());
+        assertEquals(2500L, exporter.getElapsedMillis());
+        assertEquals(4.0, exporter.getRowsPerSecond(), 0.0);
+
+        now[0] += 10000L;  // elapsed time stops at the end of the export
+        assertEquals(2500L, exporter.getElapsedMillis());
+    }
+
+    /** Test that scan statistics come from the iterator, when available. */
+    @Test public void testRowsScanned() {
+        List<Object[]> rows = createRows(10);
+        ChunkedFilteredIterator<Object[]> iterator = new ChunkedFilteredIterator<Object[]>(StubQuery.create(rows), new EvenPredicate(), 20);
+        BulkExporter<Object[]> exporter = new BulkExporter<Object[]>(Format.CSV, new StubMapper());
+        assertEquals(5, exporter.export(iterator, new StringWriter()));
+        assertEquals(5, exporter.getRowsWritten());
+        assertEquals(10, exporter.getRowsScanned());
+    }
+
+    /** Test that a write failure is reported as a DaoException. */
+    @Test public void testWriteFailure() {
+        BulkExporter<Object[]> exporter = new BulkExporter<Object[]>(Format.CSV, new StubMapper());
+        try {
+            exporter.export(createIterator(createRows(5)), new FailingWriter(2));
+            fail("Expected DaoException");
+        } catch (DaoException e) {
+            assertEquals(2, exporter.getRowsWritten());
+        }
+    }
+
+    /** Create an iterator over a list of rows. */
+    private static FilteredResultIterator<Object[]> createIterator(List<Object[]> rows) {
+        return new FilteredResultIterator<Object[]>(StubQuery.create(rows), new NoOpFilterPredicate<Object[]>());
+    }
+
+    /** Create a list of rows. */
+    private static List<Object[]> createRows(int count) {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (int i = 0; i < count; i++) {
+            rows.add(new Object[] { "row" + i, i, i % 2 == 0, });
+        }
+
+        return rows;
+    }
+
+    /** Mapper for rows that are already arrays of values. */
+    private static class StubMapper implements IExportRowMapper<Object[]> {
+        @Override
+        public String[] getColumns() {
+            return new String[] { "name", "value", "flag", };
+        }
+
+        @Override
+        public Object[] getValues(Object[] entity) {
+            return entity;
+        }
+    }
+
+    /** Listener that records checkpoints, along with the number of lines output at each checkpoint. */
+    private static class StubListener implements IExportListener {
+        private StringWriter output;
+        private List<String> cursors = new ArrayList<String>();
+        private List<Integer> lines = new ArrayList<Integer>();
+        private List<Long> lengths = new ArrayList<Long>();
+        private List<Long> positions = new ArrayList<Long>();
+        private int finished;
+
+        public StubListener() {
+            this(new StringWriter());
+        }
+
+        public StubListener(StringWriter output) {
+            this.output = output;
+        }
+
+        @Override
+        public void checkpoint(String cursor, BulkExporter<?> exporter) {
+            this.cursors.add(cursor);
+            this.lines.add(this.output.toString().split("\r\n", -1).length - 1);
+            this.lengths.add((long) this.output.getBuffer().length());
+            this.positions.add(exporter.getCheckpointPosition());
+        }
+
+        @Override
+        public void finished(BulkExporter<?> exporter) {
+            this.finished++;
+        }
+    }
+
+    /** Predicate that accepts rows with an even value. */
+    private static class EvenPredicate implements IFilterPredicate<Object[]> {
+        @Override
+        public boolean evaluate(Object[] value) {
+            return ((Integer) value[1]) % 2 == 0;
+        }
+    }
+
+    /** Writer that fails once a certain number of lines have been written. */
+    private static class FailingWriter extends Writer {
+        private final int lines;
+        private int written;
+
+        public FailingWriter(int lines) {
+            this.lines = lines;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+            String value = new String(buffer, offset, length);
+            if (value.endsWith("\n") && ++this.written > this.lines + 1) {  // header, then rows
+                throw new IOException("disk full");
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+}
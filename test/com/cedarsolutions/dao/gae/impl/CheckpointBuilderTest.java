@@ -0,0 +1,331 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+import com.cedarsolutions.dao.domain.PaginatedResults;
+import com.cedarsolutions.dao.domain.Pagination;
+import com.cedarsolutions.dao.gae.IFilterPredicate;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.Query;
+
+/**
+ * Unit tests for CheckpointBuilder.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class CheckpointBuilderTest {
+
+    /** Test the constructors. */
+    @Test public void testConstructor() {
+        CheckpointBuilder builder = new CheckpointBuilder();
+        assertEquals(CheckpointBuilder.DEFAULT_INTERVAL, builder.getInterval());
+        assertEquals(CheckpointBuilder.DEFAULT_MAX_ROWS, builder.getMaxRows());
+        assertEquals(CheckpointBuilder.DEFAULT_TIME_TO_LIVE, builder.getTimeToLive());
+        assertEquals(CheckpointBuilder.DEFAULT_MAX_ENTRIES, builder.getMaxEntries());
+
+        try {
+            new CheckpointBuilder(null, 10, 100, 1000, 10);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            new CheckpointBuilder(new QueuedExecutor(), 0, 100, 1000, 10);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            new CheckpointBuilder(new QueuedExecutor(), 10, 0, 1000, 10);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            new CheckpointBuilder(new QueuedExecutor(), 10, 100, 1000, 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Test seek cursors. */
+    @Test public void testSeekCursor() {
+        String seek = CheckpointBuilder.createSeekCursor("abc", 15);
+        assertEquals("seek:15:abc", seek);
+        assertTrue(CheckpointBuilder.isSeekCursor(seek));
+        assertEquals("abc", CheckpointBuilder.getSeekStart(seek));
+        assertEquals(15, CheckpointBuilder.getSeekOffset(seek));
+
+        seek = CheckpointBuilder.createSeekCursor(null, 3);
+        assertEquals("seek:3:", seek);
+        assertNull(CheckpointBuilder.getSeekStart(seek));
+        assertEquals(3, CheckpointBuilder.getSeekOffset(seek));
+
+        assertFalse(CheckpointBuilder.isSeekCursor(null));
+        assertFalse(CheckpointBuilder.isSeekCursor("abc"));
+        assertFalse(CheckpointBuilder.isSeekCursor(CursorRegistry.PREFIX + "abc"));
+
+        try {
+            CheckpointBuilder.getSeekOffset("seek:x:abc");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Test scan(). */
+    @Test public void testScan() {
+        CheckpointBuilder.Checkpoints checkpoints = CheckpointBuilder.scan(createQuery(25, new StubQuery.Statistics()), 10, 100);
+        assertEquals(Arrays.asList(cursor(10), cursor(20)), checkpoints.getCursors());
+        assertEquals(25, checkpoints.getRows());
+        assertTrue(checkpoints.isComplete());
+
+        checkpoints = CheckpointBuilder.scan(createQuery(25, new StubQuery.Statistics()), 10, 20);
+        assertEquals(Arrays.asList(cursor(10), cursor(20)), checkpoints.getCursors());
+        assertEquals(20, checkpoints.getRows());
+        assertFalse(checkpoints.isComplete());
+
+        checkpoints = CheckpointBuilder.scan(createQuery(20, new StubQuery.Statistics()), 10, 20);
+        assertEquals(20, checkpoints.getRows());
+        assertTrue(checkpoints.isComplete());
+
+        checkpoints = CheckpointBuilder.scan(createQuery(0, new StubQuery.Statistics()), 10, 20);
+        assertTrue(checkpoints.getCursors().isEmpty());
+        assertEquals(0, checkpoints.getRows());
+        assertTrue(checkpoints.isComplete());
+    }
+
+    /** Test scan() with a predicate, which counts only accepted rows. */
+    @Test public void testScanFiltered() {
+        EvenIdPredicate predicate = new EvenIdPredicate();
+        CheckpointBuilder.Checkpoints checkpoints = CheckpointBuilder.scan(createQuery(25, new StubQuery.Statistics()), predicate, 5, 100);
+        assertEquals(Arrays.asList(cursor(10), cursor(20)), checkpoints.getCursors());  // after ids 10 and 20
+        assertEquals(12, checkpoints.getRows());
+        assertTrue(checkpoints.isComplete());
+
+        checkpoints = CheckpointBuilder.scan(createQuery(25, new StubQuery.Statistics()), predicate, 5, 20);
+        assertEquals(Arrays.asList(cursor(10), cursor(20)), checkpoints.getCursors());
+        assertEquals(10, checkpoints.getRows());
+        assertFalse(checkpoints.isComplete());
+    }
+
+    /** Test page() once checkpoints have been built in the calling thread. */
+    @Test public void testPage() {
+        StubQuery.Statistics statistics = new StubQuery.Statistics();
+        CheckpointBuilder builder = new CheckpointBuilder(new CallingThreadExecutor(), 10, 100, 1000, 10);
+        Pagination pagination = fetchFirstPage(5, 100);
+
+        assertEquals(2, builder.page(pagination, "criteria", 8).getPageNumber());  // no checkpoints, so the last known page
+        assertTrue(builder.build("criteria", createQuery(100, statistics)));
+        assertTrue(builder.build("criteria", createQuery(100, statistics)));
+        assertEquals(1, statistics.getExecutions());
+        assertEquals(1, builder.getBuilds());
+
+        Pagination page = builder.page(pagination, "criteria", 8);  // row 35 is 5 rows past the checkpoint at row 30
+        assertEquals(8, page.getPageNumber());
+        assertEquals(CheckpointBuilder.createSeekCursor(cursor(30), 5), page.getCurrent());
+        assertEquals(CheckpointBuilder.createSeekCursor(cursor(30), 0), page.getCursor(7));  // so previous() works
+        assertEquals(7, page.previous().getPageNumber());
+        assertEquals(CheckpointBuilder.createSeekCursor(cursor(20), 5), builder.page(page, "criteria", 6).getCurrent());
+
+        page = builder.page(pagination, "criteria", 3);  // row 10 is the first checkpoint
+        assertEquals(CheckpointBuilder.createSeekCursor(cursor(10), 0), page.getCurrent());
+
+        assertEquals(cursor(5), builder.page(pagination, "criteria", 2).getCurrent());  // known, so exact
+        assertEquals(2, builder.page(pagination, "criteria", 21).getPageNumber());  // past the end
+        assertEquals(2, builder.page(pagination, "other", 8).getPageNumber());  // different search
+        assertEquals(3, builder.getSeeks());
+    }
+
+    /** Test that checkpoints built with a predicate reach the right page of a filtered search. */
+    @SuppressWarnings("unchecked")
+    @Test public void testPageFiltered() {
+        EvenIdPredicate predicate = new EvenIdPredicate();
+        CheckpointBuilder builder = new CheckpointBuilder(new CallingThreadExecutor(), 10, 1000, 1000, 10);
+        assertTrue(builder.build("criteria", createQuery(100, new StubQuery.Statistics()), predicate));
+        assertEquals(50, builder.getCheckpoints("criteria").getRows());
+
+        Pagination page = builder.page(fetchFirstPage(5, 50), "criteria", 8);  // accepted row 35 is 5 past accepted row 30, id 60
+        assertEquals(CheckpointBuilder.createSeekCursor(cursor(60), 5), page.getCurrent());
+
+        Objectify objectify = mock(Objectify.class);
+        when(objectify.query(IntegerIdEntity.class)).thenReturn(createQuery(100, new StubQuery.Statistics()));
+        Query<IntegerIdEntity> query = new ObjectifyProxy(objectify).query(IntegerIdEntity.class, page, predicate);
+        FilteredResultIterator<IntegerIdEntity> iterator = new FilteredResultIterator<IntegerIdEntity>(query, predicate);
+        PaginatedResults<IntegerIdEntity> results = PaginationUtils.createPaginatedResults(page, iterator);
+
+        assertEquals(5, results.size());
+        assertEquals(72, results.get(0).getId());
+        assertEquals(80, results.get(4).getId());
+        assertEquals(8, results.getPagination().getPageNumber());
+        assertEquals(40, results.getPagination().getTotalRows());
+        assertEquals(cursor(71), results.getPagination().getCurrent());
+    }
+
+    /** Test that a known page is used when it's closer than the nearest checkpoint. */
+    @Test public void testPageKnownIsCloser() {
+        CheckpointBuilder builder = new CheckpointBuilder(new CallingThreadExecutor(), 50, 100, 1000, 10);
+        builder.build(null, createQuery(100, new StubQuery.Statistics()));
+
+        Pagination pagination = fetchFirstPage(5, 100);
+        pagination = pagination.next();
+        pagination.update(cursor(5), cursor(10), 5);
+        assertEquals(3, builder.page(pagination, null, 9).getPageNumber());  // page 3 (row 10) beats the checkpoint at row 0
+
+        Pagination page = builder.page(pagination, null, 12);  // the checkpoint at row 50 beats page 3
+        assertEquals(12, page.getPageNumber());
+        assertEquals(CheckpointBuilder.createSeekCursor(cursor(50), 5), page.getCurrent());
+    }
+
+    /** Test that a search past the maximum number of rows seeks from the last checkpoint. */
+    @Test public void testPagePastMaxRows() {
+        CheckpointBuilder builder = new CheckpointBuilder(new CallingThreadExecutor(), 10, 20, 1000, 10);
+        builder.build(null, createQuery(100, new StubQuery.Statistics()));
+        assertFalse(builder.getCheckpoints(null).isComplete());
+
+        Pagination page = builder.page(fetchFirstPage(5, 100), null, 10);
+        assertEquals(CheckpointBuilder.createSeekCursor(cursor(20), 25), page.getCurrent());
+    }
+
+    /** Test checkpoints built in the background. */
+    @Test public void testBuildBackground() {
+        StubQuery.Statistics statistics = new StubQuery.Statistics();
+        QueuedExecutor executor = new QueuedExecutor();
+        CheckpointBuilder builder = new CheckpointBuilder(executor, 10, 100, 1000, 10);
+
+        assertFalse(builder.build("criteria", createQuery(100, statistics)));
+        assertFalse(builder.build("criteria", createQuery(100, statistics)));
+        assertEquals(1, executor.tasks.size());  // only one build per search at a time
+
+        executor.tasks.get(0).run();
+        assertTrue(builder.build("criteria", createQuery(100, statistics)));
+        assertEquals(1, statistics.getExecutions());
+    }
+
+    /** Test a build that fails. */
+    @SuppressWarnings("unchecked")
+    @Test public void testBuildFailure() {
+        Query<IntegerIdEntity> query = mock(Query.class);
+        when(query.fetchKeys()).thenThrow(new RuntimeException("hello"));
+        CheckpointBuilder builder = new CheckpointBuilder();
+
+        assertFalse(builder.build("criteria", query));
+        assertFalse(builder.build("criteria", query));  // tried again
+        assertEquals(2, builder.getBuilds());
+        assertEquals(2, builder.getFailures());
+    }
+
+    /** Test expiration and the bound on the number of cached checkpoints. */
+    @Test public void testExpiration() {
+        StubbedTimeBuilder builder = new StubbedTimeBuilder();
+        builder.build("one", createQuery(10, new StubQuery.Statistics()));
+        builder.now = 50;
+        builder.build("two", createQuery(10, new StubQuery.Statistics()));
+        builder.build("three", createQuery(10, new StubQuery.Statistics()));
+        assertNull(builder.getCheckpoints("one"));  // evicted, max entries is 2
+        assertNotNull(builder.getCheckpoints("two"));
+        assertNotNull(builder.getCheckpoints("three"));
+
+        builder.now = 151;
+        assertNull(builder.getCheckpoints("two"));
+
+        builder.clear();
+        builder.now = 50;
+        assertNull(builder.getCheckpoints("three"));
+    }
+
+    /** Get the serialized stub cursor for a row offset. */
+    private static String cursor(int offset) {
+        return StubQuery.cursor(offset).toWebSafeString();
+    }
+
+    /** Create pagination as it is after fetching the first page of a result set. */
+    private static Pagination fetchFirstPage(int pageSize, int rows) {
+        Pagination pagination = new Pagination(pageSize);
+        pagination.update(cursor(0), rows > pageSize ? cursor(pageSize) : null, Math.min(pageSize, rows));
+        return pagination;
+    }
+
+    /** Create a query with a certain number of keys. */
+    private static Query<IntegerIdEntity> createQuery(int rows, StubQuery.Statistics statistics) {
+        List<IntegerIdEntity> list = new ArrayList<IntegerIdEntity>();
+        List<Key<IntegerIdEntity>> keys = new ArrayList<Key<IntegerIdEntity>>();
+        for (int i = 1; i <= rows; i++) {
+            list.add(new IntegerIdEntity(i, null));
+            keys.add(new Key<IntegerIdEntity>(IntegerIdEntity.class, i));
+        }
+
+        return StubQuery.create(list, keys, statistics);
+    }
+
+    /** Predicate that accepts entities with an even id. */
+    private static class EvenIdPredicate implements IFilterPredicate<IntegerIdEntity> {
+        @Override
+        public boolean evaluate(IntegerIdEntity value) {
+            return value.getId() % 2 == 0;
+        }
+    }
+
+    /** Executor that runs tasks immediately. */
+    private static class CallingThreadExecutor implements Executor {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    }
+
+    /** Executor that queues tasks so the test can run them later. */
+    private static class QueuedExecutor implements Executor {
+        private List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            this.tasks.add(command);
+        }
+    }
+
+    /** Builder with a stubbed clock. */
+    private static class StubbedTimeBuilder extends CheckpointBuilder {
+        private long now;
+
+        public StubbedTimeBuilder() {
+            super(new CallingThreadExecutor(), 5, 100, 100, 2);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return this.now;
+        }
+    }
+
+}
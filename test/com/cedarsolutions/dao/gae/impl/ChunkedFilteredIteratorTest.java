@@ -0,0 +1,235 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.cedarsolutions.dao.domain.PaginatedResults;
+import com.cedarsolutions.dao.domain.Pagination;
+import com.cedarsolutions.dao.gae.IFilterPredicate;
+import com.googlecode.objectify.Query;
+
+/**
+ * Unit tests for ChunkedFilteredIterator.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class ChunkedFilteredIteratorTest {
+
+    /** Test the constructor and getters. */
+    @Test public void testConstructor() {
+        Query<Integer> query = StubQuery.create(createList(0));
+        IFilterPredicate<Integer> predicate = new NoOpFilterPredicate<Integer>();
+
+        ChunkedFilteredIterator<Integer> iterator = new ChunkedFilteredIterator<Integer>(query, predicate, 5);
+        assertSame(predicate, iterator.getPredicate());
+        assertEquals(5, iterator.getPageSize());
+        assertEquals(ChunkedFilteredIterator.UNLIMITED, iterator.getScanBudget());
+        assertEquals(ChunkedFilteredIterator.DEFAULT_MAX_CHUNK_SIZE, iterator.getMaxChunkSize());
+        assertFalse(iterator.hasNext());
+        assertFalse(iterator.isIncomplete());
+        assertEquals(1, iterator.getChunksFetched());
+        assertEquals(0, iterator.getRowsScanned());
+        assertEquals(0, iterator.getRowsAccepted());
+        assertEquals(1.0, iterator.getAcceptRatio(), 0.0);
+
+        iterator = new ChunkedFilteredIterator<Integer>(query, predicate, 5, 100, 10);
+        assertEquals(100, iterator.getScanBudget());
+        assertEquals(10, iterator.getMaxChunkSize());
+
+        try {
+            new ChunkedFilteredIterator<Integer>(query, predicate, 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            new ChunkedFilteredIterator<Integer>(query, predicate, 5, 0, 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Test the remove() method. */
+    @Test public void testRemove() {
+        Query<Integer> query = StubQuery.create(createList(0));
+        ChunkedFilteredIterator<Integer> iterator = new ChunkedFilteredIterator<Integer>(query, new NoOpFilterPredicate<Integer>(), 5);
+
+        try {
+            iterator.remove();
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) { }
+    }
+
+    /** Test that an unfiltered query is fetched in one page-sized chunk. */
+    @Test public void testUnfiltered() {
+        StubQuery.Statistics statistics = new StubQuery.Statistics();
+        Query<Integer> query = StubQuery.create(createList(20), statistics);
+        ChunkedFilteredIterator<Integer> iterator = new ChunkedFilteredIterator<Integer>(query, new NoOpFilterPredicate<Integer>(), 5);
+
+        List<Integer> results = new ArrayList<Integer>();
+        for (int i = 0; i < 5 && iterator.hasNext(); i++) {
+            results.add(iterator.next());
+        }
+
+        assertEquals(createList(5), results);
+        assertTrue(iterator.hasNext());
+        assertEquals(5, StubQuery.offset(iterator.getCursor()));
+        assertEquals(1, iterator.getChunksFetched());
+        assertEquals(6, iterator.getRowsScanned());
+        assertEquals(6, iterator.getRowsAccepted());
+        assertEquals(1, statistics.getExecutions());
+        assertEquals(6, (int) statistics.getChunkSizes().get(0));
+    }
+
+    /** Test that chunks grow as the predicate rejects rows. */
+    @Test public void testAdaptiveChunks() {
+        StubQuery.Statistics statistics = new StubQuery.Statistics();
+        Query<Integer> query = StubQuery.create(createList(100), statistics);
+        ChunkedFilteredIterator<Integer> iterator = new ChunkedFilteredIterator<Integer>(query, new MultipleOfFilterPredicate(10), 2);
+
+        List<Integer> results = new ArrayList<Integer>();
+        for (int i = 0; i < 2 && iterator.hasNext(); i++) {
+            results.add(iterator.next());
+        }
+
+        assertEquals(0, (int) results.get(0));
+        assertEquals(10, (int) results.get(1));
+        assertTrue(iterator.hasNext());
+        assertEquals(20, StubQuery.offset(iterator.getCursor()));
+        assertEquals(21, iterator.getRowsScanned());
+        assertEquals(3, iterator.getRowsAccepted());
+
+        // first chunk is 3 (page plus look-ahead); after 1 of 3 accepted, the second chunk is 2 / (2/4) = 4; and so on
+        assertEquals(3, (int) statistics.getChunkSizes().get(0));
+        assertEquals(4, (int) statistics.getChunkSizes().get(1));
+        assertTrue(statistics.getChunkSizes().get(2) > 4);
+        assertEquals(statistics.getExecutions(), iterator.getChunksFetched());
+    }
+
+    /** Test that the maximum chunk size is respected. */
+    @Test public void testMaxChunkSize() {
+        StubQuery.Statistics statistics = new StubQuery.Statistics();
+        Query<Integer> query = StubQuery.create(createList(50), statistics);
+        ChunkedFilteredIterator<Integer> iterator = new ChunkedFilteredIterator<Integer>(query, new MultipleOfFilterPredicate(1000), 5, 0, 7);
+
+        assertTrue(iterator.hasNext());  // zero is a multiple of everything
+        iterator.next();
+        assertFalse(iterator.hasNext());
+        assertFalse(iterator.isIncomplete());
+        assertEquals(50, iterator.getRowsScanned());
+        for (Integer size : statistics.getChunkSizes()) {
+            assertTrue(size <= 7);
+        }
+    }
+
+    /** Test that the scan budget stops iteration with a resumable cursor. */
+    @Test public void testScanBudget() {
+        List<Integer> list = createList(100);
+        Query<Integer> query = StubQuery.create(list);
+        ChunkedFilteredIterator<Integer> iterator = new ChunkedFilteredIterator<Integer>(query, new MultipleOfFilterPredicate(25), 5, 30);
+
+        List<Integer> results = new ArrayList<Integer>();
+        while (iterator.hasNext()) {
+            results.add(iterator.next());
+        }
+
+        assertEquals(2, results.size());
+        assertEquals(0, (int) results.get(0));
+        assertEquals(25, (int) results.get(1));
+        assertTrue(iterator.isIncomplete());
+        assertEquals(30, iterator.getRowsScanned());
+        assertEquals(2, iterator.getRowsAccepted());
+        assertEquals(30, StubQuery.offset(iterator.getCursor()));
+
+        // Resuming from the cursor picks up where we left off
+        query = StubQuery.create(list);
+        query.startCursor(StubQuery.cursor(StubQuery.offset(iterator.getCursor())));
+        iterator = new ChunkedFilteredIterator<Integer>(query, new MultipleOfFilterPredicate(25), 5, 30);
+        assertTrue(iterator.hasNext());
+        assertEquals(50, (int) iterator.next());
+    }
+
+    /** Test that a scan budget that runs out on the last row of the query does not leave the iterator incomplete. */
+    @Test public void testScanBudgetExhausted() {
+        StubQuery.Statistics statistics = new StubQuery.Statistics();
+        Query<Integer> query = StubQuery.create(createList(30), statistics);
+        ChunkedFilteredIterator<Integer> iterator = new ChunkedFilteredIterator<Integer>(query, new MultipleOfFilterPredicate(25), 5, 30);
+
+        List<Integer> results = new ArrayList<Integer>();
+        while (iterator.hasNext()) {
+            results.add(iterator.next());
+        }
+
+        assertEquals(2, results.size());
+        assertFalse(iterator.isIncomplete());
+        assertEquals(30, iterator.getRowsScanned());
+        assertEquals(30, StubQuery.offset(iterator.getCursor()));
+
+        PaginatedResults<Integer> page = PaginationUtils.createPaginatedResults(new Pagination(5), iterator);
+        assertFalse(page.getPagination().hasNext());
+    }
+
+    /** Test that PaginationUtils treats an incomplete iterator as a partial page with a next page. */
+    @Test public void testPartialPage() {
+        Query<Integer> query = StubQuery.create(createList(100));
+        ChunkedFilteredIterator<Integer> iterator = new ChunkedFilteredIterator<Integer>(query, new MultipleOfFilterPredicate(25), 5, 30);
+
+        PaginatedResults<Integer> results = PaginationUtils.createPaginatedResults(new Pagination(5), iterator);
+        assertEquals(2, results.size());
+        assertTrue(results.getPagination().hasNext());
+        assertFalse(results.getPagination().isTotalFinalized());
+        assertEquals(30, StubQuery.offset(results.getPagination().next().getCurrent()));
+    }
+
+    /** Create a list of integers from 0 to size - 1. */
+    private static List<Integer> createList(int size) {
+        List<Integer> list = new ArrayList<Integer>();
+        for (int i = 0; i < size; i++) {
+            list.add(i);
+        }
+
+        return list;
+    }
+
+    /** Predicate that accepts only multiples of a value. */
+    private static class MultipleOfFilterPredicate implements IFilterPredicate<Integer> {
+        private int value;
+
+        MultipleOfFilterPredicate(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean evaluate(Integer value) {
+            return value % this.value == 0;
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for CursorRegistry.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class CursorRegistryTest {
+
+    /** Test the constructors. */
+    @Test public void testConstructor() {
+        CursorRegistry registry = new CursorRegistry();
+        assertEquals(CursorRegistry.DEFAULT_MAX_ENTRIES, registry.getMaxEntries());
+        assertEquals(CursorRegistry.DEFAULT_TIME_TO_LIVE, registry.getTimeToLive());
+        assertEquals(0, registry.size());
+
+        try {
+            new CursorRegistry(0, 1000);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Test isHandle(). */
+    @Test public void testIsHandle() {
+        assertFalse(CursorRegistry.isHandle(null));
+        assertFalse(CursorRegistry.isHandle(""));
+        assertFalse(CursorRegistry.isHandle(StubQuery.cursor(5).toWebSafeString()));
+        assertTrue(CursorRegistry.isHandle(new CursorRegistry().register("cursor")));
+    }
+
+    /** Test register() and resolve(). */
+    @Test public void testRegisterResolve() {
+        CursorRegistry registry = new CursorRegistry();
+        String cursor = StubQuery.cursor(5).toWebSafeString();
+
+        assertNull(registry.register(null));
+        String handle = registry.register(cursor);
+        assertTrue(handle.length() < cursor.length() || cursor.length() < 16);
+        assertEquals(handle, registry.register(cursor));  // same cursor, same handle
+        assertEquals(handle, registry.register(handle));  // already a handle
+        assertNotSame(handle, registry.register("other"));
+        assertEquals(2, registry.size());
+
+        assertEquals(cursor, registry.resolve(handle));
+        assertEquals(cursor, registry.resolve(cursor));  // raw cursors pass through
+        assertNull(registry.resolve(null));
+        assertNull(registry.resolve(CursorRegistry.PREFIX + "unknown"));
+        assertEquals(1, registry.getHits());
+        assertEquals(1, registry.getMisses());
+
+        registry.clear();
+        assertNull(registry.resolve(handle));
+        assertEquals(0, registry.size());
+    }
+
+    /** Test expiration and the bound on the number of entries. */
+    @Test public void testExpiration() {
+        StubbedTimeRegistry registry = new StubbedTimeRegistry();
+        String one = registry.register("one");
+        String two = registry.register("two");
+        registry.now = 60;
+        assertEquals("one", registry.resolve(one));  // one is now the most recently used
+        String three = registry.register("three");
+        assertNull(registry.resolve(two));
+        assertEquals("three", registry.resolve(three));
+
+        registry.now = 161;
+        assertNull(registry.resolve(one));
+        assertNull(registry.resolve(three));
+        assertEquals(0, registry.size());
+    }
+
+    /** Registry with a stubbed clock, holding at most two entries. */
+    private static class StubbedTimeRegistry extends CursorRegistry {
+        private long now;
+
+        public StubbedTimeRegistry() {
+            super(2, 100);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return this.now;
+        }
+    }
+
+}
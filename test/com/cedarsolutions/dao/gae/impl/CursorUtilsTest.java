@@ -0,0 +1,87 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.google.appengine.api.datastore.Cursor;
+
+/**
+ * Unit tests for CursorUtils.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class CursorUtilsTest {
+
+    /** Test serialize() and deserialize() for null cursors. */
+    @Test public void testNull() {
+        CursorUtils.resetSerializationCount();
+        assertNull(CursorUtils.serialize(null));
+        assertNull(CursorUtils.deserialize(null));
+        assertEquals(0, CursorUtils.getSerializationCount());
+    }
+
+    /** Test serialize() and deserialize() for a real cursor. */
+    @Test public void testRoundTrip() {
+        CursorUtils.resetSerializationCount();
+
+        Cursor cursor = CursorUtils.deserialize("");
+        assertEquals(Cursor.fromWebSafeString(""), cursor);
+
+        assertEquals("", CursorUtils.serialize(cursor));
+        assertEquals(1, CursorUtils.getSerializationCount());
+
+        assertEquals("", CursorUtils.serialize(cursor));
+        assertEquals(2, CursorUtils.getSerializationCount());
+
+        CursorUtils.resetSerializationCount();
+        assertEquals(0, CursorUtils.getSerializationCount());
+    }
+
+    /** Test that serializations are also counted per thread. */
+    @Test public void testThreadCount() throws Exception {
+        final Cursor cursor = CursorUtils.deserialize("");
+        long before = CursorUtils.getThreadSerializationCount();
+
+        CursorUtils.serialize(cursor);
+        CursorUtils.serialize(null);
+        assertEquals(before + 1, CursorUtils.getThreadSerializationCount());
+
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                CursorUtils.serialize(cursor);
+                CursorUtils.serialize(cursor);
+            }
+        });
+        other.start();
+        other.join();
+
+        assertEquals(before + 1, CursorUtils.getThreadSerializationCount());
+        CursorUtils.resetSerializationCount();
+        assertEquals(before + 1, CursorUtils.getThreadSerializationCount());  // the thread count is never reset
+    }
+
+}
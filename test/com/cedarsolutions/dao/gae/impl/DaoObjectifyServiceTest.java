@@ -62,6 +62,25 @@ public class DaoObjectifyServiceTest {
         Resource entities = mock(Resource.class);
         service.setEntities(entities);
         assertSame(entities, service.getEntities());
+
+        assertNull(service.getEntityCacheManager());
+        EntityCacheManager entityCacheManager = new EntityCacheManager();
+        service.setEntityCacheManager(entityCacheManager);
+        assertSame(entityCacheManager, service.getEntityCacheManager());
+
+        assertEquals(0, service.getWriteBatchSize());
+        service.setWriteBatchSize(25);
+        assertEquals(25, service.getWriteBatchSize());
+
+        assertNull(service.getCursorRegistry());
+        CursorRegistry cursorRegistry = new CursorRegistry();
+        service.setCursorRegistry(cursorRegistry);
+        assertSame(cursorRegistry, service.getCursorRegistry());
+
+        assertNull(service.getKindVersions());
+        KindVersions kindVersions = new KindVersions();
+        service.setKindVersions(kindVersions);
+        assertSame(kindVersions, service.getKindVersions());
     }
 
     /** Test the afterPropertiesSet() method. */
@@ -99,6 +118,15 @@ public class DaoObjectifyServiceTest {
             service.afterPropertiesSet();
             fail("Expected NotConfiguredException");
         } catch (NotConfiguredException e) { }
+
+        try {
+            service = new DaoObjectifyService();
+            service.setObjectifyServiceProxy(objectifyServiceProxy);
+            service.setEntities(valid);
+            service.setWriteBatchSize(-1);
+            service.afterPropertiesSet();
+            fail("Expected NotConfiguredException");
+        } catch (NotConfiguredException e) { }
     }
 
     /** Test getObjectify(). */
@@ -109,6 +137,24 @@ public class DaoObjectifyServiceTest {
         ObjectifyProxy proxy = service.getObjectify();
         assertSame(objectify, proxy.getProxyTarget());
         assertFalse(proxy.isTransactional());
+        assertNull(proxy.getEntityCacheManager());
+
+        EntityCacheManager entityCacheManager = new EntityCacheManager();
+        service.setEntityCacheManager(entityCacheManager);
+        proxy = service.getObjectify();
+        assertSame(entityCacheManager, proxy.getEntityCacheManager());
+        assertNull(proxy.getCursorRegistry());
+
+        CursorRegistry cursorRegistry = new CursorRegistry();
+        service.setCursorRegistry(cursorRegistry);
+        assertSame(cursorRegistry, service.getObjectify().getCursorRegistry());
+        assertSame(cursorRegistry, service.getObjectifyWithTransaction().getCursorRegistry());
+
+        assertNull(service.getObjectify().getKindVersions());
+        KindVersions kindVersions = new KindVersions();
+        service.setKindVersions(kindVersions);
+        assertSame(kindVersions, service.getObjectify().getKindVersions());
+        assertSame(kindVersions, service.getObjectifyWithTransaction().getKindVersions());
     }
 
     /** Test getObjectifyWithTransaction(). */
@@ -119,6 +165,18 @@ public class DaoObjectifyServiceTest {
         ObjectifyProxy proxy = service.getObjectifyWithTransaction();
         assertSame(objectify, proxy.getProxyTarget());
         assertTrue(proxy.isTransactional());
+        assertNull(proxy.getEntityCacheManager());
+
+        EntityCacheManager entityCacheManager = new EntityCacheManager();
+        service.setEntityCacheManager(entityCacheManager);
+        proxy = service.getObjectifyWithTransaction();
+        assertSame(entityCacheManager, proxy.getEntityCacheManager());
+        assertNull(proxy.getWriteBehindBuffer());
+
+        service.setWriteBatchSize(25);
+        proxy = service.getObjectifyWithTransaction();
+        assertEquals(25, proxy.getWriteBehindBuffer().getBatchSize());
+        assertNull(service.getObjectify().getWriteBehindBuffer());
     }
 
     /** Test parseEntities() for valid configuration, simple example. */
@@ -0,0 +1,94 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.cedarsolutions.dao.gae.IEntityCache;
+import com.googlecode.objectify.Key;
+
+/**
+ * Unit tests for EntityCacheManager.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class EntityCacheManagerTest {
+
+    /** Test register() and getCache(). */
+    @Test public void testRegister() {
+        EntityCacheManager manager = new EntityCacheManager();
+        assertTrue(manager.isEmpty());
+
+        LocalEntityCache cache = new LocalEntityCache();
+        manager.register("IntegerIdEntity", cache);
+        assertFalse(manager.isEmpty());
+        assertSame(cache, manager.getCache("IntegerIdEntity"));
+        assertSame(cache, manager.getCache(new Key<IntegerIdEntity>(IntegerIdEntity.class, 1)));
+        assertNull(manager.getCache(new Key<StringIdEntity>(StringIdEntity.class, "x")));
+        assertNull(manager.getCache((String) null));
+        assertNull(manager.getCache((Key<?>) null));
+    }
+
+    /** Test setCaches(). */
+    @Test public void testSetCaches() {
+        LocalEntityCache cache = new LocalEntityCache();
+        Map<String, IEntityCache> caches = new HashMap<String, IEntityCache>();
+        caches.put("StringIdEntity", cache);
+
+        EntityCacheManager manager = new EntityCacheManager();
+        manager.setCaches(caches);
+        assertEquals(caches, manager.getCaches());
+        assertSame(cache, manager.getCache("StringIdEntity"));
+    }
+
+    /** Test statistics and clear(), with a cache shared by two kinds. */
+    @Test public void testStatistics() {
+        LocalEntityCache shared = new LocalEntityCache();
+        LocalEntityCache other = new LocalEntityCache();
+
+        EntityCacheManager manager = new EntityCacheManager();
+        manager.register("A", shared);
+        manager.register("B", shared);
+        manager.register("C", other);
+
+        shared.put(new Key<Object>("A", 1), "a");
+        shared.get(new Key<Object>("A", 1));
+        shared.get(new Key<Object>("B", 1));
+        other.get(new Key<Object>("C", 1));
+
+        assertEquals(1, manager.getHits());
+        assertEquals(2, manager.getMisses());
+
+        manager.clear();
+        assertEquals(0, shared.size());
+    }
+
+}
@@ -0,0 +1,199 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cedarsolutions.dao.domain.Pagination;
+import com.cedarsolutions.dao.gae.IFilterPredicate;
+import com.cedarsolutions.dao.gae.domain.IContainer;
+import com.googlecode.objectify.Query;
+
+/**
+ * Unit tests for FetchPlanner.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class FetchPlannerTest {
+
+    /** Start each test with no observed selectivity. */
+    @Before public void setUp() {
+        FetchPlanner.reset();
+    }
+
+    /** Don't leave observed selectivity behind for other tests. */
+    @After public void tearDown() {
+        FetchPlanner.reset();
+    }
+
+    /** Test getFetchSize(). */
+    @Test public void testGetFetchSize() {
+        assertEquals(11, FetchPlanner.getFetchSize(10, 1.0));
+        assertEquals(11, FetchPlanner.getFetchSize(10, 2.0));
+        assertEquals(22, FetchPlanner.getFetchSize(10, 0.5));
+        assertEquals(110, FetchPlanner.getFetchSize(10, 0.1));
+        assertEquals(FetchPlanner.MAX_FETCH_SIZE, FetchPlanner.getFetchSize(10, 0.0001));
+        assertEquals(FetchPlanner.MAX_FETCH_SIZE, FetchPlanner.getFetchSize(10, 0.0));
+        assertEquals(2001, FetchPlanner.getFetchSize(2000, 0.5));  // never less than a page
+
+        try {
+            FetchPlanner.getFetchSize(0, 1.0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Test record() and getSelectivity(). */
+    @Test public void testSelectivity() {
+        NoXFilterPredicate predicate = new NoXFilterPredicate();
+        assertEquals(FetchPlanner.DEFAULT_SELECTIVITY, FetchPlanner.getSelectivity(predicate), 0.0);
+        assertEquals(FetchPlanner.DEFAULT_SELECTIVITY, FetchPlanner.getSelectivity(null), 0.0);
+
+        FetchPlanner.record(predicate, 0, 0);
+        assertEquals(FetchPlanner.DEFAULT_SELECTIVITY, FetchPlanner.getSelectivity(predicate), 0.0);
+
+        FetchPlanner.record(predicate, 100, 20);
+        assertEquals(0.2, FetchPlanner.getSelectivity(predicate), 0.0001);
+        assertEquals(0.2, FetchPlanner.getSelectivity(new NoXFilterPredicate()), 0.0001);  // tracked by class
+
+        FetchPlanner.record(predicate, 100, 60);
+        assertEquals(0.3, FetchPlanner.getSelectivity(predicate), 0.0001);  // moving average
+
+        FetchPlanner.record(new NoOpFilterPredicate<Object>(), 100, 1);
+        assertEquals(1.0, FetchPlanner.getSelectivity(new NoOpFilterPredicate<Object>()), 0.0);
+        assertEquals(1.0, FetchPlanner.getSelectivity(new NoLargeIdFilterPredicate()), 0.0);
+    }
+
+    /** Test that selectivity is recorded when a page is built from a filtered iterator. */
+    @Test public void testRecordIterator() {
+        List<String> list = Arrays.asList("a", "X", "X", "X", "b", "X", "X", "X", "c");
+        Pagination pagination = new Pagination(2);
+        RejectX predicate = new RejectX();
+
+        PaginationUtils.createPaginatedResults(pagination, new FilteredResultIterator<String>(StubQuery.create(list), predicate));
+        assertEquals(3.0 / 9.0, FetchPlanner.getSelectivity(predicate), 0.0001);
+
+        FetchPlanner.reset();
+        PaginationUtils.createPaginatedResults(pagination, new ChunkedFilteredIterator<String>(StubQuery.create(list), predicate, 2));
+        assertEquals(3.0 / 9.0, FetchPlanner.getSelectivity(predicate), 0.0001);
+
+        FetchPlanner.reset();
+        List<StringContainer> containers = new ArrayList<StringContainer>();
+        for (String value : list) {
+            containers.add(new StringContainer(value));
+        }
+        PaginationUtils.createPaginatedResults(pagination, new FilteredContainerIterator<String>(StubQuery.create(containers), predicate));
+        assertEquals(3.0 / 9.0, FetchPlanner.getSelectivity(predicate), 0.0001);
+
+        FetchPlanner.reset();
+        PaginationUtils.createPaginatedResults(null, new FilteredResultIterator<String>(StubQuery.create(list), predicate));
+        assertEquals(1.0, FetchPlanner.getSelectivity(predicate), 0.0);  // only pages are recorded
+    }
+
+    /** Test that plan() leaves an unpaged query alone. */
+    @SuppressWarnings("unchecked")
+    @Test public void testPlanUnpaged() {
+        Query<String> query = mock(Query.class);
+        FetchPlanner.plan(query, 0, null);
+        FetchPlanner.plan(query, 0, new RejectX());
+        FetchPlanner.plan(query, new Pagination().getPageSize(), new RejectX());
+        verify(query, never()).limit(anyInt());
+        verify(query, never()).chunkSize(anyInt());
+        verify(query, never()).prefetchSize(anyInt());
+    }
+
+    /** Test plan() with no filtering. */
+    @SuppressWarnings("unchecked")
+    @Test public void testPlanUnfiltered() {
+        Query<String> query = mock(Query.class);
+        FetchPlanner.plan(query, 10, null);
+        verify(query).limit(11);
+        verify(query).chunkSize(11);
+        verify(query).prefetchSize(11);
+
+        query = mock(Query.class);
+        FetchPlanner.plan(query, 10, new NoOpFilterPredicate<String>());
+        verify(query).limit(11);
+        verify(query).chunkSize(11);
+        verify(query).prefetchSize(11);
+    }
+
+    /** Test plan() with a filtering predicate. */
+    @SuppressWarnings("unchecked")
+    @Test public void testPlanFiltered() {
+        IFilterPredicate<String> predicate = new RejectX();
+
+        Query<String> query = mock(Query.class);
+        FetchPlanner.plan(query, 10, predicate);
+        verify(query).chunkSize(11);
+        verify(query).prefetchSize(11);
+        verify(query, never()).limit(anyInt());
+
+        FetchPlanner.record(predicate, 100, 25);
+        query = mock(Query.class);
+        FetchPlanner.plan(query, 10, predicate);
+        verify(query).chunkSize(44);
+        verify(query).prefetchSize(44);
+        verify(query, never()).limit(anyInt());
+    }
+
+    /** Predicate that rejects the value "X". */
+    private static class RejectX implements IFilterPredicate<String> {
+        @Override
+        public boolean evaluate(String value) {
+            return !"X".equals(value);
+        }
+    }
+
+    /** Container that holds a string. */
+    private static class StringContainer implements IContainer<String> {
+        private static final long serialVersionUID = 1L;
+        private String value;
+
+        StringContainer(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public void fromValue(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public String toValue() {
+            return this.value;
+        }
+    }
+
+}
@@ -23,9 +23,13 @@
 package com.cedarsolutions.dao.gae.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
@@ -38,6 +42,7 @@ import org.mockito.stubbing.Answer;
 
 import com.cedarsolutions.dao.gae.IFilterPredicate;
 import com.cedarsolutions.dao.gae.domain.IContainer;
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.QueryResultIterator;
 import com.googlecode.objectify.Query;
 
@@ -62,6 +67,21 @@ public class FilteredContainerIteratorTest {
         assertEquals("cursor1", iterator.getCursor());
     }
 
+    /** Test that the first item is not fetched until the iterator is used. */
+    @Test public void testDeferredStart() {
+        QueryResultIterator queryResultIterator = mock(QueryResultIterator.class);
+        Query query = mock(Query.class);
+        IFilterPredicate predicate = mock(IFilterPredicate.class);
+        when(query.iterator()).thenReturn(queryResultIterator);
+
+        SafeIterator iterator = new SafeIterator(query, predicate);
+        verify(query).iterator();
+        verify(queryResultIterator, never()).hasNext();
+
+        assertFalse(iterator.hasNext());
+        verify(queryResultIterator).hasNext();
+    }
+
     /** Test the remove() method. */
     @Test public void testRemove() {
         QueryResultIterator queryResultIterator = mock(QueryResultIterator.class);
@@ -110,6 +130,50 @@ public class FilteredContainerIteratorTest {
 
         // Just spot-check that it seems to be called the right number of times
         assertEquals("cursor4", filteredResultIterator.getCursor());
+
+        assertEquals(3, filteredResultIterator.getRowsScanned());
+        assertEquals(2, filteredResultIterator.getRowsAccepted());
+    }
+
+    /** Test iterator methods in lazy cursor mode. */
+    @Test public void testIteratorMethodsLazyCursor() {
+        List<Container> list = new ArrayList<Container>();
+        list.add(new Container("one"));
+        list.add(new Container("two"));
+        list.add(new Container("three"));
+
+        Iterator<Container> iterator = list.iterator();
+        Answer<Boolean> hasNextAnswer = new IteratorHasNextAnswer(iterator);
+        Answer<Container> nextAnswer = new IteratorNextAnswer(iterator);
+
+        QueryResultIterator queryResultIterator = mock(QueryResultIterator.class);
+        Query query = mock(Query.class);
+
+        when(queryResultIterator.hasNext()).thenAnswer(hasNextAnswer);
+        when(queryResultIterator.next()).thenAnswer(nextAnswer);
+        when(query.iterator()).thenReturn(queryResultIterator);
+
+        IFilterPredicate<String> predicate = new TwoFilterPredicate();
+        SafeLazyIterator filteredResultIterator = new SafeLazyIterator(query, predicate);
+        assertTrue(filteredResultIterator.isLazyCursor());
+        assertEquals(0, filteredResultIterator.serializations);
+
+        List<String> results = new ArrayList<String>();
+        while (filteredResultIterator.hasNext()) {
+            String value = filteredResultIterator.next();
+            results.add(value);
+        }
+
+        assertEquals(2, results.size());
+        assertEquals("one", results.get(0));
+        assertEquals("three", results.get(1));
+
+        // The raw cursor is captured once per row, but only serialized on demand
+        assertEquals(4, filteredResultIterator.captures);
+        assertEquals(0, filteredResultIterator.serializations);
+        assertEquals("serialized4", filteredResultIterator.getCursor());
+        assertEquals("serialized4", filteredResultIterator.getCursor());
+        assertEquals(1, filteredResultIterator.serializations);
     }
 
     /** Predicate that discards value "two". */
@@ -157,6 +221,28 @@ public class FilteredContainerIteratorTest {
         }
     }
 
+    /** Lazy iterator we can actually test with. */
+    private static class SafeLazyIterator extends FilteredContainerIterator<String> {
+        private int captures;
+        private int serializations;
+
+        SafeLazyIterator(Query<Container> query, IFilterPredicate<String> predicate) {
+            super(query, predicate, true);
+        }
+
+        @Override
+        protected Cursor deriveRawCursor() {
+            this.captures += 1;
+            return Cursor.fromWebSafeString("");
+        }
+
+        @Override
+        protected String serializeCursor(Cursor cursor) {
+            this.serializations += 1;
+            return "serialized" + this.captures;
+        }
+    }
+
     /** Mockito answer to wrap Iterator.hasNext(). */
     public static class IteratorNextAnswer implements Answer<Container> {
         private Iterator<Container> iterator;
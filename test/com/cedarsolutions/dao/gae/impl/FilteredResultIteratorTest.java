@@ -23,9 +23,13 @@
 package com.cedarsolutions.dao.gae.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
@@ -37,6 +41,7 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import com.cedarsolutions.dao.gae.IFilterPredicate;
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.QueryResultIterator;
 import com.googlecode.objectify.Query;
 
@@ -61,6 +66,21 @@ public class FilteredResultIteratorTest {
         assertEquals("cursor1", iterator.getCursor());
     }
 
+    /** Test that the first item is not fetched until the iterator is used. */
+    @Test public void testDeferredStart() {
+        QueryResultIterator queryResultIterator = mock(QueryResultIterator.class);
+        Query query = mock(Query.class);
+        IFilterPredicate predicate = mock(IFilterPredicate.class);
+        when(query.iterator()).thenReturn(queryResultIterator);
+
+        SafeIterator iterator = new SafeIterator(query, predicate);
+        verify(query).iterator();
+        verify(queryResultIterator, never()).hasNext();
+
+        assertFalse(iterator.hasNext());
+        verify(queryResultIterator).hasNext();
+    }
+
     /** Test the remove() method. */
     @Test public void testRemove() {
         QueryResultIterator queryResultIterator = mock(QueryResultIterator.class);
@@ -109,6 +129,50 @@ public class FilteredResultIteratorTest {
 
         // Just spot-check that it seems to be called the right number of times
         assertEquals("cursor4", filteredResultIterator.getCursor());
+
+        assertEquals(3, filteredResultIterator.getRowsScanned());
+        assertEquals(2, filteredResultIterator.getRowsAccepted());
+    }
+
+    /** Test iterator methods in lazy cursor mode. */
+    @Test public void testIteratorMethodsLazyCursor() {
+        List<String> list = new ArrayList<String>();
+        list.add("one");
+        list.add("two");
+        list.add("three");
+
+        Iterator<String> iterator = list.iterator();
+        Answer<Boolean> hasNextAnswer = new IteratorHasNextAnswer(iterator);
+        Answer<String> nextAnswer = new IteratorNextAnswer(iterator);
+
+        QueryResultIterator queryResultIterator = mock(QueryResultIterator.class);
+        Query query = mock(Query.class);
+
+        when(queryResultIterator.hasNext()).thenAnswer(hasNextAnswer);
+        when(queryResultIterator.next()).thenAnswer(nextAnswer);
+        when(query.iterator()).thenReturn(queryResultIterator);
+
+        IFilterPredicate<String> predicate = new TwoFilterPredicate();
+        SafeLazyIterator filteredResultIterator = new SafeLazyIterator(query, predicate);
+        assertTrue(filteredResultIterator.isLazyCursor());
+        assertEquals(0, filteredResultIterator.serializations);
+
+        List<String> results = new ArrayList<String>();
+        while (filteredResultIterator.hasNext()) {
+            String value = filteredResultIterator.next();
+            results.add(value);
+        }
+
+        assertEquals(2, results.size());
+        assertEquals("one", results.get(0));
+        assertEquals("three", results.get(1));
+
+        // The raw cursor is captured once per row, but only serialized on demand
+        assertEquals(4, filteredResultIterator.captures);
+        assertEquals(0, filteredResultIterator.serializations);
+        assertEquals("serialized4", filteredResultIterator.getCursor());
+        assertEquals("serialized4", filteredResultIterator.getCursor());
+        assertEquals(1, filteredResultIterator.serializations);
     }
 
     /** Predicate that discards value "two". */
@@ -136,6 +200,28 @@ public class FilteredResultIteratorTest {
         }
     }
 
+    /** Lazy iterator we can actually test with. */
+    private static class SafeLazyIterator extends FilteredResultIterator<String> {
+        private int captures;
+        private int serializations;
+
+        SafeLazyIterator(Query<String> query, IFilterPredicate<String> predicate) {
+            super(query, predicate, true);
+        }
+
+        @Override
+        protected Cursor deriveRawCursor() {
+            this.captures += 1;
+            return Cursor.fromWebSafeString("");
+        }
+
+        @Override
+        protected String serializeCursor(Cursor cursor) {
+            this.serializations += 1;
+            return "serialized" + this.captures;
+        }
+    }
+
     /** Mockito answer to wrap Iterator.hasNext(). */
     private static class IteratorNextAnswer implements Answer<String> {
         private Iterator<String> iterator;
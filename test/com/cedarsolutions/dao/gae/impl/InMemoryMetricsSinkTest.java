@@ -0,0 +1,112 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for InMemoryMetricsSink.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class InMemoryMetricsSinkTest {
+
+    /** Test enabling and disabling the sink. */
+    @Test public void testEnabled() {
+        InMemoryMetricsSink sink = new InMemoryMetricsSink();
+        assertTrue(sink.isEnabled());
+        sink.setEnabled(false);
+        assertFalse(sink.isEnabled());
+        assertFalse(NoOpMetricsSink.INSTANCE.isEnabled());
+    }
+
+    /** Test recording queries and gets. */
+    @Test public void testRecord() {
+        InMemoryMetricsSink sink = new InMemoryMetricsSink();
+        assertNull(sink.getMetrics("UserDao", "retrieveUsers"));
+
+        sink.recordQuery("UserDao", "retrieveUsers", 2000000L, 100, 25, 100, 3);
+        sink.recordQuery("UserDao", "retrieveUsers", 4000000L, 50, 25, 50, 2);
+        sink.recordGet("UserDao", "User", 1000000L, 1);
+        sink.recordGet("UserDao", "User", 1000000L, 0);
+
+        DaoMetrics query = sink.getMetrics("UserDao", "retrieveUsers");
+        assertEquals("UserDao", query.getDao());
+        assertEquals("retrieveUsers", query.getOperation());
+        assertEquals(2, query.getExecutions());
+        assertEquals(6000000L, query.getElapsedNanos());
+        assertEquals(6.0, query.getElapsedMillis(), 0.0);
+        assertEquals(3.0, query.getAverageMillis(), 0.0);
+        assertEquals(4.0, query.getMaxElapsedMillis(), 0.0);
+        assertEquals(150, query.getRowsScanned());
+        assertEquals(50, query.getRowsAccepted());
+        assertEquals(50.0 / 150.0, query.getAcceptRatio(), 0.0001);
+        assertEquals(150, query.getEntitiesFetchedByQuery());
+        assertEquals(0, query.getEntitiesFetchedByGet());
+        assertEquals(5, query.getCursorSerializations());
+
+        DaoMetrics get = sink.getMetrics("UserDao", "get User");
+        assertEquals(2, get.getExecutions());
+        assertEquals(1, get.getEntitiesFetchedByGet());
+        assertEquals(0, get.getRowsScanned());
+        assertEquals(1.0, get.getAcceptRatio(), 0.0);
+
+        // snapshots don't change as more is recorded
+        sink.recordGet("UserDao", "User", 1000000L, 1);
+        assertEquals(2, get.getExecutions());
+        assertEquals(3, sink.getMetrics("UserDao", "get User").getExecutions());
+    }
+
+    /** Test that metrics are listed most expensive first, and the summary. */
+    @Test public void testSummary() {
+        InMemoryMetricsSink sink = new InMemoryMetricsSink();
+        sink.recordQuery("UserDao", "retrieveUsers", 1000000L, 10, 10, 10, 1);
+        sink.recordQuery("OrderDao", "retrieveOrders", 9000000L, 900, 9, 900, 1);
+        sink.recordGet("UserDao", "User", 5000000L, 1);
+
+        List<DaoMetrics> metrics = sink.getMetrics();
+        assertEquals(3, metrics.size());
+        assertEquals("retrieveOrders", metrics.get(0).getOperation());
+        assertEquals("get User", metrics.get(1).getOperation());
+        assertEquals("retrieveUsers", metrics.get(2).getOperation());
+
+        String[] lines = sink.getSummary(2).split("\\r?\\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0].startsWith("DAO"));
+        assertTrue(lines[1].startsWith("OrderDao"));
+        assertTrue(lines[1].contains("retrieveOrders"));
+        assertTrue(lines[1].contains("900"));
+        assertTrue(lines[2].contains("get User"));
+
+        sink.reset();
+        assertTrue(sink.getMetrics().isEmpty());
+        assertEquals(1, sink.getSummary(10).split("\\r?\\n").length);
+    }
+
+}
@@ -22,6 +22,7 @@
  * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
 package com.cedarsolutions.dao.gae.impl;
 
+import java.io.Serializable;
 import java.util.Date;
 
 import javax.persistence.Id;
@@ -32,7 +33,9 @@ import com.googlecode.objectify.annotation.Indexed;
  * Test entity for use in DAO unit tests, with an integer id.
  * @author Kenneth J. Pronovici <pronovic@ieee.org>
  */
-public class IntegerIdEntity {
+public class IntegerIdEntity implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     @Id private long id;  // note that integer-style ids must be long, not int
     @Indexed private Date timestamp;
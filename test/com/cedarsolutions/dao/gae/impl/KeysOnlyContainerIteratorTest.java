@@ -0,0 +1,175 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.cedarsolutions.dao.domain.Pagination;
+import com.cedarsolutions.dao.gae.IFilterPredicate;
+import com.cedarsolutions.dao.gae.IKeyFilterPredicate;
+import com.cedarsolutions.dao.gae.domain.IContainer;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Query;
+
+/**
+ * Unit tests for KeysOnlyContainerIterator.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class KeysOnlyContainerIteratorTest {
+
+    /** Test the constructor. */
+    @Test public void testConstructor() {
+        List<StubContainer> containers = createContainers("a", "b");
+        List<Key<StubContainer>> keys = createKeys(containers);
+        ObjectifyProxy proxy = mock(ObjectifyProxy.class, new LoadAnswer(containers, keys));
+        IFilterPredicate<String> predicate = new NoOpFilterPredicate<String>();
+
+        KeysOnlyContainerIterator<String> iterator = new KeysOnlyContainerIterator<String>(proxy, createQuery(containers, keys), predicate, new Pagination(5));
+        assertTrue(iterator.getKeyPredicate() instanceof NoOpKeyFilterPredicate);
+        assertSame(predicate, iterator.getPredicate());
+        assertEquals(6, iterator.getBatchSize());
+
+        iterator = proxy.queryContainerKeysOnly(createQuery(containers, keys), null, new NoOpKeyFilterPredicate<IContainer<String>>(), predicate);
+        assertEquals(AbstractKeysOnlyIterator.DEFAULT_BATCH_SIZE, iterator.getBatchSize());
+    }
+
+    /** Test that containers are converted to values and filtered. */
+    @Test public void testIterator() {
+        List<StubContainer> containers = createContainers("a", "x", "b", "c", "x", "d");
+        final List<Key<StubContainer>> keys = createKeys(containers);
+        ObjectifyProxy proxy = mock(ObjectifyProxy.class, new LoadAnswer(containers, keys));
+
+        IKeyFilterPredicate<IContainer<String>> keyPredicate = new IKeyFilterPredicate<IContainer<String>>() {
+            @Override
+            public boolean evaluate(Key<? extends IContainer<String>> key) {
+                return key != keys.get(3);  // rejects "c" without loading it
+            }
+        };
+
+        KeysOnlyContainerIterator<String> iterator = new KeysOnlyContainerIterator<String>(proxy, createQuery(containers, keys), keyPredicate, new NoXValuePredicate(), 2);
+        List<String> results = new ArrayList<String>();
+        while (iterator.hasNext()) {
+            results.add(iterator.next());
+        }
+
+        assertEquals(3, results.size());
+        assertEquals("a", results.get(0));
+        assertEquals("b", results.get(1));
+        assertEquals("d", results.get(2));
+        assertEquals(6, iterator.getRowsScanned());
+        assertEquals(5, iterator.getRowsLoaded());
+        assertEquals(3, iterator.getRowsAccepted());
+        assertEquals(3, iterator.getBatchesLoaded());
+        assertFalse(iterator.hasNext());
+    }
+
+    /** Create a list of containers. */
+    private static List<StubContainer> createContainers(String... values) {
+        List<StubContainer> containers = new ArrayList<StubContainer>();
+        for (String value : values) {
+            StubContainer container = new StubContainer();
+            container.fromValue(value);
+            containers.add(container);
+        }
+
+        return containers;
+    }
+
+    /** Create a key for each container. */
+    private static List<Key<StubContainer>> createKeys(List<StubContainer> containers) {
+        List<Key<StubContainer>> keys = new ArrayList<Key<StubContainer>>();
+        for (int i = 0; i < containers.size(); i++) {
+            keys.add(new Key<StubContainer>("StubContainer", i + 1));
+        }
+
+        return keys;
+    }
+
+    /** Create a query over a list of containers. */
+    private static Query<StubContainer> createQuery(List<StubContainer> containers, List<Key<StubContainer>> keys) {
+        return StubQuery.create(containers, keys, new StubQuery.Statistics());
+    }
+
+    /** Predicate that rejects the value "x". */
+    private static class NoXValuePredicate implements IFilterPredicate<String> {
+        @Override
+        public boolean evaluate(String value) {
+            return !"x".equals(value);
+        }
+    }
+
+    /** Simple container for string values. */
+    private static class StubContainer implements IContainer<String> {
+        private static final long serialVersionUID = 1L;
+        private String value;
+
+        @Override
+        public void fromValue(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public String toValue() {
+            return this.value;
+        }
+    }
+
+    /** Answer for a mocked ObjectifyProxy, which handles batch gets against a list of containers. */
+    private static class LoadAnswer implements Answer<Object> {
+        private Map<Object, StubContainer> stored = new HashMap<Object, StubContainer>();
+
+        public LoadAnswer(List<StubContainer> containers, List<Key<StubContainer>> keys) {
+            for (int i = 0; i < containers.size(); i++) {
+                this.stored.put(keys.get(i), containers.get(i));
+            }
+        }
+
+        @Override
+        public Object answer(InvocationOnMock invocation) throws Throwable {
+            if ("get".equals(invocation.getMethod().getName()) && invocation.getArguments().length == 1) {
+                Map<Object, StubContainer> result = new HashMap<Object, StubContainer>();
+                for (Object key : (Iterable<?>) invocation.getArguments()[0]) {
+                    result.put(key, this.stored.get(key));
+                }
+
+                return result;
+            }
+
+            return invocation.callRealMethod();
+        }
+    }
+
+}
@@ -0,0 +1,295 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.cedarsolutions.dao.domain.PaginatedResults;
+import com.cedarsolutions.dao.domain.Pagination;
+import com.cedarsolutions.dao.gae.IFilterPredicate;
+import com.cedarsolutions.dao.gae.IKeyFilterPredicate;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Query;
+
+/**
+ * Unit tests for KeysOnlyResultIterator and AbstractKeysOnlyIterator.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class KeysOnlyResultIteratorTest {
+
+    /** Test the constructor. */
+    @Test public void testConstructor() {
+        Datastore datastore = new Datastore(10);
+        IKeyFilterPredicate<Integer> keyPredicate = new NoOpKeyFilterPredicate<Integer>();
+        IFilterPredicate<Integer> predicate = new NoOpFilterPredicate<Integer>();
+
+        KeysOnlyResultIterator<Integer> iterator = new KeysOnlyResultIterator<Integer>(datastore.getProxy(), datastore.createQuery(), keyPredicate, predicate, 5);
+        assertSame(keyPredicate, iterator.getKeyPredicate());
+        assertSame(predicate, iterator.getPredicate());
+        assertEquals(5, iterator.getBatchSize());
+        assertEquals(0, iterator.getBatchesLoaded());
+        assertEquals(1, datastore.getStatistics().getExecutions());
+        assertEquals(0, datastore.getBatchSizes().size());  // nothing is loaded until the iterator is used
+
+        iterator = new KeysOnlyResultIterator<Integer>(datastore.getProxy(), datastore.createQuery(), predicate, new Pagination(20));
+        assertTrue(iterator.getKeyPredicate() instanceof NoOpKeyFilterPredicate);
+        assertSame(predicate, iterator.getPredicate());
+        assertEquals(21, iterator.getBatchSize());
+
+        try {
+            new KeysOnlyResultIterator<Integer>(datastore.getProxy(), datastore.createQuery(), keyPredicate, predicate, 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Test getBatchSize(). */
+    @Test public void testGetBatchSize() {
+        assertEquals(AbstractKeysOnlyIterator.DEFAULT_BATCH_SIZE, AbstractKeysOnlyIterator.getBatchSize(null));
+        assertEquals(AbstractKeysOnlyIterator.DEFAULT_BATCH_SIZE, AbstractKeysOnlyIterator.getBatchSize(new Pagination(0)));
+        assertEquals(11, AbstractKeysOnlyIterator.getBatchSize(new Pagination(10)));
+    }
+
+    /** Test the remove() method. */
+    @Test public void testRemove() {
+        Datastore datastore = new Datastore(10);
+        KeysOnlyResultIterator<Integer> iterator = datastore.createIterator(new NoOpFilterPredicate<Integer>(), 5);
+
+        try {
+            iterator.remove();
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) { }
+    }
+
+    /** Test that results and cursors match FilteredResultIterator. */
+    @Test public void testMatchesFilteredIterator() {
+        Datastore datastore = new Datastore(25);
+        datastore.rejectKey(3);
+        datastore.rejectKey(4);
+        datastore.rejectKey(24);
+
+        KeysOnlyResultIterator<Integer> iterator = datastore.createIterator(new OddFilterPredicate(), 4);
+        FilteredResultIterator<Integer> expected = new FilteredResultIterator<Integer>(datastore.createQuery(), new KeyAwarePredicate(datastore));
+
+        assertEquals(expected.getCursor(), iterator.getCursor());
+        while (expected.hasNext()) {
+            assertTrue(iterator.hasNext());
+            assertEquals(expected.next(), iterator.next());
+            if (expected.hasNext()) {
+                assertEquals(expected.getCursor(), iterator.getCursor());
+            }
+        }
+
+        // Once results run out, the cursor points past the last key rather than before it
+        assertEquals(25, StubQuery.offset(iterator.getCursor()));
+
+        assertFalse(iterator.hasNext());
+        assertNull(iterator.next());
+        assertEquals(25, iterator.getRowsScanned());
+        assertEquals(22, iterator.getRowsLoaded());
+        assertEquals(11, iterator.getRowsAccepted());
+        assertEquals(6, iterator.getBatchesLoaded());
+    }
+
+    /** Test that entities deleted after the keys-only query are skipped. */
+    @Test public void testDeletedEntity() {
+        Datastore datastore = new Datastore(5);
+        datastore.deleteEntity(2);
+
+        KeysOnlyResultIterator<Integer> iterator = datastore.createIterator(new NoOpFilterPredicate<Integer>(), 10);
+        List<Integer> results = new ArrayList<Integer>();
+        while (iterator.hasNext()) {
+            results.add(iterator.next());
+        }
+
+        assertEquals(4, results.size());
+        assertFalse(results.contains(2));
+        assertEquals(5, iterator.getRowsScanned());
+        assertEquals(4, iterator.getRowsLoaded());
+    }
+
+    /** Test paging with PaginationUtils, which should need one batch get per page. */
+    @Test public void testPagination() {
+        Datastore datastore = new Datastore(10);
+        Pagination pagination = new Pagination(3);
+        List<Integer> all = new ArrayList<Integer>();
+
+        for (int page = 0; page < 10; page++) {
+            Query<Integer> query = datastore.createQuery();
+            if (pagination.getCurrent() != null) {
+                query.startCursor(CursorUtils.deserialize(pagination.getCurrent()));
+            }
+
+            KeysOnlyResultIterator<Integer> iterator = datastore.getProxy().queryKeysOnly(query, pagination, new NoOpKeyFilterPredicate<Integer>(), new NoOpFilterPredicate<Integer>());
+            PaginatedResults<Integer> results = PaginationUtils.createPaginatedResults(pagination, iterator);
+            assertEquals(1, iterator.getBatchesLoaded());
+            all.addAll(results);
+            if (!results.getPagination().hasNext()) {
+                break;
+            }
+
+            pagination = results.getPagination().next();
+        }
+
+        assertEquals(datastore.getEntities(), all);
+        assertEquals(4, pagination.getPageNumber());
+        assertEquals(4, datastore.getBatchSizes().size());
+    }
+
+    /** Fake datastore holding integer entities, each with its own key. */
+    protected static class Datastore {
+        private List<Integer> entities = new ArrayList<Integer>();
+        private List<Key<Integer>> keys = new ArrayList<Key<Integer>>();
+        private Map<Key<Integer>, Integer> stored = new HashMap<Key<Integer>, Integer>();
+        private List<Key<Integer>> rejected = new ArrayList<Key<Integer>>();
+        private List<Integer> batchSizes = new ArrayList<Integer>();
+        private StubQuery.Statistics statistics = new StubQuery.Statistics();
+        private ObjectifyProxy proxy;
+
+        public Datastore(int size) {
+            for (int i = 0; i < size; i++) {
+                Key<Integer> key = new Key<Integer>("Stub", i + 1);
+                this.entities.add(i);
+                this.keys.add(key);
+                this.stored.put(key, i);
+            }
+
+            this.proxy = mock(ObjectifyProxy.class, new LoadAnswer(this));
+        }
+
+        public ObjectifyProxy getProxy() {
+            return this.proxy;
+        }
+
+        public List<Integer> getEntities() {
+            return this.entities;
+        }
+
+        public StubQuery.Statistics getStatistics() {
+            return this.statistics;
+        }
+
+        public List<Integer> getBatchSizes() {
+            return this.batchSizes;
+        }
+
+        public Query<Integer> createQuery() {
+            return StubQuery.create(this.entities, this.keys, this.statistics);
+        }
+
+        public KeysOnlyResultIterator<Integer> createIterator(IFilterPredicate<Integer> predicate, int batchSize) {
+            return new KeysOnlyResultIterator<Integer>(this.proxy, this.createQuery(), new RejectedKeyPredicate(this), predicate, batchSize);
+        }
+
+        public void rejectKey(int index) {
+            this.rejected.add(this.keys.get(index));
+        }
+
+        public boolean isRejected(int index) {
+            return this.rejected.contains(this.keys.get(index));
+        }
+
+        public void deleteEntity(int index) {
+            this.stored.remove(this.keys.get(index));
+        }
+    }
+
+    /** Answer for a mocked ObjectifyProxy, which handles batch gets against the fake datastore. */
+    private static class LoadAnswer implements Answer<Object> {
+        private Datastore datastore;
+
+        public LoadAnswer(Datastore datastore) {
+            this.datastore = datastore;
+        }
+
+        @Override
+        public Object answer(InvocationOnMock invocation) throws Throwable {
+            if ("get".equals(invocation.getMethod().getName()) && invocation.getArguments().length == 1) {
+                Map<Object, Integer> result = new HashMap<Object, Integer>();
+                int size = 0;
+                for (Object key : (Iterable<?>) invocation.getArguments()[0]) {
+                    size += 1;
+                    if (this.datastore.stored.containsKey(key)) {
+                        result.put(key, this.datastore.stored.get(key));
+                    }
+                }
+
+                this.datastore.batchSizes.add(size);
+                return result;
+            }
+
+            return invocation.callRealMethod();
+        }
+    }
+
+    /** Key predicate that rejects any key marked as rejected in the fake datastore. */
+    private static class RejectedKeyPredicate implements IKeyFilterPredicate<Integer> {
+        private Datastore datastore;
+
+        public RejectedKeyPredicate(Datastore datastore) {
+            this.datastore = datastore;
+        }
+
+        @Override
+        public boolean evaluate(Key<? extends Integer> key) {
+            return !this.datastore.rejected.contains(key);
+        }
+    }
+
+    /** Entity predicate equivalent to the combination of RejectedKeyPredicate and OddFilterPredicate. */
+    private static class KeyAwarePredicate implements IFilterPredicate<Integer> {
+        private Datastore datastore;
+
+        public KeyAwarePredicate(Datastore datastore) {
+            this.datastore = datastore;
+        }
+
+        @Override
+        public boolean evaluate(Integer value) {
+            return !this.datastore.isRejected(value) && value % 2 != 0;
+        }
+    }
+
+    /** Predicate that accepts only odd values. */
+    private static class OddFilterPredicate implements IFilterPredicate<Integer> {
+        @Override
+        public boolean evaluate(Integer value) {
+            return value % 2 != 0;
+        }
+    }
+
+}
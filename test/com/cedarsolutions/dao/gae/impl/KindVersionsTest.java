@@ -0,0 +1,115 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.google.appengine.api.memcache.MemcacheService;
+
+/**
+ * Unit tests for KindVersions.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class KindVersionsTest {
+
+    /** Test getKind(). */
+    @Test public void testGetKind() {
+        assertEquals("IntegerIdEntity", KindVersions.getKind(IntegerIdEntity.class));
+        assertEquals("StringIdEntity", KindVersions.getKind(StringIdEntity.class));
+    }
+
+    /** Test versions kept in memory. */
+    @Test public void testLocal() {
+        KindVersions kindVersions = new KindVersions();
+        assertNull(kindVersions.getMemcache());
+        assertEquals(0, kindVersions.getVersion("One"));
+        assertEquals(0, kindVersions.getVersion("Two"));
+
+        kindVersions.bump(Arrays.asList("One"));
+        assertEquals(1, kindVersions.getVersion("One"));
+        assertEquals(0, kindVersions.getVersion("Two"));
+
+        kindVersions.bump(Arrays.asList("One", "Two"));
+        assertEquals(2, kindVersions.getVersion("One"));
+        assertEquals(1, kindVersions.getVersion("Two"));
+
+        kindVersions.bump(Collections.<String>emptyList());
+        assertEquals(2, kindVersions.getVersion("One"));
+    }
+
+    /** Test versions kept in memcache. */
+    @Test public void testMemcache() {
+        MemcacheService memcache = mock(MemcacheService.class);
+        KindVersions kindVersions = new ClockedVersions(memcache, 5L);
+        assertSame(memcache, kindVersions.getMemcache());
+
+        when(memcache.increment("One", 0L, 5000L)).thenReturn(5003L);
+        assertEquals(5003L, kindVersions.getVersion("One"));
+
+        kindVersions.bump(Arrays.asList("One", "Two"));
+        verify(memcache).incrementAll(Arrays.asList("One", "Two"), 1L, 5000L);
+
+        kindVersions.bump(Collections.<String>emptyList());
+        verify(memcache, never()).incrementAll(Collections.<String>emptyList(), 1L, 5000L);
+    }
+
+    /** Test that every lookup gets a new version when memcache can't be reached. */
+    @Test public void testMemcacheUnavailable() {
+        MemcacheService memcache = mock(MemcacheService.class);
+        ClockedVersions kindVersions = new ClockedVersions(memcache, 5L);
+        when(memcache.increment("One", 0L, 5000L)).thenReturn(null);
+        assertEquals(5000L, kindVersions.getVersion("One"));
+        assertEquals(5001L, kindVersions.getVersion("One"));
+
+        kindVersions.now = 6L;
+        when(memcache.increment("One", 0L, 6000L)).thenReturn(null);
+        assertEquals(6000L, kindVersions.getVersion("One"));
+    }
+
+    /** Kind versions with a fixed clock. */
+    private static class ClockedVersions extends KindVersions {
+        private long now;
+
+        ClockedVersions(MemcacheService memcache, long now) {
+            super(memcache);
+            this.now = now;
+        }
+
+        @Override
+        protected long getInitialVersion() {
+            return this.now * 1000;
+        }
+    }
+
+}
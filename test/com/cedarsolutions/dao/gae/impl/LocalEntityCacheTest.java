@@ -0,0 +1,188 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.googlecode.objectify.Key;
+
+/**
+ * Unit tests for LocalEntityCache.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class LocalEntityCacheTest {
+
+    /** Test the constructors. */
+    @Test public void testConstructor() {
+        LocalEntityCache cache = new LocalEntityCache();
+        assertEquals(LocalEntityCache.DEFAULT_MAX_ENTRIES, cache.getMaxEntries());
+        assertEquals(LocalEntityCache.UNLIMITED, cache.getMaxBytes());
+        assertEquals(LocalEntityCache.DEFAULT_TIME_TO_LIVE, cache.getTimeToLive());
+        assertEquals(0, cache.size());
+
+        cache = new LocalEntityCache(10, 2000, 500);
+        assertEquals(10, cache.getMaxEntries());
+        assertEquals(2000, cache.getMaxBytes());
+        assertEquals(500, cache.getTimeToLive());
+
+        try {
+            new LocalEntityCache(-1, 0, 500);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            new LocalEntityCache(10, -1, 500);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            new LocalEntityCache(10, 0, 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Test get(), put(), remove() and clear(), along with statistics. */
+    @Test public void testGetPutRemove() {
+        LocalEntityCache cache = new LocalEntityCache();
+        IntegerIdEntity entity = new IntegerIdEntity(1, null);
+
+        assertNull(cache.get(createKey(1)));
+        cache.put(createKey(1), entity);
+        cache.put(null, entity);
+        cache.put(createKey(2), null);
+        assertEquals(1, cache.size());
+        IntegerIdEntity copy = (IntegerIdEntity) cache.get(createKey(1));
+        assertNotSame(entity, copy);
+        assertEquals(1, copy.getId());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        cache.remove(createKey(1));
+        assertNull(cache.get(createKey(1)));
+        assertEquals(2, cache.getMisses());
+
+        cache.put(createKey(1), entity);
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    /** Test that callers get independent copies of a cached entity. */
+    @Test public void testCopies() {
+        LocalEntityCache cache = new LocalEntityCache();
+        cache.put(createKey(1), new IntegerIdEntity(1, null));
+
+        IntegerIdEntity first = (IntegerIdEntity) cache.get(createKey(1));
+        first.setId(2);  // modified but never saved
+        IntegerIdEntity second = (IntegerIdEntity) cache.get(createKey(1));
+        assertNotSame(first, second);
+        assertEquals(1, second.getId());
+    }
+
+    /** Test that entities that aren't Serializable are not cached. */
+    @Test public void testNotSerializable() {
+        LocalEntityCache cache = new LocalEntityCache();
+        cache.put(createKey(1), "one");
+        cache.put(createKey(1), new Object());
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+        assertNull(cache.get(createKey(1)));
+        assertNull(LocalEntityCache.serialize(new Object()));
+    }
+
+    /** Test that the least-recently-used entry is evicted when the cache is full. */
+    @Test public void testMaxEntries() {
+        LocalEntityCache cache = new LocalEntityCache(2, LocalEntityCache.UNLIMITED, 1000);
+        cache.put(createKey(1), "one");
+        cache.put(createKey(2), "two");
+        cache.get(createKey(1));  // now 2 is least-recently-used
+        cache.put(createKey(3), "three");
+
+        assertEquals(2, cache.size());
+        assertEquals("one", cache.get(createKey(1)));
+        assertNull(cache.get(createKey(2)));
+        assertEquals("three", cache.get(createKey(3)));
+    }
+
+    /** Test that entries expire after the time to live. */
+    @Test public void testTimeToLive() {
+        StubbedTimeCache cache = new StubbedTimeCache(100);
+        cache.put(createKey(1), "one");
+        cache.now = 100;
+        assertEquals("one", cache.get(createKey(1)));
+        cache.now = 101;
+        assertNull(cache.get(createKey(1)));
+        assertEquals(0, cache.size());
+    }
+
+    /** Test the bound on size in bytes. */
+    @Test public void testMaxBytes() {
+        long size = LocalEntityCache.serialize("0123456789").length;
+        assertTrue(size > 10);
+
+        LocalEntityCache cache = new LocalEntityCache(LocalEntityCache.UNLIMITED, size * 2, 1000);
+        cache.put(createKey(1), "0123456789");
+        cache.put(createKey(2), "abcdefghij");
+        assertEquals(2, cache.size());
+        assertEquals(size * 2, cache.getBytes());
+
+        cache.put(createKey(3), "ABCDEFGHIJ");
+        assertEquals(2, cache.size());
+        assertEquals(size * 2, cache.getBytes());
+        assertNull(cache.get(createKey(1)));
+
+        cache.put(createKey(4), new Object());  // not Serializable
+        assertNull(cache.get(createKey(4)));
+
+        cache.put(createKey(5), "this value is too large to fit in the cache at all");
+        assertNull(cache.get(createKey(5)));
+
+        cache.remove(createKey(2));
+        assertEquals(size, cache.getBytes());
+    }
+
+    /** Create a key for testing. */
+    private static Key<Object> createKey(long id) {
+        return new Key<Object>("Stub", id);
+    }
+
+    /** Cache with a stubbed clock. */
+    private static class StubbedTimeCache extends LocalEntityCache {
+        private long now;
+
+        public StubbedTimeCache(long timeToLive) {
+            super(10, UNLIMITED, timeToLive);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return this.now;
+        }
+    }
+
+}
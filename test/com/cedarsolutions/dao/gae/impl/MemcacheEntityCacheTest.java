@@ -0,0 +1,182 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static com.cedarsolutions.dao.gae.impl.MemcacheEntityCache.GENERATION_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.cedarsolutions.dao.gae.impl.MemcacheEntityCache.CachedEntity;
+import com.google.appengine.api.NamespaceManager;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.googlecode.objectify.Key;
+
+/**
+ * Unit tests for MemcacheEntityCache.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class MemcacheEntityCacheTest {
+
+    /** Test the constructor. */
+    @Test public void testConstructor() {
+        MemcacheService memcache = mock(MemcacheService.class);
+        MemcacheEntityCache cache = new MemcacheEntityCache(memcache, 500);
+        assertSame(memcache, cache.getMemcache());
+        assertEquals(500, cache.getTimeToLive());
+
+        try {
+            new MemcacheEntityCache(memcache, 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Test get(), along with statistics. */
+    @Test public void testGet() {
+        MemcacheService memcache = mock(MemcacheService.class);
+        Key<Object> key1 = new Key<Object>("Stub", 1);
+        Key<Object> key2 = new Key<Object>("Stub", 2);
+        Key<Object> key3 = new Key<Object>("Stub", 3);
+        String cacheKey1 = MemcacheEntityCache.getCacheKey(key1);
+        String cacheKey2 = MemcacheEntityCache.getCacheKey(key2);
+        String cacheKey3 = MemcacheEntityCache.getCacheKey(key3);
+        when(memcache.getAll(Arrays.asList(GENERATION_KEY, cacheKey1))).thenReturn(createValues(cacheKey1, 5L, new CachedEntity(5, "one")));
+        when(memcache.getAll(Arrays.asList(GENERATION_KEY, cacheKey2))).thenReturn(createValues(cacheKey2, 5L, null));
+        when(memcache.getAll(Arrays.asList(GENERATION_KEY, cacheKey3))).thenReturn(createValues(cacheKey3, 6L, new CachedEntity(5, "three")));
+
+        MemcacheEntityCache cache = new MemcacheEntityCache(memcache, 500);
+        assertEquals("one", cache.get(key1));
+        assertNull(cache.get(key2));
+        assertNull(cache.get(key3));  // cached before the last clear()
+        assertNull(cache.get(new Key<Object>("Stub", 4)));
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+    }
+
+    /** Test put(), remove() and clear(). */
+    @Test public void testPutRemoveClear() {
+        MemcacheService memcache = mock(MemcacheService.class);
+        Key<Object> key = new Key<Object>("Stub", 1);
+        when(memcache.increment(GENERATION_KEY, 0L, 1000L)).thenReturn(5L);
+
+        MemcacheEntityCache cache = new StubbedGenerationCache(memcache);
+        cache.put(key, "one");
+        ArgumentCaptor<CachedEntity> captor = ArgumentCaptor.forClass(CachedEntity.class);
+        verify(memcache).put(eq(MemcacheEntityCache.getCacheKey(key)), captor.capture(), eq(Expiration.byDeltaMillis(500)));
+        assertEquals("one", captor.getValue().getEntity());
+        assertTrue(captor.getValue().isGeneration(5L));
+
+        cache.put(key, new Object());  // not Serializable
+        cache.put(null, "one");
+        verify(memcache, times(1)).put(anyObject(), anyObject(), any(Expiration.class));
+
+        when(memcache.increment(GENERATION_KEY, 0L, 1000L)).thenReturn(null);  // memcache is unavailable
+        cache.put(key, "one");
+        verify(memcache, times(1)).put(anyObject(), anyObject(), any(Expiration.class));
+
+        cache.remove(key);
+        verify(memcache).delete(MemcacheEntityCache.getCacheKey(key));
+
+        cache.clear();
+        verify(memcache).increment(GENERATION_KEY, 1L, 1000L);
+        verify(memcache, never()).clearAll();
+    }
+
+    /** Test that the same key in different datastore namespaces gets different memcache keys. */
+    @Test public void testNamespace() {
+        Key<Object> key = new Key<Object>("Stub", 5);
+        assertEquals(":" + key.toString(), MemcacheEntityCache.getCacheKey(key));  // default namespace outside of a request
+        assertEquals(MemcacheEntityCache.getCacheKey(key), MemcacheEntityCache.getCacheKey(null, key));
+        assertFalse(MemcacheEntityCache.getCacheKey("a", key).equals(MemcacheEntityCache.getCacheKey("b", key)));
+        assertFalse(MemcacheEntityCache.getCacheKey("a", key).equals(MemcacheEntityCache.getCacheKey(key)));
+
+        LocalServiceTestHelper helper = new LocalServiceTestHelper();
+        helper.setUp();
+        try {
+            MemcacheService memcache = mock(MemcacheService.class);
+            when(memcache.increment(GENERATION_KEY, 0L, 1000L)).thenReturn(5L);
+            MemcacheEntityCache cache = new StubbedGenerationCache(memcache);
+
+            NamespaceManager.set("tenantA");
+            cache.put(key, "A");
+            verify(memcache).put(eq(MemcacheEntityCache.getCacheKey("tenantA", key)), anyObject(), any(Expiration.class));
+
+            NamespaceManager.set("tenantB");
+            cache.put(key, "B");
+            verify(memcache).put(eq(MemcacheEntityCache.getCacheKey("tenantB", key)), anyObject(), any(Expiration.class));
+
+            Map<String, Object> values = createValues(MemcacheEntityCache.getCacheKey("tenantA", key), 5L, new CachedEntity(5, "A"));
+            when(memcache.getAll(Arrays.asList(GENERATION_KEY, MemcacheEntityCache.getCacheKey("tenantA", key)))).thenReturn(values);
+            assertNull(cache.get(key));  // tenant B doesn't see tenant A's entity
+
+            NamespaceManager.set("tenantA");
+            assertEquals("A", cache.get(key));
+        } finally {
+            helper.tearDown();
+        }
+    }
+
+    /** Create the values that memcache would return for a lookup. */
+    private static Map<String, Object> createValues(String cacheKey, Long generation, CachedEntity entity) {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put(GENERATION_KEY, generation);
+        if (entity != null) {
+            values.put(cacheKey, entity);
+        }
+
+        return values;
+    }
+
+    /** Cache with a stubbed initial generation. */
+    private static class StubbedGenerationCache extends MemcacheEntityCache {
+        public StubbedGenerationCache(MemcacheService memcache) {
+            super(memcache, 500);
+        }
+
+        @Override
+        protected long getInitialGeneration() {
+            return 1000L;
+        }
+    }
+
+}
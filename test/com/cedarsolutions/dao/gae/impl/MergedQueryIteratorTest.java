@@ -0,0 +1,218 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.cedarsolutions.dao.domain.PaginatedResults;
+import com.cedarsolutions.dao.domain.Pagination;
+import com.cedarsolutions.dao.gae.IFilterPredicate;
+import com.cedarsolutions.exception.DaoException;
+import com.googlecode.objectify.Query;
+
+/**
+ * Unit tests for MergedQueryIterator.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class MergedQueryIteratorTest {
+
+    private static final List<Integer> LIST1 = Arrays.asList(1, 4, 7, 10);
+    private static final List<Integer> LIST2 = Arrays.asList(2, 4, 8);
+    private static final List<Integer> LIST3 = Arrays.asList(3, 4, 9, 10, 11);
+
+    /** Test the constructor and getters. */
+    @Test public void testConstructor() {
+        IFilterPredicate<Integer> predicate = new NoOpFilterPredicate<Integer>();
+        Comparator<Integer> comparator = new IntegerComparator();
+        SafeIterator iterator = new SafeIterator(createQueries(), comparator, predicate, (String) null);
+        assertSame(predicate, iterator.getPredicate());
+        assertSame(comparator, iterator.getComparator());
+        assertEquals(0, iterator.getRowsScanned());
+        assertEquals(0, iterator.getRowsAccepted());
+    }
+
+    /** Test the remove() method. */
+    @Test public void testRemove() {
+        SafeIterator iterator = new SafeIterator(createQueries(), new IntegerComparator(), new NoOpFilterPredicate<Integer>(), (String) null);
+
+        try {
+            iterator.remove();
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) { }
+    }
+
+    /** Test that results are merged in order and duplicates are dropped. */
+    @Test public void testMerge() {
+        SafeIterator iterator = new SafeIterator(createQueries(), new IntegerComparator(), new NoOpFilterPredicate<Integer>(), (String) null);
+
+        List<Integer> results = new ArrayList<Integer>();
+        while (iterator.hasNext()) {
+            results.add(iterator.next());
+        }
+
+        assertEquals(Arrays.asList(1, 2, 3, 4, 7, 8, 9, 10, 11), results);
+        assertEquals(12, iterator.getRowsScanned());
+        assertEquals(9, iterator.getRowsAccepted());
+        assertEquals("*.*.*", iterator.getCursor());
+    }
+
+    /** Test that the predicate is applied to the merged results. */
+    @Test public void testPredicate() {
+        SafeIterator iterator = new SafeIterator(createQueries(), new IntegerComparator(), new OddFilterPredicate(), (String) null);
+
+        List<Integer> results = new ArrayList<Integer>();
+        while (iterator.hasNext()) {
+            results.add(iterator.next());
+        }
+
+        assertEquals(Arrays.asList(1, 3, 7, 9, 11), results);
+        assertEquals(12, iterator.getRowsScanned());
+        assertEquals(5, iterator.getRowsAccepted());
+    }
+
+    /** Test the composite cursor. */
+    @Test public void testCursor() {
+        SafeIterator iterator = new SafeIterator(createQueries(), new IntegerComparator(), new NoOpFilterPredicate<Integer>(), (String) null);
+        String start = iterator.getCursor();
+        assertEquals(3, start.split("\\.").length);
+
+        assertEquals(1, (int) iterator.next());
+        assertEquals(2, (int) iterator.next());
+        assertEquals(3, (int) iterator.next());
+        assertEquals(4, (int) iterator.next());
+
+        // Next item is 7, and all three copies of 4 have been consumed
+        List<String> positions = MergedQueryIterator.decodeCursor(iterator.getCursor(), 3);
+        assertEquals(2, StubQuery.offset(positions.get(0)));
+        assertEquals(2, StubQuery.offset(positions.get(1)));
+        assertEquals(2, StubQuery.offset(positions.get(2)));
+
+        iterator = new SafeIterator(createQueries(), new IntegerComparator(), new NoOpFilterPredicate<Integer>(), iterator.getCursor());
+        List<Integer> results = new ArrayList<Integer>();
+        while (iterator.hasNext()) {
+            results.add(iterator.next());
+        }
+
+        assertEquals(Arrays.asList(7, 8, 9, 10, 11), results);
+    }
+
+    /** Test paging through the merged stream with PaginationUtils. */
+    @Test public void testPagination() {
+        Pagination pagination = new Pagination(3);
+        List<Integer> all = new ArrayList<Integer>();
+
+        for (int page = 0; page < 10; page++) {
+            SafeIterator iterator = new SafeIterator(createQueries(), new IntegerComparator(), new NoOpFilterPredicate<Integer>(), pagination);
+            PaginatedResults<Integer> results = PaginationUtils.createPaginatedResults(pagination, iterator);
+            all.addAll(results);
+            if (!results.getPagination().hasNext()) {
+                break;
+            }
+
+            pagination = results.getPagination().next();
+        }
+
+        assertEquals(Arrays.asList(1, 2, 3, 4, 7, 8, 9, 10, 11), all);
+        assertEquals(3, pagination.getPageNumber());
+    }
+
+    /** Test encodeCursor() and decodeCursor(). */
+    @Test public void testEncodeDecode() {
+        assertEquals(Arrays.asList("", ""), MergedQueryIterator.decodeCursor(null, 2));
+        assertEquals(Arrays.asList("a", "", "*"), MergedQueryIterator.decodeCursor("a..*", 3));
+        assertEquals("a..*", MergedQueryIterator.encodeCursor(Arrays.asList("a", "", "*")));
+
+        try {
+            MergedQueryIterator.decodeCursor("a.b", 3);
+            fail("Expected DaoException");
+        } catch (DaoException e) { }
+    }
+
+    /** Test that an exhausted query is not executed again on resume. */
+    @Test public void testExhausted() {
+        StubQuery.Statistics statistics = new StubQuery.Statistics();
+        List<Query<Integer>> queries = new ArrayList<Query<Integer>>();
+        queries.add(StubQuery.create(LIST1, statistics));
+        queries.add(StubQuery.create(LIST2, statistics));
+
+        String cursor = MergedQueryIterator.encodeCursor(Arrays.asList(StubQuery.cursor(3).toWebSafeString(), "*"));
+        SafeIterator iterator = new SafeIterator(queries, new IntegerComparator(), new NoOpFilterPredicate<Integer>(), cursor);
+        assertEquals(1, statistics.getExecutions());
+        assertTrue(iterator.hasNext());
+        assertEquals(10, (int) iterator.next());
+        assertFalse(iterator.hasNext());
+    }
+
+    /** Create the standard set of queries. */
+    private static List<Query<Integer>> createQueries() {
+        List<Query<Integer>> queries = new ArrayList<Query<Integer>>();
+        queries.add(StubQuery.create(LIST1));
+        queries.add(StubQuery.create(LIST2));
+        queries.add(StubQuery.create(LIST3));
+        return queries;
+    }
+
+    /** Iterator we can actually test with, since there's no real Objectify factory. */
+    private static class SafeIterator extends MergedQueryIterator<Integer> {
+        SafeIterator(List<Query<Integer>> queries, Comparator<Integer> comparator, IFilterPredicate<Integer> predicate, String cursor) {
+            super(null, queries, comparator, predicate, cursor);
+        }
+
+        SafeIterator(List<Query<Integer>> queries, Comparator<Integer> comparator, IFilterPredicate<Integer> predicate, Pagination pagination) {
+            super(null, queries, comparator, predicate, pagination);
+        }
+
+        @Override
+        protected Object getIdentity(Integer element) {
+            return element;
+        }
+    }
+
+    /** Natural ordering for integers. */
+    private static class IntegerComparator implements Comparator<Integer> {
+        @Override
+        public int compare(Integer value1, Integer value2) {
+            return value1.compareTo(value2);
+        }
+    }
+
+    /** Predicate that accepts only odd values. */
+    private static class OddFilterPredicate implements IFilterPredicate<Integer> {
+        @Override
+        public boolean evaluate(Integer value) {
+            return value % 2 != 0;
+        }
+    }
+
+}
@@ -0,0 +1,233 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import com.cedarsolutions.dao.domain.AbstractSearchCriteriaWithSort;
+import com.cedarsolutions.dao.domain.SortOrder;
+import com.googlecode.objectify.Query;
+
+/**
+ * Unit tests for MultiColumnSort.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class MultiColumnSortTest {
+
+    /** Test building a sort, and its signatures. */
+    @Test public void testSignature() {
+        MultiColumnSort<Person> sort = createSort(null);
+        assertEquals(3, sort.getColumns().size());
+        assertEquals("", sort.getSignature(0));
+        assertEquals("last", sort.getSignature(1));
+        assertEquals("last,-first", sort.getSignature(2));
+        assertEquals("last,-first,id", sort.getSignature(3));
+        assertTrue(sort.getIndexes().isEmpty());
+
+        try {
+            sort.add(null, SortOrder.ASCENDING, Person.BY_ID);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Test deciding how much of the sort the datastore can do. */
+    @Test public void testIndexedCount() {
+        MultiColumnSort<Person> sort = createSort(null);
+        assertEquals(0, sort.getIndexedCount());
+        assertFalse(sort.isFullyIndexed());
+
+        sort = createSort(createSet("last", "first"));
+        assertEquals(1, sort.getIndexedCount());
+        assertFalse(sort.isFullyIndexed());
+
+        sort = createSort(createSet("last", "last,-first"));
+        assertEquals(2, sort.getIndexedCount());
+        assertFalse(sort.isFullyIndexed());
+
+        sort = createSort(createSet("last,first,id", "last,-first,id"));
+        assertEquals(3, sort.getIndexedCount());
+        assertTrue(sort.isFullyIndexed());
+    }
+
+    /** Test applying the indexed columns to a query. */
+    @SuppressWarnings("unchecked")
+    @Test public void testApply() {
+        Query<Person> query = mock(Query.class);
+        createSort(null).apply(query);
+        verifyZeroInteractions(query);
+
+        query = mock(Query.class);
+        createSort(createSet("last,-first")).apply(query);
+        InOrder order = inOrder(query);
+        order.verify(query).order("last");
+        order.verify(query).order("-first");
+        order.verifyNoMoreInteractions();
+    }
+
+    /** Test the comparators. */
+    @Test public void testComparator() {
+        Person p1 = new Person("Adams", "Zed", 3);
+        Person p2 = new Person("Adams", "Amy", 2);
+        Person p3 = new Person("Adams", "Amy", 1);
+        Person p4 = new Person("Baker", "Zed", 4);
+
+        MultiColumnSort<Person> sort = createSort(null);
+        List<Person> list = new ArrayList<Person>(Arrays.asList(p4, p3, p2, p1));
+        Collections.sort(list, sort.getComparator());
+        assertEquals(Arrays.asList(p1, p3, p2, p4), list);
+
+        assertEquals(0, sort.getComparator(1).compare(p1, p2));
+        assertTrue(sort.getComparator(2).compare(p1, p2) < 0);
+        assertEquals(0, sort.getComparator(0).compare(p1, p4));
+    }
+
+    /** Test creating a sort from search criteria. */
+    @Test public void testCreate() {
+        Map<Columns, Comparator<Person>> comparators = new HashMap<Columns, Comparator<Person>>();
+        comparators.put(Columns.LAST, Person.BY_LAST);
+        comparators.put(Columns.FIRST, Person.BY_FIRST);
+        comparators.put(Columns.ID, Person.BY_ID);
+        Set<String> indexes = createSet("-FIRST");
+
+        Criteria criteria = new Criteria();
+        MultiColumnSort<Person> sort = MultiColumnSort.create(criteria, comparators, indexes, Arrays.asList(Columns.LAST, Columns.ID));
+        assertEquals("LAST,ID", sort.getSignature(2));
+        assertEquals(2, sort.getColumns().size());  // the sort column isn't repeated as a tie-breaker
+        assertEquals(0, sort.getIndexedCount());
+
+        criteria.setSortColumn(Columns.FIRST);
+        criteria.setSortOrder(SortOrder.DESCENDING);
+        sort = MultiColumnSort.create(criteria, comparators, indexes, Arrays.asList(Columns.LAST, Columns.ID));
+        assertEquals("-FIRST,LAST,ID", sort.getSignature(3));
+        assertEquals(1, sort.getIndexedCount());
+
+        criteria.setSortColumn(null);
+        criteria.setSortOrder(null);
+        sort = MultiColumnSort.create(criteria, comparators, indexes, null);
+        assertEquals("LAST", sort.getSignature(1));
+        assertEquals(1, sort.getColumns().size());
+
+        comparators.remove(Columns.ID);
+        try {
+            MultiColumnSort.create(criteria, comparators, indexes, Arrays.asList(Columns.ID));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Create a sort on last name, first name descending, and id. */
+    private static MultiColumnSort<Person> createSort(Set<String> indexes) {
+        return new MultiColumnSort<Person>(indexes)
+                    .add("last", SortOrder.ASCENDING, Person.BY_LAST)
+                    .add("first", SortOrder.DESCENDING, Person.BY_FIRST)
+                    .add("id", SortOrder.ASCENDING, Person.BY_ID);
+    }
+
+    /** Create a set of strings. */
+    private static Set<String> createSet(String... values) {
+        return new HashSet<String>(Arrays.asList(values));
+    }
+
+    /** Entity used for testing, also used by TopKSorterTest. */
+    protected static class Person {
+        public static final Comparator<Person> BY_LAST = new Comparator<Person>() {
+            @Override
+            public int compare(Person o1, Person o2) {
+                return o1.last.compareTo(o2.last);
+            }
+        };
+
+        public static final Comparator<Person> BY_FIRST = new Comparator<Person>() {
+            @Override
+            public int compare(Person o1, Person o2) {
+                return o1.first.compareTo(o2.first);
+            }
+        };
+
+        public static final Comparator<Person> BY_ID = new Comparator<Person>() {
+            @Override
+            public int compare(Person o1, Person o2) {
+                return o1.id < o2.id ? -1 : (o1.id > o2.id ? 1 : 0);
+            }
+        };
+
+        private String last;
+        private String first;
+        private int id;
+
+        public Person(String last, String first, int id) {
+            this.last = last;
+            this.first = first;
+            this.id = id;
+        }
+
+        public int getId() {
+            return this.id;
+        }
+
+        @Override
+        public String toString() {
+            return this.last + ", " + this.first + " (" + this.id + ")";
+        }
+    }
+
+    /** Search criteria used for testing. */
+    @SuppressWarnings("serial")
+    private static class Criteria extends AbstractSearchCriteriaWithSort<Person, Columns> {
+        @Override
+        public Columns getDefaultSortColumn() {
+            return Columns.LAST;
+        }
+
+        @Override
+        public Columns getSortColumn(String columnName) {
+            return columnName == null ? null : Columns.valueOf(columnName);
+        }
+    }
+
+    /** Sort columns used for testing. */
+    private enum Columns {
+        LAST,
+        FIRST,
+        ID;
+    }
+
+}
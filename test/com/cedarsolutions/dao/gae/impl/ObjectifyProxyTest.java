@@ -22,20 +22,44 @@
  * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
 package com.cedarsolutions.dao.gae.impl;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import com.cedarsolutions.dao.domain.PaginatedResults;
+import com.cedarsolutions.dao.domain.Pagination;
+import com.cedarsolutions.dao.gae.IFilterPredicate;
+import com.cedarsolutions.dao.gae.domain.IContainer;
 import com.cedarsolutions.exception.DaoException;
+import com.google.appengine.api.datastore.Cursor;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.NotFoundException;
 import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.ObjectifyFactory;
+import com.googlecode.objectify.Query;
 
 /**
  * Unit tests for ObjectifyProxy.
@@ -43,6 +67,11 @@ import com.googlecode.objectify.Objectify;
  */
 public class ObjectifyProxyTest {
 
+    /** Make sure no identity map is left bound to the test thread. */
+    @After public void tearDown() {
+        RequestIdentityMap.end();
+    }
+
     /** Test the constructor. */
     @Test public void testConstructor() {
         Objectify objectify = mock(Objectify.class);
@@ -104,4 +133,660 @@ public class ObjectifyProxyTest {
         verify(objectify.getTxn()).rollback();
     }
 
+    /** Test that gets and finds go straight to the datastore when there is no identity map. */
+    @Test public void testNoIdentityMap() {
+        Objectify objectify = mock(Objectify.class);
+        IntegerIdEntity entity = new IntegerIdEntity(1, null);
+        when(objectify.find(IntegerIdEntity.class, 1L)).thenReturn(entity);
+
+        ObjectifyProxy proxy = new ObjectifyProxy(objectify);
+        assertSame(entity, proxy.find(IntegerIdEntity.class, 1L));
+        assertSame(entity, proxy.find(IntegerIdEntity.class, 1L));
+        verify(objectify, times(2)).find(IntegerIdEntity.class, 1L);
+    }
+
+    /** Test that gets and finds are served from the identity map, across proxies. */
+    @Test public void testIdentityMapGetFind() {
+        Objectify objectify = mock(Objectify.class);
+        IntegerIdEntity entity1 = new IntegerIdEntity(1, null);
+        StringIdEntity entity2 = new StringIdEntity();
+        Key<IntegerIdEntity> key1 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 1);
+        when(objectify.find(IntegerIdEntity.class, 1L)).thenReturn(entity1);
+        when(objectify.get(StringIdEntity.class, "two")).thenReturn(entity2);
+
+        RequestIdentityMap map = RequestIdentityMap.begin();
+        assertSame(entity1, new ObjectifyProxy(objectify).find(IntegerIdEntity.class, 1L));
+        assertSame(entity1, new ObjectifyProxy(objectify).find(IntegerIdEntity.class, 1L));
+        assertSame(entity1, new ObjectifyProxy(objectify).get(IntegerIdEntity.class, 1L));
+        assertSame(entity1, new ObjectifyProxy(objectify).find(key1));
+        assertSame(entity1, new ObjectifyProxy(objectify).get(key1));
+        verify(objectify, times(1)).find(IntegerIdEntity.class, 1L);
+
+        assertSame(entity2, new ObjectifyProxy(objectify).get(StringIdEntity.class, "two"));
+        assertSame(entity2, new ObjectifyProxy(objectify).find(StringIdEntity.class, "two"));
+        verify(objectify, times(1)).get(StringIdEntity.class, "two");
+
+        assertNull(new ObjectifyProxy(objectify).find(IntegerIdEntity.class, 3L));
+        assertNull(new ObjectifyProxy(objectify).find(IntegerIdEntity.class, 3L));
+        verify(objectify, times(2)).find(IntegerIdEntity.class, 3L);  // misses are not cached
+
+        assertEquals(2, map.size());
+        assertEquals(5, map.getHits());
+    }
+
+    /** Test that datastore gets are reported to the metrics sink, but identity map hits are not. */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test public void testMetrics() {
+        Objectify objectify = mock(Objectify.class);
+        IntegerIdEntity entity1 = new IntegerIdEntity(1, null);
+        StringIdEntity entity2 = new StringIdEntity();
+        Key<IntegerIdEntity> key1 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 1);
+        Map<Key<IntegerIdEntity>, IntegerIdEntity> batch = new LinkedHashMap<Key<IntegerIdEntity>, IntegerIdEntity>();
+        batch.put(key1, entity1);
+        when(objectify.find(IntegerIdEntity.class, 1L)).thenReturn(entity1);
+        when(objectify.get(StringIdEntity.class, "two")).thenReturn(entity2);
+        when(objectify.get((Iterable) any(Iterable.class))).thenReturn(batch);
+
+        InMemoryMetricsSink sink = new InMemoryMetricsSink();
+        ObjectifyProxy proxy = new ObjectifyProxy(objectify);
+        assertNull(proxy.getMetricsSink());
+        assertNull(proxy.getMetricsName());
+
+        proxy.setMetrics(sink, "TestDao");
+        assertSame(sink, proxy.getMetricsSink());
+        assertEquals("TestDao", proxy.getMetricsName());
+
+        assertSame(entity1, proxy.find(IntegerIdEntity.class, 1L));
+        assertNull(proxy.find(IntegerIdEntity.class, 3L));
+        assertSame(entity2, proxy.get(StringIdEntity.class, "two"));
+        assertEquals(1, proxy.get(Arrays.asList(key1)).size());
+
+        DaoMetrics metrics = sink.getMetrics("TestDao", "get IntegerIdEntity");
+        assertEquals(3, metrics.getExecutions());
+        assertEquals(2, metrics.getEntitiesFetchedByGet());
+        assertEquals(0, metrics.getEntitiesFetchedByQuery());
+        assertEquals(1, sink.getMetrics("TestDao", "get StringIdEntity").getExecutions());
+
+        RequestIdentityMap.begin().put(key1, entity1);
+        assertSame(entity1, proxy.find(IntegerIdEntity.class, 1L));
+        assertEquals(3, sink.getMetrics("TestDao", "get IntegerIdEntity").getExecutions());
+
+        sink.setEnabled(false);
+        RequestIdentityMap.end();
+        assertSame(entity1, proxy.find(IntegerIdEntity.class, 1L));
+        assertEquals(3, sink.getMetrics("TestDao", "get IntegerIdEntity").getExecutions());
+    }
+
+    /** Test that a batch get only loads the entities that are not in the identity map. */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test public void testIdentityMapBatchGet() {
+        Objectify objectify = mock(Objectify.class);
+        final Key<IntegerIdEntity> key1 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 1);
+        final Key<IntegerIdEntity> key2 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 2);
+        final Key<IntegerIdEntity> key3 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 3);
+        final IntegerIdEntity entity1 = new IntegerIdEntity(1, null);
+        final IntegerIdEntity entity2 = new IntegerIdEntity(2, null);
+
+        when(objectify.get((Iterable) any(Iterable.class))).thenAnswer(new Answer<Map<Key<IntegerIdEntity>, IntegerIdEntity>>() {
+            @Override
+            public Map<Key<IntegerIdEntity>, IntegerIdEntity> answer(InvocationOnMock invocation) throws Throwable {
+                List<Key<IntegerIdEntity>> keys = (List<Key<IntegerIdEntity>>) invocation.getArguments()[0];
+                assertFalse(keys.contains(key1));
+                Map<Key<IntegerIdEntity>, IntegerIdEntity> result = new LinkedHashMap<Key<IntegerIdEntity>, IntegerIdEntity>();
+                if (keys.contains(key2)) {
+                    result.put(key2, entity2);
+                }
+                return result;
+            }
+        });
+
+        RequestIdentityMap map = RequestIdentityMap.begin();
+        map.put(key1, entity1);
+
+        ObjectifyProxy proxy = new ObjectifyProxy(objectify);
+        Map<Key<IntegerIdEntity>, IntegerIdEntity> result = proxy.get(Arrays.asList(key3, key2, key1));
+        assertEquals(2, result.size());
+        assertEquals(Arrays.asList(key2, key1), Arrays.asList(result.keySet().toArray()));
+        assertSame(entity2, map.get(key2));
+
+        Map<Long, IntegerIdEntity> byId = proxy.get(IntegerIdEntity.class, 1L, 2L);
+        assertEquals(2, byId.size());
+        assertSame(entity1, byId.get(1L));
+        assertSame(entity2, byId.get(2L));
+    }
+
+    /** Test that puts and deletes invalidate the identity map, even when transactional. */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test public void testIdentityMapInvalidation() {
+        Objectify objectify = mock(Objectify.class);
+        ObjectifyFactory factory = mock(ObjectifyFactory.class);
+        when(objectify.getFactory()).thenReturn(factory);
+
+        Key<IntegerIdEntity> key1 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 1);
+        Key<IntegerIdEntity> key2 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 2);
+        Key<IntegerIdEntity> key3 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 3);
+        IntegerIdEntity entity1 = new IntegerIdEntity(1, null);
+        IntegerIdEntity entity2 = new IntegerIdEntity(2, null);
+        IntegerIdEntity entity3 = new IntegerIdEntity(3, null);
+        when(objectify.put(entity1)).thenReturn(key1);
+        when(factory.getKey(entity3)).thenReturn((Key) key3);
+
+        RequestIdentityMap map = RequestIdentityMap.begin();
+        map.put(key1, entity1);
+        map.put(key2, entity2);
+        map.put(key3, entity3);
+
+        new ObjectifyProxy(objectify, true).put(entity1);
+        assertNull(map.get(key1));
+
+        new ObjectifyProxy(objectify).delete(IntegerIdEntity.class, 2L);
+        assertNull(map.get(key2));
+
+        new ObjectifyProxy(objectify).delete(entity3);
+        assertNull(map.get(key3));
+        assertEquals(0, map.size());
+    }
+
+    /** Test that keys written in a transaction are invalidated in the identity map again at commit. */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test public void testIdentityMapCommit() {
+        Objectify objectify = mock(Objectify.class, Mockito.RETURNS_DEEP_STUBS);
+        Key<IntegerIdEntity> key1 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 1);
+        Key<IntegerIdEntity> key2 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 2);
+        IntegerIdEntity entity1 = new IntegerIdEntity(1, null);
+        IntegerIdEntity entity2 = new IntegerIdEntity(2, null);
+        when(objectify.put(entity1)).thenReturn(key1);
+        when(objectify.getFactory().getKey(entity2)).thenReturn((Key) key2);
+        when(objectify.getTxn().isActive()).thenReturn(true);
+
+        RequestIdentityMap map = RequestIdentityMap.begin();
+
+        ObjectifyProxy transaction = new ObjectifyProxy(objectify, true);
+        transaction.put(entity1);
+        map.put(key1, entity1);  // a non-transactional read loads the pre-commit entity
+        transaction.commit();
+        assertNull(map.get(key1));
+
+        transaction = new ObjectifyProxy(objectify, true, null, 10);
+        transaction.put(entity2);
+        map.put(key2, entity2);  // same thing, while the write is still buffered
+        transaction.commit();
+        assertNull(map.get(key2));
+
+        transaction = new ObjectifyProxy(objectify, true);
+        transaction.put(entity1);
+        transaction.rollback();
+        map.put(key1, entity1);
+        transaction.commit();
+        assertSame(entity1, map.get(key1));  // nothing pending after rollback
+    }
+
+    /** Test that transactional proxies never read from the identity map. */
+    @Test public void testIdentityMapTransactional() {
+        Objectify objectify = mock(Objectify.class);
+        Key<IntegerIdEntity> key1 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 1);
+        IntegerIdEntity cached = new IntegerIdEntity(1, null);
+        IntegerIdEntity stored = new IntegerIdEntity(1, null);
+        when(objectify.find(IntegerIdEntity.class, 1L)).thenReturn(stored);
+
+        RequestIdentityMap map = RequestIdentityMap.begin();
+        map.put(key1, cached);
+
+        assertSame(stored, new ObjectifyProxy(objectify, true).find(IntegerIdEntity.class, 1L));
+        assertSame(cached, new ObjectifyProxy(objectify, false).find(IntegerIdEntity.class, 1L));
+    }
+
+    /** Test that gets and finds for cached kinds are served from the entity cache. */
+    @Test public void testEntityCache() {
+        Objectify objectify = mock(Objectify.class);
+        IntegerIdEntity entity = new IntegerIdEntity(1, null);
+        StringIdEntity uncached = new StringIdEntity();
+        when(objectify.get(IntegerIdEntity.class, 1L)).thenReturn(entity);
+        when(objectify.find(StringIdEntity.class, "x")).thenReturn(uncached);
+
+        LocalEntityCache cache = new LocalEntityCache();
+        EntityCacheManager manager = new EntityCacheManager();
+        manager.register("IntegerIdEntity", cache);
+
+        assertSame(entity, new ObjectifyProxy(objectify, false, manager).get(IntegerIdEntity.class, 1L));
+        IntegerIdEntity copy = new ObjectifyProxy(objectify, false, manager).get(IntegerIdEntity.class, 1L);
+        assertNotSame(entity, copy);  // the cache hands out copies
+        assertEquals(1, copy.getId());
+        assertEquals(1, new ObjectifyProxy(objectify, false, manager).find(new Key<IntegerIdEntity>(IntegerIdEntity.class, 1)).getId());
+        verify(objectify, times(1)).get(IntegerIdEntity.class, 1L);
+        assertEquals(2, cache.getHits());
+
+        assertSame(uncached, new ObjectifyProxy(objectify, false, manager).find(StringIdEntity.class, "x"));
+        assertSame(uncached, new ObjectifyProxy(objectify, false, manager).find(StringIdEntity.class, "x"));
+        verify(objectify, times(2)).find(StringIdEntity.class, "x");
+
+        // An entity found in the entity cache is also remembered in the identity map
+        RequestIdentityMap map = RequestIdentityMap.begin();
+        copy = new ObjectifyProxy(objectify, false, manager).get(IntegerIdEntity.class, 1L);
+        assertSame(copy, map.get(new Key<IntegerIdEntity>(IntegerIdEntity.class, 1)));
+    }
+
+    /** Test that the entity cache is invalidated by writes, and again when a transaction commits. */
+    @Test public void testEntityCacheInvalidation() {
+        Objectify objectify = mock(Objectify.class, Mockito.RETURNS_DEEP_STUBS);
+        Key<IntegerIdEntity> key1 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 1);
+        Key<IntegerIdEntity> key2 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 2);
+        IntegerIdEntity entity1 = new IntegerIdEntity(1, null);
+        when(objectify.put(entity1)).thenReturn(key1);
+        when(objectify.getTxn().isActive()).thenReturn(true);
+
+        LocalEntityCache cache = new LocalEntityCache();
+        EntityCacheManager manager = new EntityCacheManager();
+        manager.register("IntegerIdEntity", cache);
+
+        cache.put(key1, entity1);
+        new ObjectifyProxy(objectify, false, manager).put(entity1);
+        assertNull(cache.get(key1));
+
+        ObjectifyProxy transaction = new ObjectifyProxy(objectify, true, manager);
+        cache.put(key1, entity1);
+        transaction.put(entity1);
+        assertNull(cache.get(key1));
+        cache.put(key1, entity1);  // a concurrent reader re-caches the old value
+        transaction.commit();
+        assertNull(cache.get(key1));
+
+        transaction = new ObjectifyProxy(objectify, true, manager);
+        transaction.delete(IntegerIdEntity.class, 2L);
+        transaction.rollback();
+        cache.put(key2, entity1);
+        transaction.commit();
+        assertEquals(1, cache.get(key2).getId());  // nothing pending after rollback
+    }
+
+    /** Test that writes bump kind versions, immediately outside a transaction and on commit within one. */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test public void testKindVersions() {
+        Objectify objectify = mock(Objectify.class, Mockito.RETURNS_DEEP_STUBS);
+        Key<IntegerIdEntity> key1 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 1);
+        IntegerIdEntity entity1 = new IntegerIdEntity(1, null);
+        when(objectify.put(entity1)).thenReturn(key1);
+        when(objectify.getFactory().getKey(entity1)).thenReturn((Key) key1);
+        when(objectify.getTxn().isActive()).thenReturn(true);
+
+        KindVersions kindVersions = new KindVersions();
+        ObjectifyProxy proxy = new ObjectifyProxy(objectify);
+        assertNull(proxy.getKindVersions());
+        proxy.setKindVersions(kindVersions);
+        assertSame(kindVersions, proxy.getKindVersions());
+
+        proxy.put(entity1);
+        assertEquals(1, kindVersions.getVersion("IntegerIdEntity"));
+        proxy.delete(IntegerIdEntity.class, 2L);
+        assertEquals(2, kindVersions.getVersion("IntegerIdEntity"));
+        proxy.delete(key1, new Key<StringIdEntity>(StringIdEntity.class, "a"));
+        assertEquals(3, kindVersions.getVersion("IntegerIdEntity"));
+        assertEquals(1, kindVersions.getVersion("StringIdEntity"));
+
+        ObjectifyProxy transaction = new ObjectifyProxy(objectify, true);
+        transaction.setKindVersions(kindVersions);
+        transaction.put(entity1);
+        transaction.delete(IntegerIdEntity.class, 2L);
+        assertEquals(3, kindVersions.getVersion("IntegerIdEntity"));
+        transaction.commit();
+        assertEquals(4, kindVersions.getVersion("IntegerIdEntity"));  // bumped once per transaction
+
+        transaction = new ObjectifyProxy(objectify, true, null, 10);
+        transaction.setKindVersions(kindVersions);
+        transaction.put(entity1);
+        transaction.rollback();
+        transaction.commit();
+        assertEquals(4, kindVersions.getVersion("IntegerIdEntity"));
+
+        transaction = new ObjectifyProxy(objectify, true, null, 10);
+        transaction.setKindVersions(kindVersions);
+        transaction.put(entity1);
+        transaction.commit();
+        assertEquals(5, kindVersions.getVersion("IntegerIdEntity"));
+    }
+
+    /** Test that a transactional proxy with write-behind buffers writes until commit, and reads see them. */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test public void testWriteBehind() {
+        Objectify objectify = mock(Objectify.class, Mockito.RETURNS_DEEP_STUBS);
+        Key<IntegerIdEntity> key1 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 1);
+        Key<IntegerIdEntity> key2 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 2);
+        Key<IntegerIdEntity> key3 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 3);
+        IntegerIdEntity entity1 = new IntegerIdEntity(1, null);
+        IntegerIdEntity entity3 = new IntegerIdEntity(3, null);
+        Map<Key<IntegerIdEntity>, IntegerIdEntity> loaded = new LinkedHashMap<Key<IntegerIdEntity>, IntegerIdEntity>();
+        loaded.put(key3, entity3);
+        when(objectify.getFactory().getKey(entity1)).thenReturn((Key) key1);
+        when(objectify.get(Arrays.asList(key3))).thenReturn(loaded);
+        when(objectify.getTxn().isActive()).thenReturn(true);
+
+        assertNull(new ObjectifyProxy(objectify, false, null, 10).getWriteBehindBuffer());
+        assertNull(new ObjectifyProxy(objectify, true, null, 0).getWriteBehindBuffer());
+
+        ObjectifyProxy proxy = new ObjectifyProxy(objectify, true, null, 10);
+        assertEquals(key1, proxy.put(entity1));
+        proxy.delete(IntegerIdEntity.class, 2L);
+        verify(objectify, never()).put(entity1);
+        verify(objectify, never()).put((Iterable) any(Iterable.class));
+        verify(objectify, never()).delete((Iterable) any(Iterable.class));
+        assertEquals(2, proxy.getWriteBehindBuffer().size());
+
+        assertSame(entity1, proxy.get(key1));
+        assertSame(entity1, proxy.get(IntegerIdEntity.class, 1L));
+        assertSame(entity1, proxy.find(IntegerIdEntity.class, 1L));
+        assertNull(proxy.find(key2));
+        assertNull(proxy.find(IntegerIdEntity.class, 2L));
+
+        try {
+            proxy.get(key2);
+            fail("Expected NotFoundException");
+        } catch (NotFoundException e) { }
+
+        Map<Key<IntegerIdEntity>, IntegerIdEntity> result = proxy.get(Arrays.asList(key1, key2, key3));
+        assertEquals(2, result.size());
+        assertSame(entity1, result.get(key1));
+        assertSame(entity3, result.get(key3));
+
+        proxy.commit();
+        verify(objectify).put(Arrays.<Object>asList(entity1));
+        verify(objectify).delete(Arrays.<Object>asList(key2));
+        verify(objectify.getTxn()).commit();
+        assertTrue(proxy.getWriteBehindBuffer().isEmpty());
+    }
+
+    /** Test that the write-behind buffer is flushed when full, and before a put that needs a key allocated. */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test public void testWriteBehindFlush() {
+        Objectify objectify = mock(Objectify.class, Mockito.RETURNS_DEEP_STUBS);
+        Key<IntegerIdEntity> key1 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 1);
+        Key<IntegerIdEntity> key2 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 2);
+        Key<IntegerIdEntity> key3 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 3);
+        IntegerIdEntity entity1 = new IntegerIdEntity(1, null);
+        IntegerIdEntity entity2 = new IntegerIdEntity(2, null);
+        IntegerIdEntity entity3 = new IntegerIdEntity(3, null);
+        IntegerIdEntity incomplete = new IntegerIdEntity();
+        when(objectify.getFactory().getKey(entity1)).thenReturn((Key) key1);
+        when(objectify.getFactory().getKey(entity2)).thenReturn((Key) key2);
+        when(objectify.getFactory().getKey(entity3)).thenReturn((Key) key3);
+        when(objectify.getFactory().getKey(incomplete)).thenThrow(new IllegalArgumentException("null id"));
+        when(objectify.put(incomplete)).thenReturn(new Key<IntegerIdEntity>(IntegerIdEntity.class, 4));
+
+        ObjectifyProxy proxy = new ObjectifyProxy(objectify, true, null, 2);
+        Map<Key<IntegerIdEntity>, IntegerIdEntity> keys = proxy.put(entity1, entity2);
+        assertEquals(Arrays.asList(key1, key2), Arrays.asList(keys.keySet().toArray()));
+        verify(objectify).put(Arrays.<Object>asList(entity1, entity2));
+        assertEquals(1, proxy.getWriteBehindBuffer().getFlushes());
+
+        proxy.put(entity3);
+        assertEquals(new Key<IntegerIdEntity>(IntegerIdEntity.class, 4), proxy.put(incomplete));
+        verify(objectify).put(Arrays.<Object>asList(entity3));
+        verify(objectify).put(incomplete);
+        assertEquals(2, proxy.getWriteBehindBuffer().getFlushes());
+
+        proxy.delete(key1);
+        proxy.rollback();
+        assertTrue(proxy.getWriteBehindBuffer().isEmpty());
+        verify(objectify, never()).delete((Iterable) any(Iterable.class));
+    }
+
+    /** Test query(Class, Pagination) with raw cursors and cursor handles. */
+    @SuppressWarnings("unchecked")
+    @Test public void testQueryPagination() {
+        Objectify objectify = mock(Objectify.class);
+        Query<IntegerIdEntity> query = mock(Query.class);
+        when(objectify.query(IntegerIdEntity.class)).thenReturn(query);
+
+        CursorRegistry registry = new CursorRegistry();
+        String page1 = registry.register(StubQuery.cursor(0).toWebSafeString());
+        String page2 = registry.register(StubQuery.cursor(5).toWebSafeString());
+        String page3 = registry.register(StubQuery.cursor(10).toWebSafeString());
+        Pagination pagination = new Pagination(5);
+        pagination.update(page1, page2, 5);
+        pagination = pagination.next();
+        pagination.update(page2, page3, 5);
+        pagination = pagination.next();
+
+        ObjectifyProxy proxy = new ObjectifyProxy(objectify, false, null, 0, registry);
+        assertSame(registry, proxy.getCursorRegistry());
+        assertSame(query, proxy.query(IntegerIdEntity.class, null));
+        assertSame(query, proxy.query(IntegerIdEntity.class, new Pagination(5)));
+        verify(query, never()).startCursor(any(Cursor.class));
+
+        proxy.query(IntegerIdEntity.class, pagination);
+        verify(query).startCursor(StubQuery.cursor(10));
+
+        pagination = new Pagination(5);
+        pagination.update(StubQuery.cursor(7).toWebSafeString(), null, 5);
+        proxy.query(IntegerIdEntity.class, pagination);
+        verify(query).startCursor(StubQuery.cursor(7));
+    }
+
+    /** Test query(Class, Pagination) with seek cursors from CheckpointBuilder. */
+    @SuppressWarnings("unchecked")
+    @Test public void testQueryPaginationSeek() {
+        Objectify objectify = mock(Objectify.class);
+        Query<IntegerIdEntity> query = mock(Query.class);
+        when(objectify.query(IntegerIdEntity.class)).thenReturn(query);
+
+        Pagination pagination = new Pagination(5).seek(8, CheckpointBuilder.createSeekCursor(StubQuery.cursor(30).toWebSafeString(), 5));
+        new ObjectifyProxy(objectify).query(IntegerIdEntity.class, pagination);
+        verify(query).startCursor(StubQuery.cursor(30));
+        verify(query, never()).offset(anyInt());  // PaginationUtils skips the rows through the iterator
+        verify(query, never()).chunkSize(anyInt());  // unplanned without a predicate
+
+        query = mock(Query.class);
+        when(objectify.query(IntegerIdEntity.class)).thenReturn(query);
+        pagination = new Pagination(5).seek(2, CheckpointBuilder.createSeekCursor(null, 5));
+        new ObjectifyProxy(objectify).query(IntegerIdEntity.class, pagination, null);
+        verify(query, never()).startCursor(any(Cursor.class));
+        verify(query, never()).offset(anyInt());
+        verify(query).limit(11);
+    }
+
+    /** Test query(Class, Pagination) when a cursor handle has expired after a seek from a checkpoint. */
+    @SuppressWarnings("unchecked")
+    @Test public void testQueryPaginationExpiredSeek() {
+        Objectify objectify = mock(Objectify.class);
+        Query<IntegerIdEntity> query = mock(Query.class);
+        when(objectify.query(IntegerIdEntity.class)).thenReturn(query);
+        CursorRegistry registry = new CursorRegistry();
+
+        Pagination pagination = new Pagination(5).seek(7, CheckpointBuilder.createSeekCursor(StubQuery.cursor(20).toWebSafeString(), 5));
+        pagination = pagination.seek(8, CheckpointBuilder.createSeekCursor(StubQuery.cursor(30).toWebSafeString(), 5));
+        pagination.update(CursorRegistry.PREFIX + "8", CursorRegistry.PREFIX + "9", 5);
+        pagination = pagination.next();
+
+        // Handles for pages 8 and 9 are unknown, so start at the checkpoint for page 7 and skip to page 9
+        ObjectifyProxy proxy = new ObjectifyProxy(objectify, false, null, 0, registry);
+        proxy.query(IntegerIdEntity.class, pagination, null);
+        verify(query).startCursor(StubQuery.cursor(20));
+        verify(query).offset(15);
+    }
+
+    /** Test that paginated queries with a predicate get fetch sizes planned around the page size. */
+    @SuppressWarnings("unchecked")
+    @Test public void testQueryFetchPlanning() {
+        FetchPlanner.reset();
+        Objectify objectify = mock(Objectify.class);
+        Query<IntegerIdEntity> query = mock(Query.class);
+        when(objectify.query(IntegerIdEntity.class)).thenReturn(query);
+        ObjectifyProxy proxy = new ObjectifyProxy(objectify);
+
+        proxy.query(IntegerIdEntity.class, null);
+        proxy.query(IntegerIdEntity.class, null, new NoLargeIdFilterPredicate());
+        verify(query, never()).chunkSize(anyInt());
+
+        FetchPlanner.record(new NoLargeIdFilterPredicate(), 10, 10);
+        proxy.query(IntegerIdEntity.class, new Pagination(5));  // left to the datastore, even for a predicate that accepts everything
+        verify(query, never()).chunkSize(anyInt());
+        verify(query, never()).prefetchSize(anyInt());
+        verify(query, never()).limit(anyInt());
+        FetchPlanner.reset();
+
+        query = mock(Query.class);
+        when(objectify.query(IntegerIdEntity.class)).thenReturn(query);
+        proxy.query(IntegerIdEntity.class, new Pagination(5), new NoOpFilterPredicate<IntegerIdEntity>());
+        verify(query).limit(6);
+        verify(query).chunkSize(6);
+
+        query = mock(Query.class);
+        when(objectify.query(IntegerIdEntity.class)).thenReturn(query);
+        FetchPlanner.record(new NoLargeIdFilterPredicate(), 10, 5);
+        proxy.query(IntegerIdEntity.class, new Pagination(5), new NoLargeIdFilterPredicate());
+        verify(query).chunkSize(12);
+        verify(query).prefetchSize(12);
+        verify(query, never()).limit(anyInt());
+        FetchPlanner.reset();
+    }
+
+    /** Test that unpaged queries (page size 0) aren't planned at all. */
+    @SuppressWarnings("unchecked")
+    @Test public void testQueryUnpaged() {
+        Objectify objectify = mock(Objectify.class);
+        Query<IntegerIdEntity> query = mock(Query.class);
+        when(objectify.query(IntegerIdEntity.class)).thenReturn(query);
+        ObjectifyProxy proxy = new ObjectifyProxy(objectify);
+
+        assertSame(query, proxy.query(IntegerIdEntity.class, new Pagination()));
+        assertSame(query, proxy.query(IntegerIdEntity.class, new Pagination(), null));
+        assertSame(query, proxy.query(IntegerIdEntity.class, new Pagination(), new NoLargeIdFilterPredicate()));
+        verify(query, never()).limit(anyInt());
+        verify(query, never()).chunkSize(anyInt());
+        verify(query, never()).prefetchSize(anyInt());
+    }
+
+    /** Test that container queries are planned around the predicate for the contained values. */
+    @SuppressWarnings("unchecked")
+    @Test public void testQueryContainer() {
+        FetchPlanner.reset();
+        Objectify objectify = mock(Objectify.class);
+        Query<StringContainer> query = mock(Query.class);
+        when(objectify.query(StringContainer.class)).thenReturn(query);
+        ObjectifyProxy proxy = new ObjectifyProxy(objectify);
+
+        assertSame(query, proxy.queryContainer(StringContainer.class, new Pagination(5), null));
+        verify(query).limit(6);
+        verify(query).chunkSize(6);
+
+        query = mock(Query.class);
+        when(objectify.query(StringContainer.class)).thenReturn(query);
+        RejectX predicate = new RejectX();
+        FetchPlanner.record(predicate, 10, 5);
+        assertSame(query, proxy.queryContainer(StringContainer.class, new Pagination(5), predicate));
+        verify(query).chunkSize(12);
+        verify(query).prefetchSize(12);
+        verify(query, never()).limit(anyInt());
+        FetchPlanner.reset();
+    }
+
+    /** Test that a filtering DAO gets the right page back after its cursor handles expired. */
+    @Test public void testQueryPaginationExpiredFiltered() {
+        List<IntegerIdEntity> list = new ArrayList<IntegerIdEntity>();
+        for (int i = 1; i <= 15; i++) {
+            list.add(new IntegerIdEntity(i, null));
+            list.add(new IntegerIdEntity(200 + i, null));  // rejected by the predicate
+        }
+
+        Objectify objectify = mock(Objectify.class);
+        when(objectify.query(IntegerIdEntity.class)).thenReturn(StubQuery.create(list));
+        CursorRegistry registry = new CursorRegistry();
+        Pagination pagination = new Pagination(5);
+        pagination.update(registry.register(StubQuery.cursor(0).toWebSafeString()), CursorRegistry.PREFIX + "2", 5);
+        pagination = pagination.next();
+        pagination.update(CursorRegistry.PREFIX + "2", CursorRegistry.PREFIX + "3", 5);
+        pagination = pagination.next();
+
+        ObjectifyProxy proxy = new ObjectifyProxy(objectify, false, null, 0, registry);
+        Query<IntegerIdEntity> query = proxy.query(IntegerIdEntity.class, pagination);
+        IIteratorWithCursor<IntegerIdEntity> iterator = new FilteredResultIterator<IntegerIdEntity>(query, new NoLargeIdFilterPredicate());
+        PaginatedResults<IntegerIdEntity> results = PaginationUtils.createPaginatedResults(pagination, iterator, registry);
+
+        assertEquals(5, results.size());
+        assertEquals(11, results.get(0).getId());
+        assertEquals(15, results.get(4).getId());
+        assertEquals(3, results.getPagination().getPageNumber());
+        assertTrue(CursorRegistry.isHandle(results.getPagination().getCurrent()));
+        assertEquals(StubQuery.cursor(20), Cursor.fromWebSafeString(registry.resolve(results.getPagination().getCurrent())));
+    }
+
+    /** Test query(Class, Pagination) when cursor handles have expired. */
+    @SuppressWarnings("unchecked")
+    @Test public void testQueryPaginationExpired() {
+        Objectify objectify = mock(Objectify.class);
+        Query<IntegerIdEntity> query = mock(Query.class);
+        when(objectify.query(IntegerIdEntity.class)).thenReturn(query);
+
+        CursorRegistry registry = new CursorRegistry();
+        Pagination pagination = new Pagination(5);
+        pagination.update(registry.register(StubQuery.cursor(0).toWebSafeString()), CursorRegistry.PREFIX + "2", 5);
+        pagination = pagination.next();
+        pagination.update(CursorRegistry.PREFIX + "2", CursorRegistry.PREFIX + "3", 4);
+        pagination = pagination.next();
+        assertEquals(3, pagination.getPageNumber());
+
+        // Handles for pages 2 and 3 are unknown, so start at page 1 and skip pages 1 and 2
+        ObjectifyProxy proxy = new ObjectifyProxy(objectify, false, null, 0, registry);
+        proxy.query(IntegerIdEntity.class, pagination, new NoOpFilterPredicate<IntegerIdEntity>());
+        verify(query).startCursor(StubQuery.cursor(0));
+        verify(query).offset(9);
+
+        // With no registry at all, start at the beginning
+        query = mock(Query.class);
+        when(objectify.query(IntegerIdEntity.class)).thenReturn(query);
+        new ObjectifyProxy(objectify).query(IntegerIdEntity.class, pagination, null);
+        verify(query, never()).startCursor(any(Cursor.class));
+        verify(query).offset(9);
+
+        // If rows may be filtered in memory, the accepted rows are skipped via a seek cursor instead
+        query = mock(Query.class);
+        when(objectify.query(IntegerIdEntity.class)).thenReturn(query);
+        Pagination filtered = pagination.copy();
+        proxy.query(IntegerIdEntity.class, filtered, new NoLargeIdFilterPredicate());
+        verify(query).startCursor(StubQuery.cursor(0));
+        verify(query, never()).offset(anyInt());
+        assertEquals(CheckpointBuilder.createSeekCursor(StubQuery.cursor(0).toWebSafeString(), 9), filtered.getCurrent());
+        assertEquals(3, filtered.getPageNumber());
+
+        query = mock(Query.class);
+        when(objectify.query(IntegerIdEntity.class)).thenReturn(query);
+        filtered = pagination.copy();
+        new ObjectifyProxy(objectify).query(IntegerIdEntity.class, filtered);
+        verify(query, never()).startCursor(any(Cursor.class));
+        verify(query, never()).offset(anyInt());
+        assertEquals(CheckpointBuilder.createSeekCursor(null, 9), filtered.getCurrent());
+
+        // An expired handle for the first page just starts at the beginning
+        query = mock(Query.class);
+        when(objectify.query(IntegerIdEntity.class)).thenReturn(query);
+        Pagination first = new Pagination(5);
+        first.update(CursorRegistry.PREFIX + "4", null, 5);
+        proxy.query(IntegerIdEntity.class, first, new NoLargeIdFilterPredicate());
+        verify(query, never()).startCursor(any(Cursor.class));
+        verify(query, never()).offset(anyInt());
+    }
+
+    /** Container that holds a string. */
+    private static class StringContainer implements IContainer<String> {
+        private static final long serialVersionUID = 1L;
+        private String value;
+
+        @Override
+        public void fromValue(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public String toValue() {
+            return this.value;
+        }
+    }
+
+    /** Predicate that rejects the value "X". */
+    private static class RejectX implements IFilterPredicate<String> {
+        @Override
+        public boolean evaluate(String value) {
+            return !"X".equals(value);
+        }
+    }
+
 }
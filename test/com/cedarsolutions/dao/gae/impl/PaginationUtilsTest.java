@@ -23,13 +23,17 @@
 package com.cedarsolutions.dao.gae.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import org.junit.Test;
 import org.mockito.invocation.InvocationOnMock;
@@ -37,6 +41,8 @@ import org.mockito.stubbing.Answer;
 
 import com.cedarsolutions.dao.domain.PaginatedResults;
 import com.cedarsolutions.dao.domain.Pagination;
+import com.cedarsolutions.dao.gae.IFilterPredicate;
+import com.googlecode.objectify.Query;
 
 /**
  * Unit tests for PaginationUtils.
@@ -125,6 +131,216 @@ public class PaginationUtilsTest {
         assertEquals("two", results.getPagination().next().getCurrent());      // because there is a next
     }
 
+    /** Non-empty iterator, with a cursor registry. */
+    @Test public void testCursorRegistry() {
+        List<String> list = new ArrayList<String>();
+        list.add("one");
+        list.add("two");
+        list.add("three");
+
+        CursorRegistry registry = new CursorRegistry();
+        Pagination pagination = new Pagination(2);
+        FilteredResultIterator<String> iterator = buildFilteredResultsIteratorForList(list);
+        PaginatedResults<String> results = PaginationUtils.createPaginatedResults(pagination, iterator, registry);
+        assertEquals(2, results.size());
+        assertTrue(CursorRegistry.isHandle(results.getPagination().getCurrent()));
+        assertTrue(CursorRegistry.isHandle(results.getPagination().next().getCurrent()));
+        assertEquals("one", registry.resolve(results.getPagination().getCurrent()));
+        assertEquals("two", registry.resolve(results.getPagination().next().getCurrent()));
+    }
+
+    /** Test that the rows after a checkpoint are skipped for a seek cursor, counting only accepted rows. */
+    @Test public void testSeekCursor() {
+        List<String> list = new ArrayList<String>();
+        list.add("a");
+        list.add("X");
+        list.add("b");
+        list.add("X");
+        list.add("c");
+        list.add("d");
+        list.add("e");
+
+        Pagination pagination = new Pagination(2).seek(2, CheckpointBuilder.createSeekCursor(null, 2));
+        FilteredResultIterator<String> iterator = new FilteredResultIterator<String>(StubQuery.create(list), new RejectX());
+        PaginatedResults<String> results = PaginationUtils.createPaginatedResults(pagination, iterator);
+        assertEquals(2, results.size());
+        assertEquals("c", results.get(0));
+        assertEquals("d", results.get(1));
+        assertEquals(2, results.getPagination().getPageNumber());
+        assertEquals(StubQuery.cursor(4).toWebSafeString(), results.getPagination().getCurrent());
+        assertEquals(StubQuery.cursor(6).toWebSafeString(), results.getPagination().next().getCurrent());
+        assertEquals(4, results.getPagination().getTotalRows());
+    }
+
+    /** Test skipRows(). */
+    @Test public void testSkipRows() {
+        List<String> rows = new ArrayList<String>();
+        rows.add("a");
+        rows.add("b");
+        rows.add("c");
+
+        Iterator<String> iterator = rows.iterator();
+        assertEquals(0, PaginationUtils.skipRows(iterator, 0));
+        assertEquals(2, PaginationUtils.skipRows(iterator, 2));
+        assertEquals("c", iterator.next());
+
+        iterator = rows.iterator();
+        assertEquals(3, PaginationUtils.skipRows(iterator, 5));
+        assertFalse(iterator.hasNext());
+    }
+
+    /** Test createPaginatedResultsWithPrefetch(), with an executor that fetches the next page in the calling thread. */
+    @Test public void testPrefetch() {
+        List<String> list = new ArrayList<String>();
+        list.add("one");
+        list.add("two");
+        list.add("three");
+        list.add("four");
+        list.add("five");
+
+        StubQuery.Statistics statistics = new StubQuery.Statistics();
+        StubPageSource source = new StubPageSource(list, statistics);
+        PrefetchBuffer buffer = new PrefetchBuffer();
+        Executor executor = new CallingThreadExecutor();
+
+        // The first page is fetched directly, and the second page is fetched into the buffer
+        PaginatedResults<String> results = PaginationUtils.createPaginatedResultsWithPrefetch(new Pagination(2), "criteria", source, buffer, executor);
+        assertEquals(2, results.size());
+        assertEquals("one", results.get(0));
+        assertEquals("two", results.get(1));
+        assertEquals(2, source.opened);
+        assertEquals(2, statistics.getExecutions());
+        assertEquals(1, buffer.size());
+
+        // The second page is served from the buffer without a query, and the third page is fetched into the buffer
+        results = PaginationUtils.createPaginatedResultsWithPrefetch(results.getPagination().next(), "criteria", source, buffer, executor);
+        assertEquals(2, results.size());
+        assertEquals("three", results.get(0));
+        assertEquals("four", results.get(1));
+        assertEquals(3, source.opened);
+        assertEquals(3, statistics.getExecutions());
+        assertEquals(1, buffer.getHits());
+
+        // Different search keys don't share prefetched pages
+        results = PaginationUtils.createPaginatedResultsWithPrefetch(results.getPagination().next(), "other", source, buffer, executor);
+        assertEquals(1, results.size());
+        assertEquals("five", results.get(0));
+        assertEquals(4, source.opened);
+        assertFalse(results.getPagination().hasNext());
+
+        // Without a buffer, nothing is prefetched
+        results = PaginationUtils.createPaginatedResultsWithPrefetch(new Pagination(2), "criteria", source, null, executor);
+        assertEquals(2, results.size());
+        assertEquals(5, source.opened);
+
+        // Without an executor, nothing is prefetched either, since the request would wait for it
+        PrefetchBuffer unused = new PrefetchBuffer();
+        results = PaginationUtils.createPaginatedResultsWithPrefetch(new Pagination(2), "criteria", source, unused, null);
+        assertEquals(2, results.size());
+        assertEquals(6, source.opened);
+        assertEquals(0, unused.size());
+
+        try {
+            PaginationUtils.createPaginatedResultsWithPrefetch(null, "criteria", source, buffer, null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Test createPaginatedResultsWithPrefetch(), fetching the next page on an executor. */
+    @Test public void testPrefetchExecutor() {
+        List<String> list = new ArrayList<String>();
+        list.add("one");
+        list.add("two");
+        list.add("three");
+
+        StubQuery.Statistics statistics = new StubQuery.Statistics();
+        StubPageSource source = new StubPageSource(list, statistics);
+        PrefetchBuffer buffer = new PrefetchBuffer();
+        final List<Runnable> queued = new ArrayList<Runnable>();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        };
+
+        PaginatedResults<String> results = PaginationUtils.createPaginatedResultsWithPrefetch(new Pagination(2), "criteria",
+                                                                                              source, buffer, executor);
+        assertEquals(2, results.size());
+        assertEquals(1, source.opened);
+        assertEquals(1, queued.size());
+        assertEquals(0, buffer.size());
+
+        queued.remove(0).run();
+        assertEquals(2, source.opened);
+        assertEquals(1, buffer.size());
+
+        results = PaginationUtils.createPaginatedResultsWithPrefetch(results.getPagination().next(), "criteria", source, buffer, executor);
+        assertEquals(1, results.size());
+        assertEquals("three", results.get(0));
+        assertEquals(2, source.opened);
+        assertEquals(2, statistics.getExecutions());
+        assertTrue(queued.isEmpty());
+    }
+
+    /** Test that a failed prefetch is counted, and doesn't fail the request. */
+    @Test public void testPrefetchFailure() {
+        List<String> list = new ArrayList<String>();
+        list.add("one");
+        list.add("two");
+        list.add("three");
+
+        final StubPageSource delegate = new StubPageSource(list, new StubQuery.Statistics());
+        IPageSource<String> source = new IPageSource<String>() {
+            @Override
+            public IIteratorWithCursor<String> open(Pagination pagination) {
+                if (pagination.getCurrent() != null) {
+                    throw new RuntimeException("Hello");
+                }
+
+                return delegate.open(pagination);
+            }
+        };
+
+        PrefetchBuffer buffer = new PrefetchBuffer();
+        PaginatedResults<String> results = PaginationUtils.createPaginatedResultsWithPrefetch(new Pagination(2), "criteria", source, buffer,
+                                                                                              new CallingThreadExecutor());
+        assertEquals(2, results.size());
+        assertEquals(0, buffer.size());
+        assertEquals(1, buffer.getFailures());
+    }
+
+    /** Executor that runs tasks immediately. */
+    private static class CallingThreadExecutor implements Executor {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    }
+
+    /** Page source over a stubbed query. */
+    private static class StubPageSource implements IPageSource<String> {
+        private List<String> list;
+        private StubQuery.Statistics statistics;
+        private int opened;
+
+        StubPageSource(List<String> list, StubQuery.Statistics statistics) {
+            this.list = list;
+            this.statistics = statistics;
+        }
+
+        @Override
+        public IIteratorWithCursor<String> open(Pagination pagination) {
+            this.opened += 1;
+            Query<String> query = StubQuery.create(this.list, this.statistics);
+            if (pagination.getCurrent() != null) {
+                query.startCursor(CursorUtils.deserialize(pagination.getCurrent()));
+            }
+
+            return new FilteredResultIterator<String>(query, new NoOpFilterPredicate<String>(), true);
+        }
+    }
+
     /** Build a mocked FilteredResultsIterator from a list. */
     @SuppressWarnings("unchecked")
     private static FilteredResultIterator<String> buildFilteredResultsIteratorForList(List<String> list) {
@@ -166,4 +382,13 @@ public class PaginationUtilsTest {
             return iterator.hasNext();
         }
     }
+
+    /** Predicate that rejects the value "X". */
+    private static class RejectX implements IFilterPredicate<String> {
+        @Override
+        public boolean evaluate(String value) {
+            return !"X".equals(value);
+        }
+    }
+
 }
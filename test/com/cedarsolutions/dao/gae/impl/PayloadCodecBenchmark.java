@@ -0,0 +1,118 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import com.cedarsolutions.dao.gae.IPayloadCodec;
+
+/**
+ * Benchmark comparing payload size and throughput across the payload codecs.
+ *
+ * <p>
+ * This is not a unit test, and isn't picked up by the test suites.  Run it
+ * by hand with the test classpath, i.e. via the main() method.  Each codec
+ * is measured with and without compression for small, medium and large
+ * object graphs, after a warmup pass so the JIT has settled.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class PayloadCodecBenchmark {
+
+    /** Number of items in each of the object graphs that are measured. */
+    private static final int[] ITEMS = new int[] { 5, 50, 500, };
+
+    /** Minimum amount of time to spend on each measurement, in milliseconds. */
+    private static final long DURATION = 1000;
+
+    /** Run the benchmark. */
+    public static void main(String[] args) {
+        PayloadCodecBenchmark benchmark = new PayloadCodecBenchmark();
+        benchmark.run(false);  // warmup
+        benchmark.run(true);
+    }
+
+    /** Run each measurement, optionally printing the results. */
+    private void run(boolean print) {
+        if (print) {
+            System.out.println(String.format("%-14s %-8s %6s %10s %12s %12s", "codec", "deflate", "items", "bytes", "encode/sec", "decode/sec"));
+        }
+
+        for (int items : ITEMS) {
+            StubPayload value = StubPayload.create(items, 10, items);
+            for (int format = PayloadCodecs.FORMAT_JAVA; format <= PayloadCodecs.FORMAT_COMPACT; format++) {
+                IPayloadCodec codec = PayloadCodecs.getCodec(format);
+                for (boolean compress : new boolean[] { false, true, }) {
+                    Result result = this.measure(codec, value, compress);
+                    if (print) {
+                        System.out.println(String.format("%-14s %-8s %6d %10d %12.0f %12.0f",
+                                                         getName(codec), compress, items, result.size,
+                                                         result.encodesPerSecond, result.decodesPerSecond));
+                    }
+                }
+            }
+        }
+    }
+
+    /** Measure a single codec against a single value. */
+    private Result measure(IPayloadCodec codec, StubPayload value, boolean compress) {
+        Result result = new Result();
+        byte[] payload = PayloadCodecs.encode(codec, value, compress);
+        result.size = payload.length;
+
+        long count = 0;
+        long start = System.nanoTime();
+        long elapsed = 0;
+        while (elapsed < DURATION * 1000000L) {
+            PayloadCodecs.encode(codec, value, compress);
+            count += 1;
+            elapsed = System.nanoTime() - start;
+        }
+
+        result.encodesPerSecond = count / (elapsed / 1000000000.0);
+
+        count = 0;
+        start = System.nanoTime();
+        elapsed = 0;
+        while (elapsed < DURATION * 1000000L) {
+            PayloadCodecs.decode(StubPayload.class, payload);
+            count += 1;
+            elapsed = System.nanoTime() - start;
+        }
+
+        result.decodesPerSecond = count / (elapsed / 1000000000.0);
+        return result;
+    }
+
+    /** Get a short name for a codec. */
+    private static String getName(IPayloadCodec codec) {
+        return codec.getClass().getSimpleName().replace("Codec", "").replace("Serialization", "");
+    }
+
+    /** Results of a single measurement. */
+    private static class Result {
+        private int size;
+        private double encodesPerSecond;
+        private double decodesPerSecond;
+    }
+
+}
@@ -0,0 +1,252 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.cedarsolutions.dao.gae.ICompactSerializable;
+import com.cedarsolutions.dao.gae.IPayloadCodec;
+import com.cedarsolutions.exception.DaoException;
+
+/**
+ * Unit tests for PayloadCodecs and the standard codecs.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class PayloadCodecsTest {
+
+    /** Test that the standard codecs are registered. */
+    @Test public void testStandardCodecs() {
+        assertTrue(PayloadCodecs.getCodec(PayloadCodecs.FORMAT_JAVA) instanceof JavaSerializationCodec);
+        assertTrue(PayloadCodecs.getCodec(PayloadCodecs.FORMAT_JAXB) instanceof JaxbCodec);
+        assertTrue(PayloadCodecs.getCodec(PayloadCodecs.FORMAT_GSON) instanceof GsonCodec);
+        assertTrue(PayloadCodecs.getCodec(PayloadCodecs.FORMAT_COMPACT) instanceof CompactBinaryCodec);
+
+        try {
+            PayloadCodecs.getCodec(PayloadCodecs.MAX_FORMAT);
+            fail("Expected DaoException");
+        } catch (DaoException e) { }
+    }
+
+    /** Test register(). */
+    @Test public void testRegister() {
+        PayloadCodecs.register(new JavaSerializationCodec());  // re-registering the same codec is harmless
+
+        try {
+            PayloadCodecs.register(new StubCodec(PayloadCodecs.FORMAT_JAVA, 0));
+            fail("Expected DaoException");
+        } catch (DaoException e) { }
+
+        try {
+            PayloadCodecs.register(new StubCodec(0, 0));
+            fail("Expected DaoException");
+        } catch (DaoException e) { }
+
+        try {
+            PayloadCodecs.register(new StubCodec(PayloadCodecs.MAX_FORMAT + 1, 0));
+            fail("Expected DaoException");
+        } catch (DaoException e) { }
+
+        try {
+            PayloadCodecs.register(new StubCodec(12, PayloadCodecs.MAX_VERSION + 1));
+            fail("Expected DaoException");
+        } catch (DaoException e) { }
+    }
+
+    /** Test the header layout. */
+    @Test public void testHeader() {
+        byte[] payload = new byte[] { PayloadCodecs.createHeader(15, 7, true), };
+        assertEquals(15, PayloadCodecs.getFormat(payload));
+        assertEquals(7, PayloadCodecs.getVersion(payload));
+        assertTrue(PayloadCodecs.isCompressed(payload));
+
+        payload = new byte[] { PayloadCodecs.createHeader(4, 2, false), };
+        assertEquals(0x44, payload[0]);
+        assertEquals(4, PayloadCodecs.getFormat(payload));
+        assertEquals(2, PayloadCodecs.getVersion(payload));
+        assertFalse(PayloadCodecs.isCompressed(payload));
+    }
+
+    /** Test a round trip through each of the standard codecs, with and without compression. */
+    @Test public void testRoundTrip() {
+        StubPayload value = StubPayload.create(42, 5, 20);
+        for (int format = PayloadCodecs.FORMAT_JAVA; format <= PayloadCodecs.FORMAT_COMPACT; format++) {
+            IPayloadCodec codec = PayloadCodecs.getCodec(format);
+
+            byte[] plain = PayloadCodecs.encode(codec, value, false);
+            assertEquals(format, PayloadCodecs.getFormat(plain));
+            assertFalse(PayloadCodecs.isCompressed(plain));
+            StubPayload result = PayloadCodecs.decode(StubPayload.class, plain);
+            assertNotSame(value, result);
+            assertEquals(value, result);
+
+            byte[] compressed = PayloadCodecs.encode(codec, value, true);
+            assertEquals(format, PayloadCodecs.getFormat(compressed));
+            assertTrue(PayloadCodecs.isCompressed(compressed));
+            assertTrue(compressed.length < plain.length);
+            assertEquals(value, PayloadCodecs.decode(StubPayload.class, compressed));
+        }
+    }
+
+    /** Test that compression is skipped when it doesn't make the payload smaller. */
+    @Test public void testCompressionSkipped() {
+        IPayloadCodec codec = PayloadCodecs.getCodec(PayloadCodecs.FORMAT_COMPACT);
+        StubPayload value = StubPayload.create(1, 0, 0);
+        byte[] payload = PayloadCodecs.encode(codec, value, true);
+        assertFalse(PayloadCodecs.isCompressed(payload));
+        assertEquals(value, PayloadCodecs.decode(StubPayload.class, payload));
+    }
+
+    /** Test decode() with invalid payloads. */
+    @Test public void testDecodeInvalid() {
+        try {
+            PayloadCodecs.decode(StubPayload.class, null);
+            fail("Expected DaoException");
+        } catch (DaoException e) { }
+
+        try {
+            PayloadCodecs.decode(StubPayload.class, new byte[0]);
+            fail("Expected DaoException");
+        } catch (DaoException e) { }
+
+        try {
+            PayloadCodecs.decode(StubPayload.class, new byte[] { PayloadCodecs.createHeader(14, 0, false), });
+            fail("Expected DaoException");
+        } catch (DaoException e) { }
+
+        try {
+            PayloadCodecs.decode(StubPayload.class, new byte[] { PayloadCodecs.createHeader(PayloadCodecs.FORMAT_JAVA, 1, false), });
+            fail("Expected DaoException");
+        } catch (DaoException e) { }
+
+        try {
+            PayloadCodecs.decode(StubPayload.class, new byte[] { PayloadCodecs.createHeader(PayloadCodecs.FORMAT_JAVA, 0, true), 1, 2, 3, });
+            fail("Expected DaoException");
+        } catch (DaoException e) { }
+    }
+
+    /** Test that the compact codec rejects values that don't support it. */
+    @Test public void testCompactUnsupported() {
+        IPayloadCodec codec = PayloadCodecs.getCodec(PayloadCodecs.FORMAT_COMPACT);
+
+        try {
+            codec.encode("hello");
+            fail("Expected DaoException");
+        } catch (DaoException e) { }
+
+        try {
+            codec.decode(String.class, new byte[0], 0);
+            fail("Expected DaoException");
+        } catch (DaoException e) { }
+    }
+
+    /** Test that the compact codec passes the payload's version to the value. */
+    @Test public void testCompactVersion() {
+        assertEquals(0, new CompactBinaryCodec().getVersion());
+        assertEquals(3, new CompactBinaryCodec(3).getVersion());
+
+        try {
+            new CompactBinaryCodec(-1);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            new CompactBinaryCodec(PayloadCodecs.MAX_VERSION + 1);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        byte[] old = PayloadCodecs.encode(PayloadCodecs.getCodec(PayloadCodecs.FORMAT_COMPACT), new VersionedValue(), false);
+        try {
+            PayloadCodecs.register(new CompactBinaryCodec(3));
+            byte[] current = PayloadCodecs.encode(PayloadCodecs.getCodec(PayloadCodecs.FORMAT_COMPACT), new VersionedValue(), false);
+            assertEquals(0, PayloadCodecs.getVersion(old));
+            assertEquals(3, PayloadCodecs.getVersion(current));
+            assertEquals(0, PayloadCodecs.decode(VersionedValue.class, old).version);
+            assertEquals(3, PayloadCodecs.decode(VersionedValue.class, current).version);
+        } finally {
+            PayloadCodecs.register(new CompactBinaryCodec());
+        }
+
+        try {
+            PayloadCodecs.decode(VersionedValue.class, PayloadCodecs.encode(new CompactBinaryCodec(3), new VersionedValue(), false));
+            fail("Expected DaoException");
+        } catch (DaoException e) { }
+    }
+
+    /** Compact value that records the version it was read with. */
+    public static class VersionedValue implements ICompactSerializable {
+        private int version = -1;
+
+        @Override
+        public void writeTo(DataOutput output) throws IOException {
+            output.writeInt(42);
+        }
+
+        @Override
+        public void readFrom(DataInput input, int version) throws IOException {
+            assertEquals(42, input.readInt());
+            this.version = version;
+        }
+    }
+
+    /** Codec with an arbitrary format and version. */
+    private static class StubCodec implements IPayloadCodec {
+        private int format;
+        private int version;
+
+        public StubCodec(int format, int version) {
+            this.format = format;
+            this.version = version;
+        }
+
+        @Override
+        public int getFormat() {
+            return this.format;
+        }
+
+        @Override
+        public int getVersion() {
+            return this.version;
+        }
+
+        @Override
+        public byte[] encode(Object value) {
+            return new byte[0];
+        }
+
+        @Override
+        public <T> T decode(Class<T> type, byte[] data, int version) {
+            return null;
+        }
+    }
+
+}
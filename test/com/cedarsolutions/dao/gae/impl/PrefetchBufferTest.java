@@ -0,0 +1,157 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.cedarsolutions.dao.domain.PaginatedResults;
+import com.cedarsolutions.dao.domain.Pagination;
+
+/**
+ * Unit tests for PrefetchBuffer.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class PrefetchBufferTest {
+
+    /** Test the constructor. */
+    @Test public void testConstructor() {
+        PrefetchBuffer buffer = new PrefetchBuffer();
+        assertEquals(PrefetchBuffer.DEFAULT_MAX_PAGES, buffer.getMaxPages());
+        assertEquals(PrefetchBuffer.DEFAULT_TIME_TO_LIVE, buffer.getTimeToLive());
+        assertEquals(0, buffer.size());
+
+        buffer = new PrefetchBuffer(2, 100L);
+        assertEquals(2, buffer.getMaxPages());
+        assertEquals(100L, buffer.getTimeToLive());
+    }
+
+    /** Test put() and take(). */
+    @Test public void testPutTake() {
+        PaginatedResults<String> page1 = createPage(10, "cursor");
+        PaginatedResults<String> page2 = createPage(10, "cursor");
+
+        PrefetchBuffer buffer = new PrefetchBuffer();
+        buffer.put("criteria", page1);
+        buffer.put(null, page2);
+        assertEquals(2, buffer.size());
+
+        assertNull(buffer.take("criteria", 20, "cursor"));
+        assertNull(buffer.take("other", 10, "cursor"));
+        assertNull(buffer.take("criteria", 10, "other"));
+        assertSame(page1, buffer.take("criteria", 10, "cursor"));
+        assertNull(buffer.take("criteria", 10, "cursor"));  // can only be taken once
+        assertSame(page2, buffer.take(null, 10, "cursor"));
+        assertEquals(0, buffer.size());
+        assertEquals(2, buffer.getHits());
+        assertEquals(4, buffer.getMisses());
+
+        buffer.put("criteria", page1);
+        buffer.clear();
+        assertEquals(0, buffer.size());
+
+        try {
+            buffer.put("criteria", new PaginatedResults<String>());
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        assertEquals(0, buffer.getFailures());
+        buffer.recordFailure();
+        assertEquals(1, buffer.getFailures());
+    }
+
+    /** Test that the buffer is bounded. */
+    @Test public void testBounded() {
+        PaginatedResults<String> page1 = createPage(10, "1");
+        PaginatedResults<String> page2 = createPage(10, "2");
+        PaginatedResults<String> page3 = createPage(10, "3");
+
+        PrefetchBuffer buffer = new PrefetchBuffer(2, 1000L);
+        buffer.put(null, page1);
+        buffer.put(null, page2);
+        buffer.put(null, page3);
+        assertEquals(2, buffer.size());
+        assertNull(buffer.take(null, 10, "1"));
+        assertSame(page2, buffer.take(null, 10, "2"));
+        assertSame(page3, buffer.take(null, 10, "3"));
+    }
+
+    /** Test that entries expire. */
+    @Test public void testExpiration() {
+        PaginatedResults<String> page1 = createPage(10, "1");
+        PaginatedResults<String> page2 = createPage(10, "2");
+
+        ClockedBuffer buffer = new ClockedBuffer(100L);
+        buffer.now = 1000L;
+        buffer.put(null, page1);
+        buffer.now = 1050L;
+        buffer.put(null, page2);
+        buffer.now = 1101L;
+        assertEquals(1, buffer.size());
+        assertNull(buffer.take(null, 10, "1"));
+        assertSame(page2, buffer.take(null, 10, "2"));
+    }
+
+    /** Test the session registry. */
+    @Test public void testSessionBuffer() {
+        PrefetchBuffer buffer1 = PrefetchBuffer.getSessionBuffer("session1");
+        PrefetchBuffer buffer2 = PrefetchBuffer.getSessionBuffer("session2");
+        assertNotSame(buffer1, buffer2);
+        assertSame(buffer1, PrefetchBuffer.getSessionBuffer("session1"));
+
+        PrefetchBuffer.removeSessionBuffer("session1");
+        assertNotSame(buffer1, PrefetchBuffer.getSessionBuffer("session1"));
+
+        PrefetchBuffer.removeSessionBuffer("session1");
+        PrefetchBuffer.removeSessionBuffer("session2");
+    }
+
+    /** Create a page that starts at a cursor. */
+    private static PaginatedResults<String> createPage(int pageSize, String cursor) {
+        PaginatedResults<String> page = new PaginatedResults<String>();
+        page.add(cursor);
+        page.setPagination(new Pagination(pageSize));
+        page.getPagination().update(cursor, null, 1);
+        return page;
+    }
+
+    /** Buffer with a controllable clock. */
+    private static class ClockedBuffer extends PrefetchBuffer {
+        private long now;
+
+        ClockedBuffer(long timeToLive) {
+            super(PrefetchBuffer.DEFAULT_MAX_PAGES, timeToLive);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return this.now;
+        }
+    }
+
+}
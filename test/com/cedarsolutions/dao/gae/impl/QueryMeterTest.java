@@ -0,0 +1,119 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.cedarsolutions.dao.gae.IFilterPredicate;
+
+/**
+ * Unit tests for QueryMeter.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class QueryMeterTest {
+
+    /** Test that a null or disabled sink gives a meter that does nothing. */
+    @Test public void testDisabled() {
+        assertSame(QueryMeter.DISABLED, QueryMeter.start(null, "UserDao", "retrieveUsers"));
+        assertSame(QueryMeter.DISABLED, QueryMeter.start(NoOpMetricsSink.INSTANCE, "UserDao", "retrieveUsers"));
+
+        InMemoryMetricsSink sink = new InMemoryMetricsSink();
+        sink.setEnabled(false);
+        assertSame(QueryMeter.DISABLED, QueryMeter.start(sink, "UserDao", "retrieveUsers"));
+        assertFalse(QueryMeter.DISABLED.isEnabled());
+        QueryMeter.DISABLED.stop(null);
+    }
+
+    /** Test metering a filtered query. */
+    @Test public void testMeter() {
+        List<Integer> list = new ArrayList<Integer>();
+        for (int i = 0; i < 10; i++) {
+            list.add(i);
+        }
+
+        final long[] now = new long[] { 1000L, };
+        InMemoryMetricsSink sink = new InMemoryMetricsSink();
+        QueryMeter meter = new QueryMeter(sink, "UserDao", "retrieveEven") {
+            @Override
+            protected long nanoTime() {
+                return now[0];
+            }
+        };
+
+        assertTrue(meter.isEnabled());
+        assertSame(sink, meter.getSink());
+        assertEquals("UserDao", meter.getDao());
+        assertEquals("retrieveEven", meter.getShape());
+
+        FilteredResultIterator<Integer> iterator = new FilteredResultIterator<Integer>(StubQuery.create(list), new EvenPredicate());
+        while (iterator.hasNext()) {
+            iterator.next();
+        }
+
+        now[0] += 5000000L;
+        meter.stop(iterator);
+
+        DaoMetrics metrics = sink.getMetrics("UserDao", "retrieveEven");
+        assertEquals(1, metrics.getExecutions());
+        assertEquals(5.0, metrics.getElapsedMillis(), 0.0);
+        assertEquals(10, metrics.getRowsScanned());
+        assertEquals(5, metrics.getRowsAccepted());
+        assertEquals(10, metrics.getEntitiesFetchedByQuery());
+        assertEquals(11, metrics.getCursorSerializations());  // one per row, plus the starting position
+    }
+
+    /** Test that a keys-only query doesn't count its rows as entities fetched by the query. */
+    @SuppressWarnings("unchecked")
+    @Test public void testKeysOnly() {
+        KeysOnlyResultIterator<Integer> iterator = mock(KeysOnlyResultIterator.class);
+        when(iterator.getRowsScanned()).thenReturn(20L);
+        when(iterator.getRowsAccepted()).thenReturn(4L);
+
+        InMemoryMetricsSink sink = new InMemoryMetricsSink();
+        QueryMeter.start(sink, "UserDao", "retrieveKeys").stop(iterator);
+
+        DaoMetrics metrics = sink.getMetrics("UserDao", "retrieveKeys");
+        assertEquals(20, metrics.getRowsScanned());
+        assertEquals(4, metrics.getRowsAccepted());
+        assertEquals(0, metrics.getEntitiesFetchedByQuery());
+    }
+
+    /** Predicate that accepts even values. */
+    private static class EvenPredicate implements IFilterPredicate<Integer> {
+        @Override
+        public boolean evaluate(Integer value) {
+            return value % 2 == 0;
+        }
+    }
+
+}
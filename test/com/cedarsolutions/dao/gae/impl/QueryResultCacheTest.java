@@ -0,0 +1,267 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.cedarsolutions.dao.domain.PaginatedResults;
+import com.cedarsolutions.dao.domain.Pagination;
+
+/**
+ * Unit tests for QueryResultCache.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class QueryResultCacheTest {
+
+    /** Test the constructor. */
+    @Test public void testConstructor() {
+        KindVersions kindVersions = new KindVersions();
+        QueryResultCache cache = new QueryResultCache(kindVersions);
+        assertSame(kindVersions, cache.getKindVersions());
+        assertEquals(QueryResultCache.DEFAULT_MAX_ENTRIES, cache.getMaxEntries());
+        assertEquals(QueryResultCache.DEFAULT_MAX_ROWS, cache.getMaxRows());
+        assertEquals(0, cache.size());
+        assertEquals(0.0, cache.getHitRate(), 0.0);
+
+        cache = new QueryResultCache(kindVersions, 2, 3);
+        assertEquals(2, cache.getMaxEntries());
+        assertEquals(3, cache.getMaxRows());
+
+        try {
+            new QueryResultCache(null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            new QueryResultCache(kindVersions, 0, 3);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            new QueryResultCache(kindVersions, 2, 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Test that pages are cached, with pagination rebuilt for the caller. */
+    @Test public void testGetResults() {
+        ListSource<String> source = new ListSource<String>("a", "b", "c", "d", "e");
+        QueryResultCache cache = new QueryResultCache(new KindVersions());
+
+        Pagination pagination = new Pagination(2);
+        PaginatedResults<String> first = cache.getResults(StringIdEntity.class, "criteria", pagination, source);
+        assertEquals(Arrays.asList("a", "b"), first);
+        assertEquals(1, source.opened);
+
+        PaginatedResults<String> cached = cache.getResults(StringIdEntity.class, "criteria", pagination, source);
+        assertNotSame(first, cached);
+        assertEquals(first, cached);
+        assertEquals(first.getPagination(), cached.getPagination());
+        assertTrue(cached.getPagination().hasNext());
+        assertEquals(1, source.opened);
+
+        Pagination next = cached.getPagination().next();
+        PaginatedResults<String> second = cache.getResults(StringIdEntity.class, "criteria", next, source);
+        assertEquals(Arrays.asList("c", "d"), second);
+        assertEquals(second, cache.getResults(StringIdEntity.class, "criteria", next, source));
+        assertEquals(2, second.getPagination().getPageNumber());
+        assertEquals(2, source.opened);
+
+        Pagination last = second.getPagination().next();
+        PaginatedResults<String> third = cache.getResults(StringIdEntity.class, "criteria", last, source);
+        assertEquals(Arrays.asList("e"), third);
+        third = cache.getResults(StringIdEntity.class, "criteria", last, source);
+        assertEquals(Arrays.asList("e"), third);
+        assertFalse(third.getPagination().hasNext());
+        assertTrue(third.getPagination().isTotalFinalized());
+        assertEquals(3, source.opened);
+
+        cache.getResults(StringIdEntity.class, "other", pagination, source);
+        cache.getResults(IntegerIdEntity.class, "criteria", pagination, source);
+        cache.getResults(StringIdEntity.class, "criteria", new Pagination(3), source);
+        assertEquals(6, source.opened);
+
+        assertEquals(6, cache.size());
+        assertEquals(3, cache.getHits());
+        assertEquals(6, cache.getMisses());
+        assertEquals(3.0 / 9.0, cache.getHitRate(), 0.0001);
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    /** Test null pagination, which caches the whole result set if it is small enough. */
+    @Test public void testNullPagination() {
+        ListSource<String> source = new ListSource<String>("a", "b", "c");
+        QueryResultCache cache = new QueryResultCache(new KindVersions(), 10, 3);
+
+        PaginatedResults<String> results = cache.getResults(StringIdEntity.class, null, null, source);
+        assertEquals(Arrays.asList("a", "b", "c"), results);
+        assertNull(results.getPagination());
+        results = cache.getResults(StringIdEntity.class, null, null, source);
+        assertEquals(Arrays.asList("a", "b", "c"), results);
+        assertNull(results.getPagination());
+        assertEquals(1, source.opened);
+
+        source = new ListSource<String>("a", "b", "c", "d");
+        cache.getResults(IntegerIdEntity.class, null, null, source);
+        cache.getResults(IntegerIdEntity.class, null, null, source);
+        assertEquals(2, source.opened);  // too big to cache
+        assertEquals(1, cache.size());
+    }
+
+    /** Test that every hit gets fresh copies of the rows, and that pages that can't be copied aren't cached. */
+    @Test public void testCopies() {
+        ListSource<StringBuilder> source = new ListSource<StringBuilder>(new StringBuilder("a"), new StringBuilder("b"));
+        QueryResultCache cache = new QueryResultCache(new KindVersions());
+        Pagination pagination = new Pagination(2);
+
+        PaginatedResults<StringBuilder> first = cache.getResults(StringIdEntity.class, "criteria", pagination, source);
+        first.get(0).append("-changed");
+        PaginatedResults<StringBuilder> second = cache.getResults(StringIdEntity.class, "criteria", pagination, source);
+        assertEquals("a", second.get(0).toString());
+        second.get(1).append("-changed");
+        PaginatedResults<StringBuilder> third = cache.getResults(StringIdEntity.class, "criteria", pagination, source);
+        assertEquals("b", third.get(1).toString());
+        assertNotSame(second.get(0), third.get(0));
+        assertEquals(1, source.opened);
+
+        ListSource<Object> unserializable = new ListSource<Object>(new Object(), new Object());
+        cache.getResults(IntegerIdEntity.class, "criteria", pagination, unserializable);
+        cache.getResults(IntegerIdEntity.class, "criteria", pagination, unserializable);
+        assertEquals(2, unserializable.opened);
+        assertEquals(1, cache.size());
+    }
+
+    /** Test that bumping a kind's version invalidates its pages, and only its pages. */
+    @Test public void testInvalidation() {
+        ListSource<String> source = new ListSource<String>("a", "b", "c");
+        KindVersions kindVersions = new KindVersions();
+        QueryResultCache cache = new QueryResultCache(kindVersions);
+        Pagination pagination = new Pagination(2);
+
+        cache.getResults(StringIdEntity.class, "criteria", pagination, source);
+        cache.getResults(IntegerIdEntity.class, "criteria", pagination, source);
+        assertEquals(2, source.opened);
+
+        kindVersions.bump(Arrays.asList("StringIdEntity"));
+        cache.getResults(StringIdEntity.class, "criteria", pagination, source);
+        cache.getResults(IntegerIdEntity.class, "criteria", pagination, source);
+        assertEquals(3, source.opened);
+        assertEquals(1, cache.getStale());
+
+        cache.getResults(StringIdEntity.class, "criteria", pagination, source);
+        assertEquals(3, source.opened);  // the refreshed page is cached again
+        assertEquals(2, cache.getHits());
+        assertEquals(3, cache.getMisses());
+    }
+
+    /** Test that a write made while the query runs leaves the page stale, rather than caching old data as current. */
+    @Test public void testWriteDuringQuery() {
+        final KindVersions kindVersions = new KindVersions();
+        ListSource<String> source = new ListSource<String>("a", "b") {
+            @Override
+            public IIteratorWithCursor<String> open(Pagination pagination) {
+                kindVersions.bump(Arrays.asList("StringIdEntity"));
+                return super.open(pagination);
+            }
+        };
+
+        QueryResultCache cache = new QueryResultCache(kindVersions);
+        cache.getResults(StringIdEntity.class, "criteria", new Pagination(2), source);
+        cache.getResults(StringIdEntity.class, "criteria", new Pagination(2), source);
+        assertEquals(2, source.opened);
+        assertEquals(1, cache.getStale());
+    }
+
+    /** Test that the cache is bounded, discarding the least-recently-used page. */
+    @Test public void testBounded() {
+        ListSource<String> source = new ListSource<String>("a", "b", "c");
+        QueryResultCache cache = new QueryResultCache(new KindVersions(), 2, 10);
+        Pagination pagination = new Pagination(2);
+
+        cache.getResults(StringIdEntity.class, "1", pagination, source);
+        cache.getResults(StringIdEntity.class, "2", pagination, source);
+        cache.getResults(StringIdEntity.class, "1", pagination, source);
+        cache.getResults(StringIdEntity.class, "3", pagination, source);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3, source.opened);
+
+        cache.getResults(StringIdEntity.class, "1", pagination, source);
+        assertEquals(3, source.opened);
+        cache.getResults(StringIdEntity.class, "2", pagination, source);
+        assertEquals(4, source.opened);
+    }
+
+    /** Page source over a list, where the cursor is the index of the next element. */
+    private static class ListSource<T> implements IPageSource<T> {
+        private List<T> list;
+        protected int opened;
+
+        ListSource(T... values) {
+            this.list = Arrays.asList(values);
+        }
+
+        @Override
+        public IIteratorWithCursor<T> open(Pagination pagination) {
+            this.opened += 1;
+            final int start = pagination == null || pagination.getCurrent() == null ? 0 : Integer.parseInt(pagination.getCurrent());
+            return new IIteratorWithCursor<T>() {
+                private int index = start;
+
+                @Override
+                public boolean hasNext() {
+                    return this.index < ListSource.this.list.size();
+                }
+
+                @Override
+                public T next() {
+                    return ListSource.this.list.get(this.index++);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public String getCursor() {
+                    return String.valueOf(this.index);
+                }
+            };
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.googlecode.objectify.Key;
+
+/**
+ * Unit tests for RequestIdentityMap.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class RequestIdentityMapTest {
+
+    /** Make sure no map is left bound to the test thread. */
+    @After public void tearDown() {
+        RequestIdentityMap.end();
+    }
+
+    /** Test begin(), end() and getCurrent(). */
+    @Test public void testBinding() throws Exception {
+        assertNull(RequestIdentityMap.getCurrent());
+
+        RequestIdentityMap map = RequestIdentityMap.begin();
+        assertSame(map, RequestIdentityMap.getCurrent());
+
+        final RequestIdentityMap[] other = new RequestIdentityMap[1];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                other[0] = RequestIdentityMap.getCurrent();
+            }
+        };
+        thread.start();
+        thread.join();
+        assertNull(other[0]);  // each thread has its own map
+
+        RequestIdentityMap replacement = RequestIdentityMap.begin();
+        assertNotSame(map, replacement);
+        assertSame(replacement, RequestIdentityMap.getCurrent());
+
+        RequestIdentityMap.end();
+        assertNull(RequestIdentityMap.getCurrent());
+    }
+
+    /** Test get(), put(), remove() and clear(). */
+    @Test public void testGetPutRemove() {
+        Key<IntegerIdEntity> key1 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 1);
+        Key<IntegerIdEntity> key2 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 2);
+        IntegerIdEntity entity1 = new IntegerIdEntity(1, null);
+        IntegerIdEntity entity2 = new IntegerIdEntity(2, null);
+
+        RequestIdentityMap map = new RequestIdentityMap();
+        assertNull(map.get(key1));
+        assertEquals(0, map.getHits());
+        assertEquals(1, map.getMisses());
+
+        map.put(key1, entity1);
+        map.put(key2, entity2);
+        map.put(null, entity1);
+        map.put(key1, null);
+        assertEquals(2, map.size());
+        assertSame(entity1, map.get(new Key<IntegerIdEntity>(IntegerIdEntity.class, 1)));
+        assertSame(entity2, map.get(key2));
+        assertEquals(2, map.getHits());
+        assertEquals(1, map.getMisses());
+
+        map.remove(key1);
+        map.remove(null);
+        assertNull(map.get(key1));
+        assertEquals(1, map.size());
+
+        map.clear();
+        assertEquals(0, map.size());
+    }
+
+}
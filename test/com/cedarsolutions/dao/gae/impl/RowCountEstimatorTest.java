@@ -0,0 +1,308 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+
+import com.cedarsolutions.dao.domain.Pagination;
+import com.cedarsolutions.dao.gae.IFilterPredicate;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Query;
+
+/**
+ * Unit tests for RowCountEstimator.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class RowCountEstimatorTest {
+
+    /** Test the constructors. */
+    @Test public void testConstructor() {
+        RowCountEstimator estimator = new RowCountEstimator();
+        assertEquals(RowCountEstimator.DEFAULT_MAX_ROWS, estimator.getMaxRows());
+        assertEquals(RowCountEstimator.DEFAULT_TIME_TO_LIVE, estimator.getTimeToLive());
+        assertEquals(RowCountEstimator.DEFAULT_MAX_ENTRIES, estimator.getMaxEntries());
+
+        try {
+            new RowCountEstimator(null, 10, 100, 10);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            new RowCountEstimator(new QueuedExecutor(), 0, 100, 10);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            new RowCountEstimator(new QueuedExecutor(), 10, 100, 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Test count(). */
+    @Test public void testCount() {
+        assertEquals(0, RowCountEstimator.count(createQuery(0, new StubQuery.Statistics()), 10));
+        assertEquals(5, RowCountEstimator.count(createQuery(5, new StubQuery.Statistics()), 10));
+        assertEquals(10, RowCountEstimator.count(createQuery(10, new StubQuery.Statistics()), 10));
+        assertEquals(11, RowCountEstimator.count(createQuery(25, new StubQuery.Statistics()), 10));
+    }
+
+    /** Test count() with a predicate. */
+    @Test public void testCountFiltered() {
+        RowCountEstimator.Estimate estimate = RowCountEstimator.count(createQuery(5, new StubQuery.Statistics()), new EvenIdPredicate(), 10);
+        assertEquals(2, estimate.getRows());
+        assertTrue(estimate.isExact());
+
+        estimate = RowCountEstimator.count(createQuery(10, new StubQuery.Statistics()), new EvenIdPredicate(), 10);
+        assertEquals(5, estimate.getRows());
+        assertTrue(estimate.isExact());
+
+        estimate = RowCountEstimator.count(createQuery(25, new StubQuery.Statistics()), new EvenIdPredicate(), 10);
+        assertEquals(5, estimate.getRows());
+        assertFalse(estimate.isExact());
+    }
+
+    /** Test that an estimate for a filtered search counts through the predicate. */
+    @Test public void testEstimateFiltered() {
+        RowCountEstimator estimator = new RowCountEstimator(new CallingThreadExecutor(), 10, 1000, 10);
+
+        Pagination pagination = new Pagination(2);
+        assertTrue(estimator.estimate(pagination, "small", createQuery(7, new StubQuery.Statistics()), new EvenIdPredicate()));
+        assertEquals(3, pagination.getEstimatedTotalRows());
+        assertTrue(pagination.isEstimateExact());
+
+        pagination = new Pagination(2);
+        assertTrue(estimator.estimate(pagination, "large", createQuery(25, new StubQuery.Statistics()), new EvenIdPredicate()));
+        assertEquals(5, pagination.getEstimatedTotalRows());
+        assertFalse(pagination.isEstimateExact());  // a raw count would have said 10 rows
+
+        pagination = new Pagination(2);
+        Query<IntegerIdEntity> query = createQuery(7, new StubQuery.Statistics());
+        assertTrue(estimator.estimate(pagination, "unfiltered", query, new NoOpFilterPredicate<IntegerIdEntity>()));
+        assertEquals(7, pagination.getEstimatedTotalRows());
+        assertTrue(pagination.isEstimateExact());
+    }
+
+    /** Test an exact estimate counted in the calling thread, which is then cached. */
+    @Test public void testEstimateExact() {
+        StubQuery.Statistics statistics = new StubQuery.Statistics();
+        Query<IntegerIdEntity> query = createQuery(5, statistics);
+        RowCountEstimator estimator = new RowCountEstimator();
+
+        Pagination pagination = new Pagination(2);
+        assertTrue(estimator.estimate(pagination, "criteria", query));
+        assertEquals(5, pagination.getEstimatedTotalRows());
+        assertTrue(pagination.isEstimateExact());
+        assertEquals(1, statistics.getExecutions());
+        assertEquals(0, estimator.getHits());
+        assertEquals(1, estimator.getCounts());
+
+        pagination = new Pagination(2);
+        assertTrue(estimator.estimate(pagination, "criteria", query));
+        assertEquals(5, pagination.getEstimatedTotalRows());
+        assertEquals(1, statistics.getExecutions());
+        assertEquals(1, estimator.getHits());
+
+        pagination = new Pagination(2);
+        assertTrue(estimator.estimate(pagination, "other", query));
+        assertEquals(2, statistics.getExecutions());
+    }
+
+    /** Test an estimate that hits the maximum number of rows. */
+    @Test public void testEstimateCapped() {
+        RowCountEstimator estimator = new RowCountEstimator(new CallingThreadExecutor(), 10, 1000, 10);
+        Pagination pagination = new Pagination(3);
+        assertTrue(estimator.estimate(pagination, null, createQuery(25, new StubQuery.Statistics())));
+        assertEquals(10, pagination.getEstimatedTotalRows());
+        assertEquals(4, pagination.getEstimatedTotalPages());
+        assertFalse(pagination.isEstimateExact());
+    }
+
+    /** Test an estimate counted in the background. */
+    @Test public void testEstimateBackground() {
+        StubQuery.Statistics statistics = new StubQuery.Statistics();
+        Query<IntegerIdEntity> query = createQuery(5, statistics);
+        QueuedExecutor executor = new QueuedExecutor();
+        RowCountEstimator estimator = new RowCountEstimator(executor, 10, 1000, 10);
+
+        Pagination pagination = new Pagination(2);
+        assertFalse(estimator.estimate(pagination, "criteria", query));
+        assertFalse(pagination.hasEstimate());
+        assertFalse(estimator.estimate(pagination, "criteria", query));
+        assertEquals(1, executor.tasks.size());  // only one count per search at a time
+
+        executor.tasks.get(0).run();
+        assertTrue(estimator.estimate(pagination, "criteria", query));
+        assertEquals(5, pagination.getEstimatedTotalRows());
+        assertEquals(1, statistics.getExecutions());
+    }
+
+    /** Test a count that fails. */
+    @SuppressWarnings("unchecked")
+    @Test public void testEstimateFailure() {
+        Query<IntegerIdEntity> query = mock(Query.class);
+        when(query.fetchKeys()).thenThrow(new IllegalStateException("hello"));
+        RowCountEstimator estimator = new RowCountEstimator();
+
+        Pagination pagination = new Pagination(2);
+        assertFalse(estimator.estimate(pagination, "criteria", query));
+        assertFalse(estimator.estimate(pagination, "criteria", query));  // tried again
+        assertFalse(pagination.hasEstimate());
+        assertEquals(2, estimator.getCounts());
+        assertEquals(2, estimator.getFailures());
+    }
+
+    /** Test a count that fails with an Error, which must not leave the search marked as running. */
+    @SuppressWarnings("unchecked")
+    @Test public void testEstimateError() {
+        Query<IntegerIdEntity> query = mock(Query.class);
+        when(query.fetchKeys()).thenThrow(new AssertionError("hello"));
+        QueuedExecutor executor = new QueuedExecutor();
+        RowCountEstimator estimator = new RowCountEstimator(executor, 10, 1000, 10);
+
+        Pagination pagination = new Pagination(2);
+        assertFalse(estimator.estimate(pagination, "criteria", query));
+        try {
+            executor.tasks.get(0).run();
+            fail("Expected AssertionError");
+        } catch (AssertionError e) { }
+
+        assertEquals(1, estimator.getFailures());
+        assertFalse(estimator.estimate(pagination, "criteria", query));
+        assertEquals(2, executor.tasks.size());  // submitted again
+    }
+
+    /** Test a count that the executor rejects. */
+    @Test public void testEstimateRejected() {
+        RejectingExecutor executor = new RejectingExecutor();
+        RowCountEstimator estimator = new RowCountEstimator(executor, 10, 1000, 10);
+        Query<IntegerIdEntity> query = createQuery(5, new StubQuery.Statistics());
+
+        Pagination pagination = new Pagination(2);
+        assertFalse(estimator.estimate(pagination, "criteria", query));
+        assertEquals(1, estimator.getFailures());
+
+        executor.reject = false;
+        assertTrue(estimator.estimate(pagination, "criteria", query));  // not stuck as running
+        assertEquals(5, pagination.getEstimatedTotalRows());
+    }
+
+    /** Test expiration and the bound on the number of cached estimates. */
+    @Test public void testExpiration() {
+        StubbedTimeEstimator estimator = new StubbedTimeEstimator();
+        estimator.estimate(new Pagination(2), "one", createQuery(1, new StubQuery.Statistics()));
+        estimator.now = 50;
+        estimator.estimate(new Pagination(2), "two", createQuery(2, new StubQuery.Statistics()));
+        estimator.estimate(new Pagination(2), "three", createQuery(3, new StubQuery.Statistics()));
+        assertNull(estimator.getEstimate("one"));  // evicted, max entries is 2
+        assertNotNull(estimator.getEstimate("two"));
+        assertEquals(3, estimator.getEstimate("three").getRows());
+
+        estimator.now = 151;
+        assertNull(estimator.getEstimate("two"));
+
+        estimator.clear();
+        estimator.now = 50;
+        assertNull(estimator.getEstimate("three"));
+    }
+
+    /** Create a query with a certain number of keys. */
+    private static Query<IntegerIdEntity> createQuery(int rows, StubQuery.Statistics statistics) {
+        List<IntegerIdEntity> list = new ArrayList<IntegerIdEntity>();
+        List<Key<IntegerIdEntity>> keys = new ArrayList<Key<IntegerIdEntity>>();
+        for (int i = 1; i <= rows; i++) {
+            list.add(new IntegerIdEntity(i, null));
+            keys.add(new Key<IntegerIdEntity>(IntegerIdEntity.class, i));
+        }
+
+        return StubQuery.create(list, keys, statistics);
+    }
+
+    /** Predicate that accepts entities with an even id. */
+    private static class EvenIdPredicate implements IFilterPredicate<IntegerIdEntity> {
+        @Override
+        public boolean evaluate(IntegerIdEntity value) {
+            return value.getId() % 2 == 0;
+        }
+    }
+
+    /** Executor that runs tasks immediately. */
+    private static class CallingThreadExecutor implements Executor {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    }
+
+    /** Executor that queues tasks so the test can run them later. */
+    private static class QueuedExecutor implements Executor {
+        private List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            this.tasks.add(command);
+        }
+    }
+
+    /** Executor that rejects tasks until told otherwise, then runs them immediately. */
+    private static class RejectingExecutor implements Executor {
+        private boolean reject = true;
+
+        @Override
+        public void execute(Runnable command) {
+            if (this.reject) {
+                throw new RejectedExecutionException("full");
+            }
+
+            command.run();
+        }
+    }
+
+    /** Estimator with a stubbed clock. */
+    private static class StubbedTimeEstimator extends RowCountEstimator {
+        private long now;
+
+        public StubbedTimeEstimator() {
+            super(new CallingThreadExecutor(), 10, 100, 2);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return this.now;
+        }
+    }
+
+}
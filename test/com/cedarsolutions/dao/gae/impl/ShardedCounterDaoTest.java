@@ -0,0 +1,314 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.cedarsolutions.dao.TransactionRunner;
+import com.cedarsolutions.dao.gae.domain.CounterConfig;
+import com.cedarsolutions.dao.gae.domain.CounterShard;
+import com.cedarsolutions.exception.NotConfiguredException;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.googlecode.objectify.Key;
+
+/**
+ * Unit tests for ShardedCounterDao.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class ShardedCounterDaoTest {
+
+    /** Test the getters, setters and afterPropertiesSet(). */
+    @Test public void testConfiguration() throws Exception {
+        ShardedCounterDao dao = new ShardedCounterDao();
+        assertEquals(ShardedCounterDao.DEFAULT_INITIAL_SHARD_COUNT, dao.getInitialShardCount());
+        assertEquals(ShardedCounterDao.DEFAULT_MAX_SHARD_COUNT, dao.getMaxShardCount());
+        assertEquals(ShardedCounterDao.DEFAULT_TIME_TO_LIVE, dao.getTimeToLive());
+        assertNull(dao.getMemcache());
+        assertEquals(0, dao.getContentions());
+        assertEquals(0, dao.getGrowths());
+        assertTrue(dao.getTransactionRunner().isRetryCommitFailures());
+
+        dao.setDaoObjectifyService(mock(DaoObjectifyService.class));
+        dao.afterPropertiesSet();
+
+        dao.setMaxShardCount(2);
+        try {
+            dao.afterPropertiesSet();
+            fail("Expected NotConfiguredException");
+        } catch (NotConfiguredException e) { }
+
+        dao.setMaxShardCount(4);
+        dao.setInitialShardCount(0);
+        try {
+            dao.afterPropertiesSet();
+            fail("Expected NotConfiguredException");
+        } catch (NotConfiguredException e) { }
+    }
+
+    /** Test an increment that creates a new shard. */
+    @Test public void testIncrementNewShard() throws Exception {
+        Fixture fixture = new Fixture(2);
+        fixture.dao.increment("hits", 5);
+
+        ArgumentCaptor<CounterShard> captor = ArgumentCaptor.forClass(CounterShard.class);
+        verify(fixture.transactional).put(captor.capture());
+        assertEquals("hits#2", captor.getValue().getId());
+        assertEquals(5, captor.getValue().getCount());
+        verify(fixture.transactional).commit();
+        assertEquals(0, fixture.dao.getContentions());
+    }
+
+    /** Test an increment of an existing shard. */
+    @Test public void testIncrementExistingShard() throws Exception {
+        Fixture fixture = new Fixture(1);
+        CounterShard shard = new CounterShard("hits#1");
+        shard.setCount(10);
+        when(fixture.transactional.find(CounterShard.class, "hits#1")).thenReturn(shard);
+
+        fixture.dao.increment("hits", -3);
+        verify(fixture.transactional).put(shard);
+        assertEquals(7, shard.getCount());
+    }
+
+    /** Test that a retry after a commit that failed but was applied anyway doesn't apply the increment twice. */
+    @Test public void testIncrementIdempotent() throws Exception {
+        Fixture fixture = new Fixture(1);
+        CounterShard shard = new CounterShard("hits#1");
+        shard.setCount(10);
+        when(fixture.transactional.find(CounterShard.class, "hits#1")).thenReturn(shard);  // sees the "failed" write
+        doThrow(new ConcurrentModificationException()).doNothing().when(fixture.transactional).commit();
+
+        fixture.dao.increment("hits", 1);
+        assertEquals(11, shard.getCount());
+        assertEquals(1, shard.getIncrements().size());
+        verify(fixture.transactional, times(2)).find(CounterShard.class, "hits#1");
+        verify(fixture.transactional, times(1)).put(shard);
+        verify(fixture.transactional, times(3)).commit();  // the increment twice, then growing the shard count
+
+        fixture.dao.increment("hits", 1);
+        assertEquals(12, shard.getCount());
+        assertEquals(2, shard.getIncrements().size());
+    }
+
+    /** Test that a shard only remembers its most recent increments. */
+    @Test public void testShardIncrements() {
+        CounterShard shard = new CounterShard("hits#0");
+        assertTrue(shard.apply("first", 2));
+        assertFalse(shard.apply("first", 2));
+        assertEquals(2, shard.getCount());
+
+        for (int i = 0; i < CounterShard.MAX_INCREMENTS; i++) {
+            assertTrue(shard.apply("id" + i, 1));
+        }
+
+        assertEquals(2 + CounterShard.MAX_INCREMENTS, shard.getCount());
+        assertEquals(CounterShard.MAX_INCREMENTS, shard.getIncrements().size());
+        assertFalse(shard.isApplied("first"));
+        assertTrue(shard.isApplied("id0"));
+    }
+
+    /** Test that contention doubles the shard count. */
+    @Test public void testContention() throws Exception {
+        Fixture fixture = new Fixture(0);
+        doThrow(new ConcurrentModificationException()).doNothing().when(fixture.transactional).commit();
+
+        fixture.dao.increment("hits", 1);
+        assertEquals(1, fixture.dao.getContentions());
+        assertEquals(1, fixture.dao.getGrowths());
+
+        ArgumentCaptor<Object> captor = ArgumentCaptor.forClass(Object.class);
+        verify(fixture.transactional, times(3)).put(captor.capture());
+        CounterConfig config = (CounterConfig) captor.getAllValues().get(2);
+        assertEquals("hits", config.getName());
+        assertEquals(8, config.getShardCount());
+    }
+
+    /** Test that an increment that fails because of contention still grows the shard count. */
+    @Test public void testContentionFailure() throws Exception {
+        Fixture fixture = new Fixture(0);
+        MemcacheService memcache = mock(MemcacheService.class);
+        fixture.dao.setMemcache(memcache);
+        doThrow(new ConcurrentModificationException()).when(fixture.transactional).commit();
+
+        try {
+            fixture.dao.increment("hits", 1);
+            fail("Expected ConcurrentModificationException");
+        } catch (ConcurrentModificationException e) { }
+
+        assertEquals(1, fixture.dao.getContentions());
+        verify(memcache, never()).delete(anyString(), anyLong());
+
+        fixture = new Fixture(0);
+        fixture.dao.setTransactionRunner(new TransactionRunner(1, 0, 0));  // no retries at all
+        doThrow(new ConcurrentModificationException()).doNothing().when(fixture.transactional).commit();
+        try {
+            fixture.dao.increment("hits", 1);
+            fail("Expected ConcurrentModificationException");
+        } catch (ConcurrentModificationException e) { }
+
+        assertEquals(1, fixture.dao.getContentions());
+        assertEquals(1, fixture.dao.getGrowths());
+        ArgumentCaptor<Object> captor = ArgumentCaptor.forClass(Object.class);
+        verify(fixture.transactional, times(2)).put(captor.capture());
+        assertEquals(8, ((CounterConfig) captor.getAllValues().get(1)).getShardCount());
+
+        fixture = new Fixture(0);
+        doThrow(new IllegalStateException("hello")).when(fixture.transactional).commit();
+        try {
+            fixture.dao.increment("hits", 1);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) { }
+
+        assertEquals(0, fixture.dao.getContentions());  // not retryable, and not contention
+    }
+
+    /** Test that the shard count doesn't grow past the maximum, or if someone else already grew it. */
+    @Test public void testContentionNoGrowth() throws Exception {
+        Fixture fixture = new Fixture(0);
+        fixture.dao.setMaxShardCount(8);
+        when(fixture.objectify.find(CounterConfig.class, "hits")).thenReturn(new CounterConfig("hits", 8));
+        doThrow(new ConcurrentModificationException()).doNothing().when(fixture.transactional).commit();
+        fixture.dao.increment("hits", 1);
+        assertEquals(1, fixture.dao.getContentions());
+        assertEquals(0, fixture.dao.getGrowths());
+
+        fixture = new Fixture(0);
+        when(fixture.transactional.find(CounterConfig.class, "hits")).thenReturn(new CounterConfig("hits", 16));
+        doThrow(new ConcurrentModificationException()).doNothing().when(fixture.transactional).commit();
+        fixture.dao.increment("hits", 1);
+        assertEquals(1, fixture.dao.getContentions());
+        assertEquals(0, fixture.dao.getGrowths());
+        verify(fixture.transactional, times(2)).put((Object) any());  // the shard twice, and never the configuration
+    }
+
+    /** Test getShardCount(). */
+    @Test public void testGetShardCount() throws Exception {
+        Fixture fixture = new Fixture(0);
+        assertEquals(ShardedCounterDao.DEFAULT_INITIAL_SHARD_COUNT, fixture.dao.getShardCount("hits"));
+        when(fixture.objectify.find(CounterConfig.class, "hits")).thenReturn(new CounterConfig("hits", 16));
+        assertEquals(16, fixture.dao.getShardCount("hits"));
+    }
+
+    /** Test getCount() without a cache, which sums the shards with one batch get. */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Test public void testGetCount() throws Exception {
+        Fixture fixture = new Fixture(0);
+        when(fixture.objectify.get(any(Iterable.class))).thenReturn(createShards(3, 4));
+        assertEquals(7, fixture.dao.getCount("hits"));
+
+        ArgumentCaptor<Iterable> captor = ArgumentCaptor.forClass(Iterable.class);
+        verify(fixture.objectify).get(captor.capture());
+        List<Key<CounterShard>> keys = (List<Key<CounterShard>>) captor.getValue();
+        assertEquals(ShardedCounterDao.DEFAULT_INITIAL_SHARD_COUNT, keys.size());
+        assertEquals("hits#3", keys.get(3).getName());
+    }
+
+    /** Test the cached total. */
+    @SuppressWarnings("unchecked")
+    @Test public void testCachedTotal() throws Exception {
+        Fixture fixture = new Fixture(0);
+        MemcacheService memcache = mock(MemcacheService.class);
+        fixture.dao.setMemcache(memcache);
+        when(fixture.objectify.get(any(Iterable.class))).thenReturn(createShards(3, 4));
+
+        assertEquals(7, fixture.dao.getCount("hits"));
+        verify(memcache).put(eq("counter:hits"), eq(7L), any(Expiration.class), eq(SetPolicy.ADD_ONLY_IF_NOT_PRESENT));
+
+        when(memcache.get("counter:hits")).thenReturn(12L);
+        assertEquals(12, fixture.dao.getCount("hits"));
+        verify(fixture.objectify, times(1)).get(any(Iterable.class));
+
+        fixture.dao.increment("hits", 3);
+        verify(memcache).delete("counter:hits", ShardedCounterDao.HOLD_OFF_MILLIS);
+
+        fixture.dao.increment("hits", -3);
+        verify(memcache, times(2)).delete("counter:hits", ShardedCounterDao.HOLD_OFF_MILLIS);
+        verify(memcache, never()).increment(anyString(), anyLong());
+    }
+
+    /** Create a batch get result for shards with the given counts. */
+    private static Map<Key<CounterShard>, CounterShard> createShards(long... counts) {
+        Map<Key<CounterShard>, CounterShard> shards = new LinkedHashMap<Key<CounterShard>, CounterShard>();
+        for (int i = 0; i < counts.length; i++) {
+            CounterShard shard = new CounterShard(CounterShard.getId("hits", i));
+            shard.setCount(counts[i]);
+            shards.put(new Key<CounterShard>(CounterShard.class, shard.getId()), shard);
+        }
+
+        return shards;
+    }
+
+    /** A DAO wired to mocked Objectify proxies, which always chooses the same shard. */
+    private static class Fixture {
+        private ObjectifyProxy objectify = mock(ObjectifyProxy.class);
+        private ObjectifyProxy transactional = mock(ObjectifyProxy.class);
+        private ShardedCounterDao dao;
+
+        public Fixture(final int shard) throws Exception {
+            when(this.transactional.isTransactional()).thenReturn(true);
+            doNothing().when(this.transactional).commit();
+
+            DaoObjectifyService daoObjectifyService = mock(DaoObjectifyService.class);
+            when(daoObjectifyService.getObjectify()).thenReturn(this.objectify);
+            when(daoObjectifyService.getObjectifyWithTransaction()).thenReturn(this.transactional);
+
+            this.dao = new ShardedCounterDao() {
+                @Override
+                protected int chooseShard(int shardCount) {
+                    assertTrue(shard < shardCount);
+                    return shard;
+                }
+            };
+
+            this.dao.setDaoObjectifyService(daoObjectifyService);
+            this.dao.setTransactionRunner(new TransactionRunner(3, 0, 0, true));
+            this.dao.afterPropertiesSet();
+        }
+    }
+
+}
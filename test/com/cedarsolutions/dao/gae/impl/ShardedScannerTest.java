@@ -0,0 +1,468 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cedarsolutions.dao.gae.IShardCallback;
+import com.cedarsolutions.dao.gae.IShardListener;
+import com.cedarsolutions.exception.DaoException;
+import com.google.appengine.api.datastore.Cursor;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Query;
+
+/**
+ * Unit tests for ShardedScanner.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class ShardedScannerTest {
+
+    /** Executor used by the tests. */
+    private ExecutorService executor;
+
+    /** Create the executor. */
+    @Before public void setUp() {
+        this.executor = Executors.newFixedThreadPool(2);
+    }
+
+    /** Shut down the executor. */
+    @After public void tearDown() throws Exception {
+        this.executor.shutdownNow();
+        assertTrue(this.executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /** Test the constructors and properties. */
+    @Test public void testConstructor() {
+        IShardListener listener = mock(IShardListener.class);
+
+        ShardedScanner<Integer> scanner = new ShardedScanner<Integer>(this.executor);
+        assertSame(this.executor, scanner.getExecutor());
+        assertEquals(ShardedScanner.DEFAULT_CHECKPOINT_INTERVAL, scanner.getCheckpointInterval());
+        assertNull(scanner.getListener());
+        assertEquals(ShardedScanner.DEFAULT_OVERSAMPLING, scanner.getOversampling());
+        assertEquals(ShardedScanner.DEFAULT_QUEUE_CAPACITY, scanner.getQueueCapacity());
+        assertEquals(ShardedScanner.UNLIMITED, scanner.getTimeLimit());
+
+        scanner = new ShardedScanner<Integer>(this.executor, 10, listener);
+        assertEquals(10, scanner.getCheckpointInterval());
+        assertSame(listener, scanner.getListener());
+
+        try {
+            new ShardedScanner<Integer>(null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            new ShardedScanner<Integer>(this.executor, 0, listener);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            scanner.setOversampling(0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            scanner.setQueueCapacity(0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            scanner.setTimeLimit(-1);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Test splitting a kind into shards using a sample of scatter keys. */
+    @Test public void testSplit() {
+        List<Key<Integer>> keys = new ArrayList<Key<Integer>>();
+        for (int i = 0; i < 100; i++) {
+            keys.add(new Key<Integer>("Item", String.format("k%03d", i)));
+        }
+
+        Collections.shuffle(keys, new Random(1));  // scatter keys come back in random order
+        Query<Integer> query = StubQuery.create(new ArrayList<Integer>(), keys, new StubQuery.Statistics());
+
+        ShardedScanner<Integer> scanner = new ShardedScanner<Integer>(this.executor);
+        scanner.setOversampling(25);
+
+        List<ScanShard<Integer>> shards = scanner.split(query, 4);
+        assertEquals(4, shards.size());
+        assertShard(shards.get(0), 0, null, "k025");
+        assertShard(shards.get(1), 1, "k025", "k050");
+        assertShard(shards.get(2), 2, "k050", "k075");
+        assertShard(shards.get(3), 3, "k075", null);
+
+        shards = scanner.split(query, 1);
+        assertEquals(1, shards.size());
+        assertShard(shards.get(0), 0, null, null);
+
+        try {
+            scanner.split(query, 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Test splitting a kind that is too small for the requested number of shards. */
+    @Test public void testSplitSmallKind() {
+        List<Key<Integer>> keys = new ArrayList<Key<Integer>>();
+        keys.add(new Key<Integer>("Item", "k1"));
+        keys.add(new Key<Integer>("Item", "k0"));
+        Query<Integer> query = StubQuery.create(new ArrayList<Integer>(), keys, new StubQuery.Statistics());
+
+        ShardedScanner<Integer> scanner = new ShardedScanner<Integer>(this.executor);
+        List<ScanShard<Integer>> shards = scanner.split(query, 4);
+        assertEquals(3, shards.size());
+        assertShard(shards.get(0), 0, null, "k0");
+        assertShard(shards.get(1), 1, "k0", "k1");
+        assertShard(shards.get(2), 2, "k1", null);
+
+        query = StubQuery.create(new ArrayList<Integer>(), new ArrayList<Key<Integer>>(), new StubQuery.Statistics());
+        shards = scanner.split(query, 4);
+        assertEquals(1, shards.size());
+        assertShard(shards.get(0), 0, null, null);
+    }
+
+    /** Test the query created for a shard. */
+    @Test @SuppressWarnings("unchecked") public void testCreateShardQuery() {
+        Query<Integer> query = mock(Query.class);
+        Query<Integer> clone = mock(Query.class);
+        when(query.clone()).thenReturn(clone);
+
+        Key<Integer> start = new Key<Integer>("Item", 10);
+        Key<Integer> end = new Key<Integer>("Item", 20);
+        ShardedScanner<Integer> scanner = new ShardedScanner<Integer>(this.executor);
+
+        ScanShard<Integer> shard = new ScanShard<Integer>(0, null, null);
+        assertSame(clone, scanner.createShardQuery(query, shard));
+        verify(clone, never()).filter(anyString(), any());
+        verify(clone, never()).startCursor(any(Cursor.class));
+
+        shard = new ScanShard<Integer>(1, start, end);
+        shard.checkpoint(StubQuery.cursor(5).toWebSafeString(), 5);
+        clone = mock(Query.class);
+        when(query.clone()).thenReturn(clone);
+        assertSame(clone, scanner.createShardQuery(query, shard));
+        verify(clone).filter("__key__ >=", start);
+        verify(clone).filter("__key__ <", end);
+        verify(clone).startCursor(StubQuery.cursor(5));
+    }
+
+    /** Test a scan with a callback. */
+    @Test public void testScan() {
+        RecordingListener listener = new RecordingListener();
+        CollectingCallback callback = new CollectingCallback();
+        ShardedScanner<Integer> scanner = new StubScanner(this.executor, 10, listener);
+
+        List<ScanShard<Integer>> shards = createShards();
+        assertTrue(scanner.scan(StubQuery.create(new ArrayList<Integer>()), shards, callback));
+        assertEquals(createList(100), callback.getSorted());
+        assertEquals(8, listener.checkpoints.get());
+        assertEquals(4, listener.finished.get());
+
+        for (ScanShard<Integer> shard : shards) {
+            assertTrue(shard.isComplete());
+            assertEquals(25, shard.getRows());
+            assertEquals(20, StubQuery.offset(shard.getCursor()));
+        }
+
+        // complete shards are skipped
+        callback = new CollectingCallback();
+        assertTrue(scanner.scan(StubQuery.create(new ArrayList<Integer>()), shards, callback));
+        assertTrue(callback.getSorted().isEmpty());
+    }
+
+    /** Test that a time limit stops shards at a checkpoint, and that a later scan resumes them. */
+    @Test public void testScanTimeLimit() {
+        ExecutorService single = Executors.newSingleThreadExecutor();  // run the shards in a predictable order
+        try {
+            final AtomicLong now = new AtomicLong(0);
+            RecordingListener listener = new RecordingListener() {
+                @Override
+                public void checkpoint(ScanShard<?> shard) {
+                    now.addAndGet(1000);
+                    super.checkpoint(shard);
+                }
+            };
+
+            StubScanner scanner = new StubScanner(single, 10, listener) {
+                @Override
+                protected long currentTimeMillis() {
+                    return now.get();
+                }
+            };
+
+            scanner.setTimeLimit(1500);
+            List<ScanShard<Integer>> shards = createShards();
+
+            CollectingCallback first = new CollectingCallback();
+            assertFalse(scanner.scan(StubQuery.create(new ArrayList<Integer>()), shards, first));
+            assertEquals(50, first.entities.size());
+            assertEquals(20, shards.get(0).getRows());
+            assertEquals(10, shards.get(1).getRows());
+            assertEquals(10, shards.get(2).getRows());
+            assertEquals(10, shards.get(3).getRows());
+            for (ScanShard<Integer> shard : shards) {
+                assertFalse(shard.isComplete());
+            }
+
+            scanner.setTimeLimit(ShardedScanner.UNLIMITED);
+            CollectingCallback second = new CollectingCallback();
+            assertTrue(scanner.scan(StubQuery.create(new ArrayList<Integer>()), shards, second));
+            assertEquals(50, second.entities.size());
+
+            List<Integer> all = new ArrayList<Integer>(first.entities);
+            all.addAll(second.entities);
+            Collections.sort(all);
+            assertEquals(createList(100), all);  // nothing skipped, nothing repeated
+        } finally {
+            single.shutdownNow();
+        }
+    }
+
+    /** Test that a failing shard fails the scan, once the other shards have finished. */
+    @Test public void testScanFailure() {
+        ShardedScanner<Integer> scanner = new StubScanner(this.executor, 10, null);
+        List<ScanShard<Integer>> shards = createShards();
+
+        try {
+            scanner.scan(StubQuery.create(new ArrayList<Integer>()), shards, new IShardCallback<Integer>() {
+                @Override
+                public void process(Integer entity) {
+                    if (entity == 30) {
+                        throw new IllegalStateException("bad entity");
+                    }
+                }
+            });
+            fail("Expected DaoException");
+        } catch (DaoException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        assertTrue(shards.get(0).isComplete());
+        assertFalse(shards.get(1).isComplete());
+        assertEquals(0, shards.get(1).getRows());
+        assertTrue(shards.get(2).isComplete());
+        assertTrue(shards.get(3).isComplete());
+    }
+
+    /** Test the merged iterator. */
+    @Test public void testIterator() {
+        ShardedScanner<Integer> scanner = new StubScanner(this.executor, 10, null);
+        scanner.setQueueCapacity(5);
+
+        List<ScanShard<Integer>> shards = createShards();
+        ShardedScanner.ShardIterator<Integer> iterator = scanner.iterator(StubQuery.create(new ArrayList<Integer>()), shards);
+
+        List<Integer> results = new ArrayList<Integer>();
+        while (iterator.hasNext()) {
+            results.add(iterator.next());
+        }
+
+        Collections.sort(results);
+        assertEquals(createList(100), results);
+        assertFalse(iterator.hasNext());
+
+        try {
+            iterator.next();
+            fail("Expected NoSuchElementException");
+        } catch (NoSuchElementException e) { }
+
+        for (ScanShard<Integer> shard : shards) {
+            assertFalse(shard.isComplete());  // the iterator doesn't checkpoint
+        }
+    }
+
+    /** Test that a failing shard fails the merged iterator. */
+    @Test public void testIteratorFailure() {
+        ShardedScanner<Integer> scanner = new StubScanner(this.executor, 10, null) {
+            @Override
+            protected Query<Integer> createShardQuery(Query<Integer> query, ScanShard<Integer> shard) {
+                if (shard.getIndex() == 2) {
+                    return StubQuery.create(null);  // the iterator fails on a null list
+                }
+
+                return super.createShardQuery(query, shard);
+            }
+        };
+
+        ShardedScanner.ShardIterator<Integer> iterator = scanner.iterator(StubQuery.create(new ArrayList<Integer>()), createShards());
+        try {
+            while (iterator.hasNext()) {
+                iterator.next();
+            }
+
+            fail("Expected DaoException");
+        } catch (DaoException e) { }
+    }
+
+    /** Test that a shard that fails with an Error fails the merged iterator, rather than leaving it waiting forever. */
+    @SuppressWarnings("unchecked")
+    @Test(timeout = 10000) public void testIteratorError() {
+        ShardedScanner<Integer> scanner = new StubScanner(this.executor, 10, null) {
+            @Override
+            protected Query<Integer> createShardQuery(Query<Integer> query, ScanShard<Integer> shard) {
+                if (shard.getIndex() == 2) {
+                    Query<Integer> broken = mock(Query.class);
+                    when(broken.iterator()).thenThrow(new AssertionError("hello"));
+                    return broken;
+                }
+
+                return super.createShardQuery(query, shard);
+            }
+        };
+
+        ShardedScanner.ShardIterator<Integer> iterator = scanner.iterator(StubQuery.create(new ArrayList<Integer>()), createShards());
+        try {
+            while (iterator.hasNext()) {
+                iterator.next();
+            }
+
+            fail("Expected DaoException");
+        } catch (DaoException e) {
+            assertTrue(e.getCause() instanceof AssertionError);
+        }
+    }
+
+    /** Test that closing an abandoned iterator stops the shards. */
+    @Test public void testIteratorClose() throws Exception {
+        ShardedScanner<Integer> scanner = new StubScanner(this.executor, 10, null);
+        scanner.setQueueCapacity(1);
+
+        ShardedScanner.ShardIterator<Integer> iterator = scanner.iterator(StubQuery.create(new ArrayList<Integer>()), createShards());
+        assertTrue(iterator.hasNext());
+        iterator.next();
+        iterator.close();
+        assertFalse(iterator.hasNext());
+
+        this.executor.shutdown();
+        assertTrue(this.executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /** Check the key range of a shard. */
+    private static void assertShard(ScanShard<Integer> shard, int index, String start, String end) {
+        assertEquals(index, shard.getIndex());
+        assertEquals(start, shard.getStart() == null ? null : shard.getStart().getName());
+        assertEquals(end, shard.getEnd() == null ? null : shard.getEnd().getName());
+        assertNull(shard.getCursor());
+        assertEquals(0, shard.getRows());
+        assertFalse(shard.isComplete());
+    }
+
+    /** Create four shards over the values 0-99, where each key's id is its value. */
+    private static List<ScanShard<Integer>> createShards() {
+        List<ScanShard<Integer>> shards = new ArrayList<ScanShard<Integer>>();
+        shards.add(new ScanShard<Integer>(0, null, new Key<Integer>("Item", 25)));
+        shards.add(new ScanShard<Integer>(1, new Key<Integer>("Item", 25), new Key<Integer>("Item", 50)));
+        shards.add(new ScanShard<Integer>(2, new Key<Integer>("Item", 50), new Key<Integer>("Item", 75)));
+        shards.add(new ScanShard<Integer>(3, new Key<Integer>("Item", 75), null));
+        return shards;
+    }
+
+    /** Create a list of the values 0 through size - 1. */
+    private static List<Integer> createList(int size) {
+        List<Integer> list = new ArrayList<Integer>();
+        for (int i = 0; i < size; i++) {
+            list.add(i);
+        }
+
+        return list;
+    }
+
+    /** Scanner that stubs each shard's key range query over the values 0-99. */
+    private static class StubScanner extends ShardedScanner<Integer> {
+        public StubScanner(ExecutorService executor, int checkpointInterval, IShardListener listener) {
+            super(executor, checkpointInterval, listener);
+        }
+
+        @Override
+        protected Query<Integer> createShardQuery(Query<Integer> query, ScanShard<Integer> shard) {
+            int start = shard.getStart() == null ? 0 : (int) shard.getStart().getId();
+            int end = shard.getEnd() == null ? 100 : (int) shard.getEnd().getId();
+            Query<Integer> result = StubQuery.create(createList(100).subList(start, end));
+            if (shard.getCursor() != null) {
+                result.startCursor(CursorUtils.deserialize(shard.getCursor()));
+            }
+
+            return result;
+        }
+    }
+
+    /** Callback that collects every entity. */
+    private static class CollectingCallback implements IShardCallback<Integer> {
+        private List<Integer> entities = Collections.synchronizedList(new ArrayList<Integer>());
+
+        @Override
+        public void process(Integer entity) {
+            this.entities.add(entity);
+        }
+
+        public List<Integer> getSorted() {
+            List<Integer> sorted = new ArrayList<Integer>(this.entities);
+            Collections.sort(sorted);
+            return sorted;
+        }
+    }
+
+    /** Listener that counts notifications. */
+    private static class RecordingListener implements IShardListener {
+        private AtomicLong checkpoints = new AtomicLong(0);
+        private AtomicLong finished = new AtomicLong(0);
+
+        @Override
+        public void checkpoint(ScanShard<?> shard) {
+            this.checkpoints.incrementAndGet();
+        }
+
+        @Override
+        public void finished(ScanShard<?> shard) {
+            this.finished.incrementAndGet();
+        }
+    }
+
+}
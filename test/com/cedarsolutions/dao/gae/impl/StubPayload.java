@@ -0,0 +1,156 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+import com.cedarsolutions.dao.gae.ICompactSerializable;
+
+/**
+ * Object graph that every payload codec can handle, used for unit tests and benchmarks.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+@XmlRootElement
+public class StubPayload implements Serializable, ICompactSerializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long id;
+    private String name;
+    private List<String> tags = new ArrayList<String>();
+    private List<StubPayloadItem> items = new ArrayList<StubPayloadItem>();
+
+    /** Create a payload with a number of tags and items, similar to a typical container value. */
+    public static StubPayload create(long id, int tags, int items) {
+        StubPayload payload = new StubPayload();
+        payload.setId(id);
+        payload.setName("Payload number " + id);
+
+        for (int i = 0; i < tags; i++) {
+            payload.getTags().add("tag-" + i);
+        }
+
+        for (int i = 0; i < items; i++) {
+            StubPayloadItem item = new StubPayloadItem();
+            item.setSku("SKU-" + id + "-" + i);
+            item.setDescription("Description of item " + i + " in payload " + id);
+            item.setQuantity(i + 1);
+            item.setPrice(9.99 * (i + 1));
+            payload.getItems().add(item);
+        }
+
+        return payload;
+    }
+
+    @Override
+    public void writeTo(DataOutput output) throws IOException {
+        output.writeLong(this.id);
+        output.writeUTF(this.name);
+
+        output.writeInt(this.tags.size());
+        for (String tag : this.tags) {
+            output.writeUTF(tag);
+        }
+
+        output.writeInt(this.items.size());
+        for (StubPayloadItem item : this.items) {
+            item.writeTo(output);
+        }
+    }
+
+    @Override
+    public void readFrom(DataInput input, int version) throws IOException {
+        this.id = input.readLong();
+        this.name = input.readUTF();
+
+        this.tags = new ArrayList<String>();
+        int tagCount = input.readInt();
+        for (int i = 0; i < tagCount; i++) {
+            this.tags.add(input.readUTF());
+        }
+
+        this.items = new ArrayList<StubPayloadItem>();
+        int itemCount = input.readInt();
+        for (int i = 0; i < itemCount; i++) {
+            StubPayloadItem item = new StubPayloadItem();
+            item.readFrom(input, version);
+            this.items.add(item);
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof StubPayload)) {
+            return false;
+        }
+
+        StubPayload other = (StubPayload) obj;
+        return this.id == other.id && this.name.equals(other.name)
+               && this.tags.equals(other.tags) && this.items.equals(other.items);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) this.id;
+    }
+
+    public long getId() {
+        return this.id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public List<String> getTags() {
+        return this.tags;
+    }
+
+    public void setTags(List<String> tags) {
+        this.tags = tags;
+    }
+
+    public List<StubPayloadItem> getItems() {
+        return this.items;
+    }
+
+    public void setItems(List<StubPayloadItem> items) {
+        this.items = items;
+    }
+
+}
@@ -0,0 +1,109 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+import com.cedarsolutions.dao.gae.ICompactSerializable;
+
+/**
+ * Item nested within a StubPayload.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class StubPayloadItem implements Serializable, ICompactSerializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String sku;
+    private String description;
+    private int quantity;
+    private double price;
+
+    @Override
+    public void writeTo(DataOutput output) throws IOException {
+        output.writeUTF(this.sku);
+        output.writeUTF(this.description);
+        output.writeInt(this.quantity);
+        output.writeDouble(this.price);
+    }
+
+    @Override
+    public void readFrom(DataInput input, int version) throws IOException {
+        this.sku = input.readUTF();
+        this.description = input.readUTF();
+        this.quantity = input.readInt();
+        this.price = input.readDouble();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof StubPayloadItem)) {
+            return false;
+        }
+
+        StubPayloadItem other = (StubPayloadItem) obj;
+        return this.sku.equals(other.sku) && this.description.equals(other.description)
+               && this.quantity == other.quantity && this.price == other.price;
+    }
+
+    @Override
+    public int hashCode() {
+        return this.sku.hashCode();
+    }
+
+    public String getSku() {
+        return this.sku;
+    }
+
+    public void setSku(String sku) {
+        this.sku = sku;
+    }
+
+    public String getDescription() {
+        return this.description;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+
+    public int getQuantity() {
+        return this.quantity;
+    }
+
+    public void setQuantity(int quantity) {
+        this.quantity = quantity;
+    }
+
+    public double getPrice() {
+        return this.price;
+    }
+
+    public void setPrice(double price) {
+        this.price = price;
+    }
+
+}
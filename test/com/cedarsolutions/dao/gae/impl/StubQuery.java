@@ -0,0 +1,165 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Base64;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterable;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Query;
+
+/**
+ * Stubbed Objectify query over a list, used for unit tests.
+ *
+ * <p>
+ * Objectify's Query is an interface with a lot of methods, so rather than
+ * implementing it directly, we build a Mockito mock whose default answer
+ * understands the handful of methods that the DAO code relies on.  Cursors
+ * are real GAE cursors that just encode a list offset.
+ * </p>
+ *
+ * @param <T> Type of the query
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class StubQuery<T> implements Answer<Object> {
+
+    private List<T> list;
+    private List<Key<T>> keys;
+    private Statistics statistics;
+    private int start;
+    private int limit;
+
+    /** Create a stubbed query. */
+    private StubQuery(List<T> list, List<Key<T>> keys, Statistics statistics) {
+        this.list = list;
+        this.keys = keys;
+        this.statistics = statistics;
+        this.start = 0;
+        this.limit = Integer.MAX_VALUE;
+    }
+
+    /** Create a mocked query over the passed-in list. */
+    public static <T> Query<T> create(List<T> list) {
+        return create(list, new Statistics());
+    }
+
+    /** Create a mocked query over the passed-in list, tracking statistics. */
+    @SuppressWarnings("unchecked")
+    public static <T> Query<T> create(List<T> list, Statistics statistics) {
+        return mock(Query.class, new StubQuery<T>(list, null, statistics));
+    }
+
+    /** Create a mocked query over the passed-in list, which can also be executed keys-only. */
+    @SuppressWarnings("unchecked")
+    public static <T> Query<T> create(List<T> list, List<Key<T>> keys, Statistics statistics) {
+        return mock(Query.class, new StubQuery<T>(list, keys, statistics));
+    }
+
+    /** Create a cursor that represents a list offset. */
+    public static Cursor cursor(int offset) {
+        if (offset > 0x7F) {
+            throw new IllegalArgumentException("Offset is too large for a stubbed cursor");
+        }
+
+        byte[] bytes = new byte[] { 0x78, (byte) offset, };  // unknown protobuf field 15, preserved on round-trip
+        return Cursor.fromWebSafeString(Base64.encodeBase64URLSafeString(bytes));
+    }
+
+    /** Get the list offset represented by a cursor. */
+    public static int offset(Cursor cursor) {
+        return offset(cursor.toWebSafeString());
+    }
+
+    /** Get the list offset represented by a serialized cursor. */
+    public static int offset(String cursor) {
+        return Base64.decodeBase64(cursor)[1];
+    }
+
+    /** Answer a method invoked on the mock. */
+    @Override
+    public Object answer(InvocationOnMock invocation) throws Throwable {
+        String method = invocation.getMethod().getName();
+        if ("clone".equals(method)) {
+            StubQuery<T> copy = new StubQuery<T>(this.list, this.keys, this.statistics);
+            copy.start = this.start;
+            copy.limit = this.limit;
+            return mock(Query.class, copy);
+        } else if ("startCursor".equals(method)) {
+            this.start = offset((Cursor) invocation.getArguments()[0]);
+            return invocation.getMock();
+        } else if ("limit".equals(method)) {
+            this.limit = (Integer) invocation.getArguments()[0];
+            return invocation.getMock();
+        } else if ("chunkSize".equals(method)) {
+            this.statistics.chunkSizes.add((Integer) invocation.getArguments()[0]);
+            return invocation.getMock();
+        } else if ("iterator".equals(method)) {
+            this.statistics.executions += 1;
+            long end = (long) this.start + (long) this.limit;
+            return new StubQueryResultIterator<T>(this.list, this.start, (int) Math.min(end, Integer.MAX_VALUE));
+        } else if ("fetchKeys".equals(method)) {
+            return new QueryResultIterable<Key<T>>() {
+                @Override
+                public QueryResultIterator<Key<T>> iterator() {
+                    StubQuery.this.statistics.executions += 1;
+                    long end = (long) StubQuery.this.start + (long) StubQuery.this.limit;
+                    return new StubQueryResultIterator<Key<T>>(StubQuery.this.keys, StubQuery.this.start, (int) Math.min(end, Integer.MAX_VALUE));
+                }
+            };
+        } else if ("toString".equals(method)) {
+            return "StubQuery";
+        } else if ("hashCode".equals(method)) {
+            return System.identityHashCode(invocation.getMock());
+        } else if ("equals".equals(method)) {
+            return invocation.getMock() == invocation.getArguments()[0];
+        } else {
+            return invocation.getMock();  // order(), filter(), prefetchSize(), etc.
+        }
+    }
+
+    /** Statistics shared by a stubbed query and all of its clones. */
+    public static class Statistics {
+        private int executions;
+        private List<Integer> chunkSizes = new ArrayList<Integer>();
+
+        /** Number of times that the query or any of its clones was executed. */
+        public int getExecutions() {
+            return this.executions;
+        }
+
+        /** Chunk sizes set on the query or any of its clones, in order. */
+        public List<Integer> getChunkSizes() {
+            return this.chunkSizes;
+        }
+    }
+
+}
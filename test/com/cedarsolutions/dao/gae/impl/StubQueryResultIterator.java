@@ -0,0 +1,75 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import java.util.List;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.Index;
+import com.google.appengine.api.datastore.QueryResultIterator;
+
+/**
+ * Stubbed query result iterator over a list, used for unit tests.
+ * The cursor for each position is generated by StubQuery.cursor().
+ * @param <T> Type of the iterator
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class StubQueryResultIterator<T> implements QueryResultIterator<T> {
+
+    private List<T> list;
+    private int position;
+    private int end;
+
+    /** Create an iterator over a portion of a list. */
+    public StubQueryResultIterator(List<T> list, int start, int end) {
+        this.list = list;
+        this.position = Math.min(start, list.size());
+        this.end = Math.min(end, list.size());
+    }
+
+    @Override
+    public boolean hasNext() {
+        return this.position < this.end;
+    }
+
+    @Override
+    public T next() {
+        return this.list.get(this.position++);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<Index> getIndexList() {
+        return null;
+    }
+
+    @Override
+    public Cursor getCursor() {
+        return StubQuery.cursor(this.position);
+    }
+
+}
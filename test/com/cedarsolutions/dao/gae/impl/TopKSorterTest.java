@@ -0,0 +1,177 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.cedarsolutions.dao.domain.PaginatedResults;
+import com.cedarsolutions.dao.domain.Pagination;
+import com.cedarsolutions.dao.domain.SortOrder;
+import com.cedarsolutions.dao.gae.impl.MultiColumnSortTest.Person;
+
+/**
+ * Unit tests for TopKSorter.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class TopKSorterTest {
+
+    /** Test the constructors. */
+    @Test public void testConstructor() {
+        TopKSorter<Person> sorter = new TopKSorter<Person>(Person.BY_ID);
+        assertSame(Person.BY_ID, sorter.getComparator());
+        assertNull(sorter.getScanOrder());
+
+        sorter = new TopKSorter<Person>(Person.BY_ID, Person.BY_LAST);
+        assertSame(Person.BY_LAST, sorter.getScanOrder());
+
+        try {
+            new TopKSorter<Person>(null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Test the synthetic cursors. */
+    @Test public void testCursor() {
+        assertEquals("sort:40", TopKSorter.createCursor(40));
+        assertTrue(TopKSorter.isCursor("sort:40"));
+        assertFalse(TopKSorter.isCursor(null));
+        assertFalse(TopKSorter.isCursor("E-ABAIICG2oM"));
+
+        Pagination pagination = new Pagination(10);
+        assertEquals(0, TopKSorter.getOffset(pagination));
+
+        pagination.update("sort:0", "sort:10", 10);
+        pagination = pagination.next();
+        assertEquals(10, TopKSorter.getOffset(pagination));
+
+        pagination = new Pagination(10);
+        pagination.update("raw1", "raw2", 10);
+        pagination = pagination.next();
+        assertEquals(10, TopKSorter.getOffset(pagination));  // from the page number, when there's no synthetic cursor
+
+        pagination = new Pagination(10);
+        pagination.update("sort:x", "sort:y", 10);
+        try {
+            TopKSorter.getOffset(pagination);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Test top() over unordered rows. */
+    @Test public void testTop() {
+        List<Person> people = createPeople(100, 1);
+        TopKSorter<Person> sorter = new TopKSorter<Person>(Person.BY_ID);
+
+        List<Person> top = sorter.top(people.iterator(), 5);
+        assertEquals(5, top.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, top.get(i).getId());
+        }
+
+        assertEquals(100, sorter.getRowsScanned());
+        assertFalse(sorter.isStoppedEarly());
+
+        assertEquals(100, sorter.top(people.iterator(), 200).size());
+        assertTrue(sorter.top(people.iterator(), 0).isEmpty());
+    }
+
+    /** Test that a scan over rows already sorted by the leading columns stops early. */
+    @Test public void testStopEarly() {
+        List<Person> people = createPeople(100, 1);
+        MultiColumnSort<Person> sort = new MultiColumnSort<Person>(new HashSet<String>(Collections.singleton("last")))
+                                            .add("last", SortOrder.ASCENDING, Person.BY_LAST)
+                                            .add("id", SortOrder.DESCENDING, Person.BY_ID);
+        Collections.sort(people, Person.BY_LAST);  // as returned by the datastore
+
+        TopKSorter<Person> sorter = TopKSorter.create(sort);
+        List<Person> top = sorter.top(people.iterator(), 15);
+        assertEquals(15, top.size());
+        assertEquals("A", top.get(0).toString().substring(0, 1));
+        assertEquals(9, top.get(0).getId());  // ids descending within the same last name
+        assertTrue(sorter.isStoppedEarly());
+        assertEquals(21, sorter.getRowsScanned());  // 10 A's, 10 B's, then the first C
+
+        List<Person> expected = new ArrayList<Person>(people);
+        Collections.sort(expected, sort.getComparator());
+        assertEquals(expected.subList(0, 15), top);
+    }
+
+    /** Test paging through sorted results with synthetic cursors. */
+    @Test public void testPaging() {
+        List<Person> people = createPeople(23, 2);
+        List<Person> expected = new ArrayList<Person>(people);
+        Collections.sort(expected, Person.BY_ID);
+
+        TopKSorter<Person> sorter = new TopKSorter<Person>(Person.BY_ID);
+        PaginatedResults<Person> results = sorter.createPaginatedResults(new Pagination(10), people.iterator());
+        assertEquals(expected.subList(0, 10), results);
+        assertEquals("sort:0", results.getPagination().getCurrent());
+        assertTrue(results.getPagination().hasNext());
+        assertFalse(results.getPagination().isTotalFinalized());
+
+        results = sorter.createPaginatedResults(results.getPagination().next(), people.iterator());
+        assertEquals(expected.subList(10, 20), results);
+        assertEquals("sort:10", results.getPagination().getCurrent());
+        assertTrue(results.getPagination().hasPrevious());
+
+        results = sorter.createPaginatedResults(results.getPagination().next(), people.iterator());
+        assertEquals(expected.subList(20, 23), results);
+        assertEquals("sort:20", results.getPagination().getCurrent());
+        assertFalse(results.getPagination().hasNext());
+        assertTrue(results.getPagination().isTotalFinalized());
+        assertEquals(3, results.getPagination().getTotalPages());
+        assertEquals(23, results.getPagination().getTotalRows());
+
+        results = sorter.createPaginatedResults(results.getPagination().page(2), people.iterator());
+        assertEquals(expected.subList(10, 20), results);
+
+        results = sorter.createPaginatedResults(null, people.iterator());
+        assertEquals(expected, results);
+        assertNull(results.getPagination());
+    }
+
+    /** Create people with ids 0 to count - 1 in random order, ten to a last name. */
+    private static List<Person> createPeople(int count, long seed) {
+        List<Person> people = new ArrayList<Person>();
+        for (int i = 0; i < count; i++) {
+            people.add(new Person(String.valueOf((char) ('A' + i / 10)), "First" + i, i));
+        }
+
+        Collections.shuffle(people, new Random(seed));
+        return people;
+    }
+
+}
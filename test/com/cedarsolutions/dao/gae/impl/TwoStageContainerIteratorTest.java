@@ -0,0 +1,171 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.cedarsolutions.dao.gae.IContainerFilterPredicate;
+import com.cedarsolutions.dao.gae.IFilterPredicate;
+import com.cedarsolutions.dao.gae.domain.IContainer;
+import com.googlecode.objectify.Query;
+
+/**
+ * Unit tests for TwoStageContainerIterator.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class TwoStageContainerIteratorTest {
+
+    /** Test the constructor. */
+    @Test public void testConstructor() {
+        Query<StubContainer> query = StubQuery.create(createContainers());
+        IContainerFilterPredicate<StubContainer> containerPredicate = new ShortNamePredicate();
+        IFilterPredicate<String> predicate = new NoOpFilterPredicate<String>();
+
+        TwoStageContainerIterator<StubContainer, String> iterator = new TwoStageContainerIterator<StubContainer, String>(query, containerPredicate, predicate);
+        assertSame(containerPredicate, iterator.getContainerPredicate());
+        assertSame(predicate, iterator.getPredicate());
+        assertFalse(iterator.isLazyCursor());
+        assertEquals(0, iterator.getRowsScanned());
+        assertEquals(0, iterator.getRowsDeserialized());
+
+        iterator = new TwoStageContainerIterator<StubContainer, String>(query, containerPredicate, predicate, true);
+        assertTrue(iterator.isLazyCursor());
+    }
+
+    /** Test that only containers which pass the container predicate are deserialized. */
+    @Test public void testIterator() {
+        List<StubContainer> containers = createContainers();
+        Query<StubContainer> query = StubQuery.create(containers);
+        TwoStageContainerIterator<StubContainer, String> iterator = new TwoStageContainerIterator<StubContainer, String>(query, new ShortNamePredicate(), new NoXPredicate());
+
+        List<String> results = new ArrayList<String>();
+        while (iterator.hasNext()) {
+            results.add(iterator.next());
+        }
+
+        assertEquals(2, results.size());
+        assertEquals("ab", results.get(0));
+        assertEquals("cd", results.get(1));
+        assertNull(iterator.next());
+        assertEquals(6, iterator.getRowsScanned());
+        assertEquals(3, iterator.getRowsDeserialized());
+
+        for (StubContainer container : containers) {
+            assertEquals(container.getLength() <= 2 ? 1 : 0, container.getDeserializations());
+        }
+    }
+
+    /** Test that results and cursors match FilteredContainerIterator with an equivalent predicate. */
+    @Test public void testMatchesFilteredIterator() {
+        List<StubContainer> containers = createContainers();
+        TwoStageContainerIterator<StubContainer, String> iterator = new TwoStageContainerIterator<StubContainer, String>(StubQuery.create(containers), new ShortNamePredicate(), new NoXPredicate(), true);
+        FilteredContainerIterator<String> expected = new FilteredContainerIterator<String>(StubQuery.create(containers), new ShortNoXPredicate(), true);
+
+        assertEquals(expected.getCursor(), iterator.getCursor());
+        while (expected.hasNext()) {
+            assertTrue(iterator.hasNext());
+            assertEquals(expected.next(), iterator.next());
+            assertEquals(expected.getCursor(), iterator.getCursor());
+        }
+
+        assertFalse(iterator.hasNext());
+    }
+
+    /** Create the standard list of containers. */
+    private static List<StubContainer> createContainers() {
+        List<StubContainer> containers = new ArrayList<StubContainer>();
+        containers.add(new StubContainer("ab"));
+        containers.add(new StubContainer("long"));
+        containers.add(new StubContainer("xx"));
+        containers.add(new StubContainer("longer"));
+        containers.add(new StubContainer("cd"));
+        containers.add(new StubContainer("longest"));
+        return containers;
+    }
+
+    /** Container that keeps its value's length as an "indexed" field, and counts deserializations. */
+    private static class StubContainer implements IContainer<String> {
+        private static final long serialVersionUID = 1L;
+        private String value;
+        private int length;
+        private int deserializations;
+
+        public StubContainer(String value) {
+            this.fromValue(value);
+        }
+
+        public int getLength() {
+            return this.length;
+        }
+
+        public int getDeserializations() {
+            return this.deserializations;
+        }
+
+        @Override
+        public void fromValue(String value) {
+            this.value = value;
+            this.length = value.length();
+        }
+
+        @Override
+        public String toValue() {
+            this.deserializations += 1;
+            return this.value;
+        }
+    }
+
+    /** Container predicate that accepts only values of length 2 or less. */
+    private static class ShortNamePredicate implements IContainerFilterPredicate<StubContainer> {
+        @Override
+        public boolean evaluate(StubContainer container) {
+            return container.getLength() <= 2;
+        }
+    }
+
+    /** Predicate that rejects values containing "x". */
+    private static class NoXPredicate implements IFilterPredicate<String> {
+        @Override
+        public boolean evaluate(String value) {
+            return !value.contains("x");
+        }
+    }
+
+    /** Predicate equivalent to ShortNamePredicate and NoXPredicate together. */
+    private static class ShortNoXPredicate implements IFilterPredicate<String> {
+        @Override
+        public boolean evaluate(String value) {
+            return value.length() <= 2 && !value.contains("x");
+        }
+    }
+
+}
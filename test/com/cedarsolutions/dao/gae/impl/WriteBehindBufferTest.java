@@ -0,0 +1,130 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.gae.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Objectify;
+
+/**
+ * Unit tests for WriteBehindBuffer.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class WriteBehindBufferTest {
+
+    /** Test the constructor. */
+    @Test public void testConstructor() {
+        WriteBehindBuffer buffer = new WriteBehindBuffer(5);
+        assertEquals(5, buffer.getBatchSize());
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.getFlushes());
+
+        try {
+            new WriteBehindBuffer(0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Test put(), delete() and the methods that read pending operations. */
+    @Test public void testPutDelete() {
+        Key<IntegerIdEntity> key1 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 1);
+        Key<IntegerIdEntity> key2 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 2);
+        IntegerIdEntity entity1 = new IntegerIdEntity(1, null);
+
+        WriteBehindBuffer buffer = new WriteBehindBuffer(2);
+        buffer.put(key1, entity1);
+        assertTrue(buffer.contains(key1));
+        assertFalse(buffer.isDeleted(key1));
+        assertSame(entity1, buffer.get(key1));
+        assertFalse(buffer.contains(key2));
+        assertNull(buffer.get(key2));
+        assertFalse(buffer.isFull());
+
+        buffer.put(key1, entity1);  // same key again is still one operation
+        assertEquals(1, buffer.size());
+
+        buffer.delete(key2);
+        assertTrue(buffer.contains(key2));
+        assertTrue(buffer.isDeleted(key2));
+        assertNull(buffer.get(key2));
+        assertTrue(buffer.isFull());
+
+        buffer.delete(key1);  // the last operation for a key wins
+        assertTrue(buffer.isDeleted(key1));
+        assertEquals(2, buffer.size());
+
+        buffer.clear();
+        assertTrue(buffer.isEmpty());
+    }
+
+    /** Test flush(). */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test public void testFlush() {
+        Objectify objectify = mock(Objectify.class);
+        Key<IntegerIdEntity> key1 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 1);
+        Key<IntegerIdEntity> key2 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 2);
+        Key<IntegerIdEntity> key3 = new Key<IntegerIdEntity>(IntegerIdEntity.class, 3);
+        IntegerIdEntity entity1 = new IntegerIdEntity(1, null);
+        IntegerIdEntity entity3 = new IntegerIdEntity(3, null);
+
+        WriteBehindBuffer buffer = new WriteBehindBuffer(10);
+        buffer.flush(objectify);
+        verifyZeroInteractions(objectify);
+        assertEquals(0, buffer.getFlushes());
+
+        buffer.put(key1, entity1);
+        buffer.delete(key2);
+        buffer.put(key3, entity3);
+        buffer.flush(objectify);
+        verify(objectify).put(Arrays.<Object>asList(entity1, entity3));
+        verify(objectify).delete(Arrays.<Object>asList(key2));
+        assertTrue(buffer.isEmpty());
+        assertEquals(1, buffer.getFlushes());
+        assertEquals(2, buffer.getEntitiesPut());
+        assertEquals(1, buffer.getKeysDeleted());
+
+        objectify = mock(Objectify.class);
+        buffer.delete(key1);
+        buffer.flush(objectify);
+        verify(objectify, never()).put((Iterable) any(Iterable.class));
+        verify(objectify).delete(Arrays.<Object>asList(key1));
+        assertEquals(2, buffer.getFlushes());
+        assertEquals(2, buffer.getKeysDeleted());
+    }
+
+}
@@ -0,0 +1,307 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.jdbc.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cedarsolutions.dao.IDaoTransaction;
+import com.cedarsolutions.dao.IUnitOfWork;
+import com.cedarsolutions.dao.TransactionRunner;
+import com.cedarsolutions.dao.domain.PaginatedResults;
+import com.cedarsolutions.dao.domain.Pagination;
+import com.cedarsolutions.dao.domain.SortOrder;
+import com.cedarsolutions.exception.DaoException;
+import com.cedarsolutions.exception.NotConfiguredException;
+
+/**
+ * Unit tests for AbstractJdbcDao, run against an in-memory H2 database.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class AbstractJdbcDaoTest {
+
+    /** Counter used to give each test its own database. */
+    private static final AtomicInteger DATABASES = new AtomicInteger(0);
+
+    /** DAO under test. */
+    private PersonDao dao;
+
+    /** Create a DAO over a new, empty database. */
+    @Before public void setUp() throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:jdbcdao" + DATABASES.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+
+        this.dao = new PersonDao();
+        this.dao.setDataSource(dataSource);
+        this.dao.afterPropertiesSet();
+        this.dao.createTable();
+    }
+
+    /** Test the getters and setters, and afterPropertiesSet(). */
+    @Test public void testConfiguration() {
+        PersonDao dao = new PersonDao();
+        assertNull(dao.getDataSource());
+        assertTrue(dao.getTransactionRunner() instanceof JdbcTransactionRunner);
+        assertEquals(StatementCache.DEFAULT_MAX_SIZE, dao.getStatementCacheSize());
+        assertEquals(AbstractJdbcDao.DEFAULT_BATCH_SIZE, dao.getBatchSize());
+
+        try {
+            dao.afterPropertiesSet();
+            fail("Expected NotConfiguredException");
+        } catch (NotConfiguredException e) { }
+
+        dao.setDataSource(this.dao.getDataSource());
+        dao.afterPropertiesSet();
+
+        TransactionRunner runner = new TransactionRunner();
+        dao.setTransactionRunner(runner);
+        assertSame(runner, dao.getTransactionRunner());
+
+        dao.setBatchSize(0);
+        try {
+            dao.afterPropertiesSet();
+            fail("Expected NotConfiguredException");
+        } catch (NotConfiguredException e) { }
+
+        dao.setBatchSize(5);
+        dao.setStatementCacheSize(-1);
+        try {
+            dao.afterPropertiesSet();
+            fail("Expected NotConfiguredException");
+        } catch (NotConfiguredException e) { }
+    }
+
+    /** Test a batch insert, and simple queries and updates outside of a transaction. */
+    @Test public void testBatchInsert() {
+        this.dao.setBatchSize(10);
+        assertEquals(25, this.dao.insertPeople(null, createPeople(25)));
+        assertEquals(25, this.dao.countPeople());
+
+        Person person = this.dao.retrievePerson(7);
+        assertEquals(7, person.getId());
+        assertTrue(person.isActive());
+        assertNull(this.dao.retrievePerson(100));
+
+        assertEquals(1, this.dao.deactivatePerson(null, 7));
+        assertFalse(this.dao.retrievePerson(7).isActive());
+        assertEquals(0, this.dao.deactivatePerson(null, 100));
+    }
+
+    /** Test that a failed batch is rolled back and reported as a DaoException. */
+    @Test public void testBatchInsertFailure() {
+        List<Person> people = createPeople(5);
+        people.add(new Person(2, "Duplicate", "Key", true));
+
+        try {
+            this.dao.insertPeople(null, people);
+            fail("Expected DaoException");
+        } catch (DaoException e) {
+            assertTrue(e.getCause() instanceof SQLException);
+        }
+
+        assertEquals(0, this.dao.countPeople());
+    }
+
+    /** Test that a transaction prepares a statement only once, no matter how many batches are sent. */
+    @Test public void testStatementCache() {
+        this.dao.setBatchSize(3);
+        JdbcDaoTransaction transaction = this.dao.getJdbcTransaction();
+        this.dao.insertPeople(transaction, createPeople(10));
+        this.dao.insertPeople(transaction, Arrays.asList(new Person(10, "Last", "First", true)));
+        assertEquals(1, transaction.getStatementCache().getMisses());
+        assertEquals(1, transaction.getStatementCache().getHits());
+        transaction.commit();
+        assertEquals(11, this.dao.countPeople());
+    }
+
+    /** Test that work done via runInTransaction() crosses DAO boundaries, and is rolled back on failure. */
+    @Test public void testRunInTransaction() {
+        final PersonDao other = new PersonDao();
+        other.setDataSource(this.dao.getDataSource());
+
+        try {
+            this.dao.runInTransaction(new IUnitOfWork<Void>() {
+                @Override
+                public Void execute(IDaoTransaction transaction) {
+                    dao.insertPeople(transaction, createPeople(3));
+                    other.deactivatePerson(transaction, 1);
+                    throw new DaoException("Hello");
+                }
+            });
+            fail("Expected DaoException");
+        } catch (DaoException e) {
+            assertEquals("Hello", e.getMessage());
+        }
+
+        assertEquals(0, this.dao.countPeople());
+
+        int deactivated = this.dao.runInTransaction(new IUnitOfWork<Integer>() {
+            @Override
+            public Integer execute(IDaoTransaction transaction) {
+                dao.insertPeople(transaction, createPeople(3));
+                return other.deactivatePerson(transaction, 1);
+            }
+        });
+
+        assertEquals(1, deactivated);
+        assertEquals(3, this.dao.countPeople());
+        assertFalse(this.dao.retrievePerson(1).isActive());
+    }
+
+    /** Test that a transaction from some other kind of DAO is rejected. */
+    @Test public void testCheckTransactionType() {
+        IDaoTransaction transaction = new IDaoTransaction() {
+            @Override
+            public void commit() {
+            }
+
+            @Override
+            public void rollback() {
+            }
+        };
+
+        try {
+            this.dao.insertPeople(transaction, createPeople(1));
+            fail("Expected DaoException");
+        } catch (DaoException e) { }
+    }
+
+    /** Test paging forwards and backwards through an ascending keyset query. */
+    @Test public void testPaginationAscending() {
+        this.checkPagination(SortOrder.ASCENDING);
+    }
+
+    /** Test paging forwards and backwards through a keyset query with mixed sort orders. */
+    @Test public void testPaginationDescending() {
+        this.checkPagination(SortOrder.DESCENDING);
+    }
+
+    /** Test a keyset query without pagination. */
+    @Test public void testNoPagination() {
+        this.dao.insertPeople(null, createPeople(12));
+        this.dao.deactivatePerson(null, 4);
+
+        PaginatedResults<Person> results = this.dao.retrieveActivePeople(null, SortOrder.ASCENDING);
+        assertNull(results.getPagination());
+        assertEquals(getExpected(createPeople(12), SortOrder.ASCENDING, 4), getIds(results));
+    }
+
+    /** Test that a bad cursor is rejected. */
+    @Test public void testBadCursor() {
+        Pagination pagination = new Pagination(5);
+        pagination.update("bogus!", "bogus!", 5);
+        try {
+            this.dao.retrieveActivePeople(pagination.next(), SortOrder.ASCENDING);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Page through the active people, checking each page against the expected order. */
+    private void checkPagination(SortOrder sortOrder) {
+        List<Person> people = createPeople(23);
+        Collections.shuffle(people);
+        this.dao.insertPeople(null, people);
+        this.dao.deactivatePerson(null, 5);
+        List<Integer> expected = getExpected(people, sortOrder, 5);
+
+        PaginatedResults<Person> results = this.dao.retrieveActivePeople(new Pagination(10), sortOrder);
+        assertEquals(expected.subList(0, 10), getIds(results));
+        assertNull(results.getPagination().getCurrent());
+        assertTrue(results.getPagination().hasNext());
+        assertFalse(results.getPagination().hasPrevious());
+
+        results = this.dao.retrieveActivePeople(results.getPagination().next(), sortOrder);
+        assertEquals(expected.subList(10, 20), getIds(results));
+        assertTrue(results.getPagination().hasNext());
+        assertTrue(results.getPagination().hasPrevious());
+
+        results = this.dao.retrieveActivePeople(results.getPagination().next(), sortOrder);
+        assertEquals(expected.subList(20, 22), getIds(results));
+        assertFalse(results.getPagination().hasNext());
+        assertTrue(results.getPagination().isTotalFinalized());
+        assertEquals(3, results.getPagination().getTotalPages());
+        assertEquals(22, results.getPagination().getTotalRows());
+
+        results = this.dao.retrieveActivePeople(results.getPagination().previous(), sortOrder);
+        assertEquals(expected.subList(10, 20), getIds(results));
+    }
+
+    /** Get the expected ids of the active people, sorted by last name and then id. */
+    private static List<Integer> getExpected(List<Person> people, final SortOrder sortOrder, int inactive) {
+        List<Person> sorted = new ArrayList<Person>(people);
+        Collections.sort(sorted, new Comparator<Person>() {
+            @Override
+            public int compare(Person o1, Person o2) {
+                int result = o1.getLastName().compareTo(o2.getLastName());
+                result = sortOrder == SortOrder.DESCENDING ? -result : result;
+                return result != 0 ? result : o1.getId() - o2.getId();
+            }
+        });
+
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Person person : sorted) {
+            if (person.getId() != inactive) {
+                ids.add(person.getId());
+            }
+        }
+
+        return ids;
+    }
+
+    /** Get the ids of a list of people. */
+    private static List<Integer> getIds(List<Person> people) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Person person : people) {
+            ids.add(person.getId());
+        }
+
+        return ids;
+    }
+
+    /** Create people with ids 0 to count - 1, with only a few distinct last names. */
+    private static List<Person> createPeople(int count) {
+        List<Person> people = new ArrayList<Person>();
+        for (int i = 0; i < count; i++) {
+            people.add(new Person(i, "Last" + (i * 7 % 4), "First" + i, true));
+        }
+
+        return people;
+    }
+
+}
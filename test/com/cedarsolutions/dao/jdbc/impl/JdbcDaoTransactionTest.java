@@ -0,0 +1,142 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.jdbc.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.junit.Test;
+
+import com.cedarsolutions.exception.DaoException;
+
+/**
+ * Unit tests for JdbcDaoTransaction.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class JdbcDaoTransactionTest {
+
+    /** Test the constructor. */
+    @Test public void testConstructor() throws Exception {
+        Connection connection = mock(Connection.class);
+        when(connection.getAutoCommit()).thenReturn(true);
+
+        JdbcDaoTransaction transaction = new JdbcDaoTransaction(connection);
+        assertSame(connection, transaction.getConnection());
+        assertSame(connection, transaction.getStatementCache().getConnection());
+        assertEquals(StatementCache.DEFAULT_MAX_SIZE, transaction.getStatementCache().getMaxSize());
+        assertTrue(transaction.isActive());
+        verify(connection).setAutoCommit(false);
+    }
+
+    /** Test that the connection is closed if it can't be put into a transaction. */
+    @Test public void testConstructorFailure() throws Exception {
+        Connection connection = mock(Connection.class);
+        when(connection.getAutoCommit()).thenReturn(true);
+        doThrow(new SQLException("Hello")).when(connection).setAutoCommit(false);
+
+        try {
+            new JdbcDaoTransaction(connection);
+            fail("Expected DaoException");
+        } catch (DaoException e) { }
+
+        verify(connection).close();
+    }
+
+    /** Test commit(), which releases the connection. */
+    @Test public void testCommit() throws Exception {
+        Connection connection = mock(Connection.class);
+        PreparedStatement statement = mock(PreparedStatement.class);
+        when(connection.getAutoCommit()).thenReturn(true);
+        when(connection.prepareStatement("sql")).thenReturn(statement);
+
+        JdbcDaoTransaction transaction = new JdbcDaoTransaction(connection);
+        assertSame(statement, transaction.prepare("sql"));
+        transaction.release(statement);
+        verify(statement, never()).close();
+
+        transaction.commit();
+        assertFalse(transaction.isActive());
+        verify(connection).commit();
+        verify(statement).close();
+        verify(connection).setAutoCommit(true);
+        verify(connection).close();
+
+        transaction.rollback();  // does nothing once the transaction is over
+        verify(connection, never()).rollback();
+
+        try {
+            transaction.commit();
+            fail("Expected DaoException");
+        } catch (DaoException e) { }
+
+        try {
+            transaction.prepare("sql");
+            fail("Expected DaoException");
+        } catch (DaoException e) { }
+    }
+
+    /** Test a failed commit, which still releases the connection. */
+    @Test public void testCommitFailure() throws Exception {
+        Connection connection = mock(Connection.class);
+        when(connection.getAutoCommit()).thenReturn(false);
+        SQLException cause = new SQLException("Hello");
+        doThrow(cause).when(connection).commit();
+
+        JdbcDaoTransaction transaction = new JdbcDaoTransaction(connection);
+        try {
+            transaction.commit();
+            fail("Expected DaoException");
+        } catch (DaoException e) {
+            assertSame(cause, e.getCause());
+        }
+
+        assertFalse(transaction.isActive());
+        verify(connection, never()).setAutoCommit(true);  // it wasn't on to begin with
+        verify(connection).close();
+    }
+
+    /** Test rollback(), which releases the connection. */
+    @Test public void testRollback() throws Exception {
+        Connection connection = mock(Connection.class);
+        when(connection.getAutoCommit()).thenReturn(true);
+
+        JdbcDaoTransaction transaction = new JdbcDaoTransaction(connection);
+        transaction.rollback();
+        assertFalse(transaction.isActive());
+        verify(connection).rollback();
+        verify(connection).close();
+    }
+
+}
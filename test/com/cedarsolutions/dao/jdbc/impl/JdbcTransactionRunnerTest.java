@@ -0,0 +1,65 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.jdbc.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.sql.SQLTransactionRollbackException;
+import java.util.ConcurrentModificationException;
+
+import org.junit.Test;
+
+import com.cedarsolutions.exception.DaoException;
+
+/**
+ * Unit tests for JdbcTransactionRunner.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class JdbcTransactionRunnerTest {
+
+    /** Test the constructors. */
+    @Test public void testConstructor() {
+        JdbcTransactionRunner runner = new JdbcTransactionRunner(3, 10, 20);
+        assertEquals(3, runner.getMaxAttempts());
+        assertEquals(10, runner.getInitialDelay());
+        assertEquals(20, runner.getMaxDelay());
+        assertTrue(runner.isRetryCommitFailures());
+        assertTrue(new JdbcTransactionRunner().isRetryCommitFailures());
+    }
+
+    /** Test isRetryable(). */
+    @Test public void testIsRetryable() {
+        JdbcTransactionRunner runner = new JdbcTransactionRunner();
+        assertTrue(runner.isRetryable(new ConcurrentModificationException()));
+        assertTrue(runner.isRetryable(new DaoException("x", new SQLTransactionRollbackException("deadlock"))));
+        assertTrue(runner.isRetryable(new DaoException("x", new SQLException("serialization failure", "40001"))));
+        assertTrue(runner.isRetryable(new DaoException("x", new SQLException("deadlock", "40P01"))));
+        assertFalse(runner.isRetryable(new DaoException("x", new SQLException("unique constraint", "23505"))));
+        assertFalse(runner.isRetryable(new DaoException("x", new SQLException("no state"))));
+        assertFalse(runner.isRetryable(new DaoException("x")));
+    }
+
+}
@@ -0,0 +1,97 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.jdbc.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Date;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for KeysetCursor.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class KeysetCursorTest {
+
+    /** Test that every supported type survives a round trip, keeping its type. */
+    @Test public void testRoundTrip() {
+        Timestamp timestamp = new Timestamp(1457136000123L);
+        timestamp.setNanos(123456789);
+
+        Object[] values = new Object[] { "Smith, \u00e9", 42, 42L, (short) 7, 1.5, new BigDecimal("12.340"), true,
+                                         new java.sql.Date(1457136000000L), timestamp, };
+        String cursor = KeysetCursor.encode(values);
+        assertFalse(cursor.contains("+"));
+        assertFalse(cursor.contains("/"));
+        assertFalse(cursor.contains("="));
+
+        Object[] decoded = KeysetCursor.decode(cursor);
+        assertArrayEquals(values, decoded);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i].getClass(), decoded[i].getClass());
+        }
+
+        assertEquals(0, KeysetCursor.decode(KeysetCursor.encode()).length);
+    }
+
+    /** Test that a java.util.Date comes back as a Timestamp. */
+    @Test public void testDate() {
+        Date date = new Date(1457136000123L);
+        Object[] decoded = KeysetCursor.decode(KeysetCursor.encode(date));
+        assertTrue(decoded[0] instanceof Timestamp);
+        assertEquals(date.getTime(), ((Timestamp) decoded[0]).getTime());
+    }
+
+    /** Test values that can't be encoded. */
+    @Test public void testBadValues() {
+        try {
+            KeysetCursor.encode("a", null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            KeysetCursor.encode(new Object());
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Test cursors that can't be decoded. */
+    @Test public void testBadCursors() {
+        String cursor = KeysetCursor.encode("hello", 5);
+        String[] bad = new String[] { null, "!!", cursor.substring(0, cursor.length() - 2), cursor + "AAAA", "AVg", };
+        for (String value : bad) {
+            try {
+                KeysetCursor.decode(value);
+                fail("Expected IllegalArgumentException for " + value);
+            } catch (IllegalArgumentException e) { }
+        }
+    }
+
+}
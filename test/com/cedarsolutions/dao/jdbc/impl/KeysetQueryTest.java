@@ -0,0 +1,103 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.jdbc.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.cedarsolutions.dao.domain.SortOrder;
+import com.cedarsolutions.dao.jdbc.IRowMapper;
+import com.cedarsolutions.exception.DaoException;
+
+/**
+ * Unit tests for KeysetQuery.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class KeysetQueryTest {
+
+    /** Test the generated SQL and parameters. */
+    @Test public void testSql() {
+        KeysetQuery<Object> query = createQuery()
+                                        .where("p.active = ?", true)
+                                        .where("p.age > ? or p.age < ?", 10, 5)
+                                        .orderBy("p.last_name", SortOrder.DESCENDING)
+                                        .orderBy("p.first_name", SortOrder.ASCENDING)
+                                        .orderBy("id", SortOrder.ASCENDING);
+
+        assertEquals("select * from person p where (p.active = ?) and (p.age > ? or p.age < ?) "
+                     + "order by p.last_name desc, p.first_name asc, id asc", query.getSql(false));
+        assertEquals(Arrays.asList((Object) true, 10, 5), query.getParameters(null));
+
+        assertEquals("select * from person p where (p.active = ?) and (p.age > ? or p.age < ?) "
+                     + "and ((p.last_name < ?) or (p.last_name = ? and p.first_name > ?) "
+                     + "or (p.last_name = ? and p.first_name = ? and id > ?)) "
+                     + "order by p.last_name desc, p.first_name asc, id asc", query.getSql(true));
+        assertEquals(Arrays.asList((Object) true, 10, 5, "L", "L", "F", "L", "F", 3),
+                     query.getParameters(new Object[] { "L", "F", 3, }));
+
+        assertEquals("last_name", query.getKeyLabel(0));
+        assertEquals("id", query.getKeyLabel(2));
+    }
+
+    /** Test a query with no conditions. */
+    @Test public void testNoConditions() {
+        KeysetQuery<Object> query = createQuery().orderBy("id", SortOrder.ASCENDING);
+        assertEquals("select * from person p order by id asc", query.getSql(false));
+        assertEquals("select * from person p where ((id > ?)) order by id asc", query.getSql(true));
+    }
+
+    /** Test bad input. */
+    @Test public void testBadInput() {
+        try {
+            createQuery().getSql(false);
+            fail("Expected DaoException");
+        } catch (DaoException e) { }
+
+        try {
+            createQuery().orderBy("id", SortOrder.ASCENDING).getParameters(new Object[] { 1, 2, });
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            createQuery().orderBy(null, SortOrder.ASCENDING);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            new KeysetQuery<Object>("select 1", null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Create a query over the person table. */
+    @SuppressWarnings("unchecked")
+    private static KeysetQuery<Object> createQuery() {
+        return new KeysetQuery<Object>("select * from person p", mock(IRowMapper.class));
+    }
+
+}
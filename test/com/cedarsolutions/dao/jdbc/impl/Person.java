@@ -0,0 +1,59 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.jdbc.impl;
+
+/**
+ * Test entity for use in JDBC DAO unit tests.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class Person {
+
+    private int id;
+    private String lastName;
+    private String firstName;
+    private boolean active;
+
+    public Person(int id, String lastName, String firstName, boolean active) {
+        this.id = id;
+        this.lastName = lastName;
+        this.firstName = firstName;
+        this.active = active;
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public String getLastName() {
+        return this.lastName;
+    }
+
+    public String getFirstName() {
+        return this.firstName;
+    }
+
+    public boolean isActive() {
+        return this.active;
+    }
+
+}
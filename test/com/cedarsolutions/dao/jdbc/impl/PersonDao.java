@@ -0,0 +1,98 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.jdbc.impl;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+
+import com.cedarsolutions.dao.IDaoTransaction;
+import com.cedarsolutions.dao.domain.PaginatedResults;
+import com.cedarsolutions.dao.domain.Pagination;
+import com.cedarsolutions.dao.domain.SortOrder;
+import com.cedarsolutions.dao.jdbc.IRowMapper;
+import com.cedarsolutions.dao.jdbc.IStatementBinder;
+
+/**
+ * DAO over Person, used for unit tests.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class PersonDao extends AbstractJdbcDao {
+
+    private static final IRowMapper<Person> MAPPER = new IRowMapper<Person>() {
+        @Override
+        public Person mapRow(ResultSet resultSet) throws SQLException {
+            return new Person(resultSet.getInt("id"), resultSet.getString("last_name"),
+                              resultSet.getString("first_name"), resultSet.getBoolean("active"));
+        }
+    };
+
+    private static final IStatementBinder<Person> BINDER = new IStatementBinder<Person>() {
+        @Override
+        public void bind(PreparedStatement statement, Person person) throws SQLException {
+            statement.setInt(1, person.getId());
+            statement.setString(2, person.getLastName());
+            statement.setString(3, person.getFirstName());
+            statement.setBoolean(4, person.isActive());
+        }
+    };
+
+    private static final IRowMapper<Integer> COUNT = new IRowMapper<Integer>() {
+        @Override
+        public Integer mapRow(ResultSet resultSet) throws SQLException {
+            return resultSet.getInt(1);
+        }
+    };
+
+    public void createTable() {
+        update(null, "create table person (id integer primary key, last_name varchar(50) not null, "
+                     + "first_name varchar(50) not null, active boolean not null)");
+        update(null, "create index person_name on person (last_name, id)");
+    }
+
+    public int insertPeople(IDaoTransaction transaction, Collection<Person> people) {
+        return batchUpdate(transaction, "insert into person (id, last_name, first_name, active) values (?, ?, ?, ?)", people, BINDER);
+    }
+
+    public int deactivatePerson(IDaoTransaction transaction, int id) {
+        return update(transaction, "update person set active = false where id = ?", id);
+    }
+
+    public Person retrievePerson(int id) {
+        return queryForObject(null, "select * from person where id = ?", MAPPER, id);
+    }
+
+    public int countPeople() {
+        return queryForObject(null, "select count(*) from person", COUNT);
+    }
+
+    public PaginatedResults<Person> retrieveActivePeople(Pagination pagination, SortOrder sortOrder) {
+        KeysetQuery<Person> query = new KeysetQuery<Person>("select p.id, p.last_name, p.first_name, p.active from person p", MAPPER)
+                                        .where("p.active = ?", true)
+                                        .orderBy("p.last_name", sortOrder)
+                                        .orderBy("p.id", SortOrder.ASCENDING);
+        return createPaginatedResults(null, pagination, query);
+    }
+
+}
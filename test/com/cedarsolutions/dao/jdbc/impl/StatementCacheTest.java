@@ -0,0 +1,109 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.jdbc.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for StatementCache.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class StatementCacheTest {
+
+    /** Test the constructors. */
+    @Test public void testConstructor() {
+        Connection connection = mock(Connection.class);
+        StatementCache cache = new StatementCache(connection);
+        assertSame(connection, cache.getConnection());
+        assertEquals(StatementCache.DEFAULT_MAX_SIZE, cache.getMaxSize());
+        assertEquals(0, cache.getSize());
+
+        try {
+            new StatementCache(null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+
+        try {
+            new StatementCache(connection, -1);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    /** Test that statements are reused, and that the least recently used statement is evicted. */
+    @Test public void testPrepare() throws Exception {
+        Connection connection = mock(Connection.class);
+        PreparedStatement one = mock(PreparedStatement.class);
+        PreparedStatement two = mock(PreparedStatement.class);
+        PreparedStatement three = mock(PreparedStatement.class);
+        when(connection.prepareStatement("one")).thenReturn(one);
+        when(connection.prepareStatement("two")).thenReturn(two);
+        when(connection.prepareStatement("three")).thenReturn(three);
+
+        StatementCache cache = new StatementCache(connection, 2);
+        assertSame(one, cache.prepare("one"));
+        assertSame(two, cache.prepare("two"));
+        assertSame(one, cache.prepare("one"));
+        verify(one).clearParameters();
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+
+        cache.release(one);
+        verify(one, never()).close();
+
+        assertSame(three, cache.prepare("three"));
+        verify(two).close();  // "two" was least recently used
+        verify(one, never()).close();
+        assertEquals(2, cache.getSize());
+
+        cache.close();
+        verify(one).close();
+        verify(three).close();
+        verify(connection, never()).close();
+        assertEquals(0, cache.getSize());
+    }
+
+    /** Test that release() closes statements when caching is disabled. */
+    @Test public void testDisabled() throws Exception {
+        Connection connection = mock(Connection.class);
+        PreparedStatement one = mock(PreparedStatement.class);
+        when(connection.prepareStatement("one")).thenReturn(one);
+
+        StatementCache cache = new StatementCache(connection, 0);
+        assertSame(one, cache.prepare("one"));
+        assertEquals(0, cache.getSize());
+        cache.release(one);
+        verify(one).close();
+    }
+
+}
@@ -0,0 +1,101 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.wiring.gae.filter;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.cedarsolutions.dao.gae.impl.RequestIdentityMap;
+
+/**
+ * Unit tests for RequestIdentityMapFilter.
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class RequestIdentityMapFilterTest {
+
+    /** Make sure no identity map is left bound to the test thread. */
+    @After public void tearDown() {
+        RequestIdentityMap.end();
+    }
+
+    /** Test that a map is bound while the chain runs, and discarded afterwards. */
+    @Test public void testDoFilter() throws Exception {
+        ServletRequest request = mock(ServletRequest.class);
+        ServletResponse response = mock(ServletResponse.class);
+        FilterChain chain = mock(FilterChain.class);
+        final RequestIdentityMap[] bound = new RequestIdentityMap[1];
+
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                bound[0] = RequestIdentityMap.getCurrent();
+                return null;
+            }
+        }).when(chain).doFilter(request, response);
+
+        RequestIdentityMapFilter filter = new RequestIdentityMapFilter();
+        filter.init(null);
+        filter.doFilter(request, response, chain);
+        filter.destroy();
+
+        assertNotNull(bound[0]);
+        assertNull(RequestIdentityMap.getCurrent());
+    }
+
+    /** Test that the map is discarded even if the chain fails. */
+    @Test public void testDoFilterException() throws Exception {
+        FilterChain chain = mock(FilterChain.class);
+        doThrow(new ServletException("Hello")).when(chain).doFilter(any(ServletRequest.class), any(ServletResponse.class));
+
+        try {
+            new RequestIdentityMapFilter().doFilter(mock(ServletRequest.class), mock(ServletResponse.class), chain);
+            fail("Expected ServletException");
+        } catch (ServletException e) { }
+
+        assertNull(RequestIdentityMap.getCurrent());
+    }
+
+    /** Test that an existing map is left alone. */
+    @Test public void testDoFilterNested() throws Exception {
+        RequestIdentityMap existing = RequestIdentityMap.begin();
+        new RequestIdentityMapFilter().doFilter(mock(ServletRequest.class), mock(ServletResponse.class), mock(FilterChain.class));
+        assertSame(existing, RequestIdentityMap.getCurrent());
+    }
+
+}
@@ -31,4 +31,13 @@ public interface ITransactionalDao {
     /** Get a DAO transaction that spans DAO operations and crosses DAO boundaries. */
     IDaoTransaction getDaoTransaction();
 
+    /**
+     * Run a unit of work in a transaction, retrying with backoff if the transaction fails due to contention.
+     * A failed commit is only retried if the DAO's TransactionRunner is configured to, since the commit may have
+     * been applied anyway; in that case the unit of work must be idempotent.  See IUnitOfWork for details.
+     * @param work  Unit of work to run, which may be executed more than once
+     * @return Result of the unit of work.
+     */
+    <T> T runInTransaction(IUnitOfWork<T> work);
+
 }
@@ -0,0 +1,55 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao;
+
+/**
+ * A unit of work that runs within a DAO transaction.
+ *
+ * <p>
+ * A unit of work may be executed more than once if the transaction has to
+ * be retried, so it should not have side effects outside the transaction.
+ * </p>
+ *
+ * <p>
+ * If the TransactionRunner retries failed commits, the work must also be
+ * idempotent.  On the GAE datastore, a commit that fails with
+ * ConcurrentModificationException may have been applied anyway, so a retry
+ * runs against data that already includes the work.  A read-modify-write
+ * like adding to a counter must record that it was applied (for instance,
+ * with a unique id stored in the same transaction) and do nothing if it
+ * finds that record.  By default, failed commits are not retried.
+ * </p>
+ *
+ * @param <T> Type of the result
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public interface IUnitOfWork<T> {
+
+    /**
+     * Do the work.  The caller commits the transaction afterwards.
+     * @param transaction  Transaction to do the work in
+     * @return Result of the work, possibly null.
+     */
+    T execute(IDaoTransaction transaction);
+
+}
@@ -0,0 +1,266 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao;
+
+import java.util.ConcurrentModificationException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cedarsolutions.exception.DaoException;
+
+/**
+ * Runs units of work in DAO transactions, retrying on contention.
+ *
+ * <p>
+ * Each attempt gets a new transaction from the DAO.  If the unit of work
+ * fails with a retryable exception, the transaction is rolled back and the
+ * work is tried again after an exponential backoff with jitter, up to the
+ * configured number of attempts.  By default, only
+ * ConcurrentModificationException (which is what the datastore throws
+ * when an entity group is under too much contention) is retryable.
+ * </p>
+ *
+ * <p>
+ * A failed commit is different.  On the GAE datastore, a commit that throws
+ * ConcurrentModificationException may still have been applied, so running
+ * the work again could apply it twice.  By default, a commit failure is
+ * thrown to the caller without a retry.  A runner created with
+ * retryCommitFailures set retries commit failures just like any other
+ * failure, which is only safe if every unit of work it runs is idempotent:
+ * running it again after a commit that went through must change nothing.
+ * </p>
+ *
+ * <p>
+ * A runner is thread-safe and is normally shared by all of the callers of
+ * a DAO, so its counts cover all of those callers.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class TransactionRunner {
+
+    /** Default maximum number of attempts, including the first one. */
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+    /** Default delay before the first retry, in milliseconds. */
+    public static final long DEFAULT_INITIAL_DELAY = 50;
+
+    /** Default upper bound on the delay before any retry, in milliseconds. */
+    public static final long DEFAULT_MAX_DELAY = 2000;
+
+    /** Maximum number of attempts, including the first one. */
+    private int maxAttempts;
+
+    /** Delay before the first retry, in milliseconds. */
+    private long initialDelay;
+
+    /** Upper bound on the delay before any retry, in milliseconds. */
+    private long maxDelay;
+
+    /** Whether a failed commit is retried, which requires idempotent units of work. */
+    private boolean retryCommitFailures;
+
+    /** Source of jitter. */
+    private Random random = new Random();
+
+    /** Number of units of work run. */
+    private AtomicLong runs = new AtomicLong(0);
+
+    /** Number of retries after a retryable failure. */
+    private AtomicLong retries = new AtomicLong(0);
+
+    /** Number of units of work that ultimately failed. */
+    private AtomicLong failures = new AtomicLong(0);
+
+    /** Create a runner with the default limits. */
+    public TransactionRunner() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_DELAY, DEFAULT_MAX_DELAY);
+    }
+
+    /**
+     * Create a runner that doesn't retry failed commits.
+     * @param maxAttempts   Maximum number of attempts including the first one, at least 1
+     * @param initialDelay  Delay before the first retry in milliseconds, not negative
+     * @param maxDelay      Upper bound on the delay before any retry in milliseconds, at least initialDelay
+     */
+    public TransactionRunner(int maxAttempts, long initialDelay, long maxDelay) {
+        this(maxAttempts, initialDelay, maxDelay, false);
+    }
+
+    /**
+     * Create a runner.
+     * @param maxAttempts          Maximum number of attempts including the first one, at least 1
+     * @param initialDelay         Delay before the first retry in milliseconds, not negative
+     * @param maxDelay             Upper bound on the delay before any retry in milliseconds, at least initialDelay
+     * @param retryCommitFailures  Whether to retry a failed commit, which is only safe for idempotent units of work
+     */
+    public TransactionRunner(int maxAttempts, long initialDelay, long maxDelay, boolean retryCommitFailures) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Max attempts must be at least 1.");
+        }
+
+        if (initialDelay < 0 || maxDelay < initialDelay) {
+            throw new IllegalArgumentException("Delays must satisfy 0 <= initialDelay <= maxDelay.");
+        }
+
+        this.maxAttempts = maxAttempts;
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.retryCommitFailures = retryCommitFailures;
+    }
+
+    /**
+     * Run a unit of work in a transaction, retrying on contention.
+     * @param dao   DAO to get transactions from
+     * @param work  Unit of work to run
+     * @return Result of the unit of work.
+     * @throws RuntimeException The exception from the last attempt, if all attempts fail or the failure is not retryable.
+     */
+    public <T> T run(ITransactionalDao dao, IUnitOfWork<T> work) {
+        this.runs.incrementAndGet();
+
+        for (int attempt = 1; ; attempt++) {
+            IDaoTransaction transaction = dao.getDaoTransaction();
+
+            T result;
+            try {
+                result = work.execute(transaction);
+            } catch (RuntimeException e) {
+                rollback(transaction);
+                this.backOff(e, attempt, true);
+                continue;
+            }
+
+            try {
+                transaction.commit();
+                return result;
+            } catch (RuntimeException e) {
+                rollback(transaction);
+                this.backOff(e, attempt, this.retryCommitFailures);  // the commit may have been applied anyway
+            }
+        }
+    }
+
+    /**
+     * Wait before retrying a failed attempt, or give up and throw the failure.
+     * @param e          Exception thrown by the attempt
+     * @param attempt    Number of the attempt that just failed, starting at 1
+     * @param retryable  Whether this phase of the attempt can be retried at all
+     */
+    private void backOff(RuntimeException e, int attempt, boolean retryable) {
+        if (!retryable || attempt >= this.maxAttempts || !this.isRetryable(e)) {
+            this.failures.incrementAndGet();
+            throw e;
+        }
+
+        this.retries.incrementAndGet();
+        this.sleep(this.getDelay(attempt));
+    }
+
+    /**
+     * Whether a failure should be retried.
+     * @param e  Exception thrown by the unit of work or the commit
+     * @return True if the exception or any of its causes is a ConcurrentModificationException.
+     */
+    protected boolean isRetryable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConcurrentModificationException) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the delay before a retry.
+     * The delay doubles with each attempt up to the maximum, and is then reduced by up to half at random.
+     * @param attempt  Number of the attempt that just failed, starting at 1
+     * @return Delay in milliseconds.
+     */
+    protected long getDelay(int attempt) {
+        long delay = this.initialDelay;
+        for (int i = 1; i < attempt && delay < this.maxDelay; i++) {
+            delay *= 2;
+        }
+
+        delay = Math.min(delay, this.maxDelay);
+        long half = delay / 2;
+        return delay - half + (long) (this.random.nextDouble() * (half + 1));
+    }
+
+    /** Sleep before a retry. */
+    protected void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DaoException("Interrupted while waiting to retry transaction.", e);
+        }
+    }
+
+    /** Roll back a failed transaction, ignoring errors so the original failure is reported. */
+    private static void rollback(IDaoTransaction transaction) {
+        try {
+            transaction.rollback();
+        } catch (RuntimeException e) {
+            // ignored; the original failure is more interesting
+        }
+    }
+
+    /** Maximum number of attempts, including the first one. */
+    public int getMaxAttempts() {
+        return this.maxAttempts;
+    }
+
+    /** Delay before the first retry, in milliseconds. */
+    public long getInitialDelay() {
+        return this.initialDelay;
+    }
+
+    /** Upper bound on the delay before any retry, in milliseconds. */
+    public long getMaxDelay() {
+        return this.maxDelay;
+    }
+
+    /** Whether a failed commit is retried, which requires idempotent units of work. */
+    public boolean isRetryCommitFailures() {
+        return this.retryCommitFailures;
+    }
+
+    /** Number of units of work run. */
+    public long getRuns() {
+        return this.runs.get();
+    }
+
+    /** Number of retries after a retryable failure. */
+    public long getRetries() {
+        return this.retries.get();
+    }
+
+    /** Number of units of work that ultimately failed, after any retries. */
+    public long getFailures() {
+        return this.failures.get();
+    }
+
+}
@@ -22,21 +22,44 @@
  * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
 package com.cedarsolutions.dao.domain;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import com.cedarsolutions.shared.domain.TranslatableDomainObject;
 import com.flipthebird.gwthashcodeequals.EqualsBuilder;
 import com.flipthebird.gwthashcodeequals.HashCodeBuilder;
 
 /**
  * Controls pagination state for back-end queries.
+ *
+ * <p>
+ * Pagination is copied on every page change and sent over RPC in both
+ * directions, so its state is kept in arrays rather than maps.  By default,
+ * the cursor for every page visited so far is kept, and any known page can
+ * be requested directly.  For long result sets, create the pagination with
+ * a cursor window.  Then, only the cursors within the window around the
+ * current page are kept, along with sparse checkpoints (the first page, the
+ * last known page, and every Nth page).  Paging forward, and paging
+ * backward within the window, behaves exactly the same either way.  The
+ * difference is that a known page whose cursor has been discarded can't be
+ * returned to directly, because datastore cursors can't be derived from one
+ * another.  Requesting such a page (including via previous()) goes to the
+ * nearest earlier page that still has a cursor, and paging forward from
+ * there fills the cursors back in.
+ * </p>
+ *
  * @see <a href="https://bitbucket.org/cedarsolutions/cedar-common/wiki/Pagination">The wiki for notes on pagination for non-GAE platforms</a>
  * @author Kenneth J. Pronovici <pronovic@ieee.org>
  */
 @SuppressWarnings("serial")
 public class Pagination extends TranslatableDomainObject {
 
+    /** Value of the estimated total number of rows when there is no estimate. */
+    public static final int UNKNOWN = -1;
+
+    /** Cursor window that keeps the cursor for every page. */
+    public static final int UNLIMITED_WINDOW = 0;
+
+    /** Default interval between checkpoint cursors, when there is a cursor window. */
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 10;
+
     /** The configured page size. */
     protected int pageSize;
 
@@ -61,6 +84,12 @@ public class Pagination extends TranslatableDomainObject {
     /** The total number of rows so far, possibly not finalized. */
     protected int totalRows;
 
+    /** Estimated total number of rows across all pages, or UNKNOWN if there is no estimate. */
+    protected int estimatedTotalRows;
+
+    /** Whether the estimated total number of rows is exact. */
+    protected boolean isEstimateExact;
+
     /**
      * Current datastore location for pagination, useful for platforms that have such a concept.
      * This is an opaque value from the perspective of a DAO client.
@@ -68,11 +97,23 @@ public class Pagination extends TranslatableDomainObject {
      */
     protected String current;
 
-    /** A map from page number datastore location, useful for platforms that have such a concept. */
-    protected Map<Integer, String> cursors;
+    /** Number of cursors to keep on either side of the current page, or UNLIMITED_WINDOW to keep them all. */
+    protected int cursorWindow;
+
+    /** Interval between checkpoint cursors kept outside the window. */
+    protected int checkpointInterval;
+
+    /** Page numbers that have a known datastore location, in ascending order. */
+    protected int[] cursorPages;
 
-    /** A map from page number to number of rows on the page. */
-    protected Map<Integer, Integer> counts;
+    /** Datastore location for each page in cursorPages, useful for platforms that have such a concept. */
+    protected String[] cursors;
+
+    /** Page numbers that have been visited, in ascending order. */
+    protected int[] countPages;
+
+    /** Number of rows on each page in countPages. */
+    protected int[] counts;
 
     /** Default constructor, for GWT's benefit. */
     public Pagination() {
@@ -80,6 +121,22 @@ public class Pagination extends TranslatableDomainObject {
 
     /** Create pagination for a specific page size. */
     public Pagination(int pageSize) {
+        this(pageSize, UNLIMITED_WINDOW, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    /**
+     * Create pagination for a specific page size, keeping only some of the cursors.
+     * @param pageSize            Page size
+     * @param cursorWindow        Number of cursors to keep on either side of the current page, or UNLIMITED_WINDOW
+     * @param checkpointInterval  Interval between checkpoint cursors kept outside the window, greater than zero
+     */
+    public Pagination(int pageSize, int cursorWindow, int checkpointInterval) {
+        if (cursorWindow < 0 || checkpointInterval <= 0) {
+            throw new IllegalArgumentException("Invalid cursor window or checkpoint interval.");
+        }
+
+        this.cursorWindow = cursorWindow;
+        this.checkpointInterval = checkpointInterval;
         this.pageSize = pageSize;
         this.pageNumber = 1;
         this.hasData = false;
@@ -88,9 +145,13 @@ public class Pagination extends TranslatableDomainObject {
         this.isTotalFinalized = false;
         this.totalPages = 0;
         this.totalRows = 0;
+        this.estimatedTotalRows = UNKNOWN;
+        this.isEstimateExact = false;
         this.current = null;
-        this.cursors = new HashMap<Integer, String>();
-        this.counts = new HashMap<Integer, Integer>();
+        this.cursorPages = new int[0];
+        this.cursors = new String[0];
+        this.countPages = new int[0];
+        this.counts = new int[0];
     }
 
     /** Copy constructor. */
@@ -103,9 +164,15 @@ public class Pagination extends TranslatableDomainObject {
         this.isTotalFinalized = source.isTotalFinalized;
         this.totalPages = source.totalPages;
         this.totalRows = source.totalRows;
+        this.estimatedTotalRows = source.estimatedTotalRows;
+        this.isEstimateExact = source.isEstimateExact;
         this.current = source.current;
-        this.cursors = new HashMap<Integer, String>(source.cursors);
-        this.counts = new HashMap<Integer, Integer>(source.counts);
+        this.cursorWindow = source.cursorWindow;
+        this.checkpointInterval = source.checkpointInterval;
+        this.cursorPages = source.cursorPages;  // the arrays are never modified in place, so they can be shared
+        this.cursors = source.cursors;
+        this.countPages = source.countPages;
+        this.counts = source.counts;
     }
 
     /**
@@ -180,11 +247,90 @@ public class Pagination extends TranslatableDomainObject {
         return totalPages;
     }
 
-    /** The total number of rows so far, possibly not finalized. */
+    /**
+     * The total number of rows so far, possibly not finalized.
+     * Pages skipped over by seek() are counted as full, since rows on later pages prove they exist.
+     */
     public int getTotalRows() {
         return totalRows;
     }
 
+    /** Number of cursors kept on either side of the current page, or UNLIMITED_WINDOW if all are kept. */
+    public int getCursorWindow() {
+        return cursorWindow;
+    }
+
+    /** Interval between checkpoint cursors kept outside the window. */
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /** Number of cursors currently kept. */
+    public int getCursorCount() {
+        return cursorPages.length;
+    }
+
+    /** Get the datastore location for a page, or null if it is not known or was discarded. */
+    public String getCursor(int page) {
+        for (int i = 0; i < cursorPages.length; i++) {
+            if (cursorPages[i] == page) {
+                return cursors[i];
+            }
+        }
+
+        return null;
+    }
+
+    /** Get the number of rows on a page, or zero if the page has not been visited. */
+    public int getCount(int page) {
+        for (int i = 0; i < countPages.length; i++) {
+            if (countPages[i] == page) {
+                return counts[i];
+            }
+        }
+
+        return 0;
+    }
+
+    /** Whether there is an estimate of the total number of rows. */
+    public boolean hasEstimate() {
+        return estimatedTotalRows != UNKNOWN;
+    }
+
+    /**
+     * Estimated total number of rows across all pages, or UNKNOWN if there is no estimate.
+     * Unless the estimate is exact, this is a lower bound.
+     */
+    public int getEstimatedTotalRows() {
+        return estimatedTotalRows;
+    }
+
+    /** Estimated total number of pages, based on the estimated total number of rows, or UNKNOWN if there is no estimate. */
+    public int getEstimatedTotalPages() {
+        if (estimatedTotalRows == UNKNOWN) {
+            return UNKNOWN;
+        } else if (pageSize <= 0) {
+            return estimatedTotalRows == 0 ? 0 : 1;
+        } else {
+            return (estimatedTotalRows + pageSize - 1) / pageSize;
+        }
+    }
+
+    /** Whether the estimated total number of rows is exact. */
+    public boolean isEstimateExact() {
+        return isEstimateExact;
+    }
+
+    /**
+     * Set the estimated total number of rows.
+     * @param estimatedTotalRows  Estimated total number of rows, or UNKNOWN to clear the estimate
+     * @param isEstimateExact     Whether the estimate is exact, rather than a lower bound
+     */
+    public void setEstimate(int estimatedTotalRows, boolean isEstimateExact) {
+        this.estimatedTotalRows = estimatedTotalRows;
+        this.isEstimateExact = estimatedTotalRows != UNKNOWN && isEstimateExact;
+    }
+
     /** Make a copy of the object. */
     public Pagination copy() {
         return new Pagination(this);
@@ -214,29 +360,73 @@ public class Pagination extends TranslatableDomainObject {
     public Pagination page(int pageNumber) {
         Pagination copy = this.copy();
 
-        String cursor = cursors.get(pageNumber);
+        String cursor = getCursor(pageNumber);
         if (cursor != null) {
             copy.pageNumber = pageNumber;
             copy.current = cursor;
         } else {
             if (pageNumber < 1) {
-                cursor = cursors.get(1);
+                cursor = getCursor(1);
                 if (cursor != null) {
                     copy.pageNumber = 1;
                     copy.current = cursor;
                 }
             } else if (pageNumber > totalPages) {
-                cursor = cursors.get(totalPages);
+                cursor = getCursor(totalPages);
                 if (cursor != null) {
                     copy.pageNumber = totalPages;
                     copy.current = cursor;
                 }
+            } else {
+                int index = findCursorBefore(pageNumber);  // the cursor was discarded
+                if (index >= 0) {
+                    copy.pageNumber = cursorPages[index];
+                    copy.current = cursors[index];
+                }
             }
         }
 
         return copy;
     }
 
+    /**
+     * Return pagination for a page whose location was found some other way, like from a checkpoint.
+     * If the cursor for the page is already known, that cursor is used instead, since it's exact.
+     * Otherwise, the location is kept as the page's cursor until the page is fetched, so the page can be returned to.
+     * Pages between the known pages and this one are not tracked; they're counted as full, but can't be requested directly.
+     * @param pageNumber  Page number to seek to, which need not have been visited
+     * @param location    Opaque datastore location for the start of the page
+     * @return Pagination for the requested page.
+     */
+    public Pagination seek(int pageNumber, String location) {
+        if (pageNumber < 1) {
+            throw new IllegalArgumentException("Invalid page number.");
+        }
+
+        Pagination copy = this.copy();
+        String cursor = getCursor(pageNumber);
+        copy.pageNumber = pageNumber;
+        copy.current = cursor != null ? cursor : location;
+        if (cursor == null && location != null) {
+            copy.putCursor(pageNumber, location);
+        }
+
+        return copy;
+    }
+
+    /**
+     * Replace the location of the current page in place, keeping it as the page's cursor.
+     * This is for a back-end that has translated a location it can no longer use (like an expired cursor handle)
+     * into an equivalent one, so the code that builds the page sees the same location the query started from.
+     * @param location  Opaque datastore location for the start of the current page
+     */
+    public void relocate(String location) {
+        this.current = location;
+        if (location != null) {
+            putCursor(pageNumber, location);
+        }
+    }
+
     /**
      * Update the pagination state in place.
      * @param current   Cursor for current page
@@ -246,37 +436,140 @@ public class Pagination extends TranslatableDomainObject {
         hasData = true;
 
         this.current = current;
-        cursors.put(pageNumber, this.current);
-        counts.put(pageNumber, count);
+        putCursor(pageNumber, this.current);
+        putCount(pageNumber, count);
 
         if (next == null) {
             isTotalFinalized = true;
         } else {
-            cursors.put(getNextPageNumber(), next);
+            putCursor(getNextPageNumber(), next);
         }
 
         hasPrevious = false;
         if (pageNumber != getPreviousPageNumber()) {
-            hasPrevious = cursors.get(getPreviousPageNumber()) != null;
+            hasPrevious = findCursorBefore(pageNumber) >= 0;
         }
 
         hasNext = false;
         if (pageNumber != getNextPageNumber()) {
-            hasNext = cursors.get(getNextPageNumber()) != null;
+            hasNext = getCursor(getNextPageNumber()) != null;
         }
 
-        totalPages = cursors.size();
+        totalPages = Math.max(totalPages, cursorPages[cursorPages.length - 1]);
         totalRows = this.calculateTotalRows();
+        this.discardCursors();
     }
 
-    /** Calculate the total number of rows based on the counts map. */
+    /** Find the index of the cursor for the nearest page before a page, or -1 if there is none. */
+    private int findCursorBefore(int page) {
+        for (int i = cursorPages.length - 1; i >= 0; i--) {
+            if (cursorPages[i] < page) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /** Set the cursor for a page, replacing the arrays rather than modifying them. */
+    private void putCursor(int page, String cursor) {
+        int index = 0;
+        while (index < cursorPages.length && cursorPages[index] < page) {
+            index++;
+        }
+
+        boolean replace = index < cursorPages.length && cursorPages[index] == page;
+        int length = replace ? cursorPages.length : cursorPages.length + 1;
+        int[] newPages = new int[length];
+        String[] newCursors = new String[length];
+
+        System.arraycopy(cursorPages, 0, newPages, 0, index);
+        System.arraycopy(cursors, 0, newCursors, 0, index);
+        newPages[index] = page;
+        newCursors[index] = cursor;
+
+        int tail = replace ? index + 1 : index;
+        System.arraycopy(cursorPages, tail, newPages, index + 1, cursorPages.length - tail);
+        System.arraycopy(cursors, tail, newCursors, index + 1, cursorPages.length - tail);
+
+        cursorPages = newPages;
+        cursors = newCursors;
+    }
+
+    /** Set the number of rows on a page, replacing the arrays rather than modifying them. */
+    private void putCount(int page, int count) {
+        int index = 0;
+        while (index < countPages.length && countPages[index] < page) {
+            index++;
+        }
+
+        boolean replace = index < countPages.length && countPages[index] == page;
+        int length = replace ? countPages.length : countPages.length + 1;
+        int[] newPages = new int[length];
+        int[] newCounts = new int[length];
+
+        System.arraycopy(countPages, 0, newPages, 0, index);
+        System.arraycopy(counts, 0, newCounts, 0, index);
+        newPages[index] = page;
+        newCounts[index] = count;
+
+        int tail = replace ? index + 1 : index;
+        System.arraycopy(countPages, tail, newPages, index + 1, countPages.length - tail);
+        System.arraycopy(counts, tail, newCounts, index + 1, countPages.length - tail);
+
+        countPages = newPages;
+        counts = newCounts;
+    }
+
+    /** Discard cursors outside the window, other than the checkpoints. */
+    private void discardCursors() {
+        if (cursorWindow != UNLIMITED_WINDOW) {
+            int kept = 0;
+            for (int i = 0; i < cursorPages.length; i++) {
+                if (isCursorKept(cursorPages[i])) {
+                    kept++;
+                }
+            }
+
+            if (kept < cursorPages.length) {
+                int[] newPages = new int[kept];
+                String[] newCursors = new String[kept];
+                int index = 0;
+                for (int i = 0; i < cursorPages.length; i++) {
+                    if (isCursorKept(cursorPages[i])) {
+                        newPages[index] = cursorPages[i];
+                        newCursors[index] = cursors[i];
+                        index++;
+                    }
+                }
+
+                cursorPages = newPages;
+                cursors = newCursors;
+            }
+        }
+    }
+
+    /** Whether the cursor for a page is kept, because it's in the window or is a checkpoint. */
+    private boolean isCursorKept(int page) {
+        return Math.abs(page - pageNumber) <= cursorWindow
+               || page == 1
+               || page == totalPages
+               || (page - 1) % checkpointInterval == 0;
+    }
+
+    /** Calculate the total number of rows based on the counts array, counting unvisited pages before the last visited page as full. */
     private int calculateTotalRows() {
         int total = 0;
 
-        for (Integer value : this.counts.values()) {
+        for (int value : this.counts) {
             total += value;
         }
 
+        if (countPages.length > 0 && pageSize > 0) {
+            int skipped = countPages[countPages.length - 1] - countPages.length;
+            total += skipped * pageSize;
+        }
+
         return total;
     }
 
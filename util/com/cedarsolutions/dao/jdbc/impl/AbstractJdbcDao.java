@@ -0,0 +1,435 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.jdbc.impl;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.InitializingBean;
+
+import com.cedarsolutions.dao.IDaoTransaction;
+import com.cedarsolutions.dao.ITransactionalDao;
+import com.cedarsolutions.dao.IUnitOfWork;
+import com.cedarsolutions.dao.TransactionRunner;
+import com.cedarsolutions.dao.domain.PaginatedResults;
+import com.cedarsolutions.dao.domain.Pagination;
+import com.cedarsolutions.dao.jdbc.IRowMapper;
+import com.cedarsolutions.dao.jdbc.IStatementBinder;
+import com.cedarsolutions.exception.DaoException;
+import com.cedarsolutions.exception.NotConfiguredException;
+
+/**
+ * Abstract class that back-end DAOs inherit from when running against a relational database.
+ *
+ * <p>
+ * This is the JDBC equivalent of AbstractGaeDao.  Each of the protected
+ * helper methods takes a DAO transaction, which may be null.  If it's null,
+ * the operation runs in its own transaction, which is committed before the
+ * method returns.  Otherwise, the operation runs in the passed-in
+ * transaction, which must come from getDaoTransaction() on a JDBC DAO, so
+ * a unit of work can cross DAO boundaries.  SQL exceptions are wrapped in
+ * DaoException, keeping the original exception as the cause.
+ * </p>
+ *
+ * <p>
+ * Paged queries use keyset pagination (see KeysetQuery), so the cursor in
+ * the Pagination object is the key of the last row on the previous page
+ * rather than an offset, and deep pages cost no more than the first one.
+ * Batch inserts and updates are sent to the database batchSize rows at a
+ * time, and prepared statements are cached for the life of each
+ * transaction, so a DAO method that runs the same statement many times only
+ * prepares it once.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public abstract class AbstractJdbcDao implements InitializingBean, ITransactionalDao {
+
+    /** Default number of rows sent to the database in each batch. */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    /** Data source that connections are taken from. */
+    private DataSource dataSource;
+
+    /** Runner used by runInTransaction(). */
+    private TransactionRunner transactionRunner = new JdbcTransactionRunner();
+
+    /** Maximum number of prepared statements cached per transaction, or 0 to disable caching. */
+    private int statementCacheSize = StatementCache.DEFAULT_MAX_SIZE;
+
+    /** Number of rows sent to the database in each batch. */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /**
+     * Invoked by a bean factory after it has set all bean properties.
+     * @throws NotConfiguredException In the event of misconfiguration.
+     */
+    @Override
+    public void afterPropertiesSet() throws NotConfiguredException {
+        if (this.dataSource == null || this.transactionRunner == null || this.statementCacheSize < 0 || this.batchSize < 1) {
+            throw new NotConfiguredException("DAO is not properly configured.");
+        }
+    }
+
+    /** Get a DAO transaction that spans DAO operations and crosses DAO boundaries. */
+    @Override
+    public IDaoTransaction getDaoTransaction() {
+        return this.getJdbcTransaction();
+    }
+
+    /** Run a unit of work in a transaction, retrying with backoff if the transaction fails due to contention. */
+    @Override
+    public <T> T runInTransaction(IUnitOfWork<T> work) {
+        return this.transactionRunner.run(this, work);
+    }
+
+    /** Check that a transaction is a valid JDBC transaction this DAO can use. */
+    protected static JdbcDaoTransaction checkTransactionType(IDaoTransaction transaction) {
+        if (transaction == null) {
+            throw new NullPointerException("transaction");
+        } else if (!(transaction instanceof JdbcDaoTransaction)) {
+            throw new DaoException("A transaction of type JdbcDaoTransaction is required, got " + transaction.getClass().getName());
+        } else {
+            return (JdbcDaoTransaction) transaction;
+        }
+    }
+
+    /** Get a JDBC-specific transaction for use internally, within the DAO. */
+    protected JdbcDaoTransaction getJdbcTransaction() {
+        try {
+            return new JdbcDaoTransaction(this.dataSource.getConnection(), this.statementCacheSize);
+        } catch (SQLException e) {
+            throw new DaoException("Failed to get connection: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Run a query, returning all of the rows.
+     * @param <T>  Type of the entity
+     * @param transaction  Transaction to run in, or null to run in a new transaction
+     * @param sql          SQL to run
+     * @param mapper       Mapper used to build entities from rows
+     * @param parameters   Values for the query's parameters
+     * @return Entities for all rows, in the order returned by the query.
+     */
+    protected <T> List<T> query(IDaoTransaction transaction, final String sql, final IRowMapper<T> mapper, final Object... parameters) {
+        return this.execute(transaction, new ISqlWork<List<T>>() {
+            @Override
+            public List<T> execute(JdbcDaoTransaction transaction) throws SQLException {
+                return select(transaction, sql, mapper, 0, parameters);
+            }
+        });
+    }
+
+    /**
+     * Run a query, returning the first row.
+     * @param <T>  Type of the entity
+     * @param transaction  Transaction to run in, or null to run in a new transaction
+     * @param sql          SQL to run
+     * @param mapper       Mapper used to build entities from rows
+     * @param parameters   Values for the query's parameters
+     * @return Entity for the first row, or null if there are no rows.
+     */
+    protected <T> T queryForObject(IDaoTransaction transaction, final String sql, final IRowMapper<T> mapper, final Object... parameters) {
+        return this.execute(transaction, new ISqlWork<T>() {
+            @Override
+            public T execute(JdbcDaoTransaction transaction) throws SQLException {
+                List<T> results = select(transaction, sql, mapper, 1, parameters);
+                return results.isEmpty() ? null : results.get(0);
+            }
+        });
+    }
+
+    /**
+     * Run a single insert, update or delete.
+     * @param transaction  Transaction to run in, or null to run in a new transaction
+     * @param sql          SQL to run
+     * @param parameters   Values for the statement's parameters
+     * @return Number of rows affected.
+     */
+    protected int update(IDaoTransaction transaction, final String sql, final Object... parameters) {
+        return this.execute(transaction, new ISqlWork<Integer>() {
+            @Override
+            public Integer execute(JdbcDaoTransaction transaction) throws SQLException {
+                PreparedStatement statement = transaction.prepare(sql);
+                try {
+                    bind(statement, parameters);
+                    return statement.executeUpdate();
+                } finally {
+                    transaction.release(statement);
+                }
+            }
+        });
+    }
+
+    /**
+     * Run an insert, update or delete once for each entity, sending batchSize rows to the database at a time.
+     * @param <T>  Type of the entity
+     * @param transaction  Transaction to run in, or null to run in a new transaction
+     * @param sql          SQL to run
+     * @param entities     Entities to bind, one per execution
+     * @param binder       Binder that sets the statement's parameters from an entity
+     * @return Number of rows affected, counting executions the driver doesn't report a count for as one row.
+     */
+    protected <T> int batchUpdate(IDaoTransaction transaction, final String sql, final Collection<T> entities, final IStatementBinder<T> binder) {
+        return this.execute(transaction, new ISqlWork<Integer>() {
+            @Override
+            public Integer execute(JdbcDaoTransaction transaction) throws SQLException {
+                int total = 0;
+                int pending = 0;
+                PreparedStatement statement = transaction.prepare(sql);
+                try {
+                    for (T entity : entities) {
+                        binder.bind(statement, entity);
+                        statement.addBatch();
+                        if (++pending == AbstractJdbcDao.this.batchSize) {
+                            total += count(statement.executeBatch());
+                            pending = 0;
+                        }
+                    }
+
+                    if (pending > 0) {
+                        total += count(statement.executeBatch());
+                    }
+
+                    return total;
+                } catch (SQLException e) {
+                    statement.clearBatch();  // the statement is cached, so don't leave rows behind for the next caller
+                    throw e;
+                } finally {
+                    transaction.release(statement);
+                }
+            }
+        });
+    }
+
+    /**
+     * Run a keyset query, returning one page of results.
+     *
+     * <p>
+     * As with PaginationUtils.createPaginatedResults(), it is legal to pass
+     * null pagination.  In that case, all of the rows are returned, and the
+     * results have no pagination.
+     * </p>
+     *
+     * @param <T>  Type of the paginated results
+     * @param transaction  Transaction to run in, or null to run in a new transaction
+     * @param pagination   Pagination that is in use, possibly null
+     * @param query        Keyset query to run
+     * @return Paginated results, with keyset cursors in the pagination.
+     * @throws IllegalArgumentException If the current cursor in the pagination is not a valid keyset cursor.
+     */
+    protected <T> PaginatedResults<T> createPaginatedResults(IDaoTransaction transaction, final Pagination pagination, final KeysetQuery<T> query) {
+        return this.execute(transaction, new ISqlWork<PaginatedResults<T>>() {
+            @Override
+            public PaginatedResults<T> execute(JdbcDaoTransaction transaction) throws SQLException {
+                return page(transaction, pagination, query);
+            }
+        });
+    }
+
+    /** Run a keyset query for one page, or for all rows if pagination is null. */
+    private static <T> PaginatedResults<T> page(JdbcDaoTransaction transaction, Pagination pagination, KeysetQuery<T> query) throws SQLException {
+        PaginatedResults<T> results = new PaginatedResults<T>();
+        if (pagination == null) {
+            results.addAll(select(transaction, query.getSql(false), query.getMapper(), 0, query.getParameters(null).toArray()));
+            return results;
+        }
+
+        String current = pagination.getCurrent();
+        Object[] key = current == null ? null : KeysetCursor.decode(current);
+        int pageSize = pagination.getPageSize();
+        Object[] lastKey = null;
+        boolean hasNext = false;
+
+        PreparedStatement statement = transaction.prepare(query.getSql(key != null));
+        try {
+            bind(statement, query.getParameters(key).toArray());
+            statement.setMaxRows(pageSize + 1);  // one row of lookahead, to know whether there's a next page
+            ResultSet resultSet = statement.executeQuery();
+            try {
+                while (resultSet.next()) {
+                    if (results.size() == pageSize) {
+                        hasNext = true;
+                        break;
+                    }
+
+                    results.add(query.getMapper().mapRow(resultSet));
+                    if (results.size() == pageSize) {
+                        lastKey = readKey(resultSet, query);
+                    }
+                }
+            } finally {
+                resultSet.close();
+            }
+        } finally {
+            transaction.release(statement);
+        }
+
+        String next = hasNext ? KeysetCursor.encode(lastKey) : null;
+        results.setPagination(pagination.copy());
+        results.getPagination().update(current, next, results.size());
+        return results;
+    }
+
+    /** Read the key columns from the current row of a result set. */
+    private static Object[] readKey(ResultSet resultSet, KeysetQuery<?> query) throws SQLException {
+        Object[] key = new Object[query.getKeyColumns().size()];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = resultSet.getObject(query.getKeyLabel(i));
+            if (key[i] == null) {
+                throw new DaoException("Key column " + query.getKeyColumns().get(i) + " is null; key columns must not be nullable.");
+            }
+        }
+
+        return key;
+    }
+
+    /** Run a query on a cached statement, returning at most maxRows rows, or all rows if maxRows is 0. */
+    private static <T> List<T> select(JdbcDaoTransaction transaction, String sql, IRowMapper<T> mapper,
+                                      int maxRows, Object[] parameters) throws SQLException {
+        List<T> results = new ArrayList<T>();
+        PreparedStatement statement = transaction.prepare(sql);
+        try {
+            bind(statement, parameters);
+            statement.setMaxRows(maxRows);
+            ResultSet resultSet = statement.executeQuery();
+            try {
+                while (resultSet.next()) {
+                    results.add(mapper.mapRow(resultSet));
+                }
+            } finally {
+                resultSet.close();
+            }
+        } finally {
+            transaction.release(statement);
+        }
+
+        return results;
+    }
+
+    /** Bind parameters to a statement, converting java.util.Date (which JDBC doesn't accept) to a Timestamp. */
+    protected static void bind(PreparedStatement statement, Object[] parameters) throws SQLException {
+        for (int i = 0; i < parameters.length; i++) {
+            Object parameter = parameters[i];
+            if (parameter instanceof Date && !(parameter instanceof java.sql.Date
+                                               || parameter instanceof java.sql.Time
+                                               || parameter instanceof Timestamp)) {
+                parameter = new Timestamp(((Date) parameter).getTime());
+            }
+
+            statement.setObject(i + 1, parameter);
+        }
+    }
+
+    /** Count the rows affected by a batch, counting executions with no reported count as one row. */
+    private static int count(int[] counts) {
+        int total = 0;
+        for (int count : counts) {
+            if (count >= 0) {
+                total += count;
+            } else if (count == Statement.SUCCESS_NO_INFO) {
+                total++;
+            }
+        }
+
+        return total;
+    }
+
+    /** Run some SQL work in the passed-in transaction, or in a new transaction if that is null. */
+    private <R> R execute(IDaoTransaction transaction, ISqlWork<R> work) {
+        JdbcDaoTransaction jdbcTransaction = transaction == null ? this.getJdbcTransaction() : checkTransactionType(transaction);
+        try {
+            R result = work.execute(jdbcTransaction);
+            if (transaction == null) {
+                jdbcTransaction.commit();
+            }
+
+            return result;
+        } catch (SQLException e) {
+            rollback(transaction, jdbcTransaction);
+            throw new DaoException("Failed to execute SQL: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            rollback(transaction, jdbcTransaction);
+            throw e;
+        }
+    }
+
+    /** Roll back a transaction created by execute(), ignoring errors so the original failure is reported. */
+    private static void rollback(IDaoTransaction transaction, JdbcDaoTransaction jdbcTransaction) {
+        if (transaction == null) {
+            try {
+                jdbcTransaction.rollback();
+            } catch (RuntimeException e) {
+                // ignored; the original failure is more interesting
+            }
+        }
+    }
+
+    /** Some SQL work to run in a transaction. */
+    private interface ISqlWork<R> {
+        R execute(JdbcDaoTransaction transaction) throws SQLException;
+    }
+
+    public DataSource getDataSource() {
+        return this.dataSource;
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public TransactionRunner getTransactionRunner() {
+        return this.transactionRunner;
+    }
+
+    public void setTransactionRunner(TransactionRunner transactionRunner) {
+        this.transactionRunner = transactionRunner;
+    }
+
+    public int getStatementCacheSize() {
+        return this.statementCacheSize;
+    }
+
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+}
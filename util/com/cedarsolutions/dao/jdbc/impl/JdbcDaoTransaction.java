@@ -0,0 +1,178 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.jdbc.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import com.cedarsolutions.dao.IDaoTransaction;
+import com.cedarsolutions.exception.DaoException;
+
+/**
+ * A transaction that can span multiple DAO operations, for use with JDBC DAOs.
+ *
+ * <p>
+ * The transaction owns its connection from the time it is created until it
+ * is committed or rolled back.  At that point, the statement cache is
+ * closed, the connection's auto-commit setting is restored, and the
+ * connection is closed, which returns it to the pool for pooled data
+ * sources.  Once that has happened, further calls to rollback() do nothing,
+ * so it's safe to roll back after a failed commit.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class JdbcDaoTransaction implements IDaoTransaction {
+
+    /** Connection the transaction runs on. */
+    private final Connection connection;
+
+    /** Prepared statements for the connection. */
+    private final StatementCache statementCache;
+
+    /** Auto-commit setting of the connection before the transaction started. */
+    private final boolean autoCommit;
+
+    /** Whether the transaction is still active. */
+    private boolean active;
+
+    /** Create a transaction with the default statement cache size. */
+    public JdbcDaoTransaction(Connection connection) {
+        this(connection, StatementCache.DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Create a transaction, turning off auto-commit on the connection.
+     * @param connection          Connection the transaction runs on
+     * @param statementCacheSize  Maximum number of prepared statements to cache, or 0 to disable caching
+     * @throws DaoException If the connection cannot be put into a transaction.
+     */
+    public JdbcDaoTransaction(Connection connection, int statementCacheSize) {
+        this.statementCache = new StatementCache(connection, statementCacheSize);
+        this.connection = connection;
+
+        try {
+            this.autoCommit = connection.getAutoCommit();
+            if (this.autoCommit) {
+                connection.setAutoCommit(false);
+            }
+        } catch (SQLException e) {
+            closeQuietly(connection);
+            throw new DaoException("Failed to start transaction: " + e.getMessage(), e);
+        }
+
+        this.active = true;
+    }
+
+    /** Commit the transaction, and release the connection. */
+    @Override
+    public void commit() {
+        this.checkActive();
+        try {
+            this.connection.commit();
+        } catch (SQLException e) {
+            throw new DaoException("Failed to commit transaction: " + e.getMessage(), e);
+        } finally {
+            this.release();
+        }
+    }
+
+    /** Rollback the transaction, and release the connection; does nothing if the transaction is no longer active. */
+    @Override
+    public void rollback() {
+        if (this.active) {
+            try {
+                this.connection.rollback();
+            } catch (SQLException e) {
+                throw new DaoException("Failed to roll back transaction: " + e.getMessage(), e);
+            } finally {
+                this.release();
+            }
+        }
+    }
+
+    /**
+     * Get a prepared statement for some SQL, from the statement cache.
+     * @param sql  SQL to prepare
+     * @return Prepared statement, which must be handed back via release(PreparedStatement).
+     * @throws SQLException If the statement cannot be prepared.
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        this.checkActive();
+        return this.statementCache.prepare(sql);
+    }
+
+    /** Hand back a statement from prepare(). */
+    public void release(PreparedStatement statement) {
+        this.statementCache.release(statement);
+    }
+
+    /** Make sure the transaction is still active. */
+    private void checkActive() {
+        if (!this.active) {
+            throw new DaoException("Transaction has already been committed or rolled back.");
+        }
+    }
+
+    /** Close the cached statements, restore auto-commit, and close the connection. */
+    private void release() {
+        this.active = false;
+        this.statementCache.close();
+
+        try {
+            if (this.autoCommit) {
+                this.connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            // ignored; the connection is being closed anyway
+        }
+
+        closeQuietly(this.connection);
+    }
+
+    /** Close a connection, ignoring errors. */
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // ignored
+        }
+    }
+
+    /** Whether the transaction is still active, meaning it has not been committed or rolled back. */
+    public boolean isActive() {
+        return this.active;
+    }
+
+    /** Get the connection the transaction runs on. */
+    public Connection getConnection() {
+        return this.connection;
+    }
+
+    /** Get the statement cache for the transaction's connection. */
+    public StatementCache getStatementCache() {
+        return this.statementCache;
+    }
+
+}
@@ -0,0 +1,91 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.jdbc.impl;
+
+import java.sql.SQLException;
+import java.sql.SQLTransactionRollbackException;
+
+import com.cedarsolutions.dao.TransactionRunner;
+
+/**
+ * Transaction runner that also retries the failures a relational database reports for contention.
+ *
+ * <p>
+ * Besides ConcurrentModificationException, a failure is retried if any of
+ * its causes is a SQLTransactionRollbackException or has a SQL state in
+ * class 40 (transaction rollback), which is how most databases report
+ * deadlocks and serialization failures.  Not every driver maps these to
+ * the specific exception class, so the SQL state is checked as well.
+ * </p>
+ *
+ * <p>
+ * Unlike the datastore, a relational database that reports a rollback at
+ * commit time has really rolled the transaction back, so by default this
+ * runner retries failed commits as well.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class JdbcTransactionRunner extends TransactionRunner {
+
+    /** Create a runner with the default limits. */
+    public JdbcTransactionRunner() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_DELAY, DEFAULT_MAX_DELAY);
+    }
+
+    /**
+     * Create a runner.
+     * @param maxAttempts   Maximum number of attempts including the first one, at least 1
+     * @param initialDelay  Delay before the first retry in milliseconds, not negative
+     * @param maxDelay      Upper bound on the delay before any retry in milliseconds, at least initialDelay
+     */
+    public JdbcTransactionRunner(int maxAttempts, long initialDelay, long maxDelay) {
+        super(maxAttempts, initialDelay, maxDelay, true);
+    }
+
+    /**
+     * Whether a failure should be retried.
+     * @param e  Exception thrown by the unit of work or the commit
+     * @return True if the exception is retryable for the datastore, or any of its causes is a transaction rollback.
+     */
+    @Override
+    protected boolean isRetryable(Throwable e) {
+        if (super.isRetryable(e)) {
+            return true;
+        }
+
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLTransactionRollbackException) {
+                return true;
+            } else if (cause instanceof SQLException) {
+                String state = ((SQLException) cause).getSQLState();
+                if (state != null && state.startsWith("40")) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+}
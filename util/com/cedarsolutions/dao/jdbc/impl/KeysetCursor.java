@@ -0,0 +1,207 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.jdbc.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Date;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com.cedarsolutions.exception.DaoException;
+
+/**
+ * Encodes the key values of a row into a cursor for keyset pagination.
+ *
+ * <p>
+ * With keyset (or "seek") pagination, the cursor for a page is the sort key
+ * of the last row on the previous page, and the query for the page asks for
+ * rows that sort after that key.  Unlike an offset, this lets the database
+ * start the scan at the right place in its index, so page 1000 is as cheap
+ * as page 1.  The values are stored with their types, so they can be bound
+ * back into the query exactly as they were read, and the result is encoded
+ * as web-safe Base64, so it can be stored in Pagination like a GAE cursor.
+ * </p>
+ *
+ * <p>
+ * The supported types are the ones that make sense for a sort key: String,
+ * Integer, Long, Short, Double, BigDecimal, Boolean, java.sql.Date and
+ * Timestamp (or any other java.util.Date, which is treated as a Timestamp).
+ * Null values are not supported, so key columns must not be nullable.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class KeysetCursor {
+
+    /** Type tag for String values. */
+    private static final byte STRING = 'S';
+
+    /** Type tag for Integer values. */
+    private static final byte INTEGER = 'I';
+
+    /** Type tag for Long values. */
+    private static final byte LONG = 'J';
+
+    /** Type tag for Short values. */
+    private static final byte SHORT = 'H';
+
+    /** Type tag for Double values. */
+    private static final byte DOUBLE = 'D';
+
+    /** Type tag for BigDecimal values. */
+    private static final byte DECIMAL = 'N';
+
+    /** Type tag for Boolean values. */
+    private static final byte BOOLEAN = 'Z';
+
+    /** Type tag for java.sql.Date values. */
+    private static final byte DATE = 'd';
+
+    /** Type tag for Timestamp values. */
+    private static final byte TIMESTAMP = 'T';
+
+    /**
+     * Encode key values into a cursor.
+     * @param values  Key values, in sort order
+     * @return Web-safe cursor string.
+     * @throws IllegalArgumentException If a value is null or of an unsupported type.
+     */
+    public static String encode(Object... values) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeByte(values.length);
+            for (Object value : values) {
+                write(output, value);
+            }
+
+            output.flush();
+            return Base64.encodeBase64URLSafeString(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new DaoException("Failed to encode keyset cursor: " + e.getMessage(), e);  // not expected in memory
+        }
+    }
+
+    /**
+     * Decode a cursor into key values.
+     * @param cursor  Cursor from encode()
+     * @return Key values, in sort order, with the types they were encoded with.
+     * @throws IllegalArgumentException If the cursor is not valid.
+     */
+    public static Object[] decode(String cursor) {
+        if (cursor == null || !Base64.isBase64(cursor)) {
+            throw new IllegalArgumentException("Invalid keyset cursor: " + cursor);
+        }
+
+        try {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(Base64.decodeBase64(cursor)));
+            Object[] values = new Object[input.readUnsignedByte()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = read(input);
+            }
+
+            if (input.read() != -1) {
+                throw new IllegalArgumentException("Invalid keyset cursor: " + cursor);
+            }
+
+            return values;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid keyset cursor: " + cursor, e);
+        }
+    }
+
+    /** Write a single value with its type tag. */
+    private static void write(DataOutputStream output, Object value) throws IOException {
+        if (value == null) {
+            throw new IllegalArgumentException("Keyset values must not be null.");
+        } else if (value instanceof String) {
+            output.writeByte(STRING);
+            output.writeUTF((String) value);
+        } else if (value instanceof Integer) {
+            output.writeByte(INTEGER);
+            output.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            output.writeByte(LONG);
+            output.writeLong((Long) value);
+        } else if (value instanceof Short) {
+            output.writeByte(SHORT);
+            output.writeShort((Short) value);
+        } else if (value instanceof Double) {
+            output.writeByte(DOUBLE);
+            output.writeDouble((Double) value);
+        } else if (value instanceof BigDecimal) {
+            output.writeByte(DECIMAL);
+            output.writeUTF(value.toString());
+        } else if (value instanceof Boolean) {
+            output.writeByte(BOOLEAN);
+            output.writeBoolean((Boolean) value);
+        } else if (value instanceof java.sql.Date) {
+            output.writeByte(DATE);
+            output.writeLong(((java.sql.Date) value).getTime());
+        } else if (value instanceof Timestamp) {
+            output.writeByte(TIMESTAMP);
+            output.writeLong(((Timestamp) value).getTime());
+            output.writeInt(((Timestamp) value).getNanos());
+        } else if (value instanceof Date) {
+            write(output, new Timestamp(((Date) value).getTime()));
+        } else {
+            throw new IllegalArgumentException("Unsupported keyset value type: " + value.getClass().getName());
+        }
+    }
+
+    /** Read a single value, based on its type tag. */
+    private static Object read(DataInputStream input) throws IOException {
+        byte type = input.readByte();
+        switch (type) {
+        case STRING:
+            return input.readUTF();
+        case INTEGER:
+            return input.readInt();
+        case LONG:
+            return input.readLong();
+        case SHORT:
+            return input.readShort();
+        case DOUBLE:
+            return input.readDouble();
+        case DECIMAL:
+            return new BigDecimal(input.readUTF());
+        case BOOLEAN:
+            return input.readBoolean();
+        case DATE:
+            return new java.sql.Date(input.readLong());
+        case TIMESTAMP:
+            Timestamp timestamp = new Timestamp(input.readLong());
+            timestamp.setNanos(input.readInt());
+            return timestamp;
+        default:
+            throw new IOException("Unknown type tag " + type);
+        }
+    }
+
+}
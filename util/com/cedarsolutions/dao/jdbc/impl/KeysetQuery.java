@@ -0,0 +1,226 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.jdbc.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.cedarsolutions.dao.domain.SortOrder;
+import com.cedarsolutions.dao.jdbc.IRowMapper;
+import com.cedarsolutions.exception.DaoException;
+
+/**
+ * A query that is paged via keyset pagination, for use with AbstractJdbcDao.
+ *
+ * <p>
+ * The query is built from a select clause (everything before the where
+ * clause), any number of conditions, and the key columns that define the
+ * sort order.  Together, the key columns must uniquely identify a row, so
+ * the last one is normally the primary key.  Each key column must also be
+ * selected, since the key of the last row on a page is read from the result
+ * set to build the cursor for the next page.  If the column is qualified
+ * (like "p.last_name"), the part after the last dot is used as the label.
+ * </p>
+ *
+ * <p>
+ * For a page after the first, the query asks for rows that sort after the
+ * cursor's key.  This is written out as a disjunction, like (k1 > ?) or (k1
+ * = ? and k2 < ?), rather than as a row value comparison, because that
+ * works with mixed sort orders and on every database.  For the database to
+ * seek rather than scan, there should be an index on the key columns in the
+ * same order.
+ * </p>
+ *
+ * @param <T> Type of the entity returned by the query
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class KeysetQuery<T> {
+
+    /** Select clause, everything before the where clause. */
+    private final String select;
+
+    /** Mapper used to build entities from rows. */
+    private final IRowMapper<T> mapper;
+
+    /** Conditions, which are and-ed together. */
+    private final List<String> conditions = new ArrayList<String>();
+
+    /** Parameters for the conditions, in order. */
+    private final List<Object> parameters = new ArrayList<Object>();
+
+    /** Key columns, in sort order. */
+    private final List<String> keyColumns = new ArrayList<String>();
+
+    /** Sort order for each key column. */
+    private final List<SortOrder> keyOrders = new ArrayList<SortOrder>();
+
+    /**
+     * Create a query.
+     * @param select  Select clause, like "select id, name from person p"
+     * @param mapper  Mapper used to build entities from rows
+     */
+    public KeysetQuery(String select, IRowMapper<T> mapper) {
+        if (select == null || mapper == null) {
+            throw new IllegalArgumentException("Select clause and mapper are required.");
+        }
+
+        this.select = select;
+        this.mapper = mapper;
+    }
+
+    /**
+     * Add a condition to the where clause.
+     * @param condition   Condition, like "p.active = ?"
+     * @param parameters  Values for the condition's parameters
+     * @return This query, for chaining.
+     */
+    public KeysetQuery<T> where(String condition, Object... parameters) {
+        if (condition == null) {
+            throw new IllegalArgumentException("Condition is required.");
+        }
+
+        this.conditions.add(condition);
+        this.parameters.addAll(Arrays.asList(parameters));
+        return this;
+    }
+
+    /**
+     * Add a key column to the sort order.
+     * @param column     Column to sort by, which must also be selected and must not be nullable
+     * @param sortOrder  Sort order for the column
+     * @return This query, for chaining.
+     */
+    public KeysetQuery<T> orderBy(String column, SortOrder sortOrder) {
+        if (column == null || sortOrder == null) {
+            throw new IllegalArgumentException("Column and sort order are required.");
+        }
+
+        this.keyColumns.add(column);
+        this.keyOrders.add(sortOrder);
+        return this;
+    }
+
+    /**
+     * Get the SQL for the query.
+     * @param seek  Whether to include the predicate that seeks past a cursor's key
+     * @return SQL, with parameters in the order returned by getParameters().
+     */
+    public String getSql(boolean seek) {
+        this.checkKey();
+
+        List<String> predicates = new ArrayList<String>();
+        for (String condition : this.conditions) {
+            predicates.add("(" + condition + ")");
+        }
+
+        if (seek) {
+            predicates.add(this.getSeekPredicate());
+        }
+
+        StringBuilder sql = new StringBuilder(this.select);
+        for (int i = 0; i < predicates.size(); i++) {
+            sql.append(i == 0 ? " where " : " and ");
+            sql.append(predicates.get(i));
+        }
+
+        for (int i = 0; i < this.keyColumns.size(); i++) {
+            sql.append(i == 0 ? " order by " : ", ");
+            sql.append(this.keyColumns.get(i));
+            sql.append(this.keyOrders.get(i) == SortOrder.DESCENDING ? " desc" : " asc");
+        }
+
+        return sql.toString();
+    }
+
+    /**
+     * Get the parameters for the query.
+     * @param key  Key values from a cursor, or null for the first page
+     * @return Parameters, in the order they appear in getSql(key != null).
+     */
+    public List<Object> getParameters(Object[] key) {
+        List<Object> result = new ArrayList<Object>(this.parameters);
+        if (key != null) {
+            this.checkKey();
+            if (key.length != this.keyColumns.size()) {
+                throw new IllegalArgumentException("Cursor has " + key.length + " key values, but the query has "
+                                                   + this.keyColumns.size() + " key columns.");
+            }
+
+            for (int i = 0; i < key.length; i++) {
+                for (int j = 0; j <= i; j++) {
+                    result.add(key[j]);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /** Get the seek predicate: (k1 > ?) or (k1 = ? and k2 > ?) or ..., with < for descending columns. */
+    private String getSeekPredicate() {
+        StringBuilder predicate = new StringBuilder("(");
+        for (int i = 0; i < this.keyColumns.size(); i++) {
+            predicate.append(i == 0 ? "(" : " or (");
+            for (int j = 0; j < i; j++) {
+                predicate.append(this.keyColumns.get(j)).append(" = ? and ");
+            }
+
+            predicate.append(this.keyColumns.get(i));
+            predicate.append(this.keyOrders.get(i) == SortOrder.DESCENDING ? " < ?)" : " > ?)");
+        }
+
+        return predicate.append(")").toString();
+    }
+
+    /** Make sure there is a key to page by. */
+    private void checkKey() {
+        if (this.keyColumns.isEmpty()) {
+            throw new DaoException("Keyset query needs at least one key column.");
+        }
+    }
+
+    /** Get the result set label for a key column, which is the part of the column after the last dot. */
+    public String getKeyLabel(int index) {
+        String column = this.keyColumns.get(index);
+        return column.substring(column.lastIndexOf('.') + 1);
+    }
+
+    public String getSelect() {
+        return this.select;
+    }
+
+    public IRowMapper<T> getMapper() {
+        return this.mapper;
+    }
+
+    public List<String> getKeyColumns() {
+        return Collections.unmodifiableList(this.keyColumns);
+    }
+
+    public List<SortOrder> getKeyOrders() {
+        return Collections.unmodifiableList(this.keyOrders);
+    }
+
+}
@@ -0,0 +1,180 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ *              C E D A R
+ *          S O L U T I O N S       "Software done right."
+ *           S O F T W A R E
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Copyright (c) 2016 Kenneth J. Pronovici.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the Apache License, Version 2.0.
+ * See LICENSE for more information about the licensing terms.
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ *
+ * Author   : Kenneth J. Pronovici <pronovic@ieee.org>
+ * Language : Java 6
+ * Project  : Common Java Functionality
+ *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package com.cedarsolutions.dao.jdbc.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of prepared statements for a single connection, keyed by SQL.
+ *
+ * <p>
+ * Preparing a statement means a round trip to the database for most
+ * drivers, so a DAO that runs the same handful of statements over and over
+ * (a batch job, or paging through a large table) should only prepare each
+ * of them once per connection.  The cache holds at most maxSize statements
+ * and closes the least recently used one when it is full.  Pooling
+ * statements across connections is left to the connection pool, for those
+ * pools that support it.
+ * </p>
+ *
+ * <p>
+ * Like the connection it belongs to, a cache must only be used by one
+ * thread at a time.  Callers close their result sets, but hand statements
+ * back via release() rather than closing them.
+ * </p>
+ *
+ * @author Kenneth J. Pronovici <pronovic@ieee.org>
+ */
+public class StatementCache {
+
+    /** Default maximum number of cached statements. */
+    public static final int DEFAULT_MAX_SIZE = 25;
+
+    /** Connection that statements are prepared on. */
+    private final Connection connection;
+
+    /** Maximum number of cached statements, or 0 to disable caching. */
+    private final int maxSize;
+
+    /** Cached statements, in least-recently-used order. */
+    private final LinkedHashMap<String, PreparedStatement> statements;
+
+    /** Number of times a cached statement was reused. */
+    private long hits;
+
+    /** Number of times a statement had to be prepared. */
+    private long misses;
+
+    /** Create a cache with the default maximum size. */
+    public StatementCache(Connection connection) {
+        this(connection, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Create a cache.
+     * @param connection  Connection that statements are prepared on
+     * @param maxSize     Maximum number of cached statements, or 0 to disable caching
+     */
+    public StatementCache(Connection connection, int maxSize) {
+        if (connection == null) {
+            throw new IllegalArgumentException("Connection is required.");
+        }
+
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Max size must not be negative.");
+        }
+
+        this.connection = connection;
+        this.maxSize = maxSize;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+    }
+
+    /**
+     * Get a prepared statement for some SQL, reusing a cached one if possible.
+     * The statement's parameters are cleared before it is returned.
+     * @param sql  SQL to prepare
+     * @return Prepared statement, which must be handed back via release().
+     * @throws SQLException If the statement cannot be prepared.
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = this.statements.get(sql);
+        if (statement != null) {
+            this.hits++;
+            statement.clearParameters();
+            return statement;
+        }
+
+        this.misses++;
+        statement = this.connection.prepareStatement(sql);
+        if (this.maxSize > 0) {
+            this.statements.put(sql, statement);
+            this.evict();
+        }
+
+        return statement;
+    }
+
+    /** Hand back a statement from prepare(), which closes it only if caching is disabled. */
+    public void release(PreparedStatement statement) {
+        if (statement != null && this.maxSize == 0) {
+            closeQuietly(statement);
+        }
+    }
+
+    /** Close the least recently used statements until the cache is no bigger than its maximum size. */
+    private void evict() {
+        Iterator<Map.Entry<String, PreparedStatement>> iterator = this.statements.entrySet().iterator();
+        while (this.statements.size() > this.maxSize && iterator.hasNext()) {
+            PreparedStatement eldest = iterator.next().getValue();
+            iterator.remove();
+            closeQuietly(eldest);
+        }
+    }
+
+    /** Close all of the cached statements; the connection itself is not closed. */
+    public void close() {
+        for (PreparedStatement statement : this.statements.values()) {
+            closeQuietly(statement);
+        }
+
+        this.statements.clear();
+    }
+
+    /** Close a statement, ignoring errors, since there's nothing useful the caller can do about them. */
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // ignored
+        }
+    }
+
+    public Connection getConnection() {
+        return this.connection;
+    }
+
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /** Number of statements currently cached. */
+    public int getSize() {
+        return this.statements.size();
+    }
+
+    /** Number of times a cached statement was reused. */
+    public long getHits() {
+        return this.hits;
+    }
+
+    /** Number of times a statement had to be prepared. */
+    public long getMisses() {
+        return this.misses;
+    }
+
+}